@@ -0,0 +1,76 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.dto.ApiResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.jackson.databind.SerializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// GrapController response serialization: ApiResponse wrapping a keyset page of
+// queryForList-shaped rows. indent=true is what the console ships with
+// (spring.jackson.serialization.indent_output=true). No database.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApiResponseJsonBench {
+
+    @Param({"1", "50", "500"})
+    public int rows;
+
+    @Param({"true", "false"})
+    public boolean indent;
+
+    private JsonMapper mapper;
+    private ApiResponse<Map<String, Object>> response;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mapper = JsonMapper.builder()
+                .configure(SerializationFeature.INDENT_OUTPUT, indent)
+                .build();
+
+        OffsetDateTime t0 = OffsetDateTime.of(2026, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        List<Map<String, Object>> page = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            long id = 1_000_000L - i;
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("user_id", id);
+            row.put("full_name", "Bench User " + id);
+            row.put("email", "user." + id + "@example.com");
+            row.put("phone", "555-" + (1000 + i % 9000));
+            row.put("created_at", t0.plusSeconds(id));
+            page.add(row);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("limit", rows);
+        body.put("users", page);
+        body.put("next_after", rows == 0 ? null : 1_000_000L - rows + 1);
+        response = ApiResponse.ok(body);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return mapper.writeValueAsBytes(response);
+    }
+}
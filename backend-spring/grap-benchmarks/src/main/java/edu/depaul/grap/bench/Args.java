@@ -0,0 +1,65 @@
+package edu.depaul.grap.bench;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// --key=value command-line options for the seeder and load test
+final class Args {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Args(String[] argv) {
+        for (String a : argv) {
+            if (!a.startsWith("--")) throw new IllegalArgumentException("expected --key=value, got " + a);
+            int eq = a.indexOf('=');
+            if (eq < 0) values.put(a.substring(2), "true");
+            else values.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+    }
+
+    String str(String key, String dflt) {
+        return values.getOrDefault(key, dflt);
+    }
+
+    int integer(String key, int dflt) {
+        String v = values.get(key);
+        return (v == null) ? dflt : Integer.parseInt(v.trim());
+    }
+
+    boolean bool(String key, boolean dflt) {
+        String v = values.get(key);
+        return (v == null) ? dflt : Boolean.parseBoolean(v.trim());
+    }
+
+    int[] ints(String key, String dflt) {
+        String[] parts = str(key, dflt).split(",");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Integer.parseInt(parts[i].trim());
+        return out;
+    }
+
+    // name:count,name:count (empty when absent)
+    Map<String, Integer> counts(String key) {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (String part : str(key, "").split(",")) {
+            if (part.isBlank()) continue;
+            int c = part.indexOf(':');
+            if (c < 0) out.put(part.trim(), 1);
+            else out.put(part.substring(0, c).trim(), Integer.parseInt(part.substring(c + 1).trim()));
+        }
+        return out;
+    }
+
+    // name=weight,name=weight (insertion order kept)
+    Map<String, Integer> weights(String key, String dflt) {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (String part : str(key, dflt).split(",")) {
+            if (part.isBlank()) continue;
+            int eq = part.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected name=weight in --" + key + ": " + part);
+            out.put(part.substring(0, eq).trim(), Integer.parseInt(part.substring(eq + 1).trim()));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,83 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.audit.AuditHashing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// CPU side of audit verification (AuditSealer.verify) for one block: canonical
+// encoding, leaf hash, chain link per row, then the Merkle root. Scores are rows
+// per second per thread (4096 rows per invocation); run with -t N to see how the
+// hashing scales with verify-threads, and compare with the rows_per_sec a real
+// /verify reports to see how much of it is the database read.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class AuditMerkleBench {
+
+    // grap.audit-seal.block-size default
+    private static final int ROWS = 4096;
+    private static final String TABLE = "deletion_audit";
+
+    private Object[][] rows;
+    private byte[][] rowHashes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        OffsetDateTime t0 = OffsetDateTime.of(2026, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        rows = new Object[ROWS][];
+        rowHashes = new byte[ROWS][];
+        // same ATTEMPT / BLOCKED / SUCCESS mix as sql/bench/audit_synthetic.sql
+        for (int g = 0; g < ROWS; g++) {
+            boolean blocked = g % 10 == 0;
+            rows[g] = new Object[]{
+                    (long) g + 1, 1L + g % 2_000_000,
+                    blocked ? "CRYPTO_ERASE_BLOCKED" : g % 2 == 0 ? "CRYPTO_ERASE_ATTEMPT" : "CRYPTO_ERASE_SUCCESS",
+                    blocked ? "Active legal hold" : "ALL",
+                    blocked, g % 2 == 1 ? 3 : 0, t0.plusNanos(g * 7_000_000L)};
+            rowHashes[g] = AuditHashing.leaf(TABLE, AuditHashing.canonical(rows[g]));
+        }
+    }
+
+    // what a block check does: recompute every leaf from the columns, chain, root
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public byte[] verifyBlock() {
+        byte[] chain = new byte[AuditHashing.HASH_BYTES];
+        List<byte[]> leaves = new ArrayList<>(ROWS);
+        for (Object[] r : rows) {
+            byte[] leaf = AuditHashing.leaf(TABLE, AuditHashing.canonical(r));
+            chain = AuditHashing.chain(chain, leaf);
+            leaves.add(leaf);
+        }
+        byte[] root = AuditHashing.merkleRoot(leaves);
+        return AuditHashing.chain(chain, root);
+    }
+
+    // closing a block from stored row hashes (the sealer's side)
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public byte[] merkleRootOnly() {
+        return AuditHashing.merkleRoot(List.of(rowHashes));
+    }
+}
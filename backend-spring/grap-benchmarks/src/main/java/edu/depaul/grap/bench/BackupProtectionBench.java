@@ -0,0 +1,90 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.catalog.BackupCatalogMigration;
+import edu.depaul.grap.dao.GrapDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Legal-hold backup protection for one held user who appears in every backup,
+// against either membership format (sql/25_incremental_protection.sql).
+// protectBackups: the first call (in warmup) covers the whole history and
+// advances the hold's watermark; later calls find nothing above it, so the
+// score is the steady-state cost, independent of backups.
+// protectNewBackup: one new backup containing the user, then the call; the
+// membership write already covers it, the call reads only that backup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BackupProtectionBench {
+
+    static final long HELD_USER = 1;
+
+    @Param({"100", "1000"})
+    public int backups;
+
+    @Param({"1000", "10000"})
+    public int usersPerBackup;
+
+    @Param({"table", "bitmap"})
+    public String catalog;
+
+    private BenchContext ctx;
+    private GrapDao dao;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ctx = BenchContext.start(Map.of("grap.backup-catalog.format", catalog));
+        dao = ctx.dao();
+        ctx.resetData();
+
+        // backup_user_index.user_id has no FK to users: membership only
+        ctx.jdbc().update(
+                "INSERT INTO backup_runs(backup_type, started_at, ended_at) " +
+                        "SELECT CASE WHEN g % 7 = 1 THEN 'FULL' ELSE 'INCR' END, " +
+                        "now() - g * interval '1 hour', now() - g * interval '1 hour' + interval '10 minutes' " +
+                        "FROM generate_series(1, ?) g", backups);
+        ctx.jdbc().update(
+                "INSERT INTO backup_user_index(backup_id, user_id) " +
+                        "SELECT b.backup_id, u FROM backup_runs b, generate_series(1, ?) u", usersPerBackup);
+        ctx.jdbc().execute("ANALYZE backup_runs");
+        ctx.jdbc().execute("ANALYZE backup_user_index");
+        if ("bitmap".equals(catalog)) ctx.bean(BackupCatalogMigration.class).migrate();
+
+        dao.placeLegalHold(HELD_USER, "bench");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> protectBackups() {
+        return dao.protectBackupsForLegalHold(HELD_USER);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> protectNewBackup() {
+        long backupId = ((Number) dao.createBackupRun("INCR", false).get("backup_id")).longValue();
+        dao.addUserToBackup(backupId, HELD_USER);
+        return dao.protectBackupsForLegalHold(HELD_USER);
+    }
+}
@@ -0,0 +1,153 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.GrapComplianceConsoleApplication;
+import edu.depaul.grap.dao.GrapDao;
+import edu.depaul.grap.dto.CreateUserRequest;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// The console's Spring context (no web server) pointed at the benchmark database.
+//
+// Connection settings come from environment variables, because JMH forks inherit
+// the environment but not -D flags:
+//   GRAP_BENCH_URL       jdbc:postgresql://localhost:5432/grap_bench
+//   GRAP_BENCH_USER      postgres
+//   GRAP_BENCH_PASSWORD  postgres
+//   GRAP_BENCH_SQL_DIR   ../../sql      (sql/ scripts, applied when GRAP_BENCH_APPLY_SCHEMA=true)
+//
+// Benchmarks reset and seed their own data: point this at a scratch database only.
+public final class BenchContext implements AutoCloseable {
+
+    private final ConfigurableApplicationContext ctx;
+    private final JdbcTemplate jdbc;
+
+    private BenchContext(ConfigurableApplicationContext ctx) {
+        this.ctx = ctx;
+        this.jdbc = ctx.getBean(JdbcTemplate.class);
+    }
+
+    public static BenchContext start(Map<String, Object> overrides) {
+        Map<String, Object> props = new HashMap<>();
+        props.put("spring.datasource.url", env("GRAP_BENCH_URL", "jdbc:postgresql://localhost:5432/grap_bench"));
+        props.put("spring.datasource.username", env("GRAP_BENCH_USER", "postgres"));
+        props.put("spring.datasource.password", env("GRAP_BENCH_PASSWORD", "postgres"));
+        props.put("spring.main.banner-mode", "off");
+        props.put("logging.level.root", "WARN");
+        props.put("grap.restore.resume-on-startup", "false");
+        props.putAll(overrides);
+
+        if (Boolean.parseBoolean(env("GRAP_BENCH_APPLY_SCHEMA", "false"))) {
+            applySchema(props);
+        }
+
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(GrapComplianceConsoleApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(props)
+                .run();
+        return new BenchContext(ctx);
+    }
+
+    static String env(String name, String dflt) {
+        String v = System.getenv(name);
+        return (v == null || v.isBlank()) ? dflt : v;
+    }
+
+    // sql/NN_*.sql in file-name order; each file is one multi-statement execute
+    // (pgjdbc splits statements itself and understands $$ bodies)
+    private static void applySchema(Map<String, Object> props) {
+        Path dir = Path.of(env("GRAP_BENCH_SQL_DIR", "../../sql"));
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().matches("\\d\\d_.*\\.sql")).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (Connection con = java.sql.DriverManager.getConnection(
+                (String) props.get("spring.datasource.url"),
+                (String) props.get("spring.datasource.username"),
+                (String) props.get("spring.datasource.password"));
+             Statement st = con.createStatement()) {
+            for (Path f : files) st.execute(Files.readString(f));
+        } catch (Exception e) {
+            throw new IllegalStateException("applying " + dir + " failed", e);
+        }
+    }
+
+    public <T> T bean(Class<T> type) {
+        return ctx.getBean(type);
+    }
+
+    public JdbcTemplate jdbc() {
+        return jdbc;
+    }
+
+    public GrapDao dao() {
+        return ctx.getBean(GrapDao.class);
+    }
+
+    // Empty every table the benchmarks write to. The audit tables refuse TRUNCATE
+    // (sql/31_audit_hash_chain.sql), so this runs with triggers off: replica role,
+    // for this transaction only (superuser or a granted session_replication_role).
+    public void resetData() {
+        ctx.getBean(TransactionTemplate.class).executeWithoutResult(status -> {
+            jdbc.execute("SET LOCAL session_replication_role = replica");
+            jdbc.execute("""
+                TRUNCATE users, users_shadow, key_store, legal_holds, backup_runs,
+                         deletion_audit, backup_protection_audit, key_invalidation_log, restore_jobs,
+                         erasure_jobs, reencrypt_jobs, key_tombstones, audit_seal_blocks, audit_seal_verifications
+                RESTART IDENTITY CASCADE
+            """);
+        });
+        // the audit chains start over with the emptied tables
+        jdbc.update("""
+            UPDATE audit_seal_state
+            SET last_seq = 0, last_chain_hash = DEFAULT, block_no = 0, block_last_seq = 0,
+                block_chain_hash = DEFAULT, block_hash = DEFAULT, sealed_at = NULL
+        """);
+    }
+
+    // n users through the batch ingest path (users + encrypted shadow + keys)
+    public void seedUsers(int n, String emailTag) {
+        List<CreateUserRequest> batch = new ArrayList<>(5000);
+        for (int i = 0; i < n; i++) {
+            CreateUserRequest r = new CreateUserRequest();
+            r.full_name = "Bench User " + i;
+            r.email = "seed+" + emailTag + "." + i + "@example.com";
+            r.phone = "555-" + (1000 + i % 9000);
+            batch.add(r);
+            if (batch.size() == 5000) {
+                dao().createUsersBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) dao().createUsersBatch(batch);
+        jdbc.execute("ANALYZE users");
+        jdbc.execute("ANALYZE users_shadow");
+        jdbc.execute("ANALYZE key_store");
+    }
+
+    public long maxUserId() {
+        Long v = jdbc.queryForObject("SELECT coalesce(max(user_id), 0) FROM users", Long.class);
+        return (v == null) ? 0 : v;
+    }
+
+    @Override
+    public void close() {
+        ctx.close();
+    }
+}
@@ -0,0 +1,76 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.metrics.DaoTimer;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost DaoTimer adds to a DAO call: the same trivial method called directly,
+// through a bare class proxy, and through a proxy carrying DaoTimer
+// (Prometheus registry, percentile histogram on). The difference between the
+// last two is the timer; compare it with the DAO latencies it wraps (HoldCheckBench,
+// ErasureBench). Run with -t 8 as well to see contention on the shared histogram.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class DaoTimerOverheadBench {
+
+    public static class Target {
+        public long work(long x) {
+            return x * 31 + 7;
+        }
+    }
+
+    private Target direct;
+    private Target bareProxy;
+    private Target timedProxy;
+    private long x;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        direct = new Target();
+        bareProxy = proxy(null);
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        timedProxy = proxy(new DaoTimer(() -> registry));
+    }
+
+    private static Target proxy(DaoTimer timer) {
+        ProxyFactory pf = new ProxyFactory(new Target());
+        pf.setProxyTargetClass(true);
+        if (timer != null) pf.addAdvice(timer);
+        return (Target) pf.getProxy();
+    }
+
+    @Benchmark
+    public long direct() {
+        return direct.work(x++);
+    }
+
+    @Benchmark
+    public long bareProxy() {
+        return bareProxy.work(x++);
+    }
+
+    @Benchmark
+    public long timedProxy() {
+        return timedProxy.work(x++);
+    }
+}
@@ -0,0 +1,136 @@
+package edu.depaul.grap.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Database-side counters for a load step: pg_stat_database / pg_stat_user_tables
+// deltas over the step, plus peaks of pg_stat_activity sampled once a second.
+// Cumulative statistics are flushed by backends about once a second, so very
+// short steps under-count.
+final class DbCounters implements AutoCloseable {
+
+    private static final String DATABASE = """
+            SELECT xact_commit, xact_rollback, blks_read, blks_hit, tup_returned, tup_fetched,
+                   tup_inserted, tup_updated, tup_deleted, temp_files, temp_bytes, deadlocks
+            FROM pg_stat_database WHERE datname = current_database()
+            """;
+
+    // partitions (<table>_pYYYYMM, <table>_pdefault) are summed under their table
+    private static final String TABLES = """
+            SELECT t.name AS relname,
+                   sum(n_tup_ins)::bigint AS n_tup_ins, sum(n_tup_upd)::bigint AS n_tup_upd,
+                   sum(n_tup_del)::bigint AS n_tup_del, sum(seq_scan)::bigint AS seq_scan,
+                   sum(coalesce(idx_scan, 0))::bigint AS idx_scan
+            FROM pg_stat_user_tables s,
+                 LATERAL (SELECT regexp_replace(s.relname, '_p([0-9]{6}|default)$', '') AS name) t
+            WHERE s.schemaname = 'public'
+              AND t.name IN ('users', 'users_shadow', 'key_store', 'legal_holds', 'backup_runs',
+                             'backup_user_index', 'backup_user_bitmap', 'deletion_audit',
+                             'backup_protection_audit', 'key_invalidation_log', 'key_tombstones')
+            GROUP BY t.name
+            """;
+
+    private static final String ACTIVITY = """
+            SELECT count(*) FILTER (WHERE state = 'active'),
+                   count(*) FILTER (WHERE wait_event_type = 'Lock'),
+                   count(*)
+            FROM pg_stat_activity WHERE datname = current_database() AND pid <> pg_backend_pid()
+            """;
+
+    private final Connection con;
+    private final Connection sampler;
+    private final AtomicLong peakActive = new AtomicLong();
+    private final AtomicLong peakLockWaits = new AtomicLong();
+    private final AtomicLong peakConnections = new AtomicLong();
+    private Thread samplerThread;
+    private Map<String, Long> start;
+
+    DbCounters(String url, String user, String password) throws SQLException {
+        this.con = DriverManager.getConnection(url, user, password);
+        this.sampler = DriverManager.getConnection(url, user, password);
+    }
+
+    void begin() throws SQLException {
+        peakActive.set(0);
+        peakLockWaits.set(0);
+        peakConnections.set(0);
+        start = snapshot();
+        samplerThread = Thread.ofPlatform().daemon().name("db-sampler").start(this::sampleLoop);
+    }
+
+    // counter deltas since begin(), then the activity peaks
+    Map<String, Long> end() throws SQLException {
+        samplerThread.interrupt();
+        try {
+            samplerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Map<String, Long> now = snapshot();
+        Map<String, Long> delta = new LinkedHashMap<>();
+        now.forEach((k, v) -> delta.put(k, v - start.getOrDefault(k, 0L)));
+        delta.put("peak_active_backends", peakActive.get());
+        delta.put("peak_lock_waits", peakLockWaits.get());
+        delta.put("peak_connections", peakConnections.get());
+        return delta;
+    }
+
+    private Map<String, Long> snapshot() throws SQLException {
+        Map<String, Long> m = new LinkedHashMap<>();
+        try (Statement st = con.createStatement()) {
+            // drop the statistics snapshot cached by an earlier read in this session
+            st.execute("SELECT pg_stat_clear_snapshot()");
+            try (ResultSet rs = st.executeQuery(DATABASE)) {
+                if (rs.next()) {
+                    int n = rs.getMetaData().getColumnCount();
+                    for (int i = 1; i <= n; i++) m.put(rs.getMetaData().getColumnLabel(i), rs.getLong(i));
+                }
+            }
+            try (ResultSet rs = st.executeQuery(TABLES)) {
+                while (rs.next()) {
+                    String t = rs.getString("relname");
+                    m.put(t + ".ins", rs.getLong("n_tup_ins"));
+                    m.put(t + ".upd", rs.getLong("n_tup_upd"));
+                    m.put(t + ".del", rs.getLong("n_tup_del"));
+                    m.put(t + ".seq_scan", rs.getLong("seq_scan"));
+                    m.put(t + ".idx_scan", rs.getLong("idx_scan"));
+                }
+            }
+        }
+        return m;
+    }
+
+    private void sampleLoop() {
+        try (Statement st = sampler.createStatement()) {
+            while (!Thread.currentThread().isInterrupted()) {
+                try (ResultSet rs = st.executeQuery(ACTIVITY)) {
+                    if (rs.next()) {
+                        peakActive.accumulateAndGet(rs.getLong(1), Math::max);
+                        peakLockWaits.accumulateAndGet(rs.getLong(2), Math::max);
+                        peakConnections.accumulateAndGet(rs.getLong(3), Math::max);
+                    }
+                }
+                Thread.sleep(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            System.err.println("pg_stat_activity sampling stopped: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            sampler.close();
+        } finally {
+            con.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.dao.GrapDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.dao.DataAccessException;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// destroy_user_keys for one user, with and without an active legal hold.
+//
+// destroyViaDao is the console path: commit, evict, wait for every live key
+// cache node to ack (keyCache=true adds that wait). destroySqlOnly is the bare
+// function call, for the DB share of the cost.
+// A held user raises; the benchmark measures the time to the rejection.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ErasureBench {
+
+    @Param({"false", "true"})
+    public boolean held;
+
+    @Param({"false", "true"})
+    public boolean keyCache;
+
+    @Param({"10000"})
+    public int existingUsers;
+
+    private BenchContext ctx;
+    private GrapDao dao;
+    private long seq;
+    private long userId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // the cache only runs in app crypto mode
+        ctx = BenchContext.start(Map.of("grap.key-cache.enabled", String.valueOf(keyCache),
+                "grap.crypto.mode", keyCache ? "app" : "db"));
+        dao = ctx.dao();
+        ctx.resetData();
+        ctx.seedUsers(existingUsers, "erase");
+    }
+
+    // a fresh user with live keys for every call; not measured
+    @Setup(Level.Invocation)
+    public void nextUser() {
+        long n = seq++;
+        Map<String, Object> row = dao.createUser("Erase User " + n, "erase." + n + "@example.com", "555-0102");
+        userId = ((Number) row.get("user_id")).longValue();
+        if (held) dao.placeLegalHold(userId, "bench");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public int destroyViaDao() {
+        try {
+            return dao.destroyUserKeys(userId).keysDestroyed();
+        } catch (DataAccessException e) {
+            return -1;
+        }
+    }
+
+    @Benchmark
+    public int destroySqlOnly() {
+        try {
+            Integer v = ctx.jdbc().queryForObject("SELECT destroy_user_keys(?)", Integer.class, userId);
+            return (v == null) ? 0 : v;
+        } catch (DataAccessException e) {
+            return -1;
+        }
+    }
+}
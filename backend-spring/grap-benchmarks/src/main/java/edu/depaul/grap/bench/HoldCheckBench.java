@@ -0,0 +1,74 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.dao.GrapDao;
+import edu.depaul.grap.index.HeldUserIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// is_user_on_legal_hold (authoritative, one round trip) vs the in-process
+// HeldUserIndex screen. holds = active holds over a 10x larger user_id space,
+// so roughly one lookup in ten is a hit.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HoldCheckBench {
+
+    @Param({"1000", "100000"})
+    public int holds;
+
+    private BenchContext ctx;
+    private GrapDao dao;
+    private HeldUserIndex index;
+    private SplittableRandom rnd;
+    private long space;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ctx = BenchContext.start(Map.of());
+        dao = ctx.dao();
+        index = ctx.bean(HeldUserIndex.class);
+        ctx.resetData();
+
+        // legal_holds has no FK to users: no user rows needed
+        space = holds * 10L;
+        ctx.jdbc().update(
+                "INSERT INTO legal_holds(user_id, hold_reason) " +
+                        "SELECT g * 10, 'bench' FROM generate_series(1, ?) g", holds);
+        ctx.jdbc().execute("ANALYZE legal_holds");
+        index.rebuild();
+        rnd = new SplittableRandom(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public boolean sqlIsUserOnLegalHold() {
+        return dao.isUserOnLegalHold(1 + rnd.nextLong(space));
+    }
+
+    @Benchmark
+    public boolean heldUserIndex() {
+        return index.isPossiblyHeld(1 + rnd.nextLong(space));
+    }
+}
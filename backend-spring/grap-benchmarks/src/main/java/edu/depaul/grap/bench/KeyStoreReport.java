@@ -0,0 +1,315 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.crypto.SigningKey;
+import org.HdrHistogram.Histogram;
+import tools.jackson.databind.SerializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// Sizing and lookup-latency report for the partitioned key_store (sql/23), run against
+// a database loaded with sql/bench/key_store_synthetic.sql (e.g. 500M rows):
+//
+//   1. per-partition rows estimate, heap / index / total bytes, and key_tombstones
+//   2. single-connection latency of the key lookups the console makes, on keys
+//      sampled from the table:
+//        by_id          key_id with the bucket predicate (one partition)
+//        by_id_all      key_id alone (every partition's primary key probed)
+//        active_key     live key for (user, purpose, bucket) via ux_key_store_active
+//        user_keys      all keys of a user (idx_key_store_user, every partition)
+//        get_or_create  get_or_create_key() for an existing live key
+//   3. with --compact=true: compact_key_store_partition() on every month before the
+//      current one, VACUUM (ANALYZE), then 1 and 2 again on the same sample
+//
+// java -cp target/benchmarks.jar edu.depaul.grap.bench.KeyStoreReport \
+//      --samples=20000 --min-age-days=30 --rewrite-ratio=0.8 --compact=true --out=key-store.json
+//
+// Same GRAP_BENCH_* connection environment as the JMH benchmarks; tombstone digests are
+// keyed with GRAP_BENCH_SIGNING_KEY (base64), or a throwaway random key. Latencies are
+// service times of one client; run it on an otherwise idle database and repeat a
+// pass (--passes) so the first one's cache misses show up separately.
+public final class KeyStoreReport {
+
+    private static final JsonMapper JSON = JsonMapper.builder().build();
+
+    private static final String PARTITIONS = """
+            SELECT c.relname, greatest(c.reltuples, 0)::bigint AS rows_estimate,
+                   pg_table_size(c.oid) AS table_bytes, pg_indexes_size(c.oid) AS index_bytes,
+                   pg_total_relation_size(c.oid) AS total_bytes
+            FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'key_store'::regclass
+            ORDER BY c.relname
+            """;
+
+    private static final String[] OPS = {"by_id", "by_id_all", "active_key", "user_keys", "get_or_create"};
+
+    private static final String[] SQL = {
+            "SELECT key_material FROM key_store WHERE key_id = ? AND bucket_date = key_bucket(?)",
+            "SELECT key_material FROM key_store WHERE key_id = ?",
+            "SELECT key_id, key_material FROM key_store " +
+                    "WHERE user_id = ? AND purpose = ? AND bucket_date = ? AND destroyed_at IS NULL",
+            "SELECT key_id, purpose, bucket_date, destroyed_at FROM key_store WHERE user_id = ?",
+            "SELECT key_id, key_material FROM get_or_create_key(?, ?, ?)"
+    };
+
+    private record Sample(long keyId, long userId, String purpose, LocalDate bucket) {}
+
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args(argv);
+        String url = BenchContext.env("GRAP_BENCH_URL", "jdbc:postgresql://localhost:5432/grap_bench");
+        String user = BenchContext.env("GRAP_BENCH_USER", "postgres");
+        String password = BenchContext.env("GRAP_BENCH_PASSWORD", "postgres");
+        int samples = args.integer("samples", 20_000);
+        int passes = Math.max(1, args.integer("passes", 2));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        try (Connection con = DriverManager.getConnection(url, user, password)) {
+            List<Sample> all = sample(con, samples, false);
+            List<Sample> live = sample(con, samples, true);
+            report.put("samples", Map.of("any", all.size(), "live", live.size()));
+
+            report.put("before", phase(con, "before compaction", all, live, passes));
+
+            if (args.bool("compact", false)) {
+                long t0 = System.nanoTime();
+                List<Map<String, Object>> runs = compactAll(con,
+                        args.integer("min-age-days", 30), Double.parseDouble(args.str("rewrite-ratio", "0.8")));
+                double seconds = (System.nanoTime() - t0) / 1e9;
+                System.out.printf("%ncompaction: %d months in %.1fs%n", runs.size(), seconds);
+                runs.forEach(r -> System.out.println("  " + r));
+                report.put("compaction", Map.of("seconds", seconds, "months", runs));
+                report.put("after", phase(con, "after compaction", all, live, passes));
+            }
+        }
+
+        String out = args.str("out", "key-store-report.json");
+        JSON.rebuild().enable(SerializationFeature.INDENT_OUTPUT).build().writeValue(new File(out), report);
+        System.out.println("\nwrote " + out);
+    }
+
+    // ----------------------------
+    // Phases
+    // ----------------------------
+    private static Map<String, Object> phase(Connection con, String title, List<Sample> all, List<Sample> live,
+                                             int passes) throws SQLException {
+        Map<String, Object> p = new LinkedHashMap<>();
+        p.put("size", sizes(con));
+        List<Map<String, Object>> latency = new ArrayList<>();
+        for (int pass = 1; pass <= passes; pass++) latency.add(measure(con, all, live));
+        p.put("latency", latency);
+        print(title, p);
+        return p;
+    }
+
+    private static Map<String, Object> sizes(Connection con) throws SQLException {
+        List<Map<String, Object>> parts = new ArrayList<>();
+        long rows = 0, table = 0, index = 0, total = 0;
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(PARTITIONS)) {
+            while (rs.next()) {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("partition", rs.getString("relname"));
+                m.put("rows_estimate", rs.getLong("rows_estimate"));
+                m.put("table_bytes", rs.getLong("table_bytes"));
+                m.put("index_bytes", rs.getLong("index_bytes"));
+                m.put("total_bytes", rs.getLong("total_bytes"));
+                rows += rs.getLong("rows_estimate");
+                table += rs.getLong("table_bytes");
+                index += rs.getLong("index_bytes");
+                total += rs.getLong("total_bytes");
+                parts.add(m);
+            }
+        }
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("partitions", parts);
+        s.put("rows_estimate", rows);
+        s.put("table_bytes", table);
+        s.put("index_bytes", index);
+        s.put("total_bytes", total);
+        s.put("bytes_per_row", rows == 0 ? 0 : (double) total / rows);
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(
+                "SELECT count(*), coalesce(sum(cardinality(key_ids)), 0), pg_total_relation_size('key_tombstones') " +
+                        "FROM key_tombstones")) {
+            rs.next();
+            s.put("tombstones", Map.of("rows", rs.getLong(1), "keys", rs.getLong(2), "total_bytes", rs.getLong(3)));
+        }
+        return s;
+    }
+
+    // Each op runs once per sample, in the (shuffled) sample order.
+    private static Map<String, Object> measure(Connection con, List<Sample> all, List<Sample> live)
+            throws SQLException {
+        Map<String, Object> out = new LinkedHashMap<>();
+        for (int op = 0; op < OPS.length; op++) {
+            List<Sample> set = (op >= 2) ? live : all;
+            Histogram h = new Histogram(3_600_000_000L, 3);
+            long found = 0;
+            try (PreparedStatement ps = con.prepareStatement(SQL[op])) {
+                for (Sample s : set) {
+                    bind(ps, op, s);
+                    long t0 = System.nanoTime();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) found++;
+                        while (rs.next()) { }
+                    }
+                    h.recordValue(Math.max(1, (System.nanoTime() - t0) / 1000));
+                }
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("ops", h.getTotalCount());
+            m.put("found", found);
+            m.put("mean_ms", h.getMean() / 1000.0);
+            m.put("p50_ms", h.getValueAtPercentile(50.0) / 1000.0);
+            m.put("p99_ms", h.getValueAtPercentile(99.0) / 1000.0);
+            m.put("p999_ms", h.getValueAtPercentile(99.9) / 1000.0);
+            m.put("max_ms", h.getMaxValue() / 1000.0);
+            out.put(OPS[op], m);
+        }
+        return out;
+    }
+
+    private static void bind(PreparedStatement ps, int op, Sample s) throws SQLException {
+        switch (op) {
+            case 0 -> {
+                ps.setLong(1, s.keyId());
+                ps.setLong(2, s.keyId());
+            }
+            case 1 -> ps.setLong(1, s.keyId());
+            case 3 -> ps.setLong(1, s.userId());
+            default -> {
+                ps.setLong(1, s.userId());
+                ps.setString(2, s.purpose());
+                ps.setObject(3, s.bucket());
+            }
+        }
+    }
+
+    // ----------------------------
+    // Sample / compaction
+    // ----------------------------
+
+    // ~n rows from a block sample of every partition, shuffled
+    private static List<Sample> sample(Connection con, int n, boolean liveOnly) throws SQLException {
+        long estimate;
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(
+                "SELECT coalesce(sum(greatest(c.reltuples, 0)), 0)::bigint FROM pg_inherits i " +
+                        "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'key_store'::regclass")) {
+            rs.next();
+            estimate = rs.getLong(1);
+        }
+        // oversample 4x (destroyed rows, block clustering), capped at the whole table
+        double pct = (estimate == 0) ? 100.0 : Math.min(100.0, 400.0 * n / estimate);
+        List<Sample> out = new ArrayList<>(n);
+        try (PreparedStatement ps = con.prepareStatement(
+                "SELECT key_id, user_id, purpose, bucket_date FROM key_store TABLESAMPLE SYSTEM (?) " +
+                        (liveOnly ? "WHERE destroyed_at IS NULL " : "") + "LIMIT ?")) {
+            ps.setDouble(1, pct);
+            ps.setInt(2, n * 4);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new Sample(rs.getLong(1), rs.getLong(2), rs.getString(3),
+                            rs.getObject(4, LocalDate.class)));
+                }
+            }
+        }
+        SplittableRandom rnd = new SplittableRandom(42);
+        for (int i = out.size() - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            Sample t = out.get(i);
+            out.set(i, out.get(j));
+            out.set(j, t);
+        }
+        return out.size() > n ? new ArrayList<>(out.subList(0, n)) : out;
+    }
+
+    private static List<Map<String, Object>> compactAll(Connection con, int minAgeDays, double rewriteRatio)
+            throws SQLException {
+        List<LocalDate> months = new ArrayList<>();
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("""
+                SELECT to_date(substr(c.relname, 12), 'YYYYMM')
+                FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+                WHERE i.inhparent = 'key_store'::regclass AND c.relname ~ '^key_store_p[0-9]{6}$'
+                  AND to_date(substr(c.relname, 12), 'YYYYMM') < date_trunc('month', CURRENT_DATE)
+                ORDER BY 1
+                """)) {
+            while (rs.next()) months.add(rs.getObject(1, LocalDate.class));
+        }
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        SigningKey key = new SigningKey(BenchContext.env("GRAP_BENCH_SIGNING_KEY",
+                Base64.getEncoder().encodeToString(random)));
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (LocalDate m : months) {
+            long t0 = System.nanoTime();
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("month", m.toString().substring(0, 7));
+            try (PreparedStatement ps = con.prepareStatement(
+                    "SELECT * FROM compact_key_store_partition(?, ? * interval '1 day', ?::numeric, ?, ?)")) {
+                ps.setObject(1, m);
+                ps.setInt(2, minAgeDays);
+                ps.setDouble(3, rewriteRatio);
+                ps.setBytes(4, key.raw());
+                ps.setString(5, key.fingerprint());
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    r.put("mode", rs.getString("mode"));
+                    r.put("keys_compacted", rs.getLong("keys_compacted"));
+                    r.put("keys_kept", rs.getLong("keys_kept"));
+                }
+            }
+            r.put("compact_seconds", (System.nanoTime() - t0) / 1e9);
+            t0 = System.nanoTime();
+            if (!"NOOP".equals(r.get("mode"))) {
+                try (Statement st = con.createStatement()) {
+                    st.execute("VACUUM (ANALYZE) key_store_p" + m.toString().substring(0, 7).replace("-", ""));
+                }
+            }
+            r.put("vacuum_seconds", (System.nanoTime() - t0) / 1e9);
+            runs.add(r);
+        }
+        return runs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(String title, Map<String, Object> phase) {
+        Map<String, Object> size = (Map<String, Object>) phase.get("size");
+        System.out.printf("%n== %s ==%n", title);
+        System.out.printf("%-20s %14s %12s %12s %12s%n", "partition", "rows", "table MB", "index MB", "total MB");
+        for (Map<String, Object> p : (List<Map<String, Object>>) size.get("partitions")) {
+            System.out.printf("%-20s %14d %12.1f %12.1f %12.1f%n", p.get("partition"), (Long) p.get("rows_estimate"),
+                    mb(p.get("table_bytes")), mb(p.get("index_bytes")), mb(p.get("total_bytes")));
+        }
+        System.out.printf("%-20s %14d %12.1f %12.1f %12.1f   (%.1f bytes/row)%n", "TOTAL",
+                (Long) size.get("rows_estimate"), mb(size.get("table_bytes")), mb(size.get("index_bytes")),
+                mb(size.get("total_bytes")), (Double) size.get("bytes_per_row"));
+        System.out.println("tombstones: " + size.get("tombstones"));
+        int pass = 1;
+        for (Map<String, Object> l : (List<Map<String, Object>>) phase.get("latency")) {
+            System.out.printf("pass %d%n%-16s %8s %8s %9s %9s %9s %9s%n", pass++,
+                    "lookup", "ops", "found", "p50 ms", "p99 ms", "p999 ms", "max ms");
+            l.forEach((name, v) -> {
+                Map<String, Object> s = (Map<String, Object>) v;
+                System.out.printf("%-16s %8d %8d %9.3f %9.3f %9.3f %9.3f%n", name, (Long) s.get("ops"),
+                        (Long) s.get("found"), (Double) s.get("p50_ms"), (Double) s.get("p99_ms"),
+                        (Double) s.get("p999_ms"), (Double) s.get("max_ms"));
+            });
+        }
+    }
+
+    private static double mb(Object bytes) {
+        return ((Long) bytes) / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,461 @@
+package edu.depaul.grap.bench;
+
+import org.HdrHistogram.Histogram;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.SerializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Closed-loop load test against a running console (seed first with WorkloadSeeder).
+//
+// Each of N client threads picks an operation from the weighted mix, sends it,
+// waits for the response, and repeats (optionally after --think-ms). One step is
+// run per entry in --clients, so throughput and latency can be read off as the
+// client count grows; the step where throughput stops rising and p99 climbs is
+// that mix's saturation point.
+//
+// java -cp target/benchmarks.jar edu.depaul.grap.bench.LoadTest \
+//      --base-url=http://localhost:8080/api --clients=1,4,16,64 --warmup-seconds=10 \
+//      --duration-seconds=60 --mix=get_user=50,create_user=20,erase=5 --out=load.json
+//
+// --background=restore_drill:1 adds dedicated clients that run only that operation
+// for the whole step, outside the mix (e.g. reads measured while a restore runs).
+//
+// Latency is per request as the client saw it (send to full body read). A
+// closed loop slows down with the server, so these are service times, not the
+// latency an open-arrival workload would see past saturation.
+// Failures are non-200 responses and {"ok":false} bodies.
+public final class LoadTest {
+
+    static final String DEFAULT_MIX = "get_user=25,create_user=15,list_users=5,check_hold=10,"
+            + "place_hold=3,release_hold=3,erase=5,erase_burst=1,user_backups=10,backup_create=1,"
+            + "backup_add_user=10,protect=2,restore_ids=5,restore_drill=0";
+
+    private static final JsonMapper JSON = JsonMapper.builder().build();
+
+    // ----------------------------
+    // Operations
+    // ----------------------------
+    record Call(String method, String path, String body) {}
+
+    record Op(String name, Function<Client, Call> call) {}
+
+    // ids the operations draw from; filled from the database, then grown by the run
+    static final class Targets {
+        long minUser;
+        long maxUser;
+        long minBackup;
+        final AtomicLong maxBackup = new AtomicLong();
+        final AtomicLong nextIndexUser = new AtomicLong();
+        List<Long> heldUsers = List.of();
+        final ConcurrentLinkedQueue<Long> createdUsers = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Long> openHolds = new ConcurrentLinkedQueue<>();
+        final AtomicLong seq = new AtomicLong(System.currentTimeMillis());
+    }
+
+    static Map<String, Op> operations(Targets t) {
+        Map<String, Op> ops = new LinkedHashMap<>();
+        add(ops, "get_user", c -> get("/users/" + c.user()));
+        add(ops, "list_users", c -> get("/users?limit=100"));
+        add(ops, "create_user", c -> {
+            long n = t.seq.incrementAndGet();
+            return post("/users", "{\"full_name\":\"Load User " + n + "\",\"email\":\"load." + n
+                    + "@example.com\",\"phone\":\"555-0199\"}");
+        });
+        add(ops, "check_hold", c -> get("/admin/users/" + c.user() + "/holds"));
+        add(ops, "place_hold", c -> post("/admin/users/" + c.user() + "/holds", "{\"hold_reason\":\"load test\"}"));
+        add(ops, "release_hold", c -> {
+            Long holdId = t.openHolds.poll();
+            // nothing placed yet: fall back to a read so the mix keeps its shape
+            return (holdId == null) ? get("/admin/holds?limit=100") : post("/admin/holds/" + holdId + "/release", null);
+        });
+        // /users/{id}/destroy-keys calls destroy_user_keys_guarded, which sql/ does not
+        // define; single erasure goes through the bulk endpoint with one id instead
+        add(ops, "erase", c -> post("/admin/erasure/bulk", "{\"user_ids\":[" + c.erasable() + "]}"));
+        add(ops, "erase_async", c -> post("/users/" + c.erasable() + "/destroy-keys?async=true", null));
+        add(ops, "erase_burst", c -> {
+            StringBuilder ids = new StringBuilder();
+            for (int i = 0; i < 100; i++) ids.append(i == 0 ? "" : ",").append(c.user());
+            return post("/admin/erasure/bulk", "{\"user_ids\":[" + ids + "]}");
+        });
+        add(ops, "user_backups", c -> get("/admin/users/" + c.user() + "/backups?limit=100"));
+        add(ops, "backup_create", c -> post("/admin/backups", "{\"backup_type\":\"INCR\"}"));
+        // user_ids past anything indexed so far: each pair is new (the index has no FK to users)
+        add(ops, "backup_add_user", c -> post("/admin/backups/" + c.backup() + "/users",
+                "{\"user_id\":" + t.nextIndexUser.incrementAndGet() + "}"));
+        add(ops, "protect", c -> post("/admin/users/" + c.heldUser() + "/protect-backups", null));
+        add(ops, "restore_ids", c -> {
+            StringBuilder ids = new StringBuilder();
+            for (int i = 0; i < 10; i++) ids.append(i == 0 ? "" : ",").append(c.user());
+            return post("/admin/restore-users/ids", "{\"user_ids\":[" + ids + "]}");
+        });
+        // full restore drill; one job runs at a time, so overlapping drills fail fast
+        add(ops, "restore_drill", c -> post("/admin/restore-users?wait=true", null));
+        return ops;
+    }
+
+    private static void add(Map<String, Op> ops, String name, Function<Client, Call> call) {
+        ops.put(name, new Op(name, call));
+    }
+
+    private static Call get(String path) {
+        return new Call("GET", path, null);
+    }
+
+    private static Call post(String path, String body) {
+        return new Call("POST", path, body);
+    }
+
+    // ----------------------------
+    // Clients
+    // ----------------------------
+    static final class Client implements Runnable {
+        private final LoadTest run;
+        private final SplittableRandom rnd;
+        private final int fixedOp;
+        private final Histogram[] latency;
+        private final long[] errors;
+        private final String[] firstError;
+
+        // fixedOp < 0: draw from the weighted mix
+        Client(LoadTest run, SplittableRandom rnd, int fixedOp) {
+            this.run = run;
+            this.rnd = rnd;
+            this.fixedOp = fixedOp;
+            int n = run.mix.size();
+            this.latency = new Histogram[n];
+            for (int i = 0; i < n; i++) latency[i] = new Histogram(3_600_000_000L, 3);
+            this.errors = new long[n];
+            this.firstError = new String[n];
+        }
+
+        long user() {
+            return run.targets.minUser + rnd.nextLong(run.targets.maxUser - run.targets.minUser + 1);
+        }
+
+        // prefer users created during the run; erasing seeded users drains the pool
+        long erasable() {
+            Long id = run.targets.createdUsers.poll();
+            return (id != null) ? id : user();
+        }
+
+        long heldUser() {
+            List<Long> held = run.targets.heldUsers;
+            return held.isEmpty() ? user() : held.get(rnd.nextInt(held.size()));
+        }
+
+        long backup() {
+            long lo = run.targets.minBackup;
+            return lo + rnd.nextLong(run.targets.maxBackup.get() - lo + 1);
+        }
+
+        @Override
+        public void run() {
+            while (!run.stop) {
+                int i = (fixedOp >= 0) ? fixedOp : run.pick(rnd.nextInt(run.totalWeight));
+                Op op = run.mix.get(i);
+                Call call = op.call().apply(this);
+                long t0 = System.nanoTime();
+                String failure = run.send(op, call);
+                long micros = (System.nanoTime() - t0) / 1000;
+                if (run.recording) {
+                    latency[i].recordValue(Math.min(micros, latency[i].getHighestTrackableValue()));
+                    if (failure != null) {
+                        errors[i]++;
+                        if (firstError[i] == null) firstError[i] = failure;
+                    }
+                }
+                if (run.thinkMillis > 0) {
+                    try {
+                        Thread.sleep(run.thinkMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private final String baseUrl;
+    private final HttpClient http;
+    private final Targets targets;
+    // weighted operations first (indexes < cumulative.length), then background-only ones
+    private final List<Op> mix = new ArrayList<>();
+    private final Map<Integer, Integer> background = new LinkedHashMap<>();
+    private final int[] cumulative;
+    private final int totalWeight;
+    private final long thinkMillis;
+
+    private volatile boolean stop;
+    private volatile boolean recording;
+
+    LoadTest(String baseUrl, Targets targets, Map<String, Integer> weights, Map<String, Integer> backgroundClients,
+             long thinkMillis) {
+        this.baseUrl = baseUrl;
+        this.targets = targets;
+        this.thinkMillis = thinkMillis;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        Map<String, Op> all = operations(targets);
+        List<Integer> w = new ArrayList<>();
+        weights.forEach((name, weight) -> {
+            Op op = all.get(name);
+            if (op == null) throw new IllegalArgumentException("unknown operation " + name + "; known: " + all.keySet());
+            if (weight > 0) {
+                mix.add(op);
+                w.add(weight);
+            }
+        });
+        if (mix.isEmpty()) throw new IllegalArgumentException("mix has no operation with weight > 0");
+        cumulative = new int[w.size()];
+        int sum = 0;
+        for (int i = 0; i < w.size(); i++) cumulative[i] = (sum += w.get(i));
+        totalWeight = sum;
+
+        backgroundClients.forEach((name, clients) -> {
+            Op op = all.get(name);
+            if (op == null) throw new IllegalArgumentException("unknown operation " + name + "; known: " + all.keySet());
+            int i = mix.indexOf(op);
+            if (i < 0) {
+                mix.add(op);
+                i = mix.size() - 1;
+            }
+            if (clients > 0) background.put(i, clients);
+        });
+    }
+
+    int pick(int r) {
+        for (int i = 0; i < cumulative.length; i++) if (r < cumulative[i]) return i;
+        return cumulative.length - 1;
+    }
+
+    // null on success, otherwise a short reason
+    String send(Op op, Call call) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(baseUrl + call.path()))
+                .timeout(Duration.ofMinutes(30));
+        if ("POST".equals(call.method())) {
+            b.header("Content-Type", "application/json")
+                    .POST(call.body() == null ? HttpRequest.BodyPublishers.noBody()
+                            : HttpRequest.BodyPublishers.ofString(call.body()));
+        } else {
+            b.GET();
+        }
+        try {
+            HttpResponse<byte[]> res = http.send(b.build(), HttpResponse.BodyHandlers.ofByteArray());
+            if (res.statusCode() != 200) return "HTTP " + res.statusCode();
+            JsonNode body = JSON.readTree(res.body());
+            if (!body.path("ok").asBoolean(false)) {
+                return body.path("error").asString("") + " " + body.path("details").asString("");
+            }
+            remember(op, body.path("data"));
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        } catch (Exception e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+    }
+
+    // feed ids created by the run back into the pools (bounded)
+    private void remember(Op op, JsonNode data) {
+        switch (op.name()) {
+            case "create_user" -> {
+                if (targets.createdUsers.size() < 100_000) targets.createdUsers.add(data.path("user_id").asLong());
+            }
+            case "place_hold" -> {
+                if (targets.openHolds.size() < 100_000) targets.openHolds.add(data.path("hold_id").asLong());
+            }
+            case "backup_create" -> targets.maxBackup.accumulateAndGet(data.path("backup_id").asLong(), Math::max);
+            default -> {
+            }
+        }
+    }
+
+    // ----------------------------
+    // Steps
+    // ----------------------------
+    Map<String, Object> runStep(int clients, int warmupSeconds, int durationSeconds, DbCounters db) throws Exception {
+        stop = false;
+        recording = false;
+        SplittableRandom seed = new SplittableRandom(clients * 7919L);
+        List<Client> cs = new ArrayList<>(clients);
+        List<Thread> threads = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            Client c = new Client(this, seed.split(), -1);
+            cs.add(c);
+            threads.add(Thread.ofPlatform().daemon().name("load-client-" + i).start(c));
+        }
+        background.forEach((op, n) -> {
+            for (int i = 0; i < n; i++) {
+                Client c = new Client(this, seed.split(), op);
+                cs.add(c);
+                threads.add(Thread.ofPlatform().daemon().name("load-background-" + op + "-" + i).start(c));
+            }
+        });
+
+        Thread.sleep(warmupSeconds * 1000L);
+        db.begin();
+        long t0 = System.nanoTime();
+        recording = true;
+        Thread.sleep(durationSeconds * 1000L);
+        recording = false;
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+        Map<String, Long> dbDelta = db.end();
+
+        stop = true;
+        for (Thread t : threads) {
+            t.join(Duration.ofSeconds(60));
+            if (t.isAlive()) t.interrupt();
+        }
+
+        Map<String, Object> ops = new LinkedHashMap<>();
+        long totalOps = 0;
+        long totalErrors = 0;
+        Histogram all = new Histogram(3_600_000_000L, 3);
+        for (int i = 0; i < mix.size(); i++) {
+            Histogram h = new Histogram(3_600_000_000L, 3);
+            long errors = 0;
+            String firstError = null;
+            for (Client c : cs) {
+                h.add(c.latency[i]);
+                errors += c.errors[i];
+                if (firstError == null) firstError = c.firstError[i];
+            }
+            all.add(h);
+            totalOps += h.getTotalCount();
+            totalErrors += errors;
+            ops.put(mix.get(i).name(), stats(h, errors, elapsed, firstError));
+        }
+
+        Map<String, Object> step = new LinkedHashMap<>();
+        step.put("clients", clients);
+        step.put("background", background.entrySet().stream()
+                .collect(Collectors.toMap(e -> mix.get(e.getKey()).name(), Map.Entry::getValue)));
+        step.put("seconds", elapsed);
+        step.put("total", stats(all, totalErrors, elapsed, null));
+        step.put("operations", ops);
+        step.put("database", dbDelta);
+        return step;
+    }
+
+    private static Map<String, Object> stats(Histogram h, long errors, double seconds, String firstError) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("ops", h.getTotalCount());
+        m.put("errors", errors);
+        m.put("ops_per_sec", h.getTotalCount() / seconds);
+        m.put("p50_ms", h.getValueAtPercentile(50.0) / 1000.0);
+        m.put("p99_ms", h.getValueAtPercentile(99.0) / 1000.0);
+        m.put("p999_ms", h.getValueAtPercentile(99.9) / 1000.0);
+        m.put("max_ms", h.getMaxValue() / 1000.0);
+        if (firstError != null) m.put("first_error", firstError);
+        return m;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> step) {
+        System.out.printf("%n== %d clients, %.0fs ==%n", (Integer) step.get("clients"), (Double) step.get("seconds"));
+        System.out.printf("%-16s %10s %8s %10s %9s %9s %9s %9s%n",
+                "operation", "ops", "errors", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        Map<String, Object> ops = new LinkedHashMap<>((Map<String, Object>) step.get("operations"));
+        ops.put("TOTAL", step.get("total"));
+        ops.forEach((name, v) -> {
+            Map<String, Object> s = (Map<String, Object>) v;
+            System.out.printf("%-16s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n", name,
+                    (Long) s.get("ops"), (Long) s.get("errors"), (Double) s.get("ops_per_sec"),
+                    (Double) s.get("p50_ms"), (Double) s.get("p99_ms"), (Double) s.get("p999_ms"),
+                    (Double) s.get("max_ms"));
+            if (s.containsKey("first_error")) System.out.println("    first error: " + s.get("first_error"));
+        });
+        System.out.println("database: " + step.get("database"));
+    }
+
+    // ----------------------------
+    // Entry point
+    // ----------------------------
+    public static void main(String[] argv) throws Exception {
+        Args args = new Args(argv);
+        String url = BenchContext.env("GRAP_BENCH_URL", "jdbc:postgresql://localhost:5432/grap_bench");
+        String user = BenchContext.env("GRAP_BENCH_USER", "postgres");
+        String password = BenchContext.env("GRAP_BENCH_PASSWORD", "postgres");
+
+        Targets targets = loadTargets(url, user, password);
+        LoadTest run = new LoadTest(args.str("base-url", "http://localhost:8080/api"), targets,
+                args.weights("mix", DEFAULT_MIX), args.counts("background"), args.integer("think-ms", 0));
+
+        List<Map<String, Object>> steps = new ArrayList<>();
+        try (DbCounters db = new DbCounters(url, user, password)) {
+            for (int clients : args.ints("clients", "1,4,16,64")) {
+                Map<String, Object> step = run.runStep(clients,
+                        args.integer("warmup-seconds", 10), args.integer("duration-seconds", 60), db);
+                print(step);
+                steps.add(step);
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("base_url", run.baseUrl);
+        report.put("mix", args.str("mix", DEFAULT_MIX));
+        report.put("background", args.str("background", ""));
+        report.put("think_ms", run.thinkMillis);
+        report.put("steps", steps);
+        String out = args.str("out", "load-results.json");
+        JSON.rebuild().enable(SerializationFeature.INDENT_OUTPUT).build().writeValue(new File(out), report);
+        System.out.println("\nwrote " + out);
+    }
+
+    private static Targets loadTargets(String url, String user, String password) throws Exception {
+        Targets t = new Targets();
+        try (Connection con = DriverManager.getConnection(url, user, password);
+             Statement st = con.createStatement()) {
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT coalesce(min(user_id), 1), coalesce(max(user_id), 1) FROM users")) {
+                rs.next();
+                t.minUser = rs.getLong(1);
+                t.maxUser = rs.getLong(2);
+            }
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT coalesce(min(backup_id), 1), coalesce(max(backup_id), 1) FROM backup_runs")) {
+                rs.next();
+                t.minBackup = rs.getLong(1);
+                t.maxBackup.set(rs.getLong(2));
+            }
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT greatest((SELECT coalesce(max(user_id), 0) FROM backup_user_index), " +
+                            "(SELECT coalesce(max(user_id), 0) FROM users)) + 1000000")) {
+                rs.next();
+                t.nextIndexUser.set(rs.getLong(1));
+            }
+            List<Long> held = new ArrayList<>();
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT DISTINCT user_id FROM legal_holds WHERE released_at IS NULL LIMIT 100000")) {
+                while (rs.next()) held.add(rs.getLong(1));
+            }
+            t.heldUsers = held;
+        }
+        if (t.maxUser <= t.minUser) System.err.println("users table is empty: run WorkloadSeeder first");
+        return t;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.restore.RestoreEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Full restore of users from users_shadow: the original single-statement
+// restore_users_from_shadow() vs the chunked RestoreEngine.
+// destroyedPct of users have their keys destroyed first, so they restore redacted.
+// Each iteration empties users; users_shadow has no FK to users and survives.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RestoreBench {
+
+    @Param({"10000", "100000"})
+    public int users;
+
+    @Param({"0", "10"})
+    public int destroyedPct;
+
+    private BenchContext ctx;
+    private RestoreEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ctx = BenchContext.start(Map.of("grap.crypto.mode", "db"));
+        engine = ctx.bean(RestoreEngine.class);
+        ctx.resetData();
+        ctx.seedUsers(users, "restore");
+        if (destroyedPct > 0) {
+            // held users don't exist here, so every call succeeds
+            ctx.jdbc().query(
+                    "SELECT destroy_user_keys(user_id) FROM users WHERE user_id % 100 < ?",
+                    rs -> {}, destroyedPct);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyUsers() {
+        ctx.jdbc().execute("TRUNCATE users CASCADE");
+        ctx.jdbc().execute("TRUNCATE restore_jobs CASCADE");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public Object legacySingleStatement() {
+        return ctx.jdbc().queryForObject("SELECT restore_users_from_shadow()", Object.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> chunkedEngine() {
+        return engine.runAndWait();
+    }
+}
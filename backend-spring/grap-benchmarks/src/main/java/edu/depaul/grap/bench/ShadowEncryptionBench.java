@@ -0,0 +1,94 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.dao.GrapDao;
+import edu.depaul.grap.dto.CreateUserRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// users_shadow encryption on the write path: trigger (db) vs JVM AES-GCM (app).
+// existingUsers sizes the tables the inserts land in.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ShadowEncryptionBench {
+
+    static final int BATCH = 100;
+
+    @Param({"db", "app"})
+    public String cryptoMode;
+
+    @Param({"10000", "100000"})
+    public int existingUsers;
+
+    private BenchContext ctx;
+    private GrapDao dao;
+    private long seq;
+    private long updateLo;
+    private long updateHi;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ctx = BenchContext.start(Map.of("grap.crypto.mode", cryptoMode));
+        dao = ctx.dao();
+        ctx.resetData();
+        ctx.seedUsers(existingUsers, "enc");
+        updateLo = 1;
+        updateHi = ctx.maxUserId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public Object insertUser() {
+        long n = seq++;
+        return dao.createUser("Insert User " + n, "ins." + n + "@example.com", "555-0100");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long insertBatch() {
+        List<CreateUserRequest> rows = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            long n = seq++;
+            CreateUserRequest r = new CreateUserRequest();
+            r.full_name = "Batch User " + n;
+            r.email = "batch." + n + "@example.com";
+            r.phone = "555-0101";
+            rows.add(r);
+        }
+        return dao.createUsersBatch(rows);
+    }
+
+    // db mode: users_shadow trigger re-encrypts the row. app mode has no JVM
+    // update path, so this measures the same trigger there too.
+    @Benchmark
+    public int updateEmail() {
+        long n = seq++;
+        long userId = updateLo + (n % (updateHi - updateLo + 1));
+        return ctx.jdbc().update("UPDATE users SET email = ? WHERE user_id = ?",
+                "upd." + n + "@example.com", userId);
+    }
+}
@@ -0,0 +1,102 @@
+package edu.depaul.grap.bench;
+
+import edu.depaul.grap.catalog.BackupCatalogMigration;
+import edu.depaul.grap.dao.GrapDao;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+// Seeds the benchmark database for LoadTest through the console's own DAO and SQL:
+//
+//   users            batch ingest (users + shadow + today's keys)
+//   key-buckets      extra past daily key buckets per user (ensure_user_keys)
+//   backups          backup_runs, each indexing users-per-backup users
+//   holds            active legal holds on the lowest user_ids
+//
+// java -cp target/benchmarks.jar edu.depaul.grap.bench.WorkloadSeeder \
+//      --users=1000000 --key-buckets=3 --backups=200 --users-per-backup=50000 --holds=10000
+//
+// --reset=true (default) truncates first. --crypto-mode and --catalog pick the
+// console settings the seed is written with (bitmap also fills backup_user_bitmap).
+public final class WorkloadSeeder {
+
+    public static void main(String[] argv) {
+        Args args = new Args(argv);
+        int users = args.integer("users", 100_000);
+        int keyBuckets = args.integer("key-buckets", 0);
+        int backups = args.integer("backups", 100);
+        int usersPerBackup = args.integer("users-per-backup", 10_000);
+        int holds = args.integer("holds", 1_000);
+        String catalog = args.str("catalog", "table");
+
+        try (BenchContext ctx = BenchContext.start(Map.of(
+                "grap.crypto.mode", args.str("crypto-mode", "db"),
+                "grap.backup-catalog.format", catalog))) {
+            GrapDao dao = ctx.dao();
+            if (args.bool("reset", true)) ctx.resetData();
+
+            long t0 = System.nanoTime();
+            ctx.seedUsers(users, "load" + System.currentTimeMillis());
+            step("users", users, t0);
+
+            t0 = System.nanoTime();
+            seedKeyBuckets(ctx, keyBuckets);
+            step("key buckets", (long) keyBuckets * users, t0);
+
+            t0 = System.nanoTime();
+            long entries = seedBackups(ctx, dao, backups, usersPerBackup);
+            if ("bitmap".equals(catalog)) ctx.bean(BackupCatalogMigration.class).migrate();
+            step("backup index entries", entries, t0);
+
+            t0 = System.nanoTime();
+            List<Long> held = ctx.jdbc().queryForList(
+                    "SELECT user_id FROM users ORDER BY user_id LIMIT ?", Long.class, holds);
+            for (Long id : held) dao.placeLegalHold(id, "load seed");
+            step("holds", held.size(), t0);
+
+            ctx.jdbc().execute("VACUUM ANALYZE");
+        }
+    }
+
+    // one ensure_user_keys call per past day, 10k users at a time
+    private static void seedKeyBuckets(BenchContext ctx, int days) {
+        if (days <= 0) return;
+        List<Long> ids = ctx.jdbc().queryForList("SELECT user_id FROM users ORDER BY user_id", Long.class);
+        for (int d = 1; d <= days; d++) {
+            LocalDate bucket = LocalDate.now().minusDays(d);
+            for (int i = 0; i < ids.size(); i += 10_000) {
+                List<Long> chunk = ids.subList(i, Math.min(ids.size(), i + 10_000));
+                ctx.jdbc().query(con -> {
+                    PreparedStatement ps = con.prepareStatement("SELECT count(*) FROM ensure_user_keys(?, ?)");
+                    ps.setArray(1, con.createArrayOf("bigint", chunk.toArray()));
+                    ps.setObject(2, bucket);
+                    return ps;
+                }, rs -> {});
+            }
+        }
+    }
+
+    // Backup runs through GrapDao; their membership is set-based (one INSERT per
+    // backup) because per-pair addUserToBackup calls would dominate the seed time.
+    // Each backup takes a random sample of users, so every user sits in ~backups*ratio runs.
+    private static long seedBackups(BenchContext ctx, GrapDao dao, int backups, int usersPerBackup) {
+        long total = 0;
+        for (int b = 0; b < backups; b++) {
+            Map<String, Object> run = dao.createBackupRun(b % 7 == 0 ? "FULL" : "INCR", false);
+            long backupId = ((Number) run.get("backup_id")).longValue();
+            total += ctx.jdbc().update(
+                    "INSERT INTO backup_user_index(backup_id, user_id) " +
+                            "SELECT ?, user_id FROM users ORDER BY random() LIMIT ?",
+                    backupId, usersPerBackup);
+        }
+        ctx.jdbc().execute("ANALYZE backup_user_index");
+        return total;
+    }
+
+    private static void step(String what, long n, long t0) {
+        double secs = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("seeded %,d %s in %.1fs%n", n, what, secs);
+    }
+}
@@ -1,8 +1,10 @@
 package edu.depaul.grap;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(scanBasePackages = "edu.depaul.grap")
+@EnableScheduling
 public class GrapComplianceConsoleApplication {
     public static void main(String[] args) {
         SpringApplication.run(GrapComplianceConsoleApplication.class, args);
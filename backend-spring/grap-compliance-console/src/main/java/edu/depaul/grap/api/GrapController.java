@@ -1,21 +1,116 @@
 package edu.depaul.grap.api;
 
+import edu.depaul.grap.audit.AuditExportService;
+import edu.depaul.grap.audit.AuditPartitionMaintenance;
+import edu.depaul.grap.audit.AuditSealer;
+import edu.depaul.grap.catalog.BackupCatalogMigration;
+import edu.depaul.grap.catalog.BackupProtectionSweeper;
+import edu.depaul.grap.catalog.ProtectionConsistencyCheck;
+import edu.depaul.grap.catalog.RetentionPlanner;
+import edu.depaul.grap.crypto.KeyMaterialCache;
+import edu.depaul.grap.crypto.KeyStoreMaintenance;
+import edu.depaul.grap.dao.AuditExportDao;
 import edu.depaul.grap.dao.GrapDao;
 import edu.depaul.grap.dto.ApiResponse;
+import edu.depaul.grap.dto.BulkEraseRequest;
 import edu.depaul.grap.dto.CreateUserRequest;
+import edu.depaul.grap.dto.RestoreUsersRequest;
+import edu.depaul.grap.dto.RetentionPlanRequest;
+import edu.depaul.grap.dto.ScreenHoldsRequest;
+import edu.depaul.grap.dto.StartErasureVerifyRequest;
+import edu.depaul.grap.dto.StartReencryptRequest;
+import edu.depaul.grap.dto.StartRestoreRequest;
+import edu.depaul.grap.erasure.BulkErasureService;
+import edu.depaul.grap.erasure.ErasureQueue;
+import edu.depaul.grap.erasure.ErasureVerifier;
+import edu.depaul.grap.events.EventFeed;
+import edu.depaul.grap.index.HeldUserIndex;
+import edu.depaul.grap.ingest.BackupManifestIngest;
+import edu.depaul.grap.ingest.ManifestReader;
+import edu.depaul.grap.ingest.UserIngestService;
+import edu.depaul.grap.reencrypt.ReencryptEngine;
+import edu.depaul.grap.restore.RestoreEngine;
+import edu.depaul.grap.web.Bulkheads;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api")
 public class GrapController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final GrapDao dao;
+    private final UserIngestService ingest;
+    private final BackupManifestIngest manifests;
+    private final BulkErasureService bulkErasure;
+    private final KeyMaterialCache keyCache;
+    private final HeldUserIndex heldIndex;
+    private final BackupCatalogMigration catalogMigration;
+    private final RestoreEngine restoreEngine;
+    private final AuditExportService auditExport;
+    private final Bulkheads bulkheads;
+    private final ErasureQueue erasureQueue;
+    private final ReencryptEngine reencryptEngine;
+    private final KeyStoreMaintenance keyStore;
+    private final AuditPartitionMaintenance auditPartitions;
+    private final BackupProtectionSweeper protectionSweeper;
+    private final ProtectionConsistencyCheck protectionCheck;
+    private final RetentionPlanner retentionPlanner;
+    private final ErasureVerifier erasureVerifier;
+    private final EventFeed eventFeed;
+    private final AuditSealer auditSealer;
+    private final int auditDefaultDays;
+    private final int auditMaxDays;
 
-    public GrapController(GrapDao dao) {
+    public GrapController(GrapDao dao, UserIngestService ingest, BackupManifestIngest manifests,
+                          BulkErasureService bulkErasure,
+                          KeyMaterialCache keyCache, HeldUserIndex heldIndex,
+                          BackupCatalogMigration catalogMigration, RestoreEngine restoreEngine,
+                          AuditExportService auditExport, Bulkheads bulkheads, ErasureQueue erasureQueue,
+                          ReencryptEngine reencryptEngine, KeyStoreMaintenance keyStore,
+                          AuditPartitionMaintenance auditPartitions, BackupProtectionSweeper protectionSweeper,
+                          ProtectionConsistencyCheck protectionCheck, RetentionPlanner retentionPlanner,
+                          ErasureVerifier erasureVerifier, EventFeed eventFeed, AuditSealer auditSealer,
+                          @Value("${grap.audit.default-window-days:30}") int auditDefaultDays,
+                          @Value("${grap.audit.max-window-days:366}") int auditMaxDays) {
         this.dao = dao;
+        this.ingest = ingest;
+        this.manifests = manifests;
+        this.bulkErasure = bulkErasure;
+        this.keyCache = keyCache;
+        this.heldIndex = heldIndex;
+        this.catalogMigration = catalogMigration;
+        this.restoreEngine = restoreEngine;
+        this.auditExport = auditExport;
+        this.bulkheads = bulkheads;
+        this.erasureQueue = erasureQueue;
+        this.reencryptEngine = reencryptEngine;
+        this.keyStore = keyStore;
+        this.auditPartitions = auditPartitions;
+        this.protectionSweeper = protectionSweeper;
+        this.protectionCheck = protectionCheck;
+        this.retentionPlanner = retentionPlanner;
+        this.erasureVerifier = erasureVerifier;
+        this.eventFeed = eventFeed;
+        this.auditSealer = auditSealer;
+        this.auditDefaultDays = Math.max(1, auditDefaultDays);
+        this.auditMaxDays = Math.max(this.auditDefaultDays, auditMaxDays);
     }
 
     // ----------------------------
@@ -44,17 +139,61 @@ public class GrapController {
         }
     }
 
+    // POST /api/users/batch
+    // body: [{"full_name":"...","email":"...","phone":"..."}, ...]
+    @PostMapping("/users/batch")
+    public ApiResponse<?> createUsersBatch(@RequestBody(required = false) List<CreateUserRequest> rows) {
+        if (rows == null || rows.isEmpty()) {
+            return ApiResponse.err("body must be a non-empty JSON array of users", null);
+        }
+        try {
+            return ApiResponse.ok(ingest.ingest(rows));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Invalid user row", e.getMessage());
+        } catch (IllegalStateException e) {
+            // a chunk failed; earlier chunks stay committed and the message says how many rows
+            return ApiResponse.err("Batch create users failed", e.getMessage());
+        }
+    }
+
+    // POST /api/users/import   (streamed body)
+    // Content-Type: text/csv            -> full_name,email,phone per line (header optional)
+    // Content-Type: application/x-ndjson -> one CreateUserRequest JSON object per line
+    @PostMapping(value = "/users/import", consumes = {"text/csv", "application/x-ndjson"})
+    public ApiResponse<?> importUsers(@RequestHeader("Content-Type") String contentType, InputStream body) {
+        var format = contentType.startsWith("text/csv")
+                ? UserIngestService.Format.CSV
+                : UserIngestService.Format.NDJSON;
+        try {
+            return ApiResponse.ok(ingest.ingest(body, format));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Invalid user row", e.getMessage());
+        } catch (IOException e) {
+            return ApiResponse.err("Reading import body failed", e.getMessage());
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Import users failed", e.getMessage());
+        }
+    }
+
     // GET /api/users?limit=50
+    // GET /api/users?limit=50&after=<next_after of the previous page>
     @GetMapping("/users")
-    public ApiResponse<?> listUsers(@RequestParam(value = "limit", defaultValue = "50") int limit) {
+    public ApiResponse<?> listUsers(@RequestParam(value = "limit", defaultValue = "50") int limit,
+                                    @RequestParam(value = "after", required = false) Long after) {
         try {
             int safe = Math.max(1, Math.min(limit, 500));
-            return ApiResponse.ok(Map.of("limit", safe, "rows", dao.listUsers(safe)));
+            return ApiResponse.ok(page("rows", dao.listUsers(after, safe), "user_id", safe));
         } catch (DataAccessException e) {
             return ApiResponse.err("List users failed", e.getMostSpecificCause().getMessage());
         }
     }
 
+    // GET /api/users?format=ndjson[&after=]  (every user from the cursor on, one JSON object per line)
+    @GetMapping(value = "/users", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamUsers(@RequestParam(value = "after", required = false) Long after) {
+        return ndjson(out -> dao.streamUsers(out, after));
+    }
+
     // GET /api/users/{id}
     @GetMapping("/users/{id}")
     public ApiResponse<?> getUser(@PathVariable("id") long id) {
@@ -78,17 +217,129 @@ public class GrapController {
     }
 
     // POST /api/users/{id}/destroy-keys
+    // ?async=true: queue the erasure and return its job (GET /api/erasure-jobs/{jobId});
+    // repeating the request while the job is open returns the same job
     @PostMapping("/users/{id}/destroy-keys")
-    public ApiResponse<?> destroyKeys(@PathVariable("id") long id) {
+    public ApiResponse<?> destroyKeys(@PathVariable("id") long id,
+                                      @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        if (async) {
+            try {
+                return ApiResponse.ok(erasureQueue.enqueue(List.of(id)).get(0));
+            } catch (IllegalStateException e) {
+                return ApiResponse.err("Queue erasure failed", e.getMessage());
+            } catch (DataAccessException e) {
+                return ApiResponse.err("Queue erasure failed", e.getMostSpecificCause().getMessage());
+            }
+        }
         try {
             // If destroy_user_keys_guarded does NOT exist in DB, change to dao.destroyUserKeys(id)
-            int destroyed = dao.destroyUserKeysGuarded(id);
-            return ApiResponse.ok(Map.of("user_id", id, "keys_destroyed", destroyed));
+            GrapDao.Erasure destroyed = dao.destroyUserKeysGuarded(id);
+            // false: the keys are destroyed, but some node may still serve them from cache until its lease lapses
+            return ApiResponse.ok(Map.of("user_id", id, "keys_destroyed", destroyed.keysDestroyed(),
+                    "cache_eviction_confirmed", destroyed.cacheEvictionConfirmed()));
         } catch (DataAccessException e) {
             return ApiResponse.err("Destroy keys failed", e.getMostSpecificCause().getMessage());
         }
     }
 
+    // POST /api/admin/erasure/bulk
+    // body: {"user_ids":[1,2,3,...]}
+    // Per-user outcome: ERASED | BLOCKED_BY_HOLD | NO_KEYS. A held user does not abort the batch.
+    // A failing chunk returns ok=false with the summary of the chunks committed before it in data
+    // (data.processed = ids of the list already done).
+    @PostMapping(value = "/admin/erasure/bulk", consumes = "application/json")
+    public ApiResponse<?> bulkErase(@RequestBody(required = false) BulkEraseRequest req) {
+        if (req == null || req.user_ids == null || req.user_ids.isEmpty()) {
+            return ApiResponse.err("user_ids is required", null);
+        }
+        try {
+            return ApiResponse.ok(bulkErasure.erase(req.user_ids));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Invalid user id list", e.getMessage());
+        } catch (BulkErasureService.PartialFailure e) {
+            return ApiResponse.err("Bulk erasure failed", e.getMessage(), e.partial());
+        }
+    }
+
+    // POST /api/admin/erasure/jobs   body: {"user_ids":[...]}  (asynchronous, up to 100000 ids)
+    // One row per distinct user: {user_id, job_id, state, created}
+    @PostMapping("/admin/erasure/jobs")
+    public ApiResponse<?> enqueueErasures(@RequestBody(required = false) BulkEraseRequest req) {
+        if (req == null || req.user_ids == null || req.user_ids.isEmpty()) {
+            return ApiResponse.err("user_ids is required", null);
+        }
+        if (req.user_ids.size() > 100_000) {
+            return ApiResponse.err("at most 100000 user_ids per request", String.valueOf(req.user_ids.size()));
+        }
+        try {
+            return ApiResponse.ok(erasureQueue.enqueue(req.user_ids));
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Queue erasure failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Queue erasure failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/erasure-jobs/{jobId}
+    @GetMapping("/erasure-jobs/{jobId}")
+    public ApiResponse<?> erasureJob(@PathVariable("jobId") long jobId) {
+        try {
+            return ApiResponse.ok(erasureQueue.job(jobId));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Erasure job not found", String.valueOf(jobId));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Get erasure job failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/users/{id}/erasure-jobs (newest first)
+    @GetMapping("/users/{id}/erasure-jobs")
+    public ApiResponse<?> erasureJobsForUser(@PathVariable("id") long id,
+                                             @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        try {
+            return ApiResponse.ok(erasureQueue.jobsForUser(id, Math.max(1, Math.min(limit, 1000))));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List erasure jobs failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/erasure/queue (depth, due, running, lag_seconds, recent completions)
+    @GetMapping("/admin/erasure/queue")
+    public ApiResponse<?> erasureQueueStats() {
+        try {
+            return ApiResponse.ok(erasureQueue.stats());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Erasure queue stats failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/erasure/bulk   (Content-Type: text/plain, one user id per line)
+    // The whole body is read and checked before anything is erased; failures as for the JSON form.
+    @PostMapping(value = "/admin/erasure/bulk", consumes = "text/plain")
+    public ApiResponse<?> bulkEraseStream(InputStream body) {
+        try {
+            return ApiResponse.ok(bulkErasure.erase(body));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Invalid user id list", e.getMessage());
+        } catch (IOException e) {
+            return ApiResponse.err("Reading erasure list failed", e.getMessage());
+        } catch (BulkErasureService.PartialFailure e) {
+            return ApiResponse.err("Bulk erasure failed", e.getMessage(), e.partial());
+        }
+    }
+
+    // GET /api/admin/key-cache (hit/miss, size vs memory budget, invalidations)
+    @GetMapping("/admin/key-cache")
+    public ApiResponse<?> keyCacheStats() {
+        return ApiResponse.ok(keyCache.stats());
+    }
+
+    // GET /api/admin/bulkheads (per-workload permits in use, queue depth, rejections)
+    @GetMapping("/admin/bulkheads")
+    public ApiResponse<?> bulkheadStats() {
+        return ApiResponse.ok(bulkheads.stats());
+    }
+
     // ----------------------------
     // Admin: truncate + restore
     // ----------------------------
@@ -102,16 +353,311 @@ public class GrapController {
         }
     }
 
+    // Full restore through the chunked engine. Waits for completion unless wait=false;
+    // follow progress with GET /api/admin/restore-jobs/{id}
     @PostMapping("/admin/restore-users")
-    public ApiResponse<?> restoreUsers() {
+    public ApiResponse<?> restoreUsers(@RequestParam(value = "wait", defaultValue = "true") boolean wait) {
         try {
-            long rows = dao.restoreUsersFromShadow();
-            return ApiResponse.ok(Map.of("rows_restored", rows));
+            return ApiResponse.ok(wait ? restoreEngine.runAndWait() : restoreEngine.startFull(null, null));
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Restore failed", e.getMessage());
         } catch (DataAccessException e) {
             return ApiResponse.err("Restore failed", e.getMostSpecificCause().getMessage());
         }
     }
 
+    // POST /api/admin/restore-jobs
+    // body (optional): {"mode":"FULL"} | {"mode":"RANGE","from_user_id":1,"to_user_id":5000}
+    //                  | {"mode":"SINCE","since":"2026-01-31T18:00:00Z"}   plus chunk_size, workers
+    @PostMapping("/admin/restore-jobs")
+    public ApiResponse<?> startRestoreJob(@RequestBody(required = false) StartRestoreRequest req) {
+        String mode = (req == null || req.mode == null || req.mode.isBlank()) ? "FULL" : req.mode.trim().toUpperCase();
+        Integer chunk = (req == null) ? null : req.chunk_size;
+        Integer workers = (req == null) ? null : req.workers;
+        try {
+            return switch (mode) {
+                case "FULL" -> ApiResponse.ok(restoreEngine.startFull(chunk, workers));
+                case "RANGE" -> (req.from_user_id == null || req.to_user_id == null)
+                        ? ApiResponse.err("from_user_id and to_user_id are required for RANGE", null)
+                        : ApiResponse.ok(restoreEngine.startRange(req.from_user_id, req.to_user_id, chunk, workers));
+                case "SINCE" -> (req.since == null || req.since.isBlank())
+                        ? ApiResponse.err("since is required for SINCE", null)
+                        : ApiResponse.ok(restoreEngine.startSince(OffsetDateTime.parse(req.since.trim()), chunk, workers));
+                default -> ApiResponse.err("mode must be FULL, RANGE or SINCE (use /admin/restore-users/ids for a list)", mode);
+            };
+        } catch (DateTimeParseException e) {
+            return ApiResponse.err("since must be ISO-8601 with offset, e.g. 2026-01-31T18:00:00Z", req.since);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return ApiResponse.err("Start restore failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Start restore failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/restore-users/ids   body: {"user_ids":[...]}
+    // Restores just these users (same decrypt-or-tombstone rules), synchronously.
+    @PostMapping("/admin/restore-users/ids")
+    public ApiResponse<?> restoreUsersByIds(@RequestBody(required = false) RestoreUsersRequest req) {
+        if (req == null || req.user_ids == null || req.user_ids.isEmpty()) {
+            return ApiResponse.err("user_ids is required", null);
+        }
+        if (req.user_ids.size() > 100_000) {
+            return ApiResponse.err("at most 100000 user_ids per call; use a RANGE or SINCE restore job", null);
+        }
+        try {
+            return ApiResponse.ok(restoreEngine.restoreUsers(req.user_ids));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Restore users failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/restore-jobs/{id}  (rows/sec, ETA, decrypted vs redacted)
+    @GetMapping("/admin/restore-jobs/{id}")
+    public ApiResponse<?> restoreJobStatus(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(restoreEngine.status(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Restore job not found", null);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Restore job status failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PostMapping("/admin/restore-jobs/{id}/pause")
+    public ApiResponse<?> pauseRestoreJob(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(restoreEngine.pause(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Restore job not found", null);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Pause restore failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PostMapping("/admin/restore-jobs/{id}/resume")
+    public ApiResponse<?> resumeRestoreJob(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(restoreEngine.resume(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Restore job not found", null);
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Resume restore failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Resume restore failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // ----------------------------
+    // Key rotation / shadow re-encryption
+    // ----------------------------
+
+    // POST /api/admin/reencrypt-jobs   body (all optional): {"target_version":2,"max_key_age_days":90,
+    //   "batch_size":500,"rows_per_sec":1000,"max_passes":3}
+    @PostMapping("/admin/reencrypt-jobs")
+    public ApiResponse<?> startReencryptJob(@RequestBody(required = false) StartReencryptRequest req) {
+        try {
+            return (req == null)
+                    ? ApiResponse.ok(reencryptEngine.start(null, null, null, null, null))
+                    : ApiResponse.ok(reencryptEngine.start(req.target_version, req.max_key_age_days,
+                            req.batch_size, req.rows_per_sec, req.max_passes));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return ApiResponse.err("Start re-encryption failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Start re-encryption failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/reencrypt-jobs (newest first)
+    @GetMapping("/admin/reencrypt-jobs")
+    public ApiResponse<?> reencryptJobs(@RequestParam(value = "limit", defaultValue = "20") int limit) {
+        try {
+            return ApiResponse.ok(reencryptEngine.jobs(Math.max(1, Math.min(limit, 1000))));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List re-encryption jobs failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/reencrypt-jobs/{id}  (counters, pass_percent, scanned_per_sec, ETA)
+    @GetMapping("/admin/reencrypt-jobs/{id}")
+    public ApiResponse<?> reencryptJobStatus(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(reencryptEngine.status(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Re-encryption job not found", null);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Re-encryption job status failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PostMapping("/admin/reencrypt-jobs/{id}/pause")
+    public ApiResponse<?> pauseReencryptJob(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(reencryptEngine.pause(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Re-encryption job not found", null);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Pause re-encryption failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PostMapping("/admin/reencrypt-jobs/{id}/resume")
+    public ApiResponse<?> resumeReencryptJob(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(reencryptEngine.resume(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Re-encryption job not found", null);
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Resume re-encryption failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Resume re-encryption failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/reencrypt-jobs/{id}/throttle?rows_per_sec=200  (0 = unthrottled; applies from the next batch)
+    @PostMapping("/admin/reencrypt-jobs/{id}/throttle")
+    public ApiResponse<?> throttleReencryptJob(@PathVariable("id") long id,
+                                               @RequestParam("rows_per_sec") int rowsPerSec) {
+        try {
+            return ApiResponse.ok(reencryptEngine.throttle(id, rowsPerSec));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Throttle re-encryption failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Throttle re-encryption failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // ----------------------------
+    // Crypto-erasure verification (sql/29_erasure_verification.sql)
+    // ----------------------------
+
+    // POST /api/admin/erasure/verify   body (all optional): {"mode":"FULL"|"INCREMENTAL","chunk_size":5000}
+    @PostMapping("/admin/erasure/verify")
+    public ApiResponse<?> startErasureVerify(@RequestBody(required = false) StartErasureVerifyRequest req) {
+        String mode = (req == null || req.mode == null) ? "FULL" : req.mode.trim().toUpperCase();
+        if (!mode.equals("FULL") && !mode.equals("INCREMENTAL")) {
+            return ApiResponse.err("mode must be FULL or INCREMENTAL", req.mode);
+        }
+        try {
+            return ApiResponse.ok(erasureVerifier.start(mode.equals("INCREMENTAL"), req == null ? null : req.chunk_size));
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Start erasure verification failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Start erasure verification failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/erasure/verify (newest first)
+    @GetMapping("/admin/erasure/verify")
+    public ApiResponse<?> erasureVerifyRuns(@RequestParam(value = "limit", defaultValue = "20") int limit) {
+        try {
+            return ApiResponse.ok(erasureVerifier.runs(Math.max(1, Math.min(limit, 1000))));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List erasure verification runs failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/erasure/verify/{id}  (counters; chunks_done of chunks_total while it runs)
+    @GetMapping("/admin/erasure/verify/{id}")
+    public ApiResponse<?> erasureVerifyStatus(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(erasureVerifier.status(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Erasure verification run not found", null);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Erasure verification status failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/erasure/verify/{id}/report  (signed text report, and whether the signature checks out)
+    @GetMapping("/admin/erasure/verify/{id}/report")
+    public ApiResponse<?> erasureVerifyReport(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(erasureVerifier.report(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Erasure verification run not found", null);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Erasure verification report failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/erasure/verify/{id}/anomalies?kind=LIVE_UNDECRYPTABLE&after_user_id=0&limit=500
+    @GetMapping("/admin/erasure/verify/{id}/anomalies")
+    public ApiResponse<?> erasureVerifyAnomalies(@PathVariable("id") long id,
+                                                 @RequestParam(value = "kind", required = false) String kind,
+                                                 @RequestParam(value = "after_user_id", defaultValue = "0") long afterUserId,
+                                                 @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        try {
+            return ApiResponse.ok(erasureVerifier.anomalies(id, (kind == null || kind.isBlank()) ? null : kind.trim(),
+                    afterUserId, Math.max(1, Math.min(limit, 10_000))));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List verification anomalies failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PostMapping("/admin/erasure/verify/{id}/cancel")
+    public ApiResponse<?> cancelErasureVerify(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(erasureVerifier.cancel(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Erasure verification run not found", null);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Cancel erasure verification failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PostMapping("/admin/erasure/verify/{id}/resume")
+    public ApiResponse<?> resumeErasureVerify(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(erasureVerifier.resume(id));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Erasure verification run not found", null);
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Resume erasure verification failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Resume erasure verification failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // ----------------------------
+    // key_store partitions / compaction
+    // ----------------------------
+
+    // GET /api/admin/key-store/partitions  (per-month rows estimate and sizes)
+    @GetMapping("/admin/key-store/partitions")
+    public ApiResponse<?> keyStorePartitions() {
+        try {
+            Map<String, Object> out = new LinkedHashMap<>(keyStore.settings());
+            out.put("partitions", keyStore.partitions());
+            return ApiResponse.ok(out);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List key_store partitions failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/key-store/compact?month=2025-01  (a month before the current one)
+    @PostMapping("/admin/key-store/compact")
+    public ApiResponse<?> compactKeyStore(@RequestParam("month") String month) {
+        try {
+            return ApiResponse.ok(keyStore.compact(YearMonth.parse(month)));
+        } catch (DateTimeParseException e) {
+            return ApiResponse.err("Compact key_store failed", "month must be YYYY-MM");
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return ApiResponse.err("Compact key_store failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Compact key_store failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/users/{id}/key-tombstones  (compacted keys with the digest check)
+    @GetMapping("/users/{id}/key-tombstones")
+    public ApiResponse<?> keyTombstones(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(Map.of("user_id", id, "tombstones", keyStore.tombstones(id)));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Get key tombstones failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
     // ----------------------------
     // Phase 4: Backups
     // ----------------------------
@@ -141,31 +687,292 @@ public class GrapController {
         try {
             var row = dao.addUserToBackup(backupId, req.user_id);
             return ApiResponse.ok(row);
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Add user to backup failed", e.getMessage());
         } catch (DataAccessException e) {
             return ApiResponse.err("Add user to backup failed", e.getMostSpecificCause().getMessage());
         }
     }
 
+    // POST /api/admin/backups/{backupId}/manifest   (streamed body, gzip detected)
+    // Content-Type: text/plain               -> one user_id per line
+    // Content-Type: application/octet-stream -> 8-byte big-endian user_ids
+    // ?format=text|binary overrides the Content-Type
+    @PostMapping(value = "/admin/backups/{backupId}/manifest", consumes = {"text/plain", "application/octet-stream"})
+    public ApiResponse<?> loadBackupManifest(@PathVariable long backupId,
+                                             @RequestHeader("Content-Type") String contentType,
+                                             @RequestParam(value = "format", required = false) String format,
+                                             InputStream body) {
+        try {
+            return ApiResponse.ok(manifests.ingest(backupId, body, manifestFormat(format, contentType)));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Invalid backup manifest", e.getMessage());
+        } catch (IOException e) {
+            return ApiResponse.err("Reading backup manifest failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Load backup manifest failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/backups/{backupId}/manifest/file?name=full-0412.bin.gz&format=binary
+    // (file under grap.manifest.dir, memory-mapped unless gzip'd)
+    @PostMapping("/admin/backups/{backupId}/manifest/file")
+    public ApiResponse<?> loadBackupManifestFile(@PathVariable long backupId,
+                                                 @RequestParam("name") String name,
+                                                 @RequestParam(value = "format", defaultValue = "text") String format) {
+        try {
+            return ApiResponse.ok(manifests.ingestFile(backupId, name, manifestFormat(format, null)));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Invalid backup manifest", e.getMessage());
+        } catch (IOException e) {
+            return ApiResponse.err("Reading backup manifest failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Load backup manifest failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/backups/{backupId}/manifests  (latest loads with progress)
+    @GetMapping("/admin/backups/{backupId}/manifests")
+    public ApiResponse<?> listBackupManifests(@PathVariable long backupId) {
+        try {
+            return ApiResponse.ok(manifests.loads(backupId));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List manifest loads failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/backups/manifests/{loadId}  (progress of one load, from any node)
+    @GetMapping("/admin/backups/manifests/{loadId}")
+    public ApiResponse<?> backupManifestStatus(@PathVariable long loadId) {
+        try {
+            return ApiResponse.ok(manifests.status(loadId));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Manifest load not found", String.valueOf(loadId));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Manifest load status failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    private static ManifestReader.Format manifestFormat(String format, String contentType) {
+        if (format != null) {
+            try {
+                return ManifestReader.Format.valueOf(format.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("format must be text or binary");
+            }
+        }
+        return contentType != null && contentType.startsWith("application/octet-stream")
+                ? ManifestReader.Format.BINARY
+                : ManifestReader.Format.TEXT;
+    }
+
     // GET /api/admin/backups
     @GetMapping("/admin/backups")
-    public ApiResponse<?> listBackups() {
+    public ApiResponse<?> listBackups(@RequestParam(value = "limit", defaultValue = "100") int limit,
+                                      @RequestParam(value = "after", required = false) Long after) {
         try {
-            return ApiResponse.ok(dao.listBackups());
+            int safe = Math.max(1, Math.min(limit, 1000));
+            return ApiResponse.ok(page("backups", dao.listBackups(after, safe), "backup_id", safe));
         } catch (DataAccessException e) {
             return ApiResponse.err("List backups failed", e.getMostSpecificCause().getMessage());
         }
     }
 
+    @GetMapping(value = "/admin/backups", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamBackups(@RequestParam(value = "after", required = false) Long after) {
+        return ndjson(out -> dao.streamBackups(out, after));
+    }
+
     // GET /api/admin/users/{id}/backups
     @GetMapping("/admin/users/{id}/backups")
-    public ApiResponse<?> listBackupsForUser(@PathVariable("id") long id) {
+    public ApiResponse<?> listBackupsForUser(@PathVariable("id") long id,
+                                             @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                             @RequestParam(value = "after", required = false) Long after) {
         try {
-            return ApiResponse.ok(Map.of("user_id", id, "backups", dao.listBackupsForUser(id)));
+            int safe = Math.max(1, Math.min(limit, 1000));
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("user_id", id);
+            m.putAll(page("backups", dao.listBackupsForUser(id, after, safe), "backup_id", safe));
+            return ApiResponse.ok(m);
         } catch (DataAccessException e) {
             return ApiResponse.err("List user backups failed", e.getMostSpecificCause().getMessage());
         }
     }
 
+    @GetMapping(value = "/admin/users/{id}/backups", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamBackupsForUser(@PathVariable("id") long id,
+                                                                      @RequestParam(value = "after", required = false) Long after) {
+        return ndjson(out -> dao.streamBackupsForUser(out, id, after));
+    }
+
+    // POST /api/admin/users/{id}/protect-backups (user must be on an active legal hold)
+    @PostMapping("/admin/users/{id}/protect-backups")
+    public ApiResponse<?> protectBackupsForUser(@PathVariable("id") long id) {
+        try {
+            return ApiResponse.ok(Map.of("user_id", id, "protected", dao.protectBackupsForLegalHold(id)));
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Protect backups failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Protect backups failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/backups/{id}/users?after=0&limit=1000  (user_ids ascending)
+    @GetMapping("/admin/backups/{id}/users")
+    public ApiResponse<?> listBackupUsers(@PathVariable("id") long id,
+                                          @RequestParam(value = "after", defaultValue = "0") long after,
+                                          @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        try {
+            int safe = Math.max(1, Math.min(limit, 100_000));
+            var ids = dao.listBackupUsers(id, after, safe);
+            return ApiResponse.ok(Map.of("backup_id", id, "user_ids", ids,
+                    "next_after", ids.isEmpty() ? after : ids.get(ids.size() - 1)));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("List backup users failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List backup users failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/backups/membership?backup_ids=1,2,3&op=union|intersection&sample=100
+    @GetMapping("/admin/backups/membership")
+    public ApiResponse<?> backupMembership(@RequestParam("backup_ids") List<Long> backupIds,
+                                           @RequestParam(value = "op", defaultValue = "union") String op,
+                                           @RequestParam(value = "sample", defaultValue = "100") int sample) {
+        if (backupIds.isEmpty()) return ApiResponse.err("backup_ids is required", null);
+        if (!op.equalsIgnoreCase("union") && !op.equalsIgnoreCase("intersection")) {
+            return ApiResponse.err("op must be union or intersection", op);
+        }
+        try {
+            int safe = Math.max(0, Math.min(sample, 10_000));
+            return ApiResponse.ok(dao.backupMembership(backupIds, op.equalsIgnoreCase("intersection"), safe));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Backup membership failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Backup membership failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/backups/catalog/migrate  (backup_user_index -> backup_user_bitmap; table kept)
+    @PostMapping("/admin/backups/catalog/migrate")
+    public ApiResponse<?> migrateBackupCatalog() {
+        try {
+            return ApiResponse.ok(catalogMigration.migrate());
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Backup catalog migration failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Backup catalog migration failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/backups/catalog/compare?samples=200  (sizes + lookup latency, both formats)
+    @GetMapping("/admin/backups/catalog/compare")
+    public ApiResponse<?> compareBackupCatalog(@RequestParam(value = "samples", defaultValue = "200") int samples) {
+        try {
+            return ApiResponse.ok(catalogMigration.compare(Math.max(1, Math.min(samples, 10_000))));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Backup catalog compare failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Backup catalog compare failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/backups/protection  (hold watermarks vs the newest backup)
+    @GetMapping("/admin/backups/protection")
+    public ApiResponse<?> backupProtectionStatus() {
+        try {
+            return ApiResponse.ok(protectionSweeper.status());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Backup protection status failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/backups/protection/sweep  (protect backups above every active hold's watermark now)
+    @PostMapping("/admin/backups/protection/sweep")
+    public ApiResponse<?> sweepBackupProtection() {
+        try {
+            return ApiResponse.ok(protectionSweeper.sweep());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Backup protection sweep failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/backups/protection/check?repair=false
+    // (recount protecting_holds in parallel; reports drift, fixes it with repair=true)
+    @PostMapping("/admin/backups/protection/check")
+    public ApiResponse<?> checkBackupProtection(@RequestParam(value = "repair", defaultValue = "false") boolean repair) {
+        try {
+            return ApiResponse.ok(protectionCheck.check(repair));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Backup protection check failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // ----------------------------
+    // Retention planning (sql/28_retention_plan.sql)
+    // ----------------------------
+
+    // POST /api/admin/retention/plan
+    // body (all optional): {"max_age_days":35,"keep_full":2,"release_hold_ids":[..],"hold_user_ids":[..],"refresh":false}
+    // expirable backups under the policy, with the what-if applied; recorded in retention_plan_audit
+    @PostMapping("/admin/retention/plan")
+    public ApiResponse<?> planRetention(@RequestBody(required = false) RetentionPlanRequest req) {
+        RetentionPlanRequest r = (req == null) ? new RetentionPlanRequest() : req;
+        if ((r.release_hold_ids != null && r.release_hold_ids.contains(null))
+                || (r.hold_user_ids != null && r.hold_user_ids.contains(null))) {
+            return ApiResponse.err("release_hold_ids and hold_user_ids must not contain nulls", null);
+        }
+        try {
+            var policy = retentionPlanner.policy(r.max_age_days, r.keep_full);
+            var scenario = new RetentionPlanner.Scenario(
+                    r.release_hold_ids == null ? List.of() : List.copyOf(r.release_hold_ids),
+                    r.hold_user_ids == null ? List.of() : List.copyOf(r.hold_user_ids));
+            return ApiResponse.ok(retentionPlanner.plan(policy, scenario, Boolean.TRUE.equals(r.refresh)));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Invalid retention plan", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Retention plan failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/retention/snapshot  (what the planner has in memory, and its age)
+    @GetMapping("/admin/retention/snapshot")
+    public ApiResponse<?> retentionSnapshot() {
+        return ApiResponse.ok(retentionPlanner.status());
+    }
+
+    // POST /api/admin/retention/snapshot/refresh
+    @PostMapping("/admin/retention/snapshot/refresh")
+    public ApiResponse<?> refreshRetentionSnapshot() {
+        try {
+            return ApiResponse.ok(retentionPlanner.refresh());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Retention snapshot refresh failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/retention/plans?limit=20  (newest first, id lists as counts)
+    @GetMapping("/admin/retention/plans")
+    public ApiResponse<?> retentionPlans(@RequestParam(value = "limit", defaultValue = "20") int limit) {
+        try {
+            return ApiResponse.ok(retentionPlanner.recent(Math.max(1, Math.min(limit, 500))));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Failed to list retention plans", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/retention/plans/{planId}
+    @GetMapping("/admin/retention/plans/{planId}")
+    public ApiResponse<?> retentionPlan(@PathVariable("planId") long planId) {
+        try {
+            return ApiResponse.ok(retentionPlanner.get(planId));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            return ApiResponse.err("Retention plan not found", null);
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Failed to load retention plan", e.getMostSpecificCause().getMessage());
+        }
+    }
+
     // ----------------------------
     // Holds (DB: legal_holds has hold_id, user_id, hold_reason, created_at, released_at)
     // ----------------------------
@@ -254,36 +1061,286 @@ public class GrapController {
 
     // GET /api/admin/holds (all active holds)
     @GetMapping("/admin/holds")
-    public ApiResponse<?> listAllActiveHolds() {
+    public ApiResponse<?> listAllActiveHolds(@RequestParam(value = "limit", defaultValue = "100") int limit,
+                                             @RequestParam(value = "after", required = false) Long after) {
         try {
-            return ApiResponse.ok(Map.of("active_holds", dao.listAllActiveHolds()));
+            int safe = Math.max(1, Math.min(limit, 1000));
+            return ApiResponse.ok(page("active_holds", dao.listAllActiveHolds(after, safe), "hold_id", safe));
         } catch (DataAccessException e) {
             return ApiResponse.err("List holds failed", e.getMostSpecificCause().getMessage());
         }
     }
 
+    @GetMapping(value = "/admin/holds", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamAllActiveHolds(@RequestParam(value = "after", required = false) Long after) {
+        return ndjson(out -> dao.streamAllActiveHolds(out, after));
+    }
+
+    // GET /api/admin/holds/index (held-user bitmap size, memory per million held users)
+    @GetMapping("/admin/holds/index")
+    public ApiResponse<?> heldIndexStats() {
+        return ApiResponse.ok(heldIndex.stats());
+    }
+
+    // POST /api/admin/holds/screen   body: {"user_ids":[...]}
+    // In-memory screen only (no DB). Erasure still does the authoritative hold check.
+    @PostMapping("/admin/holds/screen")
+    public ApiResponse<?> screenHolds(@RequestBody(required = false) ScreenHoldsRequest req) {
+        if (req == null || req.user_ids == null) {
+            return ApiResponse.err("user_ids is required", null);
+        }
+        if (!heldIndex.isReady()) {
+            return ApiResponse.err("Held-user index is still building", null);
+        }
+        var held = heldIndex.screen(req.user_ids);
+        return ApiResponse.ok(Map.of("checked", req.user_ids.size(), "possibly_held", held));
+    }
+
     // ----------------------------
     // Audit
     // ----------------------------
+    // GET /api/admin/audit/deletion?from=2026-01-01T00:00:00Z&to=...&limit=50
+    // Newest first within [from, to); to defaults to now, from to grap.audit.default-window-days
+    // before to. The range is required by the partitioned tables and capped at max-window-days.
+    // Systems that act on erasures follow /api/events/feed instead of polling this.
     @GetMapping("/admin/audit/deletion")
-    public ApiResponse<?> deletionAudit(@RequestParam(value = "limit", defaultValue = "50") int limit) {
+    public ApiResponse<?> deletionAudit(@RequestParam(value = "limit", defaultValue = "50") int limit,
+                                        @RequestParam(value = "from", required = false) String from,
+                                        @RequestParam(value = "to", required = false) String to) {
         try {
             int safe = Math.max(1, Math.min(limit, 500));
-            var rows = dao.getDeletionAudit(safe);
-            return ApiResponse.ok(Map.of("limit", safe, "rows", rows));
+            OffsetDateTime[] range = auditRange(from, to);
+            var rows = dao.getDeletionAudit(range[0], range[1], safe);
+            return ApiResponse.ok(Map.of("limit", safe, "from", range[0], "to", range[1], "rows", rows));
+        } catch (DateTimeParseException e) {
+            return ApiResponse.err("from/to must be ISO-8601 with offset, e.g. 2026-01-31T18:00:00Z", e.getParsedString());
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Fetch deletion audit failed", e.getMessage());
         } catch (DataAccessException e) {
             return ApiResponse.err("Fetch deletion audit failed", e.getMostSpecificCause().getMessage());
         }
     }
 
     @GetMapping("/admin/audit/backup-protection")
-    public ApiResponse<?> backupProtectionAudit(@RequestParam(value = "limit", defaultValue = "50") int limit) {
+    public ApiResponse<?> backupProtectionAudit(@RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                @RequestParam(value = "from", required = false) String from,
+                                                @RequestParam(value = "to", required = false) String to) {
         try {
             int safe = Math.max(1, Math.min(limit, 500));
-            var rows = dao.getBackupProtectionAudit(safe);
-            return ApiResponse.ok(Map.of("limit", safe, "rows", rows));
+            OffsetDateTime[] range = auditRange(from, to);
+            var rows = dao.getBackupProtectionAudit(range[0], range[1], safe);
+            return ApiResponse.ok(Map.of("limit", safe, "from", range[0], "to", range[1], "rows", rows));
+        } catch (DateTimeParseException e) {
+            return ApiResponse.err("from/to must be ISO-8601 with offset, e.g. 2026-01-31T18:00:00Z", e.getParsedString());
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Fetch backup protection audit failed", e.getMessage());
         } catch (DataAccessException e) {
             return ApiResponse.err("Fetch backup protection audit failed", e.getMostSpecificCause().getMessage());
         }
     }
+
+    // GET /api/admin/audit/partitions  (months per table, sizes, archived months)
+    @GetMapping("/admin/audit/partitions")
+    public ApiResponse<?> auditPartitions() {
+        try {
+            return ApiResponse.ok(auditPartitions.status());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List audit partitions failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/audit/retention  (archive expired months now)
+    @PostMapping("/admin/audit/retention")
+    public ApiResponse<?> applyAuditRetention() {
+        try {
+            return ApiResponse.ok(Map.of("archived", auditPartitions.applyRetention()));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Audit retention failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/audit/{deletion|backup-protection}/export
+    //     ?format=csv|ndjson&gzip=false&from=2026-01-01T00:00:00Z&to=...&user_id=...
+    // Whole table (or the filtered slice) in (occurred_at, audit_id) order; from inclusive, to exclusive.
+    @GetMapping("/admin/audit/{table}/export")
+    public ResponseEntity<?> exportAudit(@PathVariable("table") String table,
+                                         @RequestParam(value = "format", defaultValue = "csv") String format,
+                                         @RequestParam(value = "gzip", defaultValue = "false") boolean gzip,
+                                         @RequestParam(value = "from", required = false) String from,
+                                         @RequestParam(value = "to", required = false) String to,
+                                         @RequestParam(value = "user_id", required = false) Long userId) {
+        AuditExportDao.AuditTable t = auditTable(table);
+        if (t == null) {
+            return ResponseEntity.badRequest().body(ApiResponse.err("table must be deletion or backup-protection", table));
+        }
+        AuditExportService.Format f;
+        AuditExportDao.Filter filter;
+        try {
+            f = AuditExportService.Format.valueOf(format.trim().toUpperCase());
+            filter = new AuditExportDao.Filter(
+                    (from == null || from.isBlank()) ? null : OffsetDateTime.parse(from.trim()),
+                    (to == null || to.isBlank()) ? null : OffsetDateTime.parse(to.trim()),
+                    userId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(ApiResponse.err("format must be csv or ndjson", format));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(
+                    ApiResponse.err("from/to must be ISO-8601 with offset, e.g. 2026-01-31T18:00:00Z", e.getParsedString()));
+        }
+
+        MediaType type = gzip ? MediaType.parseMediaType("application/gzip")
+                : (f == AuditExportService.Format.CSV ? MediaType.parseMediaType("text/csv;charset=UTF-8") : NDJSON);
+        return ResponseEntity.ok()
+                .contentType(type)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + auditExport.fileName(t, f, gzip) + "\"")
+                .body(auditExport.export(t, filter, f, gzip));
+    }
+
+    // GET /api/admin/audit/{deletion|backup-protection}/seal
+    // Seal progress and the head block hash (keep a copy of it outside this database).
+    @GetMapping("/admin/audit/{table}/seal")
+    public ApiResponse<?> auditSealStatus(@PathVariable("table") String table) {
+        AuditExportDao.AuditTable t = auditTable(table);
+        if (t == null) return ApiResponse.err("table must be deletion or backup-protection", table);
+        try {
+            return ApiResponse.ok(auditSealer.status(t));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Fetch audit seal status failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/audit/{deletion|backup-protection}/seal  (seal everything unsealed now)
+    @PostMapping("/admin/audit/{table}/seal")
+    public ApiResponse<?> sealAudit(@PathVariable("table") String table) {
+        AuditExportDao.AuditTable t = auditTable(table);
+        if (t == null) return ApiResponse.err("table must be deletion or backup-protection", table);
+        try {
+            return ApiResponse.ok(auditSealer.sealNow(t));
+        } catch (IllegalStateException e) {
+            return ApiResponse.err("Audit seal failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Audit seal failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/admin/audit/{deletion|backup-protection}/verify?from=2026-01-01T00:00:00Z&to=...
+    // Recomputes every sealed block with rows in [from, to) (default: all), blocks in parallel.
+    @PostMapping("/admin/audit/{table}/verify")
+    public ApiResponse<?> verifyAudit(@PathVariable("table") String table,
+                                      @RequestParam(value = "from", required = false) String from,
+                                      @RequestParam(value = "to", required = false) String to) {
+        AuditExportDao.AuditTable t = auditTable(table);
+        if (t == null) return ApiResponse.err("table must be deletion or backup-protection", table);
+        try {
+            return ApiResponse.ok(auditSealer.verify(t,
+                    (from == null || from.isBlank()) ? null : OffsetDateTime.parse(from.trim()),
+                    (to == null || to.isBlank()) ? null : OffsetDateTime.parse(to.trim())));
+        } catch (DateTimeParseException e) {
+            return ApiResponse.err("from/to must be ISO-8601 with offset, e.g. 2026-01-31T18:00:00Z", e.getParsedString());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return ApiResponse.err("Audit verification failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Audit verification failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/admin/audit/verifications?limit=20  (newest first)
+    @GetMapping("/admin/audit/verifications")
+    public ApiResponse<?> auditVerifications(@RequestParam(value = "limit", defaultValue = "20") int limit) {
+        try {
+            return ApiResponse.ok(auditSealer.verifications(Math.max(1, Math.min(limit, 500))));
+        } catch (DataAccessException e) {
+            return ApiResponse.err("List audit verifications failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // ----------------------------
+    // Change feed (event outbox)
+    // ----------------------------
+
+    // GET /api/events/feed                    text/event-stream, new events only
+    // GET /api/events/feed?after=1200         events after feed_seq 1200
+    // GET /api/events/feed?consumer=search    after search's acked offset
+    // A reconnecting EventSource sends Last-Event-ID, which wins over both. Each message is
+    // event "events" with a JSON array of events; failures are one "error" event.
+    @GetMapping(value = "/events/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter eventFeed(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                                @RequestParam(value = "after", required = false) Long after,
+                                @RequestParam(value = "consumer", required = false) String consumer) {
+        return eventFeed.subscribe(lastEventId, after, consumer);
+    }
+
+    // GET /api/events?after=1200&limit=500   (or ?consumer=search to start at its acked offset)
+    @GetMapping("/events")
+    public ApiResponse<?> events(@RequestParam(value = "after", required = false) Long after,
+                                 @RequestParam(value = "consumer", required = false) String consumer,
+                                 @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        try {
+            return ApiResponse.ok(eventFeed.page(after, consumer, Math.max(1, Math.min(limit, 5000))));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Invalid feed offset", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Read events failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // POST /api/events/ack?consumer=search&seq=1250
+    // Stores the consumer's offset (it only moves forward) and records end-to-end latency.
+    @PostMapping("/events/ack")
+    public ApiResponse<?> ackEvents(@RequestParam("consumer") String consumer, @RequestParam("seq") long seq) {
+        try {
+            return ApiResponse.ok(eventFeed.ack(consumer, seq));
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.err("Ack failed", e.getMessage());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Ack failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // GET /api/events/status  (feed head, unpublished backlog, subscribers here, consumer offsets)
+    @GetMapping("/events/status")
+    public ApiResponse<?> eventFeedStatus() {
+        try {
+            return ApiResponse.ok(eventFeed.status());
+        } catch (DataAccessException e) {
+            return ApiResponse.err("Fetch event feed status failed", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // ----------------------------
+    // Paging / streaming helpers
+    // ----------------------------
+
+    // [from, to) for the audit listings; defaults and the width cap from grap.audit.*
+    private OffsetDateTime[] auditRange(String from, String to) {
+        OffsetDateTime hi = (to == null || to.isBlank()) ? OffsetDateTime.now() : OffsetDateTime.parse(to.trim());
+        OffsetDateTime lo = (from == null || from.isBlank()) ? hi.minusDays(auditDefaultDays) : OffsetDateTime.parse(from.trim());
+        if (!lo.isBefore(hi)) throw new IllegalArgumentException("from must be before to");
+        if (lo.isBefore(hi.minusDays(auditMaxDays))) {
+            throw new IllegalArgumentException("range is limited to " + auditMaxDays + " days; use /export for more");
+        }
+        return new OffsetDateTime[]{lo, hi};
+    }
+
+    private static AuditExportDao.AuditTable auditTable(String table) {
+        return switch (table) {
+            case "deletion" -> AuditExportDao.AuditTable.DELETION;
+            case "backup-protection" -> AuditExportDao.AuditTable.BACKUP_PROTECTION;
+            default -> null;
+        };
+    }
+
+    // keyset page envelope; next_after is null on the last page
+    private static Map<String, Object> page(String rowsKey, List<Map<String, Object>> rows, String keyColumn, int limit) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("limit", limit);
+        m.put(rowsKey, rows);
+        m.put("next_after", rows.size() < limit ? null : rows.get(rows.size() - 1).get(keyColumn));
+        return m;
+    }
+
+    private static ResponseEntity<StreamingResponseBody> ndjson(StreamingResponseBody body) {
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
 }
@@ -0,0 +1,115 @@
+package edu.depaul.grap.audit;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Hashes of the audit hash chain (sql/31_audit_hash_chain.sql). SHA-256 throughout;
+// the first byte of every hash input says what it is, so a leaf can never be taken
+// for a node, a chain link or a block header.
+//
+// Canonical row encoding: the columns of AuditExportDao.AuditTable in order, each a
+// type tag and a fixed-width or length-prefixed value; timestamps as UTC epoch
+// microseconds (the database's precision).
+public final class AuditHashing {
+
+    public static final int HASH_BYTES = 32;
+
+    private static final byte LEAF = 0x00;
+    private static final byte NODE = 0x01;
+    private static final byte CHAIN = 0x02;
+    private static final byte BLOCK = 0x03;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    private AuditHashing() {
+    }
+
+    public static byte[] canonical(Object[] values) {
+        ByteBuffer b = ByteBuffer.allocate(encodedLength(values));
+        for (Object v : values) {
+            if (v == null) {
+                b.put((byte) 0);
+            } else if (v instanceof Long l) {
+                b.put((byte) 1).putLong(l);
+            } else if (v instanceof Integer i) {
+                b.put((byte) 2).putInt(i);
+            } else if (v instanceof Boolean z) {
+                b.put((byte) 3).put((byte) (z ? 1 : 0));
+            } else if (v instanceof String s) {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                b.put((byte) 4).putInt(utf8.length).put(utf8);
+            } else if (v instanceof OffsetDateTime t) {
+                b.put((byte) 5).putLong(t.toEpochSecond() * 1_000_000L + t.getNano() / 1_000);
+            } else {
+                throw new IllegalArgumentException("no canonical form for " + v.getClass().getName());
+            }
+        }
+        byte[] out = new byte[b.position()];
+        b.flip().get(out);
+        return out;
+    }
+
+    public static byte[] leaf(String table, byte[] canonical) {
+        MessageDigest d = SHA256.get();
+        d.update(LEAF);
+        d.update(table.getBytes(StandardCharsets.UTF_8));
+        return d.digest(canonical);
+    }
+
+    public static byte[] chain(byte[] previous, byte[] rowHash) {
+        MessageDigest d = SHA256.get();
+        d.update(CHAIN);
+        d.update(previous);
+        return d.digest(rowHash);
+    }
+
+    // Root over the leaves in order; an odd node at the end of a level is carried up.
+    public static byte[] merkleRoot(List<byte[]> leaves) {
+        if (leaves.isEmpty()) return new byte[HASH_BYTES];
+        List<byte[]> level = leaves;
+        MessageDigest d = SHA256.get();
+        while (level.size() > 1) {
+            List<byte[]> up = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i + 1 < level.size(); i += 2) {
+                d.update(NODE);
+                d.update(level.get(i));
+                up.add(d.digest(level.get(i + 1)));
+            }
+            if ((level.size() & 1) == 1) up.add(level.get(level.size() - 1));
+            level = up;
+        }
+        return level.get(0);
+    }
+
+    public static byte[] blockHash(String table, long blockNo, long firstSeq, long lastSeq, byte[] prevBlockHash,
+                                   byte[] prevChainHash, byte[] lastChainHash, byte[] merkleRoot) {
+        MessageDigest d = SHA256.get();
+        d.update(BLOCK);
+        d.update(table.getBytes(StandardCharsets.UTF_8));
+        d.update(ByteBuffer.allocate(24).putLong(blockNo).putLong(firstSeq).putLong(lastSeq).array());
+        d.update(prevBlockHash);
+        d.update(prevChainHash);
+        d.update(lastChainHash);
+        return d.digest(merkleRoot);
+    }
+
+    private static int encodedLength(Object[] values) {
+        int n = 0;
+        for (Object v : values) {
+            n += 9;
+            if (v instanceof String s) n += 4 + 3 * s.length();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,120 @@
+package edu.depaul.grap.audit;
+
+import edu.depaul.grap.dao.AuditPartitionDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Audit partition upkeep (sql/24_audit_partitioning.sql):
+//  - monthly partitions of deletion_audit / backup_protection_audit are created
+//    months-ahead in advance, so inserts never land in the default partition
+//  - with retention enabled, months older than retention-months are detached and
+//    moved to the audit_archive schema (logged in audit_archive_log); archived months
+//    are dropped archive-drop-days later, or never when that is negative
+// Every node runs this; the DDL is idempotent and each step waits at most
+// lock-timeout-millis for its locks, so a busy table is retried on the next run.
+@Service
+public class AuditPartitionMaintenance {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditPartitionMaintenance.class);
+
+    private final AuditPartitionDao dao;
+    private final int monthsAhead;
+    private final boolean retentionEnabled;
+    private final int retentionMonths;
+    private final int archiveDropDays;
+    private final int lockTimeoutMillis;
+
+    public AuditPartitionMaintenance(AuditPartitionDao dao,
+                                     @Value("${grap.audit.months-ahead:3}") int monthsAhead,
+                                     @Value("${grap.audit.retention.enabled:false}") boolean retentionEnabled,
+                                     @Value("${grap.audit.retention.months:84}") int retentionMonths,
+                                     @Value("${grap.audit.retention.archive-drop-days:-1}") int archiveDropDays,
+                                     @Value("${grap.audit.lock-timeout-millis:5000}") int lockTimeoutMillis) {
+        this.dao = dao;
+        this.monthsAhead = Math.max(1, monthsAhead);
+        this.retentionEnabled = retentionEnabled;
+        this.retentionMonths = Math.max(1, retentionMonths);
+        this.archiveDropDays = archiveDropDays;
+        this.lockTimeoutMillis = Math.max(1, lockTimeoutMillis);
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("months_ahead", monthsAhead);
+        s.put("retention_enabled", retentionEnabled);
+        s.put("retention_months", retentionMonths);
+        s.put("archive_drop_days", archiveDropDays);
+        s.put("partitions", dao.partitions());
+        s.put("archived", dao.archived(100));
+        return s;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepare() {
+        ensurePartitions();
+    }
+
+    @Scheduled(fixedDelayString = "${grap.audit.maintain-millis:86400000}",
+            initialDelayString = "${grap.audit.maintain-millis:86400000}")
+    public void maintain() {
+        ensurePartitions();
+        if (retentionEnabled) applyRetention();
+    }
+
+    // Archives every expired month now (admin endpoint); works with retention disabled.
+    public List<Map<String, Object>> applyRetention() {
+        List<Map<String, Object>> archived = new ArrayList<>();
+        for (String table : AuditPartitionDao.TABLES) {
+            try {
+                List<Map<String, Object>> batch;
+                do {
+                    batch = dao.archive(table, retentionMonths, 12, lockTimeoutMillis);
+                    for (Map<String, Object> p : batch) {
+                        log.info("archived {} ({} rows) to audit_archive", p.get("partition_name"), p.get("row_count"));
+                        Map<String, Object> m = new LinkedHashMap<>(p);
+                        m.put("source_table", table);
+                        archived.add(m);
+                    }
+                } while (batch.size() == 12);
+            } catch (DataAccessException e) {
+                log.warn("audit retention on {} failed: {}", table, e.getMostSpecificCause().getMessage());
+            }
+        }
+        if (archiveDropDays >= 0) {
+            try {
+                int dropped = dao.dropArchived(archiveDropDays);
+                if (dropped > 0) log.info("dropped {} archived audit partitions", dropped);
+            } catch (DataAccessException e) {
+                log.warn("dropping archived audit partitions failed: {}", e.getMostSpecificCause().getMessage());
+            }
+        }
+        return archived;
+    }
+
+    private void ensurePartitions() {
+        LocalDate first = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1);
+        for (String table : AuditPartitionDao.TABLES) {
+            try {
+                int created = dao.ensurePartitions(table, first, first.plusMonths(monthsAhead), lockTimeoutMillis);
+                if (created > 0) log.info("created {} {} partitions", created, table);
+                long stray = dao.defaultPartitionRows(table);
+                if (stray > 0) log.warn("{} {} rows are in the default partition", stray, table);
+            } catch (DataAccessException e) {
+                log.warn("{} partition upkeep failed: {}", table, e.getMostSpecificCause().getMessage());
+            }
+        }
+    }
+}
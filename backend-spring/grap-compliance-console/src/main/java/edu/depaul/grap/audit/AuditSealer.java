@@ -0,0 +1,378 @@
+package edu.depaul.grap.audit;
+
+import edu.depaul.grap.dao.AuditExportDao.AuditTable;
+import edu.depaul.grap.dao.AuditSealDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Seals and verifies the audit tables' hash chain (sql/31_audit_hash_chain.sql).
+//
+//  - sealing: every seal-millis each table's committed, unsealed rows are hashed and
+//    chained seal-batch rows per transaction (one sealer per table across nodes), for at
+//    most seal-budget-millis per run; a full block of block-size rows gets its Merkle
+//    root and block header in the transaction that fills it
+//  - verification: the blocks overlapping a time range are checked on verify-threads
+//    workers, one block per task (its rows, row hashes, chain and Merkle root); the
+//    block headers are walked in order meanwhile, one hash per block. The open block
+//    (sealed rows not yet in a full block) is always checked, by its chain. A block
+//    reaching into detached (archived) months is skipped only when none of its rows
+//    are left and it lies wholly in them; otherwise the rows still present are
+//    checked and the missing ones must be the ones archiving recorded.
+@Service
+public class AuditSealer {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditSealer.class);
+    private static final OffsetDateTime BEGINNING = OffsetDateTime.of(1970, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final int MAX_REPORTED_FAILURES = 100;
+
+    // ALL: nothing of the block is left to check; PART: checked without its archived rows
+    private enum Archived { NONE, PART, ALL }
+
+    // problem == null: the block checked out
+    private record BlockCheck(long blockNo, long rows, String problem, Archived archived) {
+        BlockCheck(long blockNo, long rows, String problem) {
+            this(blockNo, rows, problem, Archived.NONE);
+        }
+    }
+
+    private final AuditSealDao dao;
+    private final boolean enabled;
+    private final int blockSize;
+    private final int batchSize;
+    private final long budgetNanos;
+    private final int threads;
+    private final ExecutorService pool;
+    private final Map<AuditTable, Counter> sealed = new EnumMap<>(AuditTable.class);
+
+    public AuditSealer(AuditSealDao dao, MeterRegistry registry,
+                       @Value("${grap.audit-seal.enabled:true}") boolean enabled,
+                       @Value("${grap.audit-seal.block-size:4096}") int blockSize,
+                       @Value("${grap.audit-seal.seal-batch:4096}") int batchSize,
+                       @Value("${grap.audit-seal.seal-budget-millis:20000}") long budgetMillis,
+                       @Value("${grap.audit-seal.verify-threads:4}") int verifyThreads) {
+        this.dao = dao;
+        this.enabled = enabled;
+        this.blockSize = Math.max(2, blockSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(100, budgetMillis));
+        this.threads = Math.max(1, verifyThreads);
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r, "audit-verify-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        for (AuditTable t : AuditTable.values()) {
+            sealed.put(t, Counter.builder("grap.audit.sealed_rows")
+                    .description("audit rows hash-chained").tag("table", t.table).register(registry));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // ----------------------------
+    // Sealing
+    // ----------------------------
+
+    @Scheduled(fixedDelayString = "${grap.audit-seal.seal-millis:5000}")
+    public void scheduledSeal() {
+        if (!enabled) return;
+        for (AuditTable t : AuditTable.values()) {
+            try {
+                seal(t, budgetNanos);
+            } catch (DataAccessException e) {
+                log.warn("sealing {} failed: {}", t.table, e.getMostSpecificCause().getMessage());
+            } catch (IllegalStateException e) {
+                log.warn("sealing {} failed: {}", t.table, e.getMessage());
+            }
+        }
+    }
+
+    // Seals until the table is caught up (admin endpoint; no time budget).
+    public Map<String, Object> sealNow(AuditTable t) {
+        long t0 = System.nanoTime();
+        long[] done = seal(t, Long.MAX_VALUE);
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("rows_sealed", done[0]);
+        m.put("blocks_closed", done[1]);
+        m.put("elapsed_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+        m.putAll(status(t));
+        return m;
+    }
+
+    // {rows, blocks}; stops early when another node is sealing the table
+    private long[] seal(AuditTable t, long budget) {
+        long start = System.nanoTime();
+        long rows = 0;
+        long blocks = 0;
+        while (System.nanoTime() - start < budget) {
+            AuditSealDao.SealResult r = dao.seal(t, batchSize, blockSize);
+            if (r == null) break;
+            rows += r.rows();
+            blocks += r.blocksClosed();
+            sealed.get(t).increment(r.rows());
+            if (r.rows() < batchSize && r.blocksClosed() == 0) break;
+        }
+        return new long[]{rows, blocks};
+    }
+
+    public Map<String, Object> status(AuditTable t) {
+        AuditSealDao.State s = dao.state(t);
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("table", t.table);
+        m.put("last_seq", s.lastSeq());
+        m.put("unsealed", dao.unsealed(t));
+        m.put("block_size", blockSize);
+        m.put("blocks", s.blockNo());
+        m.put("open_block_rows", s.lastSeq() - s.blockLastSeq());
+        // keep a copy of this elsewhere: rewriting the whole chain is only caught against it
+        m.put("head_block_hash", HexFormat.of().formatHex(s.blockHash()));
+        m.put("sealed_at", s.sealedAt());
+        return m;
+    }
+
+    public List<Map<String, Object>> verifications(int limit) {
+        return dao.verifications(limit);
+    }
+
+    // ----------------------------
+    // Verification
+    // ----------------------------
+
+    // Blocks (and the open block) with rows in [from, to); null bounds = everything.
+    public Map<String, Object> verify(AuditTable t, OffsetDateTime from, OffsetDateTime to) {
+        OffsetDateTime lo = (from == null) ? BEGINNING : from;
+        OffsetDateTime hi = (to == null) ? OffsetDateTime.now(ZoneOffset.UTC) : to;
+        if (!lo.isBefore(hi)) throw new IllegalArgumentException("from must be before to");
+        long t0 = System.nanoTime();
+
+        AuditSealDao.State s = dao.state(t);
+        List<AuditSealDao.Block> blocks = dao.blocks(t, lo, hi);
+        List<OffsetDateTime[]> detached = merge(dao.archivedRanges(t));
+        Map<Long, Long> archivedRows = detached.isEmpty() ? Map.of() : dao.archivedRows(t);
+
+        List<CompletableFuture<BlockCheck>> running = new ArrayList<>(blocks.size() + 1);
+        for (AuditSealDao.Block b : blocks) {
+            running.add(CompletableFuture.supplyAsync(() -> checkBlock(t, b, detached, archivedRows), pool));
+        }
+        if (s.lastSeq() > s.blockLastSeq()) {
+            running.add(CompletableFuture.supplyAsync(() -> checkOpenBlock(t, s), pool));
+        }
+
+        // headers in block order while the workers run
+        List<BlockCheck> results = new ArrayList<>(checkHeaders(t, s, blocks));
+        for (CompletableFuture<BlockCheck> f : running) results.add(f.join());
+
+        long rows = 0;
+        int archivedBlocks = 0;
+        int partlyArchived = 0;
+        List<BlockCheck> failed = new ArrayList<>();
+        for (BlockCheck c : results) {
+            rows += c.rows();
+            if (c.archived() == Archived.ALL) archivedBlocks++;
+            if (c.archived() == Archived.PART) partlyArchived++;
+            if (c.problem() != null) failed.add(c);
+        }
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        List<Long> failedBlocks = failed.stream().map(BlockCheck::blockNo).distinct().sorted().toList();
+        int checked = blocks.size() - archivedBlocks;
+        long verifyId = dao.recordVerification(new AuditSealDao.Verification(t, lo, hi, checked, archivedBlocks,
+                partlyArchived, rows, failed.size(), failedBlocks, s.blockNo(), s.blockHash(), threads, ms));
+        if (!failed.isEmpty()) {
+            log.warn("audit verification {} of {}: {} problems in blocks {}", verifyId, t.table, failed.size(),
+                    failedBlocks);
+        }
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("verify_id", verifyId);
+        m.put("table", t.table);
+        m.put("from", lo);
+        m.put("to", hi);
+        m.put("ok", failed.isEmpty());
+        m.put("blocks_checked", checked);
+        m.put("blocks_archived", archivedBlocks);
+        m.put("blocks_partly_archived", partlyArchived);
+        m.put("rows_checked", rows);
+        List<Map<String, Object>> problems = new ArrayList<>();
+        for (BlockCheck c : failed.subList(0, Math.min(failed.size(), MAX_REPORTED_FAILURES))) {
+            Map<String, Object> p = new LinkedHashMap<>();
+            p.put("block_no", c.blockNo());
+            p.put("problem", c.problem());
+            problems.add(p);
+        }
+        m.put("failures", problems);
+        m.put("head_block_no", s.blockNo());
+        m.put("head_block_hash", HexFormat.of().formatHex(s.blockHash()));
+        m.put("threads", threads);
+        m.put("elapsed_ms", ms);
+        m.put("rows_per_sec", ms == 0 ? rows : rows * 1000 / ms);
+        return m;
+    }
+
+    // Each header's hash, and its link to the block before it (fetched when that one
+    // is outside the range). The newest block must be the state's head.
+    private List<BlockCheck> checkHeaders(AuditTable t, AuditSealDao.State s, List<AuditSealDao.Block> blocks) {
+        List<BlockCheck> out = new ArrayList<>();
+        AuditSealDao.Block prev = null;
+        for (AuditSealDao.Block b : blocks) {
+            if (prev == null || prev.blockNo() != b.blockNo() - 1) {
+                prev = (b.blockNo() == 1) ? null : dao.block(t, b.blockNo() - 1);
+                if (prev == null && b.blockNo() != 1) {
+                    out.add(new BlockCheck(b.blockNo(), 0, "block " + (b.blockNo() - 1) + " is missing"));
+                }
+            }
+            byte[] zero = new byte[AuditHashing.HASH_BYTES];
+            byte[] prevHash = (prev == null) ? zero : prev.blockHash();
+            byte[] prevChain = (prev == null) ? zero : prev.lastChainHash();
+            long prevLast = (prev == null) ? 0 : prev.lastSeq();
+            String problem = null;
+            if (b.firstSeq() != prevLast + 1) problem = "first_seq " + b.firstSeq() + " does not follow " + prevLast;
+            else if (!Arrays.equals(b.prevBlockHash(), prevHash)) problem = "prev_block_hash does not match block " + (b.blockNo() - 1);
+            else if (!Arrays.equals(b.prevChainHash(), prevChain)) problem = "prev_chain_hash does not match block " + (b.blockNo() - 1);
+            else if (!Arrays.equals(b.blockHash(), AuditHashing.blockHash(t.table, b.blockNo(), b.firstSeq(),
+                    b.lastSeq(), b.prevBlockHash(), b.prevChainHash(), b.lastChainHash(), b.merkleRoot()))) {
+                problem = "block_hash does not match the header";
+            } else if (b.blockNo() == s.blockNo() && !Arrays.equals(b.blockHash(), s.blockHash())) {
+                problem = "block_hash is not the recorded head";
+            }
+            if (problem != null) out.add(new BlockCheck(b.blockNo(), 0, problem));
+            prev = b;
+        }
+        return out;
+    }
+
+    private BlockCheck checkBlock(AuditTable t, AuditSealDao.Block b, List<OffsetDateTime[]> detached,
+                                  Map<Long, Long> archivedRows) {
+        List<AuditSealDao.SealedRow> rows = dao.sealedRows(t, b.firstSeq(), b.lastSeq(),
+                b.minOccurredAt(), b.maxOccurredAt());
+        if (overlaps(detached, b.minOccurredAt(), b.maxOccurredAt())) {
+            long archived = archivedRows.getOrDefault(b.blockNo(), 0L);
+            if (rows.isEmpty() && archived == b.lastSeq() - b.firstSeq() + 1
+                    && covers(detached, b.minOccurredAt(), b.maxOccurredAt())) {
+                return new BlockCheck(b.blockNo(), 0, null, Archived.ALL);
+            }
+            return new BlockCheck(b.blockNo(), rows.size(), checkPresentRows(t, rows, b, archived), Archived.PART);
+        }
+        byte[][] leaves = new byte[rows.size()][];
+        String problem = checkRows(t, rows, b.firstSeq(), b.lastSeq(), b.prevChainHash(), b.lastChainHash(), leaves);
+        if (problem == null && !Arrays.equals(AuditHashing.merkleRoot(Arrays.asList(leaves)), b.merkleRoot())) {
+            problem = "merkle_root does not match the rows";
+        }
+        return new BlockCheck(b.blockNo(), rows.size(), problem);
+    }
+
+    // Rows after the last full block (fewer than block-size): chain only, there is no
+    // root yet. Always checked; they are the newest rows.
+    private BlockCheck checkOpenBlock(AuditTable t, AuditSealDao.State s) {
+        List<AuditSealDao.SealedRow> rows = dao.sealedRows(t, s.blockLastSeq() + 1, s.lastSeq(), null, null);
+        String problem = checkRows(t, rows, s.blockLastSeq() + 1, s.lastSeq(), s.blockChainHash(),
+                s.lastChainHash(), new byte[rows.size()][]);
+        return new BlockCheck(0, rows.size(), problem);
+    }
+
+    // Rows present and contiguous, each row_hash recomputed from its columns, the chain
+    // rebuilt from the recomputed hashes. leaves receives the recomputed row hashes.
+    private static String checkRows(AuditTable t, List<AuditSealDao.SealedRow> rows, long firstSeq, long lastSeq,
+                                    byte[] prevChain, byte[] lastChain, byte[][] leaves) {
+        long expected = lastSeq - firstSeq + 1;
+        if (rows.size() != expected) return rows.size() + " of " + expected + " rows present";
+        int idCol = t.columns.indexOf("audit_id");
+        byte[] chain = prevChain;
+        for (int i = 0; i < rows.size(); i++) {
+            AuditSealDao.SealedRow r = rows.get(i);
+            Object auditId = r.values()[idCol];
+            if (r.seq() != firstSeq + i) return "seal_seq " + (firstSeq + i) + " is missing";
+            byte[] leaf = AuditHashing.leaf(t.table, AuditHashing.canonical(r.values()));
+            if (!Arrays.equals(leaf, r.rowHash())) return "audit_id " + auditId + " (seq " + r.seq() + ") was modified";
+            chain = AuditHashing.chain(chain, leaf);
+            if (!Arrays.equals(chain, r.chainHash())) return "chain breaks at audit_id " + auditId + " (seq " + r.seq() + ")";
+            leaves[i] = leaf;
+        }
+        if (!Arrays.equals(chain, lastChain)) return "chain does not end at last_chain_hash";
+        return null;
+    }
+
+    // A block partly in archived months: every row is present or counted as archived,
+    // the present ones hash to their row_hash, and a row following a present one (or
+    // the block's start) chains from it. The Merkle root needs all leaves: not checked.
+    private static String checkPresentRows(AuditTable t, List<AuditSealDao.SealedRow> rows, AuditSealDao.Block b,
+                                           long archived) {
+        long expected = b.lastSeq() - b.firstSeq() + 1;
+        if (rows.size() + archived != expected) {
+            return rows.size() + " of " + expected + " rows present, " + archived + " archived";
+        }
+        int idCol = t.columns.indexOf("audit_id");
+        long prevSeq = b.firstSeq() - 1;
+        byte[] prevChain = b.prevChainHash();
+        for (AuditSealDao.SealedRow r : rows) {
+            Object auditId = r.values()[idCol];
+            byte[] leaf = AuditHashing.leaf(t.table, AuditHashing.canonical(r.values()));
+            if (!Arrays.equals(leaf, r.rowHash())) return "audit_id " + auditId + " (seq " + r.seq() + ") was modified";
+            if (r.seq() == prevSeq + 1 && !Arrays.equals(AuditHashing.chain(prevChain, leaf), r.chainHash())) {
+                return "chain breaks at audit_id " + auditId + " (seq " + r.seq() + ")";
+            }
+            prevSeq = r.seq();
+            prevChain = r.chainHash();
+        }
+        if (prevSeq == b.lastSeq() && !Arrays.equals(prevChain, b.lastChainHash())) {
+            return "chain does not end at last_chain_hash";
+        }
+        return null;
+    }
+
+    // the detached months as disjoint [from, to) ranges, adjacent months joined
+    private static List<OffsetDateTime[]> merge(List<OffsetDateTime[]> ranges) {
+        List<OffsetDateTime[]> sorted = new ArrayList<>(ranges);
+        sorted.sort((x, y) -> x[0].compareTo(y[0]));
+        List<OffsetDateTime[]> out = new ArrayList<>();
+        for (OffsetDateTime[] r : sorted) {
+            OffsetDateTime[] last = out.isEmpty() ? null : out.get(out.size() - 1);
+            if (last != null && !r[0].isAfter(last[1])) {
+                if (r[1].isAfter(last[1])) last[1] = r[1];
+            } else {
+                out.add(new OffsetDateTime[]{r[0], r[1]});
+            }
+        }
+        return out;
+    }
+
+    private static boolean overlaps(List<OffsetDateTime[]> detached, OffsetDateTime min, OffsetDateTime max) {
+        for (OffsetDateTime[] r : detached) {
+            if (min.isBefore(r[1]) && !max.isBefore(r[0])) return true;
+        }
+        return false;
+    }
+
+    // [min, max] wholly inside one detached range
+    private static boolean covers(List<OffsetDateTime[]> detached, OffsetDateTime min, OffsetDateTime max) {
+        for (OffsetDateTime[] r : detached) {
+            if (!min.isBefore(r[0]) && max.isBefore(r[1])) return true;
+        }
+        return false;
+    }
+}
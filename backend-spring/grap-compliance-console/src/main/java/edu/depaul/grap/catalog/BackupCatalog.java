@@ -0,0 +1,41 @@
+package edu.depaul.grap.catalog;
+
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+// Backup membership ("which users are in which backups"), behind GrapDao.
+// grap.backup-catalog.format picks the storage:
+//   table  -> backup_user_index, one row per (backup_id, user_id)   (default)
+//   bitmap -> backup_user_bitmap, one Roaring bitmap per backup     (sql/16_backup_membership_bitmap.sql)
+public interface BackupCatalog {
+
+    String format();
+
+    Map<String, Object> addUser(long backupId, long userId);
+
+    // Bulk add (backup manifests, sql/27_backup_manifest.sql): every user in the set,
+    // committed chunkSize users at a time in ascending order; loaded gets the running
+    // total after each chunk. Pairs already present are refreshed (last_seen), not errors.
+    BulkAdd addUsers(long backupId, Roaring64NavigableMap users, int chunkSize, LongConsumer loaded);
+
+    record BulkAdd(long added, long refreshed) {}
+
+    List<Long> backupsContaining(long userId);
+
+    // same columns as the original GrapDao.listBackupsForUser query;
+    // newest first, backup_id < beforeBackupId, at most limit rows
+    List<Map<String, Object>> listBackupsForUser(long userId, long beforeBackupId, int limit);
+
+    ImmutableRoaringBitmap users(long backupId);
+
+    // Incremental protection sweep: for each slot i, the backups containing userIds[i]
+    // with afterBackupIds[i] < backup_id <= throughBackupId. Reads only backups in
+    // that range, not the user's whole history.
+    List<Member> membersSince(long[] userIds, long[] afterBackupIds, long throughBackupId);
+
+    record Member(int slot, long backupId) {}
+}
@@ -0,0 +1,148 @@
+package edu.depaul.grap.catalog;
+
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// backup_user_index -> backup_user_bitmap, plus a size / lookup-latency comparison
+// of the two formats on the live data. Works whichever format is configured;
+// backup_user_index is left untouched.
+@Service
+public class BackupCatalogMigration {
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    public BackupCatalogMigration(JdbcTemplate jdbc, TransactionTemplate tx) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+    }
+
+    // One transaction per backup; user_ids are streamed (fetch size only applies inside a tx).
+    public Map<String, Object> migrate() {
+        long t0 = System.nanoTime();
+        List<Long> backups = jdbc.queryForList(
+                "SELECT DISTINCT backup_id FROM backup_user_index ORDER BY backup_id", Long.class);
+
+        long pairs = 0;
+        for (long backupId : backups) {
+            Long n = tx.execute(status -> {
+                MutableRoaringBitmap bm = new MutableRoaringBitmap();
+                jdbc.query(con -> {
+                    var ps = con.prepareStatement("SELECT user_id FROM backup_user_index WHERE backup_id = ?");
+                    ps.setLong(1, backupId);
+                    ps.setFetchSize(50_000);
+                    return ps;
+                }, rs -> {
+                    bm.add(UserBitmaps.toInt(rs.getLong(1)));
+                });
+                UserBitmaps.store(jdbc, backupId, bm);
+                return bm.getLongCardinality();
+            });
+            pairs += (n == null) ? 0 : n;
+        }
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("backups", backups.size());
+        m.put("pairs", pairs);
+        m.put("elapsed_ms", (System.nanoTime() - t0) / 1_000_000);
+        m.put("sizes", sizes());
+        return m;
+    }
+
+    public Map<String, Object> sizes() {
+        return jdbc.queryForMap("""
+            SELECT
+              (SELECT count(*) FROM backup_user_index)                      AS table_rows,
+              pg_total_relation_size('backup_user_index')                   AS table_bytes,
+              (SELECT count(*) FROM backup_user_bitmap)                     AS bitmap_rows,
+              (SELECT coalesce(sum(cardinality), 0) FROM backup_user_bitmap) AS bitmap_pairs,
+              (SELECT coalesce(sum(octet_length(users)), 0) FROM backup_user_bitmap) AS bitmap_payload_bytes,
+              pg_total_relation_size('backup_user_bitmap')                  AS bitmap_bytes
+        """);
+    }
+
+    // "Which backups contain user X" for sampled users, both formats.
+    //   table        : indexed query on backup_user_index(user_id)
+    //   bitmap_cold  : fetch every bitmap from backup_user_bitmap, then contains()
+    //   bitmap_warm  : contains() over bitmaps already in memory
+    public Map<String, Object> compare(int samples) {
+        List<Long> users = jdbc.queryForList(
+                "SELECT user_id FROM (SELECT DISTINCT user_id FROM backup_user_index) u " +
+                        "ORDER BY random() LIMIT ?",
+                Long.class, samples);
+
+        TableBackupCatalog table = new TableBackupCatalog(jdbc, tx);
+        long[] tableNs = new long[users.size()];
+        List<List<Long>> expected = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            long t0 = System.nanoTime();
+            expected.add(table.backupsContaining(users.get(i)));
+            tableNs[i] = System.nanoTime() - t0;
+        }
+
+        long[] coldNs = new long[users.size()];
+        long[] warmNs = new long[users.size()];
+        Map<Long, ImmutableRoaringBitmap> loaded = new LinkedHashMap<>();
+        int mismatches = 0;
+        for (int i = 0; i < users.size(); i++) {
+            long t0 = System.nanoTime();
+            loaded = loadAll();
+            containing(loaded, users.get(i));
+            coldNs[i] = System.nanoTime() - t0;
+        }
+        for (int i = 0; i < users.size(); i++) {
+            long t0 = System.nanoTime();
+            List<Long> got = containing(loaded, users.get(i));
+            warmNs[i] = System.nanoTime() - t0;
+            if (!got.equals(expected.get(i))) mismatches++;
+        }
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("samples", users.size());
+        m.put("backups_with_bitmap", loaded.size());
+        m.put("mismatches", mismatches);
+        m.put("table", latency(tableNs));
+        m.put("bitmap_cold", latency(coldNs));
+        m.put("bitmap_warm", latency(warmNs));
+        m.put("sizes", sizes());
+        return m;
+    }
+
+    private Map<Long, ImmutableRoaringBitmap> loadAll() {
+        Map<Long, ImmutableRoaringBitmap> out = new LinkedHashMap<>();
+        jdbc.query("SELECT backup_id, users FROM backup_user_bitmap ORDER BY backup_id DESC",
+                rs -> {
+                    out.put(rs.getLong(1), UserBitmaps.view(rs.getBytes(2)));
+                });
+        return out;
+    }
+
+    private static List<Long> containing(Map<Long, ImmutableRoaringBitmap> bitmaps, long userId) {
+        int v = UserBitmaps.toInt(userId);
+        List<Long> out = new ArrayList<>();
+        bitmaps.forEach((id, bm) -> {
+            if (bm.contains(v)) out.add(id);
+        });
+        return out;
+    }
+
+    private static Map<String, Object> latency(long[] ns) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        if (ns.length == 0) return m;
+        long[] s = ns.clone();
+        Arrays.sort(s);
+        m.put("p50_us", s[(int) (s.length * 0.50)] / 1_000);
+        m.put("p99_us", s[Math.min(s.length - 1, (int) (s.length * 0.99))] / 1_000);
+        m.put("max_us", s[s.length - 1] / 1_000);
+        return m;
+    }
+}
@@ -0,0 +1,249 @@
+package edu.depaul.grap.catalog;
+
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+// One Roaring bitmap of user_ids per backup in backup_user_bitmap
+// (sql/16_backup_membership_bitmap.sql).
+//
+// "Which backups contain user X" is a contains() over every backup's bitmap;
+// bitmaps are cached in memory by (backup_id, version) up to
+// grap.backup-catalog.cache-bytes, so a warm lookup reads only the version list.
+// first_seen/last_seen are not kept per pair in this format (returned as NULL).
+// addUser checks the new member against active holds in the same transaction
+// (protect_new_backup_members, sql/25_incremental_protection.sql); the table
+// format gets that from a trigger on backup_user_index.
+@Component
+@ConditionalOnProperty(name = "grap.backup-catalog.format", havingValue = "bitmap")
+public class BitmapBackupCatalog implements BackupCatalog {
+
+    private record Cached(long version, ImmutableRoaringBitmap users, int bytes) {}
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final long cacheBudgetBytes;
+
+    private final LinkedHashMap<Long, Cached> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    public BitmapBackupCatalog(JdbcTemplate jdbc,
+                               TransactionTemplate tx,
+                               @Value("${grap.backup-catalog.cache-bytes:268435456}") long cacheBudgetBytes) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.cacheBudgetBytes = cacheBudgetBytes;
+    }
+
+    @Override
+    public String format() {
+        return "bitmap";
+    }
+
+    // Read-modify-write under the row lock; same duplicate behaviour as the table PK.
+    @Override
+    public Map<String, Object> addUser(long backupId, long userId) {
+        int v = UserBitmaps.toInt(userId);
+        tx.executeWithoutResult(status -> {
+            List<byte[]> cur = jdbc.query(
+                    "SELECT users FROM backup_user_bitmap WHERE backup_id = ? FOR UPDATE",
+                    (rs, i) -> rs.getBytes(1), backupId);
+
+            MutableRoaringBitmap bm = cur.isEmpty()
+                    ? new MutableRoaringBitmap()
+                    : UserBitmaps.view(cur.get(0)).toMutableRoaringBitmap();
+            if (!bm.checkedAdd(v)) {
+                throw new DuplicateKeyException("user " + userId + " already in backup " + backupId);
+            }
+            UserBitmaps.store(jdbc, backupId, bm);
+            jdbc.queryForObject("SELECT protect_new_backup_members(?, ARRAY[?]::bigint[])",
+                    Long.class, backupId, userId);
+        });
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("backup_id", backupId);
+        row.put("user_id", userId);
+        return row;
+    }
+
+    // One read-modify-write of the backup's bitmap (chunkSize does not apply: the
+    // whole set is one row). Held users among the new members are protected in the
+    // same transaction, as in addUser.
+    @Override
+    public BulkAdd addUsers(long backupId, Roaring64NavigableMap users, int chunkSize, LongConsumer loaded) {
+        MutableRoaringBitmap incoming = new MutableRoaringBitmap();
+        LongIterator it = users.getLongIterator();
+        while (it.hasNext()) incoming.add(UserBitmaps.toInt(it.next()));
+
+        BulkAdd r = tx.execute(status -> {
+            List<byte[]> cur = jdbc.query(
+                    "SELECT users FROM backup_user_bitmap WHERE backup_id = ? FOR UPDATE",
+                    (rs, i) -> rs.getBytes(1), backupId);
+            MutableRoaringBitmap bm = cur.isEmpty()
+                    ? new MutableRoaringBitmap()
+                    : UserBitmaps.view(cur.get(0)).toMutableRoaringBitmap();
+
+            MutableRoaringBitmap fresh = MutableRoaringBitmap.andNot(incoming, bm);
+            bm.or(fresh);
+            UserBitmaps.store(jdbc, backupId, bm);
+
+            // only new members that are held matter; read the holds under the same
+            // shared lock protect_new_backup_members takes
+            jdbc.queryForList("SELECT pg_advisory_xact_lock_shared(hashtext('backup_hold_sweep'))");
+            List<Long> held = new ArrayList<>();
+            jdbc.query("SELECT DISTINCT user_id FROM legal_holds WHERE released_at IS NULL", rs -> {
+                long u = rs.getLong(1);
+                if (u >= 0 && u <= UserBitmaps.MAX_USER_ID && fresh.contains((int) u)) held.add(u);
+            });
+            if (!held.isEmpty()) {
+                jdbc.query(con -> {
+                    var ps = con.prepareStatement("SELECT protect_new_backup_members(?, ?)");
+                    ps.setLong(1, backupId);
+                    ps.setArray(2, con.createArrayOf("bigint", held.toArray()));
+                    return ps;
+                }, rs -> {
+                });
+            }
+            long added = fresh.getLongCardinality();
+            return new BulkAdd(added, incoming.getLongCardinality() - added);
+        });
+        loaded.accept(users.getLongCardinality());
+        return r;
+    }
+
+    @Override
+    public List<Long> backupsContaining(long userId) {
+        if (userId < 0 || userId > UserBitmaps.MAX_USER_ID) return List.of();
+        int v = (int) userId;
+        List<Long> out = new ArrayList<>();
+        for (Map.Entry<Long, ImmutableRoaringBitmap> e : current().entrySet()) {
+            if (e.getValue().contains(v)) out.add(e.getKey());
+        }
+        return out;
+    }
+
+    // only the bitmaps of backups above the lowest watermark are read
+    @Override
+    public List<Member> membersSince(long[] userIds, long[] afterBackupIds, long throughBackupId) {
+        if (userIds.length == 0) return List.of();
+        long lowest = Long.MAX_VALUE;
+        for (long a : afterBackupIds) lowest = Math.min(lowest, a);
+
+        List<Member> out = new ArrayList<>();
+        for (Map.Entry<Long, ImmutableRoaringBitmap> e : current(lowest, throughBackupId).entrySet()) {
+            long backupId = e.getKey();
+            for (int i = 0; i < userIds.length; i++) {
+                if (backupId <= afterBackupIds[i]) continue;
+                if (userIds[i] < 0 || userIds[i] > UserBitmaps.MAX_USER_ID) continue;
+                if (e.getValue().contains((int) userIds[i])) out.add(new Member(i, backupId));
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public List<Map<String, Object>> listBackupsForUser(long userId, long beforeBackupId, int limit) {
+        List<Long> ids = backupsContaining(userId).stream()
+                .filter(id -> id < beforeBackupId)
+                .limit(limit)
+                .toList();
+        if (ids.isEmpty()) return List.of();
+        return jdbc.query(con -> {
+            var ps = con.prepareStatement("""
+                SELECT
+                    b.backup_id,
+                    b.backup_type,
+                    b.created_at,
+                    b.protected_by_hold,
+                    b.protected_reason,
+                    b.protected_at,
+                    NULL::timestamptz AS first_seen,
+                    NULL::timestamptz AS last_seen
+                FROM backup_runs b
+                WHERE b.backup_id = ANY(?)
+                ORDER BY b.backup_id DESC
+            """);
+            ps.setArray(1, con.createArrayOf("bigint", ids.toArray()));
+            return ps;
+        }, new ColumnMapRowMapper());
+    }
+
+    @Override
+    public ImmutableRoaringBitmap users(long backupId) {
+        List<Long> version = jdbc.queryForList(
+                "SELECT version FROM backup_user_bitmap WHERE backup_id = ?", Long.class, backupId);
+        if (version.isEmpty()) return new MutableRoaringBitmap();
+        return load(backupId, version.get(0));
+    }
+
+    // backup_id (DESC) -> bitmap, for every backup that has one
+    private Map<Long, ImmutableRoaringBitmap> current() {
+        return current(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // same, for afterBackupId < backup_id <= throughBackupId
+    private Map<Long, ImmutableRoaringBitmap> current(long afterBackupId, long throughBackupId) {
+        Map<Long, Long> versions = new LinkedHashMap<>();
+        jdbc.query("SELECT backup_id, version FROM backup_user_bitmap " +
+                        "WHERE backup_id > ? AND backup_id <= ? ORDER BY backup_id DESC",
+                rs -> {
+                    versions.put(rs.getLong(1), rs.getLong(2));
+                }, afterBackupId, throughBackupId);
+        Map<Long, ImmutableRoaringBitmap> out = new LinkedHashMap<>();
+        versions.forEach((id, v) -> out.put(id, load(id, v)));
+        return out;
+    }
+
+    private ImmutableRoaringBitmap load(long backupId, long version) {
+        Cached c = cached(backupId, version);
+        if (c != null) return c.users();
+
+        Map<String, Object> row = jdbc.queryForMap(
+                "SELECT users, version FROM backup_user_bitmap WHERE backup_id = ?", backupId);
+        byte[] bytes = (byte[]) row.get("users");
+        long v = ((Number) row.get("version")).longValue();
+        ImmutableRoaringBitmap bm = UserBitmaps.view(bytes);
+        remember(backupId, new Cached(v, bm, bytes.length));
+        return bm;
+    }
+
+    private synchronized Cached cached(long backupId, long version) {
+        Cached c = cache.get(backupId);
+        return (c != null && c.version() == version) ? c : null;
+    }
+
+    private synchronized void remember(long backupId, Cached c) {
+        Cached old = cache.put(backupId, c);
+        if (old != null) cachedBytes -= old.bytes();
+        cachedBytes += c.bytes();
+        var it = cache.entrySet().iterator();
+        while (cachedBytes > cacheBudgetBytes && it.hasNext()) {
+            Map.Entry<Long, Cached> e = it.next();
+            if (e.getKey() == backupId) continue;
+            cachedBytes -= e.getValue().bytes();
+            it.remove();
+        }
+    }
+
+    public synchronized Map<String, Object> cacheStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("cached_backups", cache.size());
+        m.put("cached_bytes", cachedBytes);
+        m.put("budget_bytes", cacheBudgetBytes);
+        return m;
+    }
+}
@@ -0,0 +1,146 @@
+package edu.depaul.grap.catalog;
+
+import edu.depaul.grap.dao.BackupProtectionDao;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Recomputes backup_runs.protecting_holds from backup_hold_coverage and the active
+// holds (sql/26_protection_refcount.sql) and reports backups whose stored count or
+// protected_by_hold flag drifted. The backup_id span is cut into parallelism * 4
+// slices, checked on parallelism workers, one connection each. With repair, each
+// drifted slice is fixed under row locks (check-repair for the scheduled run;
+// the endpoint decides per call).
+@Service
+public class ProtectionConsistencyCheck {
+
+    private static final Logger log = LoggerFactory.getLogger(ProtectionConsistencyCheck.class);
+    private static final int SLICES_PER_WORKER = 4;
+    private static final int SAMPLE = 100;
+
+    private record Slice(long from, long to) {}
+
+    private record SliceResult(long checked, List<Map<String, Object>> drift, int repaired) {}
+
+    private final BackupProtectionDao dao;
+    private final int parallelism;
+    private final boolean scheduledRepair;
+    private final ExecutorService pool;
+    private final AtomicLong lastDrift = new AtomicLong();
+
+    public ProtectionConsistencyCheck(BackupProtectionDao dao, MeterRegistry registry,
+                                      @Value("${grap.backup-protection.check-parallelism:4}") int parallelism,
+                                      @Value("${grap.backup-protection.check-repair:false}") boolean scheduledRepair) {
+        this.dao = dao;
+        this.parallelism = Math.max(1, parallelism);
+        this.scheduledRepair = scheduledRepair;
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.parallelism, r -> {
+            Thread t = new Thread(r, "protection-check-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Gauge.builder("grap.backups.protection_drift", lastDrift, AtomicLong::get)
+                .description("backups whose protection count drifted, at the last consistency check")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${grap.backup-protection.check-millis:86400000}",
+            initialDelayString = "${grap.backup-protection.check-millis:86400000}")
+    public void scheduledCheck() {
+        try {
+            Map<String, Object> r = check(scheduledRepair);
+            if (((Number) r.get("drifted")).longValue() > 0) {
+                log.warn("backup protection counts drifted: {} backups (repaired {})", r.get("drifted"), r.get("repaired"));
+            }
+        } catch (DataAccessException e) {
+            log.warn("backup protection check failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    public Map<String, Object> check(boolean repair) {
+        long started = System.nanoTime();
+        long[] range = dao.backupIdRange();
+        List<Slice> slices = range == null ? List.of() : slices(range[0], range[1]);
+
+        List<CompletableFuture<SliceResult>> running = new ArrayList<>(slices.size());
+        for (Slice s : slices) {
+            running.add(CompletableFuture.supplyAsync(() -> checkSlice(s, repair), pool));
+        }
+
+        long checked = 0;
+        long drifted = 0;
+        int repaired = 0;
+        List<Map<String, Object>> sample = new ArrayList<>();
+        for (CompletableFuture<SliceResult> f : running) {
+            SliceResult r = unwrap(f);
+            checked += r.checked();
+            drifted += r.drift().size();
+            repaired += r.repaired();
+            for (Map<String, Object> d : r.drift()) {
+                if (sample.size() < SAMPLE) sample.add(d);
+            }
+        }
+        lastDrift.set(repair ? drifted - repaired : drifted);
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("slices", slices.size());
+        out.put("parallelism", parallelism);
+        out.put("backups_checked", checked);
+        out.put("drifted", drifted);
+        out.put("repaired", repaired);
+        out.put("sample", sample);
+        out.put("elapsed_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return out;
+    }
+
+    private SliceResult checkSlice(Slice s, boolean repair) {
+        long checked = dao.countBackups(s.from(), s.to());
+        List<Map<String, Object>> drift = dao.countDrift(s.from(), s.to());
+        int repaired = (repair && !drift.isEmpty()) ? dao.repairCounts(s.from(), s.to()) : 0;
+        return new SliceResult(checked, drift, repaired);
+    }
+
+    private List<Slice> slices(long min, long max) {
+        int count = parallelism * SLICES_PER_WORKER;
+        long span = Math.max(1, (max - min + count) / count);
+        List<Slice> out = new ArrayList<>(count);
+        for (long lo = min; lo <= max; lo += span) {
+            out.add(new Slice(lo, Math.min(max, lo + span - 1)));
+        }
+        return out;
+    }
+
+    private static SliceResult unwrap(CompletableFuture<SliceResult> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,258 @@
+package edu.depaul.grap.catalog;
+
+import edu.depaul.grap.dao.RetentionPlanDao;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Which backups can be expired, and what a hold release or a new hold would change
+// (sql/28_retention_plan.sql).
+//
+// The planner keeps an in-memory snapshot: backup_runs as parallel arrays (oldest
+// first), each backup's members as a Roaring bitmap, and the active holds as a
+// bitmap of held users plus hold_id -> user_id. A plan then costs one bitmap
+// intersects() per backup, with no database reads; only the audit row is written.
+// What-if scenarios edit a copy of the held-user bitmap. Protection is derived
+// from membership here, which is what the protection sweep converges to.
+//
+// The snapshot is loaded on first use and refreshed every grap.retention.refresh-millis
+// (or on request); plans report its age.
+@Service
+public class RetentionPlanner {
+
+    private static final Logger log = LoggerFactory.getLogger(RetentionPlanner.class);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // first reason that applies; EXPIRABLE = none does
+    public enum Reason { EXPIRABLE, MANUAL, HELD, LATEST_FULL, RECENT, CHAIN }
+
+    public record Policy(int maxAgeDays, int keepFull) {}
+
+    public record Scenario(List<Long> releaseHoldIds, List<Long> holdUserIds) {
+        public boolean isEmpty() {
+            return releaseHoldIds.isEmpty() && holdUserIds.isEmpty();
+        }
+    }
+
+    private record Snapshot(Instant at, long loadMillis, long[] backupIds, boolean[] full, long[] endedAt,
+                            boolean[] manual, ImmutableRoaringBitmap[] members, long memberships,
+                            Map<Long, Long> holdUser, Map<Long, Integer> holdsPerUser,
+                            ImmutableRoaringBitmap held) {}
+
+    private final RetentionPlanDao dao;
+    private final int defaultMaxAgeDays;
+    private final int defaultKeepFull;
+    private volatile Snapshot snapshot;
+
+    public RetentionPlanner(RetentionPlanDao dao,
+                            @Value("${grap.retention.max-age-days:35}") int defaultMaxAgeDays,
+                            @Value("${grap.retention.keep-full:2}") int defaultKeepFull) {
+        this.dao = dao;
+        this.defaultMaxAgeDays = Math.max(0, defaultMaxAgeDays);
+        this.defaultKeepFull = Math.max(0, defaultKeepFull);
+    }
+
+    public Policy policy(Integer maxAgeDays, Integer keepFull) {
+        int age = maxAgeDays == null ? defaultMaxAgeDays : maxAgeDays;
+        int keep = keepFull == null ? defaultKeepFull : keepFull;
+        if (age < 0 || keep < 0) throw new IllegalArgumentException("max_age_days and keep_full must be >= 0");
+        return new Policy(age, keep);
+    }
+
+    // only once someone has planned: an unused planner holds no memory
+    @Scheduled(fixedDelayString = "${grap.retention.refresh-millis:600000}",
+            initialDelayString = "${grap.retention.refresh-millis:600000}")
+    public void scheduledRefresh() {
+        if (snapshot == null) return;
+        try {
+            refresh();
+        } catch (DataAccessException e) {
+            log.warn("retention snapshot refresh failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    public synchronized Map<String, Object> refresh() {
+        long t0 = System.nanoTime();
+        RetentionPlanDao.Loaded l = dao.load();
+
+        int n = l.backups().size();
+        long[] ids = new long[n];
+        boolean[] full = new boolean[n];
+        long[] endedAt = new long[n];
+        boolean[] manual = new boolean[n];
+        ImmutableRoaringBitmap[] members = new ImmutableRoaringBitmap[n];
+        long memberships = 0;
+        for (int i = 0; i < n; i++) {
+            RetentionPlanDao.BackupRow b = l.backups().get(i);
+            ids[i] = b.backupId();
+            full[i] = b.full();
+            endedAt[i] = b.endedAt().toEpochMilli();
+            manual[i] = b.manual();
+            members[i] = l.members().get(i);
+            memberships += members[i].getLongCardinality();
+        }
+
+        Map<Long, Long> holdUser = new HashMap<>();
+        Map<Long, Integer> holdsPerUser = new HashMap<>();
+        MutableRoaringBitmap held = new MutableRoaringBitmap();
+        for (RetentionPlanDao.HoldRow h : l.holds()) {
+            holdUser.put(h.holdId(), h.userId());
+            holdsPerUser.merge(h.userId(), 1, Integer::sum);
+            // backup membership is 32-bit; a larger id cannot be in any backup
+            if (h.userId() >= 0 && h.userId() <= UserBitmaps.MAX_USER_ID) held.add(UserBitmaps.toInt(h.userId()));
+        }
+        held.runOptimize();
+
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        snapshot = new Snapshot(l.at(), ms, ids, full, endedAt, manual, members, memberships,
+                holdUser, holdsPerUser, held);
+        log.info("retention snapshot: {} backups, {} memberships, {} active holds in {} ms",
+                n, memberships, holdUser.size(), ms);
+        return status();
+    }
+
+    public Map<String, Object> status() {
+        Snapshot s = snapshot;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("loaded", s != null);
+        if (s == null) return m;
+        long bytes = s.held().serializedSizeInBytes();
+        for (ImmutableRoaringBitmap b : s.members()) bytes += b.serializedSizeInBytes();
+        m.put("snapshot_at", s.at().toString());
+        m.put("age_ms", Math.max(0, System.currentTimeMillis() - s.at().toEpochMilli()));
+        m.put("load_ms", s.loadMillis());
+        m.put("backups", s.backupIds().length);
+        m.put("memberships", s.memberships());
+        m.put("active_holds", s.holdUser().size());
+        m.put("held_users", s.held().getLongCardinality());
+        m.put("bitmap_bytes", bytes);
+        return m;
+    }
+
+    // Expirable backups under policy, with the scenario applied if it has any changes;
+    // recorded in retention_plan_audit.
+    public Map<String, Object> plan(Policy policy, Scenario scenario, boolean refresh) {
+        if (refresh || snapshot == null) {
+            synchronized (this) {
+                if (refresh || snapshot == null) refresh();
+            }
+        }
+        Snapshot s = snapshot;
+        Instant asOf = Instant.now();
+
+        long t0 = System.nanoTime();
+        Reason[] base = evaluate(s, policy, s.held(), asOf);
+        Reason[] result = scenario.isEmpty() ? base : evaluate(s, policy, heldUnder(s, scenario), asOf);
+
+        List<Long> expirable = new ArrayList<>();
+        List<Long> newlyExpirable = new ArrayList<>();
+        List<Long> noLongerExpirable = new ArrayList<>();
+        Map<Reason, Integer> kept = new EnumMap<>(Reason.class);
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == Reason.EXPIRABLE) expirable.add(s.backupIds()[i]);
+            else kept.merge(result[i], 1, Integer::sum);
+            if (result[i] == Reason.EXPIRABLE && base[i] != Reason.EXPIRABLE) newlyExpirable.add(s.backupIds()[i]);
+            if (result[i] != Reason.EXPIRABLE && base[i] == Reason.EXPIRABLE) noLongerExpirable.add(s.backupIds()[i]);
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0);
+
+        long planId = dao.record(asOf, s.at(), policy.maxAgeDays(), policy.keepFull(),
+                scenario.releaseHoldIds(), scenario.holdUserIds(), result.length,
+                expirable, newlyExpirable, noLongerExpirable, micros);
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("plan_id", planId);
+        m.put("as_of", asOf.toString());
+        m.put("snapshot_at", s.at().toString());
+        m.put("max_age_days", policy.maxAgeDays());
+        m.put("keep_full", policy.keepFull());
+        m.put("backups_considered", result.length);
+        m.put("expirable_count", expirable.size());
+        m.put("expirable", expirable);
+        Map<String, Integer> keptOut = new LinkedHashMap<>();
+        kept.forEach((r, c) -> keptOut.put(r.name(), c));
+        m.put("kept", keptOut);
+        if (!scenario.isEmpty()) {
+            m.put("release_hold_ids", scenario.releaseHoldIds());
+            m.put("hold_user_count", scenario.holdUserIds().size());
+            m.put("newly_expirable", newlyExpirable);
+            m.put("no_longer_expirable", noLongerExpirable);
+        }
+        m.put("eval_micros", micros);
+        return m;
+    }
+
+    public List<Map<String, Object>> recent(int limit) {
+        return dao.recent(limit);
+    }
+
+    public Map<String, Object> get(long planId) {
+        return dao.get(planId);
+    }
+
+    // The held-user bitmap with the scenario applied: a released hold's user stays
+    // held while another active hold covers them.
+    private static ImmutableRoaringBitmap heldUnder(Snapshot s, Scenario scenario) {
+        MutableRoaringBitmap held = s.held().toMutableRoaringBitmap();
+        Map<Long, Integer> released = new HashMap<>();
+        for (long holdId : new LinkedHashSet<>(scenario.releaseHoldIds())) {
+            Long userId = s.holdUser().get(holdId);
+            if (userId == null) {
+                throw new IllegalArgumentException("hold " + holdId + " is not active (snapshot at " + s.at() + ")");
+            }
+            released.merge(userId, 1, Integer::sum);
+        }
+        released.forEach((userId, n) -> {
+            if (n >= s.holdsPerUser().get(userId) && userId >= 0 && userId <= UserBitmaps.MAX_USER_ID) {
+                held.remove(UserBitmaps.toInt(userId));
+            }
+        });
+        for (long userId : scenario.holdUserIds()) {
+            held.add(UserBitmaps.toInt(userId));
+        }
+        return held;
+    }
+
+    // One pass newest -> oldest for the per-backup reasons, then one for the chains:
+    // a FULL and its INCRs restore together, so everything before a kept backup in
+    // its chain is kept as well.
+    private static Reason[] evaluate(Snapshot s, Policy p, ImmutableRoaringBitmap held, Instant asOf) {
+        int n = s.backupIds().length;
+        Reason[] r = new Reason[n];
+        long cutoff = asOf.toEpochMilli() - p.maxAgeDays() * DAY_MILLIS;
+        boolean anyHeld = !held.isEmpty();
+
+        int fullsSeen = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            if (s.manual()[i]) r[i] = Reason.MANUAL;
+            else if (anyHeld && ImmutableRoaringBitmap.intersects(s.members()[i], held)) r[i] = Reason.HELD;
+            else if (s.full()[i] && fullsSeen < p.keepFull()) r[i] = Reason.LATEST_FULL;
+            else if (s.endedAt()[i] >= cutoff) r[i] = Reason.RECENT;
+            else r[i] = Reason.EXPIRABLE;
+            if (s.full()[i]) fullsSeen++;
+        }
+
+        boolean needed = false;
+        for (int i = n - 1; i >= 0; i--) {
+            if (r[i] == Reason.EXPIRABLE && needed) r[i] = Reason.CHAIN;
+            if (r[i] != Reason.EXPIRABLE) needed = true;
+            if (s.full()[i]) needed = false;
+        }
+        return r;
+    }
+}
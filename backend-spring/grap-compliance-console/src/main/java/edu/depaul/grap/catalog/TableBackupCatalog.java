@@ -0,0 +1,167 @@
+package edu.depaul.grap.catalog;
+
+import org.postgresql.PGConnection;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+// Row-per-pair membership in backup_user_index (07_legal_hold_catalog.sql).
+@Component
+@ConditionalOnProperty(name = "grap.backup-catalog.format", havingValue = "table", matchIfMissing = true)
+public class TableBackupCatalog implements BackupCatalog {
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    public TableBackupCatalog(JdbcTemplate jdbc, TransactionTemplate tx) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+    }
+
+    @Override
+    public String format() {
+        return "table";
+    }
+
+    @Override
+    public Map<String, Object> addUser(long backupId, long userId) {
+        return jdbc.queryForMap(
+                "INSERT INTO backup_user_index(backup_id, user_id) VALUES (?, ?) " +
+                        "RETURNING backup_id, user_id",
+                backupId, userId
+        );
+    }
+
+    // Per chunk, one transaction: COPY the ids (ascending) into a temp stage, then
+    // load_backup_manifest_stage upserts them; the protection trigger on
+    // backup_user_index sees each chunk's new pairs as one statement.
+    @Override
+    public BulkAdd addUsers(long backupId, Roaring64NavigableMap users, int chunkSize, LongConsumer loaded) {
+        long added = 0;
+        long refreshed = 0;
+        long done = 0;
+        LongIterator it = users.getLongIterator();
+        StringBuilder chunk = new StringBuilder(chunkSize * 10);
+        while (it.hasNext()) {
+            int n = 0;
+            chunk.setLength(0);
+            while (n < chunkSize && it.hasNext()) {
+                chunk.append(it.next()).append('\n');
+                n++;
+            }
+            long[] r = loadChunk(backupId, chunk.toString().getBytes(StandardCharsets.US_ASCII));
+            added += r[0];
+            refreshed += r[1];
+            done += n;
+            loaded.accept(done);
+        }
+        return new BulkAdd(added, refreshed);
+    }
+
+    private long[] loadChunk(long backupId, byte[] ids) {
+        return tx.execute(status -> jdbc.execute((ConnectionCallback<long[]>) con -> {
+            try (Statement st = con.createStatement()) {
+                st.execute("CREATE TEMP TABLE IF NOT EXISTS backup_manifest_stage(user_id BIGINT) ON COMMIT DELETE ROWS");
+            }
+            try {
+                con.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                        "COPY backup_manifest_stage(user_id) FROM STDIN", new ByteArrayInputStream(ids));
+            } catch (IOException e) {
+                throw new SQLException("COPY into backup_manifest_stage failed", e);
+            }
+            try (var ps = con.prepareStatement("SELECT added, refreshed FROM load_backup_manifest_stage(?)")) {
+                ps.setLong(1, backupId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    return new long[]{rs.getLong(1), rs.getLong(2)};
+                }
+            }
+        }));
+    }
+
+    @Override
+    public List<Long> backupsContaining(long userId) {
+        return jdbc.queryForList(
+                "SELECT backup_id FROM backup_user_index WHERE user_id = ? ORDER BY backup_id DESC",
+                Long.class, userId
+        );
+    }
+
+    @Override
+    public List<Map<String, Object>> listBackupsForUser(long userId, long beforeBackupId, int limit) {
+        return jdbc.queryForList("""
+            SELECT
+                b.backup_id,
+                b.backup_type,
+                b.created_at,
+                b.protected_by_hold,
+                b.protected_reason,
+                b.protected_at,
+                bi.first_seen,
+                bi.last_seen
+            FROM backup_user_index bi
+            JOIN backup_runs b ON b.backup_id = bi.backup_id
+            WHERE bi.user_id = ?
+              AND bi.backup_id < ?
+            ORDER BY bi.backup_id DESC
+            LIMIT ?
+        """, userId, beforeBackupId, limit);
+    }
+
+    // one index range scan on (user_id, backup_id) per slot
+    @Override
+    public List<Member> membersSince(long[] userIds, long[] afterBackupIds, long throughBackupId) {
+        if (userIds.length == 0) return List.of();
+        return jdbc.query(con -> {
+            var ps = con.prepareStatement("""
+                SELECT w.i - 1 AS slot, bi.backup_id
+                FROM unnest(?::bigint[], ?::bigint[]) WITH ORDINALITY AS w(user_id, after_id, i)
+                JOIN backup_user_index bi
+                  ON bi.user_id = w.user_id
+                 AND bi.backup_id > w.after_id
+                 AND bi.backup_id <= ?
+            """);
+            ps.setArray(1, con.createArrayOf("bigint", boxed(userIds)));
+            ps.setArray(2, con.createArrayOf("bigint", boxed(afterBackupIds)));
+            ps.setLong(3, throughBackupId);
+            return ps;
+        }, (rs, n) -> new Member(rs.getInt(1), rs.getLong(2)));
+    }
+
+    private static Long[] boxed(long[] a) {
+        Long[] out = new Long[a.length];
+        for (int i = 0; i < a.length; i++) out[i] = a[i];
+        return out;
+    }
+
+    @Override
+    public ImmutableRoaringBitmap users(long backupId) {
+        MutableRoaringBitmap bm = new MutableRoaringBitmap();
+        jdbc.query(con -> {
+            var ps = con.prepareStatement("SELECT user_id FROM backup_user_index WHERE backup_id = ?");
+            ps.setLong(1, backupId);
+            ps.setFetchSize(10_000);
+            return ps;
+        }, rs -> {
+            bm.add(UserBitmaps.toInt(rs.getLong(1)));
+        });
+        bm.runOptimize();
+        return bm;
+    }
+}
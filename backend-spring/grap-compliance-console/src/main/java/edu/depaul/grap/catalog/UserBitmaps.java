@@ -0,0 +1,75 @@
+package edu.depaul.grap.catalog;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Helpers for user_id sets stored as 32-bit Roaring bitmaps (unsigned ints).
+public final class UserBitmaps {
+
+    public static final long MAX_USER_ID = 0xFFFFFFFFL;
+
+    private UserBitmaps() {
+    }
+
+    public static int toInt(long userId) {
+        if (userId < 0 || userId > MAX_USER_ID) {
+            throw new IllegalArgumentException("user_id " + userId + " does not fit a 32-bit bitmap");
+        }
+        return (int) userId;
+    }
+
+    public static long toLong(int v) {
+        return Integer.toUnsignedLong(v);
+    }
+
+    public static byte[] serialize(MutableRoaringBitmap bm) {
+        bm.runOptimize();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(bm.serializedSizeInBytes());
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            bm.serialize(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    // Upsert a backup's whole bitmap into backup_user_bitmap; bumps version.
+    public static void store(JdbcTemplate jdbc, long backupId, MutableRoaringBitmap bm) {
+        jdbc.update("""
+            INSERT INTO backup_user_bitmap(backup_id, users, cardinality)
+            VALUES (?, ?, ?)
+            ON CONFLICT (backup_id) DO UPDATE SET
+              users       = EXCLUDED.users,
+              cardinality = EXCLUDED.cardinality,
+              version     = backup_user_bitmap.version + 1,
+              updated_at  = now()
+        """, backupId, serialize(bm), bm.getLongCardinality());
+    }
+
+    // zero-copy view over the stored bytes
+    public static ImmutableRoaringBitmap view(byte[] bytes) {
+        return new ImmutableRoaringBitmap(ByteBuffer.wrap(bytes));
+    }
+
+    // keyset page over a bitmap: ids > after, ascending
+    public static List<Long> page(ImmutableRoaringBitmap bm, long after, int limit) {
+        List<Long> out = new ArrayList<>(Math.min(limit, 1024));
+        if (after >= MAX_USER_ID) return out;
+        PeekableIntIterator it = bm.getIntIterator();
+        if (after >= 0) it.advanceIfNeeded((int) (after + 1));
+        while (it.hasNext() && out.size() < limit) {
+            out.add(toLong(it.next()));
+        }
+        return out;
+    }
+}
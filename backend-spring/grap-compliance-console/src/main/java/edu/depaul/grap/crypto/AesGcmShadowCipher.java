@@ -0,0 +1,89 @@
+package edu.depaul.grap.crypto;
+
+import org.springframework.stereotype.Component;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// JVM-side shadow encryption (users_shadow.enc_version = 2).
+//
+// Data keys are the same per-(user, purpose, bucket) key_store rows the
+// pgcrypto trigger uses (key_material = base64 of 32 random bytes), used
+// directly as AES-256-GCM keys.
+//
+// Ciphertext layout: [12-byte nonce][ciphertext || 16-byte tag]
+// AAD: "grap:v2:<user_id>:<purpose>:<key_id>" so a ciphertext cannot be moved
+// to another user, field or key without failing authentication.
+@Component
+public class AesGcmShadowCipher {
+
+    public static final int ENC_VERSION = 2;
+
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM not available", e);
+        }
+    });
+
+    private final SecureRandom random = new SecureRandom();
+
+    public byte[] encrypt(String plain, long userId, String purpose, long keyId, String keyMaterial) {
+        if (plain == null) return null;
+
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        try {
+            Cipher c = CIPHER.get();
+            c.init(Cipher.ENCRYPT_MODE, key(keyMaterial), new GCMParameterSpec(TAG_BITS, nonce));
+            c.updateAAD(aad(userId, purpose, keyId));
+            byte[] ct = c.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.allocate(NONCE_BYTES + ct.length).put(nonce).put(ct).array();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM encrypt failed for user_id=" + userId + " purpose=" + purpose, e);
+        }
+    }
+
+    // Caller must already have checked that the key is live; a bad tag means
+    // the ciphertext or key reference is corrupt and is reported, not redacted.
+    public String decrypt(byte[] blob, long userId, String purpose, long keyId, String keyMaterial) {
+        if (blob == null) return null;
+        if (blob.length < NONCE_BYTES + TAG_BITS / 8) {
+            throw new IllegalStateException("AES-GCM ciphertext too short for user_id=" + userId + " purpose=" + purpose);
+        }
+        try {
+            Cipher c = CIPHER.get();
+            c.init(Cipher.DECRYPT_MODE, key(keyMaterial), new GCMParameterSpec(TAG_BITS, blob, 0, NONCE_BYTES));
+            c.updateAAD(aad(userId, purpose, keyId));
+            byte[] pt = c.doFinal(blob, NONCE_BYTES, blob.length - NONCE_BYTES);
+            return new String(pt, StandardCharsets.UTF_8);
+        } catch (AEADBadTagException e) {
+            throw new IllegalStateException("AES-GCM tag mismatch for user_id=" + userId + " purpose=" + purpose, e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM decrypt failed for user_id=" + userId + " purpose=" + purpose, e);
+        }
+    }
+
+    private static SecretKeySpec key(String keyMaterial) {
+        byte[] raw = Base64.getDecoder().decode(keyMaterial);
+        if (raw.length != 32) {
+            throw new IllegalStateException("expected 32-byte key material, got " + raw.length);
+        }
+        return new SecretKeySpec(raw, "AES");
+    }
+
+    private static byte[] aad(long userId, String purpose, long keyId) {
+        return ("grap:v2:" + userId + ":" + purpose + ":" + keyId).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,237 @@
+package edu.depaul.grap.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded LRU + TTL cache of live key_store rows keyed by (user_id, purpose, bucket_date).
+//
+// Only used with grap.crypto.mode=app (in db mode key material never reaches the JVM), and
+// off unless grap.key-cache.enabled: a node with the cache off neither polls nor registers
+// in key_cache_nodes. Destroying calls still run awaitClusterEviction, which is one count
+// query unless some other node caches.
+//
+// Erasure correctness (see sql/15_key_cache_invalidation.sql):
+//  - every key destruction is logged by a key_store trigger, whatever the caller
+//  - poll() evicts logged users and acks the DB snapshot it read at, renewing this node's lease
+//  - get() serves nothing once the lease has lapsed (DB unreachable, poller stuck)
+//  - awaitClusterEviction(xid) blocks the destroying call until every live node has acked it,
+//    and reports the nodes that did not so the caller can report the erasure pending eviction
+//  - a load that overlaps an eviction is not cached (generation check in put)
+@Component
+public class KeyMaterialCache {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyMaterialCache.class);
+
+    // rough per-entry heap cost: map node + key record + value record + 44-char base64 string
+    public static final int ESTIMATED_BYTES_PER_ENTRY = 256;
+
+    public record Key(long keyId, String material) {}
+
+    private record CacheKey(long userId, String purpose, LocalDate bucket) {}
+
+    private record Entry(Key key, long expiresAtNanos) {}
+
+    private final JdbcTemplate jdbc;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long leaseMillis;
+    private final long pollMillis;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final LinkedHashMap<CacheKey, Entry> map;
+    private long generation;
+
+    private volatile long leaseValidUntilNanos;
+    private volatile String lastXmin;
+    private long polls;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public KeyMaterialCache(JdbcTemplate jdbc,
+                            @Value("${grap.crypto.mode:db}") String cryptoMode,
+                            @Value("${grap.key-cache.enabled:false}") boolean enabled,
+                            @Value("${grap.key-cache.max-entries:100000}") int maxEntries,
+                            @Value("${grap.key-cache.ttl-seconds:300}") long ttlSeconds,
+                            @Value("${grap.key-cache.lease-millis:5000}") long leaseMillis,
+                            @Value("${grap.key-cache.poll-millis:200}") long pollMillis) {
+        this.jdbc = jdbc;
+        this.enabled = enabled && "app".equalsIgnoreCase(cryptoMode);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.leaseMillis = leaseMillis;
+        this.pollMillis = pollMillis;
+        // lapsed until the first poll; compared by difference, so not Long.MIN_VALUE (that overflows)
+        this.leaseValidUntilNanos = System.nanoTime();
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                if (size() > KeyMaterialCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Key get(long userId, String purpose, LocalDate bucket) {
+        if (!usable()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        synchronized (this) {
+            CacheKey k = new CacheKey(userId, purpose, bucket);
+            Entry e = map.get(k);
+            if (e != null && e.expiresAtNanos() - System.nanoTime() > 0) {
+                hits.incrementAndGet();
+                return e.key();
+            }
+            if (e != null) map.remove(k);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Read generation() BEFORE querying key_store and pass it here; if any
+    // eviction ran in between, the loaded row may already be destroyed.
+    public synchronized void put(long userId, String purpose, LocalDate bucket, Key key, long loadGeneration) {
+        if (!usable() || loadGeneration != generation) return;
+        map.put(new CacheKey(userId, purpose, bucket), new Entry(key, System.nanoTime() + ttlNanos));
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized void evictUsers(Collection<Long> userIds) {
+        if (userIds.isEmpty()) return;
+        generation++;
+        if (map.isEmpty()) return;
+        Set<Long> ids = new HashSet<>(userIds);
+        for (Iterator<CacheKey> it = map.keySet().iterator(); it.hasNext(); ) {
+            if (ids.contains(it.next().userId())) {
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean usable() {
+        if (!enabled) return false;
+        if (leaseValidUntilNanos - System.nanoTime() > 0) return true;
+        synchronized (this) {
+            // lease lapsed: we may have missed invalidations, start cold
+            if (!map.isEmpty()) map.clear();
+            generation++;
+        }
+        return false;
+    }
+
+    // ----------------------------
+    // Cluster invalidation
+    // ----------------------------
+    @Scheduled(fixedDelayString = "${grap.key-cache.poll-millis:200}")
+    public void poll() {
+        if (!enabled) return;
+        long pollStart = System.nanoTime();
+        try {
+            // Snapshot first, log read second: the later read sees at least
+            // everything the acked snapshot does.
+            Map<String, Object> snap = jdbc.queryForMap(
+                    "SELECT pg_current_snapshot()::text AS snap, " +
+                            "pg_snapshot_xmin(pg_current_snapshot())::text AS xmin");
+
+            if (lastXmin != null) {
+                // anything not visible at the previous poll has txid >= its xmin
+                List<Long> users = jdbc.queryForList(
+                        "SELECT DISTINCT user_id FROM key_invalidation_log WHERE txid >= ?::xid8",
+                        Long.class, lastXmin);
+                evictUsers(users);
+            }
+
+            jdbc.update(
+                    "INSERT INTO key_cache_nodes(node_id, acked_snapshot, lease_until) " +
+                            "VALUES (?, ?::pg_snapshot, now() + ? * interval '1 millisecond') " +
+                            "ON CONFLICT (node_id) DO UPDATE SET " +
+                            "acked_snapshot = EXCLUDED.acked_snapshot, lease_until = EXCLUDED.lease_until",
+                    nodeId, snap.get("snap"), leaseMillis);
+
+            lastXmin = (String) snap.get("xmin");
+            leaseValidUntilNanos = pollStart + leaseMillis * 1_000_000L;
+
+            if (++polls % 3000 == 0) {
+                jdbc.update("DELETE FROM key_invalidation_log WHERE created_at < now() - interval '1 day'");
+                jdbc.update("DELETE FROM key_cache_nodes WHERE lease_until < now() - interval '1 day'");
+            }
+        } catch (RuntimeException e) {
+            log.warn("key cache invalidation poll failed; cache unusable once lease lapses: {}", e.getMessage());
+        }
+    }
+
+    // Called after a destroying transaction commits. Returns once every node
+    // holding a live lease has acked a snapshot in which xid is visible, or after
+    // lease + two polls with the number of nodes that still have not (0 = confirmed).
+    // Such a node kept renewing its lease without seeing the destroy, so it may
+    // still serve the destroyed material from its cache.
+    public int awaitClusterEviction(String xid) {
+        long deadline = System.nanoTime() + (leaseMillis + 2 * pollMillis) * 1_000_000L;
+        while (true) {
+            Integer pending = jdbc.queryForObject(
+                    "SELECT count(*) FROM key_cache_nodes " +
+                            "WHERE lease_until > now() AND NOT pg_visible_in_snapshot(?::xid8, acked_snapshot)",
+                    Integer.class, xid);
+            if (pending == null || pending == 0) return 0;
+            if (System.nanoTime() - deadline > 0) {
+                log.warn("{} key cache node(s) did not ack xid {} within lease", pending, xid);
+                return pending;
+            }
+            try {
+                Thread.sleep(Math.max(5, pollMillis / 4));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return pending;
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.get(), m = misses.get();
+        int size;
+        synchronized (this) {
+            size = map.size();
+        }
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", enabled);
+        s.put("node_id", nodeId);
+        s.put("lease_valid", enabled && leaseValidUntilNanos - System.nanoTime() > 0);
+        s.put("entries", size);
+        s.put("max_entries", maxEntries);
+        s.put("estimated_bytes", (long) size * ESTIMATED_BYTES_PER_ENTRY);
+        s.put("budget_bytes", (long) maxEntries * ESTIMATED_BYTES_PER_ENTRY);
+        s.put("hits", h);
+        s.put("misses", m);
+        s.put("hit_ratio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        s.put("size_evictions", evictions.get());
+        s.put("destroy_invalidations", invalidations.get());
+        return s;
+    }
+}
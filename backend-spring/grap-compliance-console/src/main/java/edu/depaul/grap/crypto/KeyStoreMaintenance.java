@@ -0,0 +1,145 @@
+package edu.depaul.grap.crypto;
+
+import edu.depaul.grap.dao.KeyStoreDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// key_store partition upkeep (sql/23_key_store_partitioning.sql):
+//  - monthly partitions are created months-ahead in advance, so new keys never
+//    land in key_store_pdefault
+//  - keys destroyed more than min-age-days ago, in months before the current one,
+//    are compacted into key_tombstones. A month whose destroyed share is at least
+//    rewrite-ratio is rewritten (brief ACCESS EXCLUSIVE lock on that partition,
+//    space returned at once); otherwise its rows are deleted and the partition vacuumed.
+//    The tombstone digests are keyed with the signing key (SigningKey); without one,
+//    destroyed keys stay in key_store.
+// Every node runs this; compaction is serialized through an advisory lock.
+@Service
+public class KeyStoreMaintenance {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyStoreMaintenance.class);
+
+    private final KeyStoreDao dao;
+    private final SigningKey signingKey;
+    private final boolean compactionEnabled;
+    private final int minAgeDays;
+    private final double rewriteRatio;
+    private final int monthsAhead;
+    private final int lockTimeoutMillis;
+
+    private final Counter keysCompacted;
+    private final Counter tombstonesWritten;
+
+    public KeyStoreMaintenance(KeyStoreDao dao, MeterRegistry registry, SigningKey signingKey,
+                               @Value("${grap.key-store.compaction.enabled:true}") boolean compactionEnabled,
+                               @Value("${grap.key-store.compaction.min-age-days:30}") int minAgeDays,
+                               @Value("${grap.key-store.compaction.rewrite-ratio:0.8}") double rewriteRatio,
+                               @Value("${grap.key-store.months-ahead:3}") int monthsAhead,
+                               @Value("${grap.key-store.lock-timeout-millis:5000}") int lockTimeoutMillis) {
+        this.dao = dao;
+        this.signingKey = signingKey;
+        this.compactionEnabled = compactionEnabled;
+        if (compactionEnabled && !signingKey.isSet()) {
+            log.warn("grap.erasure-verify.signing-key is not set; key_store compaction is off");
+        }
+        this.minAgeDays = Math.max(0, minAgeDays);
+        this.rewriteRatio = Math.min(1.0, Math.max(0.0, rewriteRatio));
+        this.monthsAhead = Math.max(1, monthsAhead);
+        this.lockTimeoutMillis = Math.max(1, lockTimeoutMillis);
+
+        this.keysCompacted = Counter.builder("grap.key_store.compaction.keys")
+                .description("destroyed key_store rows moved into tombstones").register(registry);
+        this.tombstonesWritten = Counter.builder("grap.key_store.compaction.tombstones")
+                .description("key_tombstones rows written or extended").register(registry);
+    }
+
+    public List<Map<String, Object>> partitions() {
+        return dao.partitions();
+    }
+
+    // One month now (admin endpoint); the month must be before the current one.
+    public KeyStoreDao.Compaction compact(YearMonth month) {
+        if (!month.isBefore(YearMonth.now())) {
+            throw new IllegalArgumentException("month must be before " + YearMonth.now());
+        }
+        KeyStoreDao.Compaction c = dao.compact(month.atDay(1), minAgeDays, rewriteRatio, lockTimeoutMillis);
+        if ("BUSY".equals(c.mode())) {
+            throw new IllegalStateException("another key_store compaction is running");
+        }
+        record(c);
+        return c;
+    }
+
+    public List<Map<String, Object>> tombstones(long userId) {
+        return dao.tombstones(userId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepare() {
+        ensurePartitions();
+    }
+
+    @Scheduled(fixedDelayString = "${grap.key-store.maintain-millis:86400000}",
+            initialDelayString = "${grap.key-store.maintain-millis:86400000}")
+    public void maintain() {
+        ensurePartitions();
+        if (!compactionEnabled || !signingKey.isSet()) return;
+        List<String> done = new ArrayList<>();
+        try {
+            for (LocalDate month : dao.compactableMonths(minAgeDays)) {
+                KeyStoreDao.Compaction c = dao.compact(month, minAgeDays, rewriteRatio, lockTimeoutMillis);
+                if ("BUSY".equals(c.mode())) {
+                    log.info("key_store compaction running on another node; skipped");
+                    return;
+                }
+                record(c);
+                done.add(c.month() + " " + c.mode() + " " + c.keysCompacted());
+            }
+        } catch (DataAccessException e) {
+            log.warn("key_store compaction failed: {}", e.getMostSpecificCause().getMessage());
+        }
+        if (!done.isEmpty()) log.info("key_store compacted: {}", done);
+    }
+
+    private void ensurePartitions() {
+        try {
+            LocalDate first = YearMonth.now().atDay(1);
+            int created = dao.ensurePartitions(first, first.plusMonths(monthsAhead), lockTimeoutMillis);
+            if (created > 0) log.info("created {} key_store partitions", created);
+            long stray = dao.defaultPartitionRows();
+            if (stray > 0) log.warn("{} key_store rows are in key_store_pdefault", stray);
+        } catch (DataAccessException e) {
+            log.warn("key_store partition upkeep failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    private void record(KeyStoreDao.Compaction c) {
+        keysCompacted.increment(c.keysCompacted());
+        tombstonesWritten.increment(c.tombstonesWritten());
+    }
+
+    // for the status endpoint
+    public Map<String, Object> settings() {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("compaction_enabled", compactionEnabled && signingKey.isSet());
+        s.put("min_age_days", minAgeDays);
+        s.put("rewrite_ratio", rewriteRatio);
+        s.put("months_ahead", monthsAhead);
+        return s;
+    }
+}
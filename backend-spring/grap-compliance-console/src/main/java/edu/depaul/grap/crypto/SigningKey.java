@@ -0,0 +1,71 @@
+package edu.depaul.grap.crypto;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+// The deployment's HMAC-SHA256 key, grap.erasure-verify.signing-key (base64, at least
+// 32 bytes). It signs erasure verification reports and keys the key_tombstones digests
+// (sql/23), so nobody who can only edit the database can forge either. Empty = not set.
+@Component
+public class SigningKey {
+
+    private final byte[] raw;
+    private final String fingerprint;
+
+    public SigningKey(@Value("${grap.erasure-verify.signing-key:}") String base64) {
+        if (base64 == null || base64.isBlank()) {
+            this.raw = null;
+            this.fingerprint = null;
+            return;
+        }
+        byte[] k = Base64.getDecoder().decode(base64.trim());
+        if (k.length < 32) {
+            throw new IllegalArgumentException("grap.erasure-verify.signing-key must be at least 32 bytes (base64)");
+        }
+        this.raw = k;
+        this.fingerprint = fingerprint(k);
+    }
+
+    public boolean isSet() {
+        return raw != null;
+    }
+
+    // the key itself, for the SQL functions that HMAC with it (null when not set)
+    public byte[] raw() {
+        return raw == null ? null : raw.clone();
+    }
+
+    // first 8 bytes of sha256(key): names the key in reports and tombstones without revealing it
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    public String hmacHex(String text) {
+        if (raw == null) throw new IllegalStateException("grap.erasure-verify.signing-key is not set");
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(raw, "HmacSHA256"));
+            return HexFormat.of().formatHex(mac.doFinal(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    private static String fingerprint(byte[] key) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(key);
+            return HexFormat.of().formatHex(d, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
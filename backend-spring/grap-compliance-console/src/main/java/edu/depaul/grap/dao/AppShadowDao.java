@@ -0,0 +1,204 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.crypto.AesGcmShadowCipher;
+import edu.depaul.grap.crypto.KeyMaterialCache;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// users_shadow rows encrypted in the JVM (enc_version = 2, see sql/14_app_encryption.sql).
+// Keys still come from key_store; only the cipher work moves off the database.
+@Repository
+public class AppShadowDao {
+
+    public record PlainUser(long userId, String fullName, String email, String phone) {}
+
+    public record RestoreCounts(long rows, long decrypted, long redacted) {
+        public static final RestoreCounts ZERO = new RestoreCounts(0, 0, 0);
+
+        public RestoreCounts plus(RestoreCounts o) {
+            return new RestoreCounts(rows + o.rows, decrypted + o.decrypted, redacted + o.redacted);
+        }
+    }
+
+    private static final String[] PURPOSES = {"name", "email", "phone"};
+
+    private static final String UPSERT_SHADOW = """
+            INSERT INTO users_shadow(
+              user_id,
+              full_name_enc, email_enc, phone_enc,
+              key_id_name, key_id_email, key_id_phone,
+              enc_version, updated_at
+            )
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, now())
+            ON CONFLICT (user_id) DO UPDATE SET
+              full_name_enc = EXCLUDED.full_name_enc,
+              email_enc     = EXCLUDED.email_enc,
+              phone_enc     = EXCLUDED.phone_enc,
+              key_id_name   = EXCLUDED.key_id_name,
+              key_id_email  = EXCLUDED.key_id_email,
+              key_id_phone  = EXCLUDED.key_id_phone,
+              enc_version   = EXCLUDED.enc_version,
+              updated_at    = now()
+            """;
+
+    // key_* is NULL unless the key row exists and is live (same test as restore_users_from_shadow)
+    private static final String LOAD_V2 = """
+            SELECT s.user_id, s.full_name_enc, s.email_enc, s.phone_enc,
+                   s.key_id_name, s.key_id_email, s.key_id_phone,
+                   CASE WHEN kn.destroyed_at IS NULL AND kn.key_material <> 'DESTROYED' THEN kn.key_material END AS key_name,
+                   CASE WHEN ke.destroyed_at IS NULL AND ke.key_material <> 'DESTROYED' THEN ke.key_material END AS key_email,
+                   CASE WHEN kp.destroyed_at IS NULL AND kp.key_material <> 'DESTROYED' THEN kp.key_material END AS key_phone
+            FROM users_shadow s
+            LEFT JOIN key_store kn ON kn.key_id = s.key_id_name AND kn.bucket_date = key_bucket(s.key_id_name)
+            LEFT JOIN key_store ke ON ke.key_id = s.key_id_email AND ke.bucket_date = key_bucket(s.key_id_email)
+            LEFT JOIN key_store kp ON kp.key_id = s.key_id_phone AND kp.bucket_date = key_bucket(s.key_id_phone)
+            WHERE s.enc_version = 2
+              AND s.user_id = ANY(?)
+            """;
+
+    private static final String UPSERT_USER = """
+            INSERT INTO users(user_id, full_name, email, phone, created_at)
+            VALUES (?, ?, ?, ?, now())
+            ON CONFLICT (user_id) DO UPDATE SET
+              full_name  = EXCLUDED.full_name,
+              email      = EXCLUDED.email,
+              phone      = EXCLUDED.phone,
+              created_at = EXCLUDED.created_at
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final AesGcmShadowCipher cipher;
+    private final KeyMaterialCache keyCache;
+
+    public AppShadowDao(JdbcTemplate jdbc, TransactionTemplate tx,
+                        AesGcmShadowCipher cipher, KeyMaterialCache keyCache) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.cipher = cipher;
+        this.keyCache = keyCache;
+    }
+
+    // Encrypt and upsert users_shadow for freshly written users.
+    // Must run inside the caller's transaction (the one that inserted the users).
+    public void writeShadow(List<PlainUser> users) {
+        if (users.isEmpty()) return;
+
+        // the database's date, as the trigger and batch paths use: the JVM's zone may be on
+        // another day around midnight (duplicate per-day keys, keys in the wrong month partition)
+        LocalDate bucket = jdbc.queryForObject("SELECT CURRENT_DATE", LocalDate.class);
+
+        // cache first; one set-based ensure_user_keys for whoever is missing a key
+        Map<String, KeyMaterialCache.Key> keys = new HashMap<>(users.size() * 4);
+        List<Long> missing = new ArrayList<>();
+        for (PlainUser u : users) {
+            boolean all = true;
+            for (String purpose : PURPOSES) {
+                KeyMaterialCache.Key k = keyCache.get(u.userId(), purpose, bucket);
+                if (k == null) all = false;
+                else keys.put(u.userId() + ":" + purpose, k);
+            }
+            if (!all) missing.add(u.userId());
+        }
+
+        if (!missing.isEmpty()) {
+            long gen = keyCache.generation();
+            Map<String, KeyMaterialCache.Key> loaded = new HashMap<>(missing.size() * 4);
+            jdbc.query(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "SELECT user_id, purpose, key_id, key_material FROM ensure_user_keys(?, ?)");
+                ps.setArray(1, con.createArrayOf("bigint", missing.toArray()));
+                ps.setObject(2, bucket);
+                return ps;
+            }, rs -> {
+                long uid = rs.getLong("user_id");
+                String purpose = rs.getString("purpose");
+                KeyMaterialCache.Key k = new KeyMaterialCache.Key(rs.getLong("key_id"), rs.getString("key_material"));
+                keys.put(uid + ":" + purpose, k);
+                loaded.put(uid + ":" + purpose, k);
+            });
+            // keys created by ensure_user_keys only exist once we commit
+            afterCommit(() -> loaded.forEach((ck, k) -> {
+                int i = ck.indexOf(':');
+                keyCache.put(Long.parseLong(ck.substring(0, i)), ck.substring(i + 1), bucket, k, gen);
+            }));
+        }
+
+        jdbc.batchUpdate(UPSERT_SHADOW, users, users.size(), (ps, u) -> {
+            KeyMaterialCache.Key kn = keys.get(u.userId() + ":name");
+            KeyMaterialCache.Key ke = keys.get(u.userId() + ":email");
+            KeyMaterialCache.Key kp = keys.get(u.userId() + ":phone");
+            ps.setLong(1, u.userId());
+            ps.setBytes(2, cipher.encrypt(u.fullName(), u.userId(), "name", kn.keyId(), kn.material()));
+            ps.setBytes(3, cipher.encrypt(u.email(), u.userId(), "email", ke.keyId(), ke.material()));
+            ps.setBytes(4, cipher.encrypt(u.phone(), u.userId(), "phone", kp.keyId(), kp.material()));
+            ps.setLong(5, kn.keyId());
+            ps.setLong(6, ke.keyId());
+            ps.setLong(7, kp.keyId());
+            ps.setInt(8, AesGcmShadowCipher.ENC_VERSION);
+        });
+    }
+
+    private static void afterCommit(Runnable r) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            r.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                r.run();
+            }
+        });
+    }
+
+    // Same decrypt-or-tombstone rules as restore_users_from_shadow, for the
+    // enc_version = 2 rows among ids. One transaction (or the caller's), triggers suppressed.
+    public RestoreCounts restoreIds(List<Long> ids) {
+        if (ids.isEmpty()) return RestoreCounts.ZERO;
+
+        RestoreCounts c = tx.execute(status -> {
+            jdbc.queryForObject("SELECT set_config('session_replication_role', 'replica', true)", String.class);
+
+            List<Object[]> rows = new ArrayList<>(ids.size());
+            long[] redacted = {0};
+            jdbc.query(con -> {
+                PreparedStatement ps = con.prepareStatement(LOAD_V2);
+                ps.setArray(1, con.createArrayOf("bigint", ids.toArray()));
+                return ps;
+            }, rs -> {
+                long uid = rs.getLong("user_id");
+                String kn = rs.getString("key_name");
+                String ke = rs.getString("key_email");
+                String kp = rs.getString("key_phone");
+
+                String name = (kn != null)
+                        ? cipher.decrypt(rs.getBytes("full_name_enc"), uid, "name", rs.getLong("key_id_name"), kn)
+                        : "[REDACTED user_id=" + uid + "]";
+                String email = (ke != null)
+                        ? cipher.decrypt(rs.getBytes("email_enc"), uid, "email", rs.getLong("key_id_email"), ke)
+                        : "deleted+" + uid + "@example.invalid";
+                String phone = (kp != null)
+                        ? cipher.decrypt(rs.getBytes("phone_enc"), uid, "phone", rs.getLong("key_id_phone"), kp)
+                        : null;
+
+                if (kn == null || ke == null || kp == null) redacted[0]++;
+                rows.add(new Object[]{uid, name, email, phone});
+            });
+
+            if (!rows.isEmpty()) jdbc.batchUpdate(UPSERT_USER, rows);
+            return new RestoreCounts(rows.size(), rows.size() - redacted[0], redacted[0]);
+        });
+        return (c == null) ? RestoreCounts.ZERO : c;
+    }
+}
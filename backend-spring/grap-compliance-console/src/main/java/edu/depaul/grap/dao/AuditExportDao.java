@@ -0,0 +1,78 @@
+package edu.depaul.grap.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Keyset batches over an audit table in (occurred_at, audit_id) order (sql/20_audit_export.sql).
+// Each batch is its own short query, so the connection goes back to the pool while the
+// batch is written to the client.
+@Repository
+public class AuditExportDao {
+
+    public enum AuditTable {
+        DELETION("deletion_audit",
+                "audit_id", "user_id", "action", "reason", "legal_hold_active", "keys_affected", "occurred_at"),
+        BACKUP_PROTECTION("backup_protection_audit",
+                "audit_id", "user_id", "hold_id", "backup_id", "action", "reason", "occurred_at");
+
+        public final String table;
+        public final List<String> columns;
+
+        AuditTable(String table, String... columns) {
+            this.table = table;
+            this.columns = List.of(columns);
+        }
+    }
+
+    public record Filter(OffsetDateTime from, OffsetDateTime to, Long userId) {}
+
+    // last (occurred_at, audit_id) written; null before the first batch
+    public record Cursor(OffsetDateTime occurredAt, long auditId) {}
+
+    private final JdbcTemplate jdbc;
+
+    public AuditExportDao(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // Rows are Object[] in AuditTable.columns order; occurred_at as OffsetDateTime.
+    public List<Object[]> batch(AuditTable t, Filter f, Cursor after, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(String.join(", ", t.columns))
+                .append(" FROM ").append(t.table).append(" WHERE true");
+        List<Object> args = new ArrayList<>();
+        if (f.from() != null) {
+            sql.append(" AND occurred_at >= ?");
+            args.add(f.from());
+        }
+        if (f.to() != null) {
+            sql.append(" AND occurred_at < ?");
+            args.add(f.to());
+        }
+        if (f.userId() != null) {
+            sql.append(" AND user_id = ?");
+            args.add(f.userId());
+        }
+        if (after != null) {
+            sql.append(" AND (occurred_at, audit_id) > (?, ?)");
+            args.add(after.occurredAt());
+            args.add(after.auditId());
+        }
+        sql.append(" ORDER BY occurred_at, audit_id LIMIT ?");
+        args.add(limit);
+
+        int n = t.columns.size();
+        int tsCol = t.columns.indexOf("occurred_at");
+        return jdbc.query(sql.toString(), (rs, i) -> {
+            Object[] row = new Object[n];
+            for (int c = 0; c < n; c++) {
+                row[c] = (c == tsCol) ? rs.getObject(c + 1, OffsetDateTime.class) : rs.getObject(c + 1);
+            }
+            return row;
+        }, args.toArray());
+    }
+}
@@ -0,0 +1,83 @@
+package edu.depaul.grap.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+// Audit table partitions and retention (sql/24_audit_partitioning.sql).
+@Repository
+public class AuditPartitionDao {
+
+    public static final List<String> TABLES = List.of("deletion_audit", "backup_protection_audit");
+
+    private static final String PARTITIONS = """
+            SELECT p.relname AS source_table,
+                   c.relname AS partition,
+                   pg_get_expr(c.relpartbound, c.oid) AS bounds,
+                   greatest(c.reltuples, 0)::bigint AS rows_estimate,
+                   pg_total_relation_size(c.oid) AS total_bytes
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            JOIN pg_class p ON p.oid = i.inhparent
+            WHERE p.relname IN ('deletion_audit', 'backup_protection_audit')
+              AND p.relnamespace = 'public'::regnamespace
+            ORDER BY p.relname, c.relname
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    public AuditPartitionDao(JdbcTemplate jdbc, TransactionTemplate tx) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+    }
+
+    public List<Map<String, Object>> partitions() {
+        return jdbc.queryForList(PARTITIONS);
+    }
+
+    public List<Map<String, Object>> archived(int limit) {
+        return jdbc.queryForList(
+                "SELECT archive_id, source_table, 'audit_archive.' || partition_name AS archived_as, range_from, " +
+                        "range_to, row_count, min_audit_id, max_audit_id, archived_at, dropped_at " +
+                        "FROM audit_archive_log ORDER BY archive_id DESC LIMIT ?", limit);
+    }
+
+    public long defaultPartitionRows(String table) {
+        Long n = jdbc.queryForObject("SELECT count(*) FROM " + checked(table) + "_pdefault", Long.class);
+        return n == null ? 0 : n;
+    }
+
+    public int ensurePartitions(String table, LocalDate from, LocalDate to, int lockTimeoutMillis) {
+        Integer n = tx.execute(status -> {
+            jdbc.queryForObject("SELECT set_config('lock_timeout', ?, true)", String.class, lockTimeoutMillis + "ms");
+            return jdbc.queryForObject("SELECT ensure_audit_partitions(?, ?, ?)", Integer.class,
+                    checked(table), from, to);
+        });
+        return n == null ? 0 : n;
+    }
+
+    // Detaches up to limit expired months of one table in one transaction.
+    public List<Map<String, Object>> archive(String table, int keepMonths, int limit, int lockTimeoutMillis) {
+        return tx.execute(status -> {
+            jdbc.queryForObject("SELECT set_config('lock_timeout', ?, true)", String.class, lockTimeoutMillis + "ms");
+            return jdbc.queryForList("SELECT * FROM archive_audit_partitions(?, ?, ?)",
+                    checked(table), keepMonths, limit);
+        });
+    }
+
+    public int dropArchived(int afterDays) {
+        Integer n = jdbc.queryForObject("SELECT drop_archived_audit_partitions(? * interval '1 day')",
+                Integer.class, afterDays);
+        return n == null ? 0 : n;
+    }
+
+    private static String checked(String table) {
+        if (!TABLES.contains(table)) throw new IllegalArgumentException("not an audit table: " + table);
+        return table;
+    }
+}
@@ -0,0 +1,292 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.audit.AuditHashing;
+import edu.depaul.grap.dao.AuditExportDao.AuditTable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+// Hash chain and Merkle blocks over the audit tables (sql/31_audit_hash_chain.sql):
+// sealing, and the reads verification needs.
+@Repository
+public class AuditSealDao {
+
+    public record State(long lastSeq, byte[] lastChainHash, long blockNo, long blockLastSeq,
+                        byte[] blockChainHash, byte[] blockHash, OffsetDateTime sealedAt) {}
+
+    public record Block(long blockNo, long firstSeq, long lastSeq, OffsetDateTime minOccurredAt,
+                       OffsetDateTime maxOccurredAt, byte[] prevChainHash, byte[] lastChainHash,
+                       byte[] merkleRoot, byte[] prevBlockHash, byte[] blockHash) {}
+
+    // values in AuditTable.columns order
+    public record SealedRow(long seq, Object[] values, byte[] rowHash, byte[] chainHash) {}
+
+    // null from seal() means another node holds the table's seal lock
+    public record SealResult(int rows, int blocksClosed, long lastSeq) {}
+
+    public record Verification(AuditTable table, OffsetDateTime from, OffsetDateTime to, int blocksChecked,
+                               int blocksArchived, int blocksPartlyArchived, long rowsChecked, int failures, List<Long> failedBlocks,
+                               long headBlockNo, byte[] headBlockHash, int threads, long elapsedMs) {}
+
+    private static final String STATE_COLUMNS =
+            "last_seq, last_chain_hash, block_no, block_last_seq, block_chain_hash, block_hash, sealed_at";
+
+    private static final String BLOCK_COLUMNS =
+            "block_no, first_seq, last_seq, min_occurred_at, max_occurred_at, prev_chain_hash, last_chain_hash, " +
+                    "merkle_root, prev_block_hash, block_hash";
+
+    private static final RowMapper<State> STATE = (rs, i) -> new State(rs.getLong(1), rs.getBytes(2),
+            rs.getLong(3), rs.getLong(4), rs.getBytes(5), rs.getBytes(6), rs.getObject(7, OffsetDateTime.class));
+
+    private static final RowMapper<Block> BLOCK = (rs, i) -> new Block(rs.getLong(1), rs.getLong(2), rs.getLong(3),
+            rs.getObject(4, OffsetDateTime.class), rs.getObject(5, OffsetDateTime.class), rs.getBytes(6),
+            rs.getBytes(7), rs.getBytes(8), rs.getBytes(9), rs.getBytes(10));
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    public AuditSealDao(JdbcTemplate jdbc, TransactionTemplate tx) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+    }
+
+    // ----------------------------
+    // Sealing
+    // ----------------------------
+
+    // Seals up to limit committed, unsealed rows (audit_id order) in one transaction,
+    // never past the end of the open block; closes the block when it is full.
+    public SealResult seal(AuditTable t, int limit, int blockSize) {
+        return tx.execute(status -> {
+            Boolean locked = jdbc.queryForObject("SELECT pg_try_advisory_xact_lock(hashtext(?))", Boolean.class,
+                    "audit_seal:" + t.table);
+            if (!Boolean.TRUE.equals(locked)) return null;
+            State s = jdbc.queryForObject("SELECT " + STATE_COLUMNS + " FROM audit_seal_state " +
+                    "WHERE source_table = ? FOR UPDATE", STATE, t.table);
+
+            long room = blockSize - (s.lastSeq() - s.blockLastSeq());
+            int n = (int) Math.max(0, Math.min(limit, room));
+            List<Object[]> rows = (n == 0) ? List.of() : jdbc.query(
+                    "SELECT " + String.join(", ", t.columns) + " FROM " + t.table +
+                            " WHERE seal_seq IS NULL ORDER BY audit_id LIMIT ?", contentMapper(t), n);
+
+            long seq = s.lastSeq();
+            byte[] chain = s.lastChainHash();
+            if (!rows.isEmpty()) {
+                int idCol = t.columns.indexOf("audit_id");
+                int tsCol = t.columns.indexOf("occurred_at");
+                HexFormat hex = HexFormat.of();
+                Object[] ids = new Object[rows.size()];
+                Object[] at = new Object[rows.size()];
+                Object[] seqs = new Object[rows.size()];
+                Object[] rowHashes = new Object[rows.size()];
+                Object[] chainHashes = new Object[rows.size()];
+                for (int i = 0; i < rows.size(); i++) {
+                    Object[] r = rows.get(i);
+                    byte[] leaf = AuditHashing.leaf(t.table, AuditHashing.canonical(r));
+                    chain = AuditHashing.chain(chain, leaf);
+                    ids[i] = r[idCol];
+                    at[i] = r[tsCol].toString();
+                    seqs[i] = ++seq;
+                    rowHashes[i] = hex.formatHex(leaf);
+                    chainHashes[i] = hex.formatHex(chain);
+                }
+                int updated = jdbc.update(con -> {
+                    var ps = con.prepareStatement(
+                            "UPDATE " + t.table + " a SET seal_seq = u.seq, row_hash = decode(u.rh, 'hex'), " +
+                                    "chain_hash = decode(u.ch, 'hex') " +
+                                    "FROM unnest(?::bigint[], ?::timestamptz[], ?::bigint[], ?::text[], ?::text[]) " +
+                                    "AS u(audit_id, occurred_at, seq, rh, ch) " +
+                                    "WHERE a.audit_id = u.audit_id AND a.occurred_at = u.occurred_at " +
+                                    "AND a.seal_seq IS NULL");
+                    ps.setArray(1, con.createArrayOf("bigint", ids));
+                    ps.setArray(2, con.createArrayOf("text", at));
+                    ps.setArray(3, con.createArrayOf("bigint", seqs));
+                    ps.setArray(4, con.createArrayOf("text", rowHashes));
+                    ps.setArray(5, con.createArrayOf("text", chainHashes));
+                    return ps;
+                });
+                if (updated != rows.size()) {
+                    throw new IllegalStateException(t.table + ": sealed " + updated + " of " + rows.size() + " rows");
+                }
+            }
+
+            int closed = 0;
+            if (seq - s.blockLastSeq() >= blockSize) {
+                closeBlock(t, s, seq, chain);
+                closed = 1;
+            }
+            jdbc.update("UPDATE audit_seal_state SET last_seq = ?, last_chain_hash = ?, sealed_at = now() " +
+                    "WHERE source_table = ?", seq, chain, t.table);
+            return new SealResult(rows.size(), closed, seq);
+        });
+    }
+
+    // Block (block_last_seq, lastSeq]: Merkle root over the stored row hashes.
+    private void closeBlock(AuditTable t, State s, long lastSeq, byte[] lastChain) {
+        long firstSeq = s.blockLastSeq() + 1;
+        List<byte[]> leaves = new ArrayList<>((int) (lastSeq - firstSeq + 1));
+        OffsetDateTime[] range = new OffsetDateTime[2];
+        jdbc.query("SELECT row_hash, occurred_at FROM " + t.table +
+                " WHERE seal_seq BETWEEN ? AND ? ORDER BY seal_seq", rs -> {
+            leaves.add(rs.getBytes(1));
+            OffsetDateTime at = rs.getObject(2, OffsetDateTime.class);
+            if (range[0] == null || at.isBefore(range[0])) range[0] = at;
+            if (range[1] == null || at.isAfter(range[1])) range[1] = at;
+        }, firstSeq, lastSeq);
+        if (leaves.size() != lastSeq - firstSeq + 1) {
+            throw new IllegalStateException(t.table + ": block " + (s.blockNo() + 1) + " has " + leaves.size() +
+                    " of " + (lastSeq - firstSeq + 1) + " rows");
+        }
+        long blockNo = s.blockNo() + 1;
+        byte[] root = AuditHashing.merkleRoot(leaves);
+        byte[] hash = AuditHashing.blockHash(t.table, blockNo, firstSeq, lastSeq, s.blockHash(),
+                s.blockChainHash(), lastChain, root);
+        jdbc.update("INSERT INTO audit_seal_blocks(source_table, " + BLOCK_COLUMNS + ") " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                t.table, blockNo, firstSeq, lastSeq, range[0], range[1], s.blockChainHash(), lastChain, root,
+                s.blockHash(), hash);
+        jdbc.update("UPDATE audit_seal_state SET block_no = ?, block_last_seq = ?, block_chain_hash = ?, " +
+                "block_hash = ? WHERE source_table = ?", blockNo, lastSeq, lastChain, hash, t.table);
+    }
+
+    // ----------------------------
+    // Reads
+    // ----------------------------
+
+    public State state(AuditTable t) {
+        return jdbc.queryForObject("SELECT " + STATE_COLUMNS + " FROM audit_seal_state WHERE source_table = ?",
+                STATE, t.table);
+    }
+
+    public long unsealed(AuditTable t) {
+        Long n = jdbc.queryForObject("SELECT count(*) FROM " + t.table + " WHERE seal_seq IS NULL", Long.class);
+        return n == null ? 0 : n;
+    }
+
+    // Blocks with rows in [from, to), in block order.
+    public List<Block> blocks(AuditTable t, OffsetDateTime from, OffsetDateTime to) {
+        return jdbc.query("SELECT " + BLOCK_COLUMNS + " FROM audit_seal_blocks " +
+                        "WHERE source_table = ? AND max_occurred_at >= ? AND min_occurred_at < ? ORDER BY block_no",
+                BLOCK, t.table, from, to);
+    }
+
+    // null if there is no such block
+    public Block block(AuditTable t, long blockNo) {
+        List<Block> b = jdbc.query("SELECT " + BLOCK_COLUMNS + " FROM audit_seal_blocks " +
+                "WHERE source_table = ? AND block_no = ?", BLOCK, t.table, blockNo);
+        return b.isEmpty() ? null : b.get(0);
+    }
+
+    // Rows sealed as firstSeq..lastSeq, in seal order. The occurred_at bounds (may be
+    // null) only narrow the partitions read.
+    public List<SealedRow> sealedRows(AuditTable t, long firstSeq, long lastSeq,
+                                      OffsetDateTime minOccurredAt, OffsetDateTime maxOccurredAt) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", t.columns))
+                .append(", seal_seq, row_hash, chain_hash FROM ").append(t.table)
+                .append(" WHERE seal_seq BETWEEN ? AND ?");
+        List<Object> args = new ArrayList<>(List.of(firstSeq, lastSeq));
+        if (minOccurredAt != null && maxOccurredAt != null) {
+            sql.append(" AND occurred_at BETWEEN ? AND ?");
+            args.add(minOccurredAt);
+            args.add(maxOccurredAt);
+        }
+        sql.append(" ORDER BY seal_seq");
+        int n = t.columns.size();
+        RowMapper<Object[]> content = contentMapper(t);
+        return jdbc.query(sql.toString(), (rs, i) -> new SealedRow(rs.getLong(n + 1), content.mapRow(rs, i),
+                rs.getBytes(n + 2), rs.getBytes(n + 3)), args.toArray());
+    }
+
+    // [range_from, range_to) of the months detached from the table (24_audit_partitioning.sql)
+    public List<OffsetDateTime[]> archivedRanges(AuditTable t) {
+        return jdbc.query("SELECT range_from, range_to FROM audit_archive_log WHERE source_table = ?",
+                (rs, i) -> new OffsetDateTime[]{rs.getObject(1, OffsetDateTime.class),
+                        rs.getObject(2, OffsetDateTime.class)}, t.table);
+    }
+
+    // block_no -> rows of it taken by archived months (audit_archive_blocks)
+    public Map<Long, Long> archivedRows(AuditTable t) {
+        Map<Long, Long> out = new HashMap<>();
+        jdbc.query("SELECT b.block_no, sum(b.row_count) FROM audit_archive_blocks b " +
+                        "JOIN audit_archive_log l ON l.archive_id = b.archive_id " +
+                        "WHERE l.source_table = ? GROUP BY b.block_no",
+                rs -> {
+                    out.put(rs.getLong(1), rs.getLong(2));
+                }, t.table);
+        return out;
+    }
+
+    // ----------------------------
+    // Verification log
+    // ----------------------------
+
+    public long recordVerification(Verification v) {
+        Long id = jdbc.query(con -> {
+            var ps = con.prepareStatement("""
+                INSERT INTO audit_seal_verifications(source_table, range_from, range_to, blocks_checked,
+                  blocks_archived, blocks_partly_archived, rows_checked, failures, failed_blocks, head_block_no,
+                  head_block_hash, threads, elapsed_ms)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                RETURNING verify_id
+                """);
+            ps.setString(1, v.table().table);
+            ps.setObject(2, v.from());
+            ps.setObject(3, v.to());
+            ps.setInt(4, v.blocksChecked());
+            ps.setInt(5, v.blocksArchived());
+            ps.setInt(6, v.blocksPartlyArchived());
+            ps.setLong(7, v.rowsChecked());
+            ps.setInt(8, v.failures());
+            ps.setArray(9, con.createArrayOf("bigint", v.failedBlocks().toArray()));
+            ps.setLong(10, v.headBlockNo());
+            ps.setBytes(11, v.headBlockHash());
+            ps.setInt(12, v.threads());
+            ps.setLong(13, v.elapsedMs());
+            return ps;
+        }, rs -> rs.next() ? rs.getLong(1) : null);
+        return id == null ? 0 : id;
+    }
+
+    public List<Map<String, Object>> verifications(int limit) {
+        List<Map<String, Object>> rows = jdbc.queryForList(
+                "SELECT verify_id, source_table, range_from, range_to, blocks_checked, blocks_archived, " +
+                        "blocks_partly_archived, rows_checked, " +
+                        "failures, failed_blocks, head_block_no, encode(head_block_hash, 'hex') AS head_block_hash, " +
+                        "threads, elapsed_ms, verified_at FROM audit_seal_verifications " +
+                        "ORDER BY verify_id DESC LIMIT ?", limit);
+        for (Map<String, Object> r : rows) {
+            if (r.get("failed_blocks") instanceof Array a) {
+                try {
+                    r.put("failed_blocks", List.of((Object[]) a.getArray()));
+                } catch (SQLException e) {
+                    throw new IllegalStateException("reading failed_blocks", e);
+                }
+            }
+        }
+        return rows;
+    }
+
+    // AuditTable.columns, first in the select list; occurred_at as OffsetDateTime
+    private static RowMapper<Object[]> contentMapper(AuditTable t) {
+        int n = t.columns.size();
+        int tsCol = t.columns.indexOf("occurred_at");
+        return (rs, i) -> {
+            Object[] row = new Object[n];
+            for (int c = 0; c < n; c++) {
+                row[c] = (c == tsCol) ? rs.getObject(c + 1, OffsetDateTime.class) : rs.getObject(c + 1);
+            }
+            return row;
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package edu.depaul.grap.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Map;
+
+// backup_manifest_loads: one row per manifest load and its progress (sql/27_backup_manifest.sql).
+@Repository
+public class BackupManifestDao {
+
+    private static final String COLUMNS =
+            "load_id, backup_id, source, format, state, ids_read, unique_ids, ids_loaded, pairs_added, " +
+                    "pairs_refreshed, error, started_at, updated_at, finished_at";
+
+    private final JdbcTemplate jdbc;
+
+    public BackupManifestDao(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    public boolean backupExists(long backupId) {
+        Boolean b = jdbc.queryForObject("SELECT EXISTS (SELECT 1 FROM backup_runs WHERE backup_id = ?)",
+                Boolean.class, backupId);
+        return Boolean.TRUE.equals(b);
+    }
+
+    public long start(long backupId, String source, String format) {
+        Long id = jdbc.queryForObject(
+                "INSERT INTO backup_manifest_loads(backup_id, source, format) VALUES (?, ?, ?) RETURNING load_id",
+                Long.class, backupId, source, format);
+        return id == null ? 0 : id;
+    }
+
+    public void reading(long loadId, long idsRead) {
+        jdbc.update("UPDATE backup_manifest_loads SET ids_read = ?, updated_at = now() WHERE load_id = ?",
+                idsRead, loadId);
+    }
+
+    public void loading(long loadId, long idsRead, long uniqueIds) {
+        jdbc.update("UPDATE backup_manifest_loads SET state = 'LOADING', ids_read = ?, unique_ids = ?, " +
+                "updated_at = now() WHERE load_id = ?", idsRead, uniqueIds, loadId);
+    }
+
+    public void loaded(long loadId, long idsLoaded) {
+        jdbc.update("UPDATE backup_manifest_loads SET ids_loaded = ?, updated_at = now() WHERE load_id = ?",
+                idsLoaded, loadId);
+    }
+
+    public void done(long loadId, long added, long refreshed) {
+        jdbc.update("UPDATE backup_manifest_loads SET state = 'DONE', ids_loaded = unique_ids, pairs_added = ?, " +
+                "pairs_refreshed = ?, updated_at = now(), finished_at = now() WHERE load_id = ?",
+                added, refreshed, loadId);
+    }
+
+    public void failed(long loadId, String error) {
+        jdbc.update("UPDATE backup_manifest_loads SET state = 'FAILED', error = ?, updated_at = now(), " +
+                "finished_at = now() WHERE load_id = ?", error, loadId);
+    }
+
+    public Map<String, Object> get(long loadId) {
+        return jdbc.queryForMap("SELECT " + COLUMNS + " FROM backup_manifest_loads WHERE load_id = ?", loadId);
+    }
+
+    public List<Map<String, Object>> forBackup(long backupId, int limit) {
+        return jdbc.queryForList("SELECT " + COLUMNS + " FROM backup_manifest_loads WHERE backup_id = ? " +
+                "ORDER BY load_id DESC LIMIT ?", backupId, limit);
+    }
+}
@@ -0,0 +1,161 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.catalog.BackupCatalog;
+import edu.depaul.grap.metrics.ComplianceMetrics;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Incremental legal-hold backup protection (sql/25_incremental_protection.sql).
+//
+// Each active hold's protected_through_backup_id says every backup up to it that
+// contains the held user is covered. A sweep claims holds behind the newest
+// backup, asks the catalog only for their memberships above the watermark,
+// covers the new (hold, backup) pairs and advances the watermarks, all in one
+// transaction holding the backup_hold_sweep advisory lock exclusively (membership
+// writers take it shared, so none of their rows is missed).
+@Repository
+public class BackupProtectionDao {
+
+    public record Sweep(int holds, long throughBackupId, List<Map<String, Object>> covered) {}
+
+    private record Hold(long holdId, long userId, long watermark) {}
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final BackupCatalog backupCatalog;
+    private final ComplianceMetrics metrics;
+
+    public BackupProtectionDao(JdbcTemplate jdbc, TransactionTemplate tx,
+                               BackupCatalog backupCatalog, ComplianceMetrics metrics) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.backupCatalog = backupCatalog;
+        this.metrics = metrics;
+    }
+
+    // Up to limit active holds (all, or one user's when userId is not null).
+    // covered: the newly protected pairs with their backup_runs columns.
+    public Sweep sweep(Long userId, int limit, int lockTimeoutMillis) {
+        Sweep s = tx.execute(status -> {
+            jdbc.queryForObject("SELECT set_config('lock_timeout', ?, true)", String.class, lockTimeoutMillis + "ms");
+            jdbc.queryForList("SELECT pg_advisory_xact_lock(hashtext('backup_hold_sweep'))");
+
+            Long max = jdbc.queryForObject("SELECT coalesce(max(backup_id), 0) FROM backup_runs", Long.class);
+            long through = max == null ? 0 : max;
+
+            // SKIP LOCKED: a hold being released right now is picked up next time
+            List<Hold> holds = jdbc.query(
+                    "SELECT hold_id, user_id, protected_through_backup_id FROM legal_holds " +
+                            "WHERE released_at IS NULL AND protected_through_backup_id < ? " +
+                            "AND (?::bigint IS NULL OR user_id = ?) " +
+                            "ORDER BY protected_through_backup_id, hold_id LIMIT ? FOR UPDATE SKIP LOCKED",
+                    (rs, n) -> new Hold(rs.getLong(1), rs.getLong(2), rs.getLong(3)),
+                    through, userId, userId, limit);
+            if (holds.isEmpty()) return new Sweep(0, through, List.of());
+
+            long[] users = new long[holds.size()];
+            long[] after = new long[holds.size()];
+            Long[] holdIds = new Long[holds.size()];
+            for (int i = 0; i < users.length; i++) {
+                users[i] = holds.get(i).userId();
+                after[i] = holds.get(i).watermark();
+                holdIds[i] = holds.get(i).holdId();
+            }
+
+            List<BackupCatalog.Member> members = backupCatalog.membersSince(users, after, through);
+            List<Map<String, Object>> covered = members.isEmpty() ? List.of() : cover(holds, members);
+
+            jdbc.update(con -> {
+                var ps = con.prepareStatement(
+                        "UPDATE legal_holds SET protected_through_backup_id = ? WHERE hold_id = ANY(?)");
+                ps.setLong(1, through);
+                ps.setArray(2, con.createArrayOf("bigint", holdIds));
+                return ps;
+            });
+            return new Sweep(holds.size(), through, covered);
+        });
+        metrics.backupsProtected(s.covered().size());
+        return s;
+    }
+
+    private List<Map<String, Object>> cover(List<Hold> holds, List<BackupCatalog.Member> members) {
+        List<Long> holdIds = new ArrayList<>(members.size());
+        List<Long> backupIds = new ArrayList<>(members.size());
+        for (BackupCatalog.Member m : members) {
+            holdIds.add(holds.get(m.slot()).holdId());
+            backupIds.add(m.backupId());
+        }
+        List<Map<String, Object>> pairs = jdbc.query(con -> {
+            var ps = con.prepareStatement("SELECT * FROM cover_backups_for_holds(?, ?)");
+            ps.setArray(1, con.createArrayOf("bigint", holdIds.toArray()));
+            ps.setArray(2, con.createArrayOf("bigint", backupIds.toArray()));
+            return ps;
+        }, new ColumnMapRowMapper());
+        if (pairs.isEmpty()) return pairs;
+
+        // separate statement: the counting trigger has run, protected_reason is current
+        Object[] newHolds = pairs.stream().map(p -> p.get("hold_id")).toArray();
+        Object[] newBackups = pairs.stream().map(p -> p.get("backup_id")).toArray();
+        return jdbc.query(con -> {
+            var ps = con.prepareStatement("""
+                SELECT p.hold_id, c.user_id, b.backup_id, b.backup_type, b.started_at, b.ended_at,
+                       b.protected_reason, b.protecting_holds
+                FROM unnest(?::bigint[], ?::bigint[]) AS p(hold_id, backup_id)
+                JOIN backup_hold_coverage c ON c.hold_id = p.hold_id AND c.backup_id = p.backup_id
+                JOIN backup_runs b ON b.backup_id = p.backup_id
+                ORDER BY b.backup_id, p.hold_id
+            """);
+            ps.setArray(1, con.createArrayOf("bigint", newHolds));
+            ps.setArray(2, con.createArrayOf("bigint", newBackups));
+            return ps;
+        }, new ColumnMapRowMapper());
+    }
+
+    // ----------------------------
+    // Protection counts (sql/26_protection_refcount.sql)
+    // ----------------------------
+
+    // {min, max} backup_id, or null when there are no backups
+    public long[] backupIdRange() {
+        return jdbc.queryForObject("SELECT min(backup_id), max(backup_id) FROM backup_runs",
+                (rs, n) -> rs.getObject(1) == null ? null : new long[]{rs.getLong(1), rs.getLong(2)});
+    }
+
+    public long countBackups(long fromBackupId, long toBackupId) {
+        Long n = jdbc.queryForObject("SELECT count(*) FROM backup_runs WHERE backup_id BETWEEN ? AND ?",
+                Long.class, fromBackupId, toBackupId);
+        return n == null ? 0 : n;
+    }
+
+    // backups in [from, to] whose stored count or flag differs from a recount
+    public List<Map<String, Object>> countDrift(long fromBackupId, long toBackupId) {
+        return jdbc.queryForList("SELECT * FROM check_backup_protection_counts(?, ?)", fromBackupId, toBackupId);
+    }
+
+    public int repairCounts(long fromBackupId, long toBackupId) {
+        Integer n = jdbc.queryForObject("SELECT repair_backup_protection_counts(?, ?)",
+                Integer.class, fromBackupId, toBackupId);
+        return n == null ? 0 : n;
+    }
+
+    // Active holds behind the newest backup, and the furthest behind.
+    public Map<String, Object> lag() {
+        return jdbc.queryForMap("""
+            SELECT
+              (SELECT coalesce(max(backup_id), 0) FROM backup_runs) AS newest_backup_id,
+              count(*) AS active_holds,
+              count(*) FILTER (WHERE h.protected_through_backup_id < m.newest) AS holds_behind,
+              min(h.protected_through_backup_id) AS lowest_watermark,
+              (SELECT count(*) FROM backup_hold_coverage) AS covered_pairs
+            FROM legal_holds h
+            CROSS JOIN (SELECT coalesce(max(backup_id), 0) AS newest FROM backup_runs) m
+            WHERE h.released_at IS NULL
+        """);
+    }
+}
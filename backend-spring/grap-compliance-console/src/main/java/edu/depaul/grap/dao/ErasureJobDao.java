@@ -0,0 +1,214 @@
+package edu.depaul.grap.dao;
+
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// erasure_jobs queue (sql/21_erasure_jobs.sql).
+@Repository
+public class ErasureJobDao {
+
+    public record Job(long jobId, long userId, int attempts) {}
+
+    private static final String JOB_COLUMNS =
+            "job_id, user_id, state, attempts, next_attempt_at, claimed_by, claimed_at, " +
+                    "outcome, keys_destroyed, last_error, created_at, finished_at";
+
+    // One row per distinct requested user: the new job, or the user's open job
+    // if there already is one (created = false).
+    private static final String ENQUEUE = """
+            WITH req AS (
+              SELECT DISTINCT id FROM unnest(?::bigint[]) AS t(id) WHERE id IS NOT NULL
+            ),
+            ins AS (
+              INSERT INTO erasure_jobs(user_id)
+              SELECT id FROM req
+              ON CONFLICT (user_id) WHERE state IN ('QUEUED', 'RUNNING') DO NOTHING
+              RETURNING job_id, user_id, state
+            )
+            SELECT r.id AS user_id,
+                   coalesce(i.job_id, o.job_id) AS job_id,
+                   coalesce(i.state, o.state) AS state,
+                   i.job_id IS NOT NULL AS created
+            FROM req r
+            LEFT JOIN ins i ON i.user_id = r.id
+            LEFT JOIN erasure_jobs o ON o.user_id = r.id AND o.state IN ('QUEUED', 'RUNNING') AND i.job_id IS NULL
+            ORDER BY r.id
+            """;
+
+    private static final String CLAIM = """
+            UPDATE erasure_jobs j
+            SET state = 'RUNNING', claimed_by = ?, claimed_at = now(), attempts = j.attempts + 1
+            FROM (
+              SELECT job_id FROM erasure_jobs
+              WHERE state = 'QUEUED' AND next_attempt_at <= now()
+              ORDER BY next_attempt_at, job_id
+              LIMIT ?
+              FOR UPDATE SKIP LOCKED
+            ) c
+            WHERE j.job_id = c.job_id
+            RETURNING j.job_id, j.user_id, j.attempts
+            """;
+
+    private static final String COMPLETE = """
+            UPDATE erasure_jobs j
+            SET state = CASE WHEN r.outcome = 'BLOCKED_BY_HOLD' THEN 'BLOCKED' ELSE 'DONE' END,
+                outcome = r.outcome, keys_destroyed = r.keys, finished_at = now(), last_error = NULL
+            FROM unnest(?::bigint[], ?::text[], ?::int[]) AS r(user_id, outcome, keys)
+            WHERE j.job_id = ANY(?) AND j.user_id = r.user_id
+              AND j.state = 'RUNNING' AND j.claimed_by = ?
+            """;
+
+    // exponential backoff with jitter: base * 2^(attempts-1), capped, scaled by 0.5..1.0
+    private static final String RETRY = """
+            UPDATE erasure_jobs
+            SET state = CASE WHEN attempts >= ? THEN 'FAILED' ELSE 'QUEUED' END,
+                finished_at = CASE WHEN attempts >= ? THEN now() END,
+                next_attempt_at = now() + least(? * power(2, attempts - 1), ?)
+                                          * (0.5 + random() / 2) * interval '1 millisecond',
+                claimed_by = NULL, last_error = ?
+            WHERE job_id = ANY(?) AND state = 'RUNNING' AND claimed_by = ?
+            """;
+
+    private final JdbcTemplate jdbc;
+
+    public ErasureJobDao(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    // A concurrent enqueue of the same user can commit after this statement's
+    // snapshot; those rows come back without a job and are asked for again.
+    public List<Map<String, Object>> enqueue(List<Long> userIds) {
+        List<Map<String, Object>> out = new ArrayList<>(userIds.size());
+        List<Long> pending = userIds;
+        for (int attempt = 0; attempt < 3 && !pending.isEmpty(); attempt++) {
+            List<Long> ids = pending;
+            List<Map<String, Object>> rows = jdbc.query(con -> {
+                PreparedStatement ps = con.prepareStatement(ENQUEUE);
+                ps.setArray(1, con.createArrayOf("bigint", ids.toArray()));
+                return ps;
+            }, new ColumnMapRowMapper());
+            pending = new ArrayList<>();
+            for (Map<String, Object> r : rows) {
+                if (r.get("job_id") == null) pending.add(((Number) r.get("user_id")).longValue());
+                else out.add(r);
+            }
+        }
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("could not enqueue erasure for users " + pending + " (concurrent updates)");
+        }
+        return out;
+    }
+
+    public List<Job> claim(String nodeId, int limit) {
+        return jdbc.query(CLAIM, (rs, i) -> new Job(rs.getLong(1), rs.getLong(2), rs.getInt(3)), nodeId, limit);
+    }
+
+    // Record destroy_user_keys_bulk outcomes; call inside the destroying transaction.
+    // Throws if any job was requeued meanwhile (stale claim), which rolls the erasure back.
+    public void complete(List<Job> jobs, List<Map<String, Object>> rows, String nodeId) {
+        Long[] users = new Long[rows.size()];
+        String[] outcomes = new String[rows.size()];
+        Integer[] keys = new Integer[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, Object> r = rows.get(i);
+            users[i] = ((Number) r.get("user_id")).longValue();
+            outcomes[i] = (String) r.get("outcome");
+            keys[i] = ((Number) r.get("keys_destroyed")).intValue();
+        }
+        Long[] jobIds = jobs.stream().map(Job::jobId).toArray(Long[]::new);
+        int n = jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(COMPLETE);
+            ps.setArray(1, con.createArrayOf("bigint", users));
+            ps.setArray(2, con.createArrayOf("text", outcomes));
+            ps.setArray(3, con.createArrayOf("integer", keys));
+            ps.setArray(4, con.createArrayOf("bigint", jobIds));
+            ps.setString(5, nodeId);
+            return ps;
+        });
+        if (n != jobs.size()) {
+            throw new IllegalStateException("erasure jobs " + List.of(jobIds) + " were reclaimed by another worker");
+        }
+    }
+
+    // Back to QUEUED with backoff, or FAILED once attempts reaches maxAttempts. Returns jobs FAILED.
+    public int retry(List<Job> jobs, String nodeId, String error, int maxAttempts, long baseMillis, long maxMillis) {
+        Long[] jobIds = jobs.stream().map(Job::jobId).toArray(Long[]::new);
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(RETRY);
+            ps.setInt(1, maxAttempts);
+            ps.setInt(2, maxAttempts);
+            ps.setLong(3, baseMillis);
+            ps.setLong(4, maxMillis);
+            ps.setString(5, error);
+            ps.setArray(6, con.createArrayOf("bigint", jobIds));
+            ps.setString(7, nodeId);
+            return ps;
+        });
+        return (int) jobs.stream().filter(j -> j.attempts() >= maxAttempts).count();
+    }
+
+    // A batch whose erasure rolled back because one of its claims went stale: the jobs still
+    // claimed by this node go straight back to the queue instead of waiting for requeueStale.
+    // The rollback was not their failure, so the attempt is not counted.
+    public int release(List<Job> jobs, String nodeId) {
+        Long[] jobIds = jobs.stream().map(Job::jobId).toArray(Long[]::new);
+        return jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "UPDATE erasure_jobs SET state = 'QUEUED', next_attempt_at = now(), claimed_by = NULL, " +
+                            "attempts = greatest(attempts - 1, 0) " +
+                            "WHERE job_id = ANY(?) AND state = 'RUNNING' AND claimed_by = ?");
+            ps.setArray(1, con.createArrayOf("bigint", jobIds));
+            ps.setString(2, nodeId);
+            return ps;
+        });
+    }
+
+    // Claims whose worker died (or stalled) go back to the queue; the attempt stays counted.
+    public int requeueStale(int staleSeconds) {
+        return jdbc.update(
+                "UPDATE erasure_jobs SET state = 'QUEUED', next_attempt_at = now(), " +
+                        "last_error = 'claim by ' || claimed_by || ' expired', claimed_by = NULL " +
+                        "WHERE state = 'RUNNING' AND claimed_at < now() - ? * interval '1 second'",
+                staleSeconds);
+    }
+
+    public Map<String, Object> job(long jobId) {
+        return jdbc.queryForMap("SELECT " + JOB_COLUMNS + " FROM erasure_jobs WHERE job_id = ?", jobId);
+    }
+
+    public List<Map<String, Object>> jobsForUser(long userId, int limit) {
+        return jdbc.queryForList(
+                "SELECT " + JOB_COLUMNS + " FROM erasure_jobs WHERE user_id = ? ORDER BY job_id DESC LIMIT ?",
+                userId, limit);
+    }
+
+    // Queue depth and lag (open jobs), plus what finished in the last minute / hour.
+    // lag_seconds = how long the oldest due job has been waiting for a worker.
+    public Map<String, Object> stats() {
+        Map<String, Object> open = jdbc.queryForMap("""
+            SELECT count(*) FILTER (WHERE state = 'QUEUED') AS queued,
+                   count(*) FILTER (WHERE state = 'QUEUED' AND next_attempt_at <= now()) AS due,
+                   count(*) FILTER (WHERE state = 'RUNNING') AS running,
+                   coalesce(extract(epoch FROM now() - min(next_attempt_at)
+                            FILTER (WHERE state = 'QUEUED' AND next_attempt_at <= now())), 0)::float8 AS lag_seconds
+            FROM erasure_jobs WHERE state IN ('QUEUED', 'RUNNING')
+        """);
+        Map<String, Object> done = jdbc.queryForMap("""
+            SELECT count(*) FILTER (WHERE finished_at > now() - interval '1 minute') AS finished_last_minute,
+                   count(*) FILTER (WHERE state = 'DONE') AS done_last_hour,
+                   count(*) FILTER (WHERE state = 'BLOCKED') AS blocked_last_hour,
+                   count(*) FILTER (WHERE state = 'FAILED') AS failed_last_hour
+            FROM erasure_jobs WHERE finished_at > now() - interval '1 hour'
+        """);
+        Map<String, Object> m = new LinkedHashMap<>(open);
+        m.putAll(done);
+        return m;
+    }
+}
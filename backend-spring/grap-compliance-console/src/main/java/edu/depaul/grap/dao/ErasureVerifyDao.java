@@ -0,0 +1,434 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.crypto.AesGcmShadowCipher;
+import edu.depaul.grap.crypto.SigningKey;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Crypto-erasure verification runs, their chunks and anomalies (sql/29_erasure_verification.sql).
+@Repository
+public class ErasureVerifyDao {
+
+    // one checked chunk (committed with its anomalies)
+    public record ChunkResult(int chunkNo, int rows, int fields, int anomalies) {}
+
+    public record Signed(String text, String signature, String keyFingerprint) {}
+
+    private record Anomaly(long userId, String field, Long keyId, String kind, String detail) {}
+
+    private static final String RUN_COLUMNS =
+            "run_id, mode, state, previous_run_id, since, snapshot_at, chunk_size, chunks_total, rows_checked, " +
+                    "fields_empty, fields_live_ok, fields_destroyed_ok, fields_compacted_ok, anomalies, " +
+                    "signature IS NOT NULL AS signed, key_fingerprint, last_error, created_at, finished_at";
+
+    private static final String FULL_CHUNKS = """
+            INSERT INTO erasure_verify_chunks(run_id, chunk_no, from_user_id, to_user_id)
+            SELECT ?, t.g::INT, min(t.user_id), max(t.user_id)
+            FROM (
+              SELECT user_id, (row_number() OVER (ORDER BY user_id) - 1) / ? AS g
+              FROM users_shadow
+            ) t
+            GROUP BY t.g
+            """;
+
+    // users whose verdict can have changed since the last run
+    private static final String INCREMENTAL_CHUNKS = """
+            INSERT INTO erasure_verify_chunks(run_id, chunk_no, from_user_id, to_user_id, user_ids)
+            SELECT ?, t.g::INT, min(t.user_id), max(t.user_id), array_agg(t.user_id ORDER BY t.user_id)
+            FROM (
+              SELECT c.user_id, (row_number() OVER (ORDER BY c.user_id) - 1) / ? AS g
+              FROM (
+                SELECT user_id FROM users_shadow WHERE updated_at > ?
+                UNION
+                SELECT user_id FROM key_store WHERE destroyed_at > ?
+                UNION
+                SELECT user_id FROM key_tombstones WHERE compacted_at > ?
+              ) c
+              WHERE EXISTS (SELECT 1 FROM users_shadow s WHERE s.user_id = c.user_id)
+            ) t
+            GROUP BY t.g
+            """;
+
+    // One row per field. v1 fields are test-decrypted here whenever the key still has
+    // material (live, or destroyed but not erased); v2 fields come back with their key.
+    private static final String CHECK = """
+            SELECT s.user_id, s.enc_version, f.field, f.key_id, f.enc IS NOT NULL AS has_cipher,
+                   k.key_id IS NOT NULL AS key_present, k.user_id AS key_user, k.purpose AS key_purpose,
+                   (k.destroyed_at IS NOT NULL OR k.key_material = 'DESTROYED') AS destroyed,
+                   (k.key_material <> 'DESTROYED') AS has_material,
+                   CASE WHEN s.enc_version = 1 AND k.key_material <> 'DESTROYED'
+                        THEN sym_decrypts(f.enc, k.key_material) END AS v1_decrypts,
+                   CASE WHEN s.enc_version = 2 AND k.key_material <> 'DESTROYED' THEN f.enc END AS v2_cipher,
+                   CASE WHEN s.enc_version = 2 AND k.key_material <> 'DESTROYED' THEN k.key_material END AS v2_key,
+                   tb.valid AS tombstone_valid, tb.key_fingerprint AS tombstone_key
+            FROM users_shadow s
+            CROSS JOIN LATERAL (VALUES ('name', s.full_name_enc, s.key_id_name),
+                                       ('email', s.email_enc, s.key_id_email),
+                                       ('phone', s.phone_enc, s.key_id_phone)) AS f(field, enc, key_id)
+            LEFT JOIN key_store k ON k.key_id = f.key_id AND k.bucket_date = key_bucket(f.key_id)
+            LEFT JOIN LATERAL (
+              -- the digest is an HMAC under the signing key: one made with another key (or
+              -- checked on a node without one) cannot be shown valid
+              SELECT coalesce(t.key_fingerprint = ?
+                              AND t.digest = key_tombstone_digest(t.key_ids, t.purposes, t.destroyed_at, ?),
+                              false) AS valid,
+                     t.key_fingerprint
+              FROM key_tombstones t
+              WHERE k.key_id IS NULL AND f.key_id IS NOT NULL
+                AND t.user_id = s.user_id
+                AND t.bucket_month = date_trunc('month', key_bucket(f.key_id))::DATE
+                AND f.key_id = ANY(t.key_ids)
+            ) tb ON true
+            WHERE s.user_id BETWEEN ? AND ?
+              AND (?::BIGINT[] IS NULL OR s.user_id = ANY(?::BIGINT[]))
+            ORDER BY s.user_id
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final AesGcmShadowCipher cipher;
+    private final SigningKey signingKey;
+
+    public ErasureVerifyDao(JdbcTemplate jdbc, TransactionTemplate tx, AesGcmShadowCipher cipher,
+                            SigningKey signingKey) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.cipher = cipher;
+        this.signingKey = signingKey;
+    }
+
+    // ----------------------------
+    // Runs
+    // ----------------------------
+
+    public List<Long> openRuns() {
+        return jdbc.queryForList("SELECT run_id FROM erasure_verify_runs WHERE state = 'RUNNING' ORDER BY run_id",
+                Long.class);
+    }
+
+    // newest DONE run (run_id, snapshot_at), or null
+    public Map<String, Object> lastDone() {
+        List<Map<String, Object>> r = jdbc.queryForList(
+                "SELECT run_id, snapshot_at FROM erasure_verify_runs WHERE state = 'DONE' ORDER BY run_id DESC LIMIT 1");
+        return r.isEmpty() ? null : r.get(0);
+    }
+
+    // The run and its chunks in one transaction: a run is never visible without its work list.
+    // INCREMENTAL continues from previousRunId's snapshot.
+    public long createRun(boolean incremental, Long previousRunId, int chunkSize) {
+        Long id = tx.execute(status -> {
+            Timestamp since = (incremental && previousRunId != null)
+                    ? jdbc.queryForObject("SELECT snapshot_at FROM erasure_verify_runs WHERE run_id = ?",
+                            Timestamp.class, previousRunId)
+                    : null;
+            Long runId = jdbc.queryForObject(
+                    "INSERT INTO erasure_verify_runs(mode, previous_run_id, since, chunk_size) VALUES (?, ?, ?, ?) " +
+                            "RETURNING run_id",
+                    Long.class, incremental ? "INCREMENTAL" : "FULL", previousRunId, since, chunkSize);
+            int chunks = incremental
+                    ? jdbc.update(INCREMENTAL_CHUNKS, runId, chunkSize, since, since, since)
+                    : jdbc.update(FULL_CHUNKS, runId, chunkSize);
+            jdbc.update("UPDATE erasure_verify_runs SET chunks_total = ? WHERE run_id = ?", chunks, runId);
+            return runId;
+        });
+        return id == null ? 0 : id;
+    }
+
+    public String runState(long runId) {
+        return jdbc.queryForObject("SELECT state FROM erasure_verify_runs WHERE run_id = ?", String.class, runId);
+    }
+
+    public int cancel(long runId) {
+        return jdbc.update("UPDATE erasure_verify_runs SET state = 'CANCELLED', finished_at = now() " +
+                "WHERE run_id = ? AND state = 'RUNNING'", runId);
+    }
+
+    // DONE chunks are kept, so a resumed run continues where it stopped
+    public int resume(long runId) {
+        return jdbc.update("UPDATE erasure_verify_runs SET state = 'RUNNING', last_error = NULL, finished_at = NULL " +
+                "WHERE run_id = ? AND state IN ('CANCELLED', 'FAILED')", runId);
+    }
+
+    public int fail(long runId, String error) {
+        return jdbc.update("UPDATE erasure_verify_runs SET state = 'FAILED', last_error = ?, finished_at = now() " +
+                "WHERE run_id = ? AND state = 'RUNNING'", error, runId);
+    }
+
+    // Run row; while it runs, the DONE chunks' counters so far.
+    public Map<String, Object> status(long runId) {
+        Map<String, Object> s = new LinkedHashMap<>(
+                jdbc.queryForMap("SELECT " + RUN_COLUMNS + " FROM erasure_verify_runs WHERE run_id = ?", runId));
+        Map<String, Object> c = jdbc.queryForMap("""
+            SELECT count(*) FILTER (WHERE state = 'DONE') AS chunks_done,
+                   coalesce(sum(rows_checked), 0) AS rows_checked,
+                   coalesce(sum(anomalies), 0) AS anomalies
+            FROM erasure_verify_chunks WHERE run_id = ?
+            """, runId);
+        s.put("chunks_done", c.get("chunks_done"));
+        if ("RUNNING".equals(s.get("state")) || "CANCELLED".equals(s.get("state")) || "FAILED".equals(s.get("state"))) {
+            s.put("rows_checked", c.get("rows_checked"));
+            s.put("anomalies", c.get("anomalies"));
+        }
+        return s;
+    }
+
+    public List<Map<String, Object>> runs(int limit) {
+        return jdbc.queryForList("SELECT " + RUN_COLUMNS + " FROM erasure_verify_runs ORDER BY run_id DESC LIMIT ?",
+                limit);
+    }
+
+    // keyset by user_id; kind null = all kinds
+    public List<Map<String, Object>> anomalies(long runId, String kind, long afterUserId, int limit) {
+        return jdbc.queryForList("""
+            SELECT user_id, field, key_id, kind, detail
+            FROM erasure_verify_anomalies
+            WHERE run_id = ? AND (?::TEXT IS NULL OR kind = ?) AND user_id > ?
+            ORDER BY user_id, field
+            LIMIT ?
+            """, runId, kind, kind, afterUserId, limit);
+    }
+
+    public Map<String, Object> report(long runId) {
+        return jdbc.queryForMap("SELECT run_id, state, report_text, signature, key_fingerprint " +
+                "FROM erasure_verify_runs WHERE run_id = ?", runId);
+    }
+
+    // ----------------------------
+    // Chunks
+    // ----------------------------
+
+    // Claims the next PENDING chunk (SKIP LOCKED: another worker has it), checks it,
+    // stores its anomalies and marks it DONE, all in one transaction. null = nothing
+    // left to claim, or the run is no longer RUNNING.
+    public ChunkResult checkChunk(long runId, String workerId) {
+        return tx.execute(status -> {
+            if (!"RUNNING".equals(runState(runId))) return null;
+            List<Map<String, Object>> claimed = jdbc.queryForList("""
+                SELECT chunk_no, from_user_id, to_user_id, user_ids
+                FROM erasure_verify_chunks
+                WHERE run_id = ? AND state = 'PENDING'
+                ORDER BY chunk_no
+                LIMIT 1
+                FOR UPDATE SKIP LOCKED
+                """, runId);
+            if (claimed.isEmpty()) return null;
+            Map<String, Object> chunk = claimed.get(0);
+            int chunkNo = ((Number) chunk.get("chunk_no")).intValue();
+            long from = ((Number) chunk.get("from_user_id")).longValue();
+            long to = ((Number) chunk.get("to_user_id")).longValue();
+            Object userIds = chunk.get("user_ids");
+
+            Counts c = new Counts();
+            List<Anomaly> anomalies = new ArrayList<>();
+            long[] lastUser = {Long.MIN_VALUE};
+            jdbc.query(con -> {
+                PreparedStatement ps = con.prepareStatement(CHECK);
+                ps.setString(1, signingKey.fingerprint());
+                ps.setBytes(2, signingKey.raw());
+                ps.setLong(3, from);
+                ps.setLong(4, to);
+                if (userIds instanceof Array a) {
+                    Array ids = con.createArrayOf("bigint", (Object[]) a.getArray());
+                    ps.setArray(5, ids);
+                    ps.setArray(6, ids);
+                } else {
+                    ps.setNull(5, Types.ARRAY);
+                    ps.setNull(6, Types.ARRAY);
+                }
+                return ps;
+            }, rs -> {
+                long userId = rs.getLong("user_id");
+                if (userId != lastUser[0]) {
+                    c.rows++;
+                    lastUser[0] = userId;
+                }
+                c.fields++;
+                Long keyId = (Long) rs.getObject("key_id");
+                String field = rs.getString("field");
+                String kind = classify(c, userId, rs.getInt("enc_version"), field, keyId,
+                        rs.getBoolean("has_cipher"), rs.getBoolean("key_present"),
+                        (Long) rs.getObject("key_user"), rs.getString("key_purpose"),
+                        rs.getBoolean("destroyed"), rs.getBoolean("has_material"),
+                        (Boolean) rs.getObject("v1_decrypts"), rs.getBytes("v2_cipher"), rs.getString("v2_key"),
+                        (Boolean) rs.getObject("tombstone_valid"), rs.getString("tombstone_key"));
+                if (kind != null) {
+                    int sep = kind.indexOf(':');
+                    anomalies.add(new Anomaly(userId, field, keyId,
+                            sep < 0 ? kind : kind.substring(0, sep), sep < 0 ? null : kind.substring(sep + 1)));
+                }
+            });
+
+            if (!anomalies.isEmpty()) {
+                jdbc.batchUpdate("INSERT INTO erasure_verify_anomalies(run_id, user_id, field, key_id, kind, detail) " +
+                                "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT DO NOTHING",
+                        anomalies, anomalies.size(), (ps, a) -> {
+                            ps.setLong(1, runId);
+                            ps.setLong(2, a.userId());
+                            ps.setString(3, a.field());
+                            ps.setObject(4, a.keyId(), Types.BIGINT);
+                            ps.setString(5, a.kind());
+                            ps.setString(6, a.detail());
+                        });
+            }
+            jdbc.update("""
+                UPDATE erasure_verify_chunks SET
+                  state = 'DONE', rows_checked = ?, fields_empty = ?, fields_live_ok = ?,
+                  fields_destroyed_ok = ?, fields_compacted_ok = ?, anomalies = ?, checked_by = ?, done_at = now()
+                WHERE run_id = ? AND chunk_no = ?
+                """, c.rows, c.empty, c.liveOk, c.destroyedOk, c.compactedOk, anomalies.size(), workerId,
+                    runId, chunkNo);
+            return new ChunkResult(chunkNo, c.rows, c.fields, anomalies.size());
+        });
+    }
+
+    private static final class Counts {
+        int rows;
+        int fields;
+        int empty;
+        int liveOk;
+        int destroyedOk;
+        int compactedOk;
+    }
+
+    // Counts a passing field and returns null, or returns "KIND" / "KIND:detail".
+    private String classify(Counts c, long userId, int version, String field, Long keyId, boolean hasCipher,
+                            boolean keyPresent, Long keyUser, String keyPurpose, boolean destroyed,
+                            boolean hasMaterial, Boolean v1Decrypts, byte[] v2Cipher, String v2Key,
+                            Boolean tombstoneValid, String tombstoneKey) {
+        if (keyId == null) {
+            if (hasCipher) return "MISSING_KEY_REF";
+            c.empty++;
+            return null;
+        }
+        if (!keyPresent) {
+            if (tombstoneValid == null) return "KEY_MISSING";
+            if (!tombstoneValid) {
+                if (!signingKey.isSet()) return "TOMBSTONE_INVALID:no signing key on this node";
+                if (!tombstoneKey.equals(signingKey.fingerprint())) {
+                    return "TOMBSTONE_INVALID:digest made with signing key " + tombstoneKey;
+                }
+                return "TOMBSTONE_INVALID";
+            }
+            c.compactedOk++;
+            return null;
+        }
+        if (keyUser != userId || !field.equals(keyPurpose)) {
+            return "KEY_MISMATCH:key of user " + keyUser + " purpose " + keyPurpose;
+        }
+        if (version != 1 && version != AesGcmShadowCipher.ENC_VERSION) return "UNKNOWN_ENC_VERSION:" + version;
+
+        boolean decrypts = !hasCipher || (hasMaterial && decrypts(version, userId, field, keyId, v1Decrypts,
+                v2Cipher, v2Key));
+        if (destroyed) {
+            if (hasMaterial) {
+                return "MATERIAL_NOT_ERASED:" + (hasCipher && decrypts ? "ciphertext still decrypts" : "material present");
+            }
+            c.destroyedOk++;
+            return null;
+        }
+        if (!decrypts) return "LIVE_UNDECRYPTABLE";
+        c.liveOk++;
+        return null;
+    }
+
+    private boolean decrypts(int version, long userId, String field, long keyId, Boolean v1Decrypts,
+                             byte[] v2Cipher, String v2Key) {
+        if (version == 1) return Boolean.TRUE.equals(v1Decrypts);
+        try {
+            cipher.decrypt(v2Cipher, userId, field, keyId, v2Key);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // ----------------------------
+    // Completion
+    // ----------------------------
+
+    // When no chunk is PENDING: totals from the chunks, the summary signed by sign, run
+    // DONE. The run row is locked, so concurrent finishers complete it once. false = not
+    // finished yet (a chunk is still pending or being checked) or not RUNNING.
+    public boolean complete(long runId, int reportIds, Function<Map<String, Object>, Signed> sign) {
+        Boolean done = tx.execute(status -> {
+            List<Map<String, Object>> run = jdbc.queryForList(
+                    "SELECT mode, previous_run_id, since, snapshot_at, chunks_total FROM erasure_verify_runs " +
+                            "WHERE run_id = ? AND state = 'RUNNING' FOR UPDATE", runId);
+            if (run.isEmpty()) return false;
+            Integer pending = jdbc.queryForObject(
+                    "SELECT count(*)::INT FROM erasure_verify_chunks WHERE run_id = ? AND state = 'PENDING'",
+                    Integer.class, runId);
+            if (pending != null && pending > 0) return false;
+
+            Map<String, Object> r = run.get(0);
+            Map<String, Object> t = jdbc.queryForMap("""
+                SELECT coalesce(sum(rows_checked), 0) AS rows_checked, coalesce(sum(fields_empty), 0) AS fields_empty,
+                       coalesce(sum(fields_live_ok), 0) AS fields_live_ok,
+                       coalesce(sum(fields_destroyed_ok), 0) AS fields_destroyed_ok,
+                       coalesce(sum(fields_compacted_ok), 0) AS fields_compacted_ok,
+                       coalesce(sum(anomalies), 0) AS anomalies,
+                       now() AS finished_at
+                FROM erasure_verify_chunks WHERE run_id = ?
+                """, runId);
+            Map<String, Long> byKind = new LinkedHashMap<>();
+            jdbc.query("SELECT kind, count(*) FROM erasure_verify_anomalies WHERE run_id = ? GROUP BY kind ORDER BY kind",
+                    rs -> {
+                        byKind.put(rs.getString(1), rs.getLong(2));
+                    }, runId);
+            List<Long> firstIds = jdbc.queryForList(
+                    "SELECT DISTINCT user_id FROM erasure_verify_anomalies WHERE run_id = ? ORDER BY user_id LIMIT ?",
+                    Long.class, runId, reportIds);
+            Long offending = jdbc.queryForObject(
+                    "SELECT count(DISTINCT user_id) FROM erasure_verify_anomalies WHERE run_id = ?", Long.class, runId);
+            Long previous = (Long) r.get("previous_run_id");
+            String previousSignature = (previous == null) ? null : jdbc.queryForObject(
+                    "SELECT signature FROM erasure_verify_runs WHERE run_id = ?", String.class, previous);
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("run_id", runId);
+            summary.put("mode", r.get("mode"));
+            summary.put("previous_run_id", previous);
+            summary.put("previous_signature", previousSignature);
+            summary.put("since", instant(r.get("since")));
+            summary.put("snapshot_at", instant(r.get("snapshot_at")));
+            summary.put("finished_at", instant(t.get("finished_at")));
+            summary.put("chunks", r.get("chunks_total"));
+            for (String k : List.of("rows_checked", "fields_empty", "fields_live_ok", "fields_destroyed_ok",
+                    "fields_compacted_ok", "anomalies")) {
+                summary.put(k, ((Number) t.get(k)).longValue());
+            }
+            summary.put("anomalies_by_kind", byKind);
+            summary.put("offending_users", offending == null ? 0L : offending);
+            summary.put("first_offending_user_ids", firstIds);
+
+            Signed s = sign.apply(summary);
+            jdbc.update("""
+                UPDATE erasure_verify_runs SET
+                  state = 'DONE', rows_checked = ?, fields_empty = ?, fields_live_ok = ?, fields_destroyed_ok = ?,
+                  fields_compacted_ok = ?, anomalies = ?, report_text = ?, signature = ?, key_fingerprint = ?,
+                  finished_at = ?
+                WHERE run_id = ?
+                """, summary.get("rows_checked"), summary.get("fields_empty"), summary.get("fields_live_ok"),
+                    summary.get("fields_destroyed_ok"), summary.get("fields_compacted_ok"), summary.get("anomalies"),
+                    s.text(), s.signature(), s.keyFingerprint(), t.get("finished_at"), runId);
+            return true;
+        });
+        return Boolean.TRUE.equals(done);
+    }
+
+    private static Instant instant(Object ts) {
+        return (ts instanceof Timestamp t) ? t.toInstant() : null;
+    }
+}
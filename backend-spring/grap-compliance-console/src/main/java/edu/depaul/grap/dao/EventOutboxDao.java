@@ -0,0 +1,109 @@
+package edu.depaul.grap.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+// Event outbox and change feed (sql/30_event_outbox.sql). The outbox rows themselves
+// are written by triggers; this publishes them, reads the feed and keeps consumer offsets.
+@Repository
+public class EventOutboxDao {
+
+    // json is the event as the feed sends it: {"seq", "type", "user_id", "created_at", "payload"}
+    public record Event(long seq, Instant createdAt, String json) {}
+
+    public record Published(long seq, Instant createdAt) {}
+
+    private static final String EVENT =
+            "feed_seq, created_at, jsonb_build_object('seq', feed_seq, 'type', event_type, 'user_id', user_id, " +
+                    "'created_at', created_at, 'payload', payload)::text";
+
+    private static final String HEAD =
+            "SELECT coalesce(max(feed_seq), 0) FROM event_outbox WHERE feed_seq IS NOT NULL";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    public EventOutboxDao(JdbcTemplate jdbc, TransactionTemplate tx) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+    }
+
+    // Empty when nothing is waiting or another node is publishing.
+    public List<Published> publish(int limit) {
+        return jdbc.query("SELECT feed_seq, created_at FROM publish_outbox(?) ORDER BY feed_seq",
+                (rs, i) -> new Published(rs.getLong(1), rs.getTimestamp(2).toInstant()), limit);
+    }
+
+    // Published events after afterSeq, in feed order.
+    public List<Event> read(long afterSeq, int limit) {
+        return jdbc.query("SELECT " + EVENT + " FROM event_outbox WHERE feed_seq > ? ORDER BY feed_seq LIMIT ?",
+                (rs, i) -> new Event(rs.getLong(1), rs.getTimestamp(2).toInstant(), rs.getString(3)),
+                afterSeq, limit);
+    }
+
+    public long head() {
+        Long n = jdbc.queryForObject(HEAD, Long.class);
+        return n == null ? 0 : n;
+    }
+
+    // lowest feed_seq still kept (0 = none); offsets below it were purged
+    public long earliest() {
+        Long n = jdbc.queryForObject(
+                "SELECT coalesce(min(feed_seq), 0) FROM event_outbox WHERE feed_seq IS NOT NULL", Long.class);
+        return n == null ? 0 : n;
+    }
+
+    public Map<String, Object> backlog() {
+        return jdbc.queryForMap(
+                "SELECT count(*) AS unpublished, min(created_at) AS oldest_unpublished_at " +
+                        "FROM event_outbox WHERE feed_seq IS NULL");
+    }
+
+    // Moves the consumer's offset forward (never back); returns the acked event's
+    // created_at, or null if it was purged already.
+    public Instant ack(String consumerId, long seq) {
+        return tx.execute(status -> {
+            Long head = jdbc.queryForObject(HEAD, Long.class);
+            if (head == null || seq > head) {
+                throw new IllegalArgumentException("seq " + seq + " is beyond the feed head " + head);
+            }
+            List<Timestamp> at = jdbc.queryForList(
+                    "SELECT created_at FROM event_outbox WHERE feed_seq = ?", Timestamp.class, seq);
+            jdbc.update("INSERT INTO event_consumers(consumer_id, acked_seq, acked_at) VALUES (?, ?, now()) " +
+                    "ON CONFLICT (consumer_id) DO UPDATE " +
+                    "SET acked_seq = greatest(event_consumers.acked_seq, excluded.acked_seq), acked_at = now()",
+                    consumerId, seq);
+            return at.isEmpty() ? null : at.get(0).toInstant();
+        });
+    }
+
+    // null if the consumer has never acked
+    public Long ackedSeq(String consumerId) {
+        List<Long> n = jdbc.queryForList(
+                "SELECT acked_seq FROM event_consumers WHERE consumer_id = ?", Long.class, consumerId);
+        return n.isEmpty() ? null : n.get(0);
+    }
+
+    public List<Map<String, Object>> consumers() {
+        return jdbc.queryForList(
+                "SELECT c.consumer_id, c.acked_seq, c.acked_at, h.head - c.acked_seq AS behind, c.created_at " +
+                        "FROM event_consumers c CROSS JOIN (" + HEAD + ") AS h(head) ORDER BY c.consumer_id");
+    }
+
+    // The newest published event always stays: publish_outbox numbers on from it.
+    public int purge(int keepDays, int limit) {
+        return jdbc.update(
+                "DELETE FROM event_outbox WHERE event_id IN (" +
+                        "SELECT event_id FROM event_outbox " +
+                        "WHERE feed_seq IS NOT NULL AND published_at < now() - ? * interval '1 day' " +
+                        "AND feed_seq < (" + HEAD + ") " +
+                        "ORDER BY feed_seq LIMIT ?)",
+                keepDays, limit);
+    }
+}
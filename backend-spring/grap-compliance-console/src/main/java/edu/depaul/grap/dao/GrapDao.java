@@ -1,23 +1,101 @@
 package edu.depaul.grap.dao;
 
+import edu.depaul.grap.catalog.BackupCatalog;
+import edu.depaul.grap.catalog.UserBitmaps;
+import edu.depaul.grap.crypto.KeyMaterialCache;
+import edu.depaul.grap.dto.CreateUserRequest;
+import edu.depaul.grap.index.HeldUserIndex;
+import edu.depaul.grap.metrics.ComplianceMetrics;
+import org.postgresql.PGConnection;
+import org.roaringbitmap.buffer.BufferFastAggregation;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Repository
 public class GrapDao {
+
+    // cacheEvictionConfirmed == false: some node did not confirm it evicted the destroyed
+    // keys (audited as KEY_CACHE_EVICTION_PENDING, see destroyAndEvict)
+    public record Erasure(int keysDestroyed, boolean cacheEvictionConfirmed) {}
+
+    private record Evicted<T>(T result, boolean confirmed) {}
+
     private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final AppShadowDao appShadow;
+    private final KeyMaterialCache keyCache;
+    private final HeldUserIndex heldIndex;
+    private final BackupCatalog backupCatalog;
+    private final BackupProtectionDao backupProtection;
+    private final RowStreamer streamer;
+    private final ComplianceMetrics metrics;
+
+    // grap.crypto.mode=app: encrypt users_shadow in the JVM (AES-GCM, enc_version 2)
+    // instead of the pgcrypto trigger (enc_version 1)
+    private final boolean appCrypto;
+    private final int protectLockTimeoutMillis;
 
-    public GrapDao(JdbcTemplate jdbc) {
+    public GrapDao(JdbcTemplate jdbc,
+                   TransactionTemplate tx,
+                   AppShadowDao appShadow,
+                   KeyMaterialCache keyCache,
+                   HeldUserIndex heldIndex,
+                   BackupCatalog backupCatalog,
+                   BackupProtectionDao backupProtection,
+                   RowStreamer streamer,
+                   ComplianceMetrics metrics,
+                   @Value("${grap.crypto.mode:db}") String cryptoMode,
+                   @Value("${grap.backup-protection.lock-timeout-millis:5000}") int protectLockTimeoutMillis) {
         this.jdbc = jdbc;
+        this.tx = tx;
+        this.appShadow = appShadow;
+        this.keyCache = keyCache;
+        this.heldIndex = heldIndex;
+        this.backupCatalog = backupCatalog;
+        this.backupProtection = backupProtection;
+        this.streamer = streamer;
+        this.metrics = metrics;
+        this.appCrypto = "app".equalsIgnoreCase(cryptoMode);
+        this.protectLockTimeoutMillis = Math.max(1, protectLockTimeoutMillis);
     }
 
     // ----------------------------
     // Phase 1/2: Users
     // ----------------------------
     public Map<String, Object> createUser(String fullName, String email, String phone) {
+        if (appCrypto) {
+            return tx.execute(status -> {
+                Map<String, Object> row = jdbc.queryForMap(
+                        "SELECT user_id, created_at FROM create_user_deferred(?,?,?)",
+                        fullName, email, phone
+                );
+                long id = ((Number) row.get("user_id")).longValue();
+                appShadow.writeShadow(List.of(new AppShadowDao.PlainUser(id, fullName, email, phone)));
+                return row;
+            });
+        }
         return jdbc.queryForMap(
                 "INSERT INTO users(full_name, email, phone) VALUES (?,?,?) " +
                         "RETURNING user_id, created_at",
@@ -25,21 +103,153 @@ public class GrapDao {
         );
     }
 
+    // Batch insert (sql/12_batch_ingest.sql): COPY into a temp stage, then one
+    // INSERT into users + set-based shadow encryption for the whole batch.
+    // One transaction per call; returns rows inserted.
+    public long createUsersBatch(List<CreateUserRequest> rows) {
+        if (rows.isEmpty()) return 0L;
+
+        StringBuilder csv = new StringBuilder(rows.size() * 64);
+        long ord = 0;
+        for (CreateUserRequest r : rows) {
+            csv.append(ord++).append(',')
+                    .append(csvField(r.full_name)).append(',')
+                    .append(csvField(r.email)).append(',')
+                    .append(csvField(r.phone)).append('\n');
+        }
+
+        Long v = tx.execute(status -> jdbc.execute((ConnectionCallback<Long>) con -> {
+            try (Statement st = con.createStatement()) {
+                st.execute("CREATE TEMP TABLE IF NOT EXISTS users_ingest_stage(" +
+                        "ord BIGINT, full_name TEXT, email TEXT, phone TEXT) ON COMMIT DELETE ROWS");
+            }
+            try {
+                con.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                        "COPY users_ingest_stage(ord, full_name, email, phone) FROM STDIN WITH (FORMAT csv)",
+                        new StringReader(csv.toString()));
+            } catch (IOException e) {
+                throw new SQLException("COPY into users_ingest_stage failed", e);
+            }
+            if (appCrypto) {
+                List<AppShadowDao.PlainUser> inserted = new ArrayList<>(rows.size());
+                try (Statement st = con.createStatement();
+                     ResultSet rs = st.executeQuery(
+                             "SELECT user_id, full_name, email, phone FROM ingest_users_from_stage_deferred()")) {
+                    while (rs.next()) {
+                        inserted.add(new AppShadowDao.PlainUser(rs.getLong(1), rs.getString(2),
+                                rs.getString(3), rs.getString(4)));
+                    }
+                }
+                appShadow.writeShadow(inserted);
+                return (long) inserted.size();
+            }
+            try (Statement st = con.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT ingest_users_from_stage()")) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }));
+        return (v == null) ? 0L : v;
+    }
+
+    // COPY csv: unquoted empty = NULL, everything else quoted
+    private static String csvField(String v) {
+        if (v == null) return "";
+        return '"' + v.replace("\"", "\"\"") + '"';
+    }
+
     // Your DB function returns integer; safest is Integer + null handling
-    public int destroyUserKeys(long userId) {
-        Integer v = jdbc.queryForObject("SELECT destroy_user_keys(?)", Integer.class, userId);
-        return (v == null) ? 0 : v;
+    public Erasure destroyUserKeys(long userId) {
+        return countedDestroy(userId, "SELECT destroy_user_keys(?)");
     }
 
     // Optional “guarded” variant (only if you created destroy_user_keys_guarded in SQL)
-    public int destroyUserKeysGuarded(long userId) {
-        Integer v = jdbc.queryForObject("SELECT destroy_user_keys_guarded(?)", Integer.class, userId);
-        return (v == null) ? 0 : v;
+    public Erasure destroyUserKeysGuarded(long userId) {
+        return countedDestroy(userId, "SELECT destroy_user_keys_guarded(?)");
     }
 
-    public long restoreUsersFromShadow() {
-        Long v = jdbc.queryForObject("SELECT restore_users_from_shadow()", Long.class);
-        return (v == null) ? 0L : v;
+    private Erasure countedDestroy(long userId, String sql) {
+        Evicted<Integer> v;
+        try {
+            v = destroyAndEvict(List.of(userId), () -> jdbc.queryForObject(sql, Integer.class, userId));
+        } catch (DataAccessException e) {
+            if (isHoldBlock(e)) metrics.blockedByHold(1);
+            throw e;
+        }
+        int n = (v.result() == null) ? 0 : v.result();
+        metrics.erased(n > 0 ? 1 : 0, n);
+        return new Erasure(n, v.confirmed());
+    }
+
+    // destroy_user_keys raises SQLSTATE 45000 for a user under legal hold
+    private static boolean isHoldBlock(DataAccessException e) {
+        return e.getMostSpecificCause() instanceof SQLException se && "45000".equals(se.getSQLState());
+    }
+
+    // Key destruction: commit, then make sure no node's key cache can still
+    // serve the destroyed keys before reporting success (see KeyMaterialCache).
+    // When some node does not confirm, the erasure is reported pending eviction
+    // and every user whose keys the transaction destroyed gets an audit row saying so.
+    private <T> Evicted<T> destroyAndEvict(Collection<Long> userIds, Supplier<T> destroy) {
+        String[] xid = new String[1];
+        T result = tx.execute(status -> {
+            T r = destroy.get();
+            xid[0] = jdbc.queryForObject("SELECT pg_current_xact_id()::text", String.class);
+            return r;
+        });
+        keyCache.evictUsers(userIds);
+        int unacked = keyCache.awaitClusterEviction(xid[0]);
+        if (unacked > 0) {
+            jdbc.update(
+                    "INSERT INTO deletion_audit(user_id, action, reason, legal_hold_active, keys_affected) " +
+                            "SELECT DISTINCT l.user_id, 'KEY_CACHE_EVICTION_PENDING', ?, false, 0 " +
+                            "FROM key_invalidation_log l WHERE l.txid = ?::xid8",
+                    unacked + " key cache node(s) did not confirm eviction of xid " + xid[0]
+                            + "; they may serve the destroyed keys until their lease lapses",
+                    xid[0]);
+        }
+        return new Evicted<>(result, unacked == 0);
+    }
+
+    // Bulk erasure (sql/13_bulk_erasure.sql) for one chunk of user ids.
+    // One transaction; held users are reported, not raised.
+    // Rows: user_id, outcome (ERASED | BLOCKED_BY_HOLD | NO_KEYS), keys_destroyed,
+    // cache_eviction_confirmed (for the whole chunk, see destroyAndEvict)
+    public List<Map<String, Object>> destroyUserKeysBulk(List<Long> userIds) {
+        return destroyUserKeysBulk(userIds, rows -> {});
+    }
+
+    // inTx runs inside the destroying transaction with the per-user rows
+    // (e.g. to record erasure job outcomes atomically); throwing rolls the erasure back
+    public List<Map<String, Object>> destroyUserKeysBulk(List<Long> userIds,
+                                                         Consumer<List<Map<String, Object>>> inTx) {
+        if (userIds.isEmpty()) return List.of();
+        Evicted<List<Map<String, Object>>> done = destroyAndEvict(userIds, () -> {
+            List<Map<String, Object>> r = jdbc.query(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "SELECT user_id, outcome, keys_destroyed FROM destroy_user_keys_bulk(?)");
+                ps.setArray(1, con.createArrayOf("bigint", userIds.toArray()));
+                return ps;
+            }, new ColumnMapRowMapper());
+            inTx.accept(r);
+            return r;
+        });
+        List<Map<String, Object>> rows = done.result();
+        for (Map<String, Object> r : rows) r.put("cache_eviction_confirmed", done.confirmed());
+
+        long erased = 0, keys = 0, blocked = 0;
+        for (Map<String, Object> r : rows) {
+            Object outcome = r.get("outcome");
+            if ("ERASED".equals(outcome)) {
+                erased++;
+                keys += ((Number) r.get("keys_destroyed")).longValue();
+            } else if ("BLOCKED_BY_HOLD".equals(outcome)) {
+                blocked++;
+            }
+        }
+        metrics.erased(erased, keys);
+        metrics.blockedByHold(blocked);
+        return rows;
     }
 
     public void truncateUsersCascade() {
@@ -47,12 +257,22 @@ public class GrapDao {
     }
 
     // Helpful GET APIs for UI (list + by id)
-    public List<Map<String, Object>> listUsers(int limit) {
-        return jdbc.queryForList(
-                "SELECT user_id, full_name, email, phone, created_at " +
-                        "FROM users ORDER BY user_id DESC LIMIT ?",
-                limit
-        );
+    // Keyset pages, newest first: pass the last user_id of the previous page as `after`
+    private static final String USERS_PAGE =
+            "SELECT user_id, full_name, email, phone, created_at " +
+                    "FROM users WHERE user_id < ? ORDER BY user_id DESC LIMIT ?";
+
+    public List<Map<String, Object>> listUsers(Long after, int limit) {
+        return jdbc.queryForList(USERS_PAGE, cursor(after), limit);
+    }
+
+    public long streamUsers(OutputStream out, Long after) throws IOException {
+        return streamer.ndjson(out, USERS_PAGE, cursor(after), Long.MAX_VALUE);
+    }
+
+    // no cursor = start from the newest row
+    private static long cursor(Long after) {
+        return (after == null) ? Long.MAX_VALUE : after;
     }
 
     public Map<String, Object> getUser(long userId) {
@@ -79,55 +299,87 @@ public class GrapDao {
         // DB expects FULL/INCR (per your CHECK constraint)
         String reason = protectedByHold ? "protected_by_hold=true at creation" : null;
 
+        // protected at creation = protected_manually: hold releases never unprotect it
         return jdbc.queryForMap(
-                "INSERT INTO backup_runs(backup_type, started_at, ended_at, protected_by_hold, protected_reason, protected_at) " +
-                        "VALUES (?, now(), now(), ?, ?, CASE WHEN ? THEN now() ELSE NULL END) " +
-                        "RETURNING backup_id, backup_type, started_at, ended_at, protected_by_hold, protected_reason, protected_at, created_at",
-                backupType, protectedByHold, reason, protectedByHold
+                "INSERT INTO backup_runs(backup_type, started_at, ended_at, protected_by_hold, protected_manually, " +
+                        "protected_reason, protected_at) " +
+                        "VALUES (?, now(), now(), ?, ?, ?, CASE WHEN ? THEN now() ELSE NULL END) " +
+                        "RETURNING backup_id, backup_type, started_at, ended_at, protected_by_hold, protected_manually, " +
+                        "protecting_holds, protected_reason, protected_at, created_at",
+                backupType, protectedByHold, protectedByHold, reason, protectedByHold
         );
     }
 
+    // membership storage is grap.backup-catalog.format (table | bitmap), see BackupCatalog
     public Map<String, Object> addUserToBackup(long backupId, long userId) {
-        return jdbc.queryForMap(
-                "INSERT INTO backup_user_index(backup_id, user_id) VALUES (?, ?) " +
-                        "RETURNING backup_id, user_id",
-                backupId, userId
-        );
-    }
-
-    public List<Map<String, Object>> listBackups(int limit) {
-        return jdbc.queryForList(
-                "SELECT backup_id, backup_type, started_at, ended_at, protected_by_hold, protected_reason, protected_at, created_at " +
-                        "FROM backup_runs ORDER BY backup_id DESC LIMIT ?",
-                limit
-        );
+        return backupCatalog.addUser(backupId, userId);
     }
 
-    public List<Map<String, Object>> listBackupsForUser(long userId) {
-        return jdbc.queryForList("""
-            SELECT
-                b.backup_id,
-                b.backup_type,
-                b.created_at,
-                b.protected_by_hold,
-                b.protected_reason,
-                b.protected_at,
-                bi.first_seen,
-                bi.last_seen
-            FROM backup_user_index bi
-            JOIN backup_runs b ON b.backup_id = bi.backup_id
-            WHERE bi.user_id = ?
-            ORDER BY b.backup_id DESC
-        """, userId);
-    }
-
-    public List<Map<String, Object>> listBackups() {
-        return jdbc.queryForList("""
+    private static final String BACKUPS_PAGE = """
             SELECT backup_id, backup_type, started_at, ended_at, created_at,
                    protected_by_hold, protected_reason, protected_at
             FROM backup_runs
+            WHERE backup_id < ?
             ORDER BY backup_id DESC
-        """);
+            LIMIT ?
+        """;
+
+    public List<Map<String, Object>> listBackups(Long after, int limit) {
+        return jdbc.queryForList(BACKUPS_PAGE, cursor(after), limit);
+    }
+
+    public long streamBackups(OutputStream out, Long after) throws IOException {
+        return streamer.ndjson(out, BACKUPS_PAGE, cursor(after), Long.MAX_VALUE);
+    }
+
+    public List<Map<String, Object>> listBackupsForUser(long userId, Long after, int limit) {
+        return backupCatalog.listBackupsForUser(userId, cursor(after), limit);
+    }
+
+    // paged through the catalog (either format), 1000 backups at a time
+    public long streamBackupsForUser(OutputStream out, long userId, Long after) throws IOException {
+        long n = 0;
+        long next = cursor(after);
+        while (true) {
+            List<Map<String, Object>> page = backupCatalog.listBackupsForUser(userId, next, 1000);
+            streamer.writeRows(out, page);
+            n += page.size();
+            if (page.size() < 1000) return n;
+            next = ((Number) page.get(page.size() - 1).get("backup_id")).longValue();
+        }
+    }
+
+    // Mark the held user's backups protected (11_backup_protection.sql semantics), incrementally:
+    // only backups above the watermark of the user's active holds are read and only pairs not
+    // covered yet are written (sql/25_incremental_protection.sql); returns the newly protected ones
+    public List<Map<String, Object>> protectBackupsForLegalHold(long userId) {
+        BackupProtectionDao.Sweep s = backupProtection.sweep(userId, Integer.MAX_VALUE, protectLockTimeoutMillis);
+        if (s.holds() == 0 && !isUserOnLegalHold(userId)) {
+            throw new IllegalStateException("No active legal hold for user " + userId);
+        }
+        return s.covered();
+    }
+
+    // Users in a backup, ascending, keyset paged by user_id
+    public List<Long> listBackupUsers(long backupId, long afterUserId, int limit) {
+        return UserBitmaps.page(backupCatalog.users(backupId), afterUserId, limit);
+    }
+
+    // Union / intersection of several backups' users; returns cardinality + first `sample` ids
+    public Map<String, Object> backupMembership(List<Long> backupIds, boolean intersection, int sample) {
+        ImmutableRoaringBitmap[] sets = new ImmutableRoaringBitmap[backupIds.size()];
+        for (int i = 0; i < sets.length; i++) sets[i] = backupCatalog.users(backupIds.get(i));
+        ImmutableRoaringBitmap r = intersection
+                ? BufferFastAggregation.and(sets)
+                : BufferFastAggregation.or(sets);
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("backup_ids", backupIds);
+        m.put("op", intersection ? "intersection" : "union");
+        m.put("format", backupCatalog.format());
+        m.put("users", r.getLongCardinality());
+        m.put("sample", UserBitmaps.page(r, -1, sample));
+        return m;
     }
 
     // ----------------------------
@@ -137,34 +389,44 @@ public class GrapDao {
 
     // Create hold (NO case_id in your table)
     public Map<String, Object> placeLegalHold(long userId, String holdReason) {
-        return jdbc.queryForMap(
+        Map<String, Object> row = jdbc.queryForMap(
                 "INSERT INTO legal_holds(user_id, hold_reason) VALUES (?, ?) " +
                         "RETURNING hold_id, user_id, hold_reason, created_at, released_at",
                 userId, holdReason
         );
+        heldIndex.markHeld(userId);
+        return row;
     }
 
     // Release hold by hold_id (cleanest API)
     public Map<String, Object> releaseLegalHoldByHoldId(long holdId) {
-        return jdbc.queryForMap(
+        Map<String, Object> row = jdbc.queryForMap(
                 "UPDATE legal_holds " +
                         "SET released_at = now() " +
                         "WHERE hold_id = ? AND released_at IS NULL " +
                         "RETURNING hold_id, user_id, hold_reason, created_at, released_at",
                 holdId
         );
+        long userId = ((Number) row.get("user_id")).longValue();
+        heldIndex.markReleased(userId, isUserOnLegalHold(userId));
+        return row;
     }
 
-    // Release all active holds for a user (optional helper)
+    // Release all active holds for a user (optional helper); returns holds released
     public int releaseAllActiveHoldsForUser(long userId) {
-        Integer v = jdbc.queryForObject(
+        int n = jdbc.update(
                 "UPDATE legal_holds SET released_at = now() " +
-                        "WHERE user_id = ? AND released_at IS NULL " +
-                        "RETURNING 1",
-                Integer.class, userId
+                        "WHERE user_id = ? AND released_at IS NULL",
+                userId
         );
-        // NOTE: If you want accurate row count, use jdbc.update(...) instead.
-        return (v == null) ? 0 : 1;
+        heldIndex.markReleased(userId, isUserOnLegalHold(userId));
+        return n;
+    }
+
+    // Authoritative check (same function destroy_user_keys uses)
+    public boolean isUserOnLegalHold(long userId) {
+        Boolean v = jdbc.queryForObject("SELECT is_user_on_legal_hold(?)", Boolean.class, userId);
+        return Boolean.TRUE.equals(v);
     }
 
     // List active holds for a user
@@ -178,28 +440,37 @@ public class GrapDao {
     }
 
     // List all active holds (admin)
-    public List<Map<String, Object>> listAllActiveHolds() {
-        return jdbc.queryForList(
-                "SELECT hold_id, user_id, hold_reason, created_at " +
-                        "FROM legal_holds WHERE released_at IS NULL " +
-                        "ORDER BY created_at DESC"
-        );
+    private static final String ACTIVE_HOLDS_PAGE =
+            "SELECT hold_id, user_id, hold_reason, created_at " +
+                    "FROM legal_holds WHERE released_at IS NULL AND hold_id < ? " +
+                    "ORDER BY hold_id DESC LIMIT ?";
+
+    public List<Map<String, Object>> listAllActiveHolds(Long after, int limit) {
+        return jdbc.queryForList(ACTIVE_HOLDS_PAGE, cursor(after), limit);
+    }
+
+    public long streamAllActiveHolds(OutputStream out, Long after) throws IOException {
+        return streamer.ndjson(out, ACTIVE_HOLDS_PAGE, cursor(after), Long.MAX_VALUE);
     }
 
     // ----------------------------
     // Audit
     // ----------------------------
-    public List<Map<String, Object>> getDeletionAudit(int limit) {
+    // Both audit tables are partitioned by month of occurred_at (sql/24); the range
+    // [from, to) is required so only the months it covers are read.
+    public List<Map<String, Object>> getDeletionAudit(OffsetDateTime from, OffsetDateTime to, int limit) {
         return jdbc.queryForList(
-                "SELECT * FROM deletion_audit ORDER BY occurred_at DESC LIMIT ?",
-                limit
+                "SELECT * FROM deletion_audit WHERE occurred_at >= ? AND occurred_at < ? " +
+                        "ORDER BY occurred_at DESC, audit_id DESC LIMIT ?",
+                from, to, limit
         );
     }
 
-    public List<Map<String, Object>> getBackupProtectionAudit(int limit) {
+    public List<Map<String, Object>> getBackupProtectionAudit(OffsetDateTime from, OffsetDateTime to, int limit) {
         return jdbc.queryForList(
-                "SELECT * FROM backup_protection_audit ORDER BY occurred_at DESC LIMIT ?",
-                limit
+                "SELECT * FROM backup_protection_audit WHERE occurred_at >= ? AND occurred_at < ? " +
+                        "ORDER BY occurred_at DESC, audit_id DESC LIMIT ?",
+                from, to, limit
         );
     }
 }
@@ -0,0 +1,144 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.crypto.SigningKey;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// key_store partitions and destroyed-key compaction (sql/23_key_store_partitioning.sql).
+@Repository
+public class KeyStoreDao {
+
+    public record Compaction(String month, String mode, long keysCompacted, long tombstonesWritten, long keysKept) {}
+
+    // reltuples is the planner's estimate (-1 before the first ANALYZE); sizes include TOAST
+    private static final String PARTITIONS = """
+            SELECT c.relname AS partition,
+                   pg_get_expr(c.relpartbound, c.oid) AS bounds,
+                   greatest(c.reltuples, 0)::bigint AS rows_estimate,
+                   pg_table_size(c.oid) AS table_bytes,
+                   pg_indexes_size(c.oid) AS index_bytes,
+                   pg_total_relation_size(c.oid) AS total_bytes,
+                   s.n_dead_tup AS dead_rows,
+                   s.last_autovacuum, s.last_vacuum
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            LEFT JOIN pg_stat_user_tables s ON s.relid = c.oid
+            WHERE i.inhparent = 'key_store'::regclass
+            ORDER BY c.relname
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final SigningKey signingKey;
+
+    public KeyStoreDao(JdbcTemplate jdbc, TransactionTemplate tx, SigningKey signingKey) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.signingKey = signingKey;
+    }
+
+    public List<Map<String, Object>> partitions() {
+        return jdbc.queryForList(PARTITIONS);
+    }
+
+    // rows a write put in key_store_pdefault (bucket outside the prepared months)
+    public long defaultPartitionRows() {
+        Long n = jdbc.queryForObject("SELECT count(*) FROM key_store_pdefault", Long.class);
+        return n == null ? 0 : n;
+    }
+
+    public int ensurePartitions(LocalDate from, LocalDate to, int lockTimeoutMillis) {
+        Integer n = tx.execute(status -> {
+            jdbc.queryForObject("SELECT set_config('lock_timeout', ?, true)", String.class, lockTimeoutMillis + "ms");
+            return jdbc.queryForObject("SELECT ensure_key_store_partitions(?, ?)", Integer.class, from, to);
+        });
+        return n == null ? 0 : n;
+    }
+
+    // Months with a partition, before the current one, that have keys destroyed before the cutoff.
+    public List<LocalDate> compactableMonths(int minAgeDays) {
+        return jdbc.queryForList("""
+            SELECT DISTINCT date_trunc('month', bucket_date)::date AS m
+            FROM key_store
+            WHERE bucket_date < date_trunc('month', CURRENT_DATE)
+              AND destroyed_at < now() - ? * interval '1 day'
+            ORDER BY m
+        """, LocalDate.class, minAgeDays);
+    }
+
+    // One month in one transaction; the partition is then vacuumed (DELETE) or analyzed
+    // (REWRITE) outside it so the planner and the free space map see the result.
+    // The tombstone digests are keyed with the signing key, so there is no compaction without it.
+    public Compaction compact(LocalDate month, int minAgeDays, double rewriteRatio, int lockTimeoutMillis) {
+        if (!signingKey.isSet()) {
+            throw new IllegalStateException("grap.erasure-verify.signing-key is not set; tombstone digests need it");
+        }
+        LocalDate m = month.withDayOfMonth(1);
+        Compaction c = tx.execute(status -> {
+            // one compaction at a time across nodes: a second run over the same month would
+            // append the same keys to the tombstones again
+            if (!Boolean.TRUE.equals(jdbc.queryForObject(
+                    "SELECT pg_try_advisory_xact_lock(hashtext('key_store_compaction'))", Boolean.class))) {
+                return new Compaction(m.toString().substring(0, 7), "BUSY", 0, 0, 0);
+            }
+            jdbc.queryForObject("SELECT set_config('lock_timeout', ?, true)", String.class, lockTimeoutMillis + "ms");
+            return jdbc.queryForObject(
+                    "SELECT mode, keys_compacted, tombstones_written, keys_kept " +
+                            "FROM compact_key_store_partition(?, ? * interval '1 day', ?::numeric, ?, ?)",
+                    (rs, i) -> new Compaction(m.toString().substring(0, 7), rs.getString("mode"),
+                            rs.getLong("keys_compacted"), rs.getLong("tombstones_written"), rs.getLong("keys_kept")),
+                    m, minAgeDays, rewriteRatio, signingKey.raw(), signingKey.fingerprint());
+        });
+        if (c != null && ("DELETE".equals(c.mode()) || "REWRITE".equals(c.mode()))) {
+            String part = "key_store_p" + m.toString().substring(0, 7).replace("-", "");
+            jdbc.execute(("DELETE".equals(c.mode()) ? "VACUUM (ANALYZE) " : "ANALYZE ") + part);
+        }
+        return c;
+    }
+
+    // A user's compacted keys, with whether the stored digest still matches the row
+    // (null: made with another signing key, or none is set on this node).
+    public List<Map<String, Object>> tombstones(long userId) {
+        return jdbc.query("""
+            SELECT user_id, bucket_month, key_ids, purposes, destroyed_at,
+                   encode(digest, 'hex') AS digest, key_fingerprint,
+                   CASE WHEN key_fingerprint = ?
+                        THEN digest = key_tombstone_digest(key_ids, purposes, destroyed_at, ?) END AS digest_valid,
+                   compacted_at
+            FROM key_tombstones
+            WHERE user_id = ?
+            ORDER BY bucket_month
+        """, (rs, i) -> {
+            Map<String, Object> t = new LinkedHashMap<>();
+            t.put("user_id", rs.getLong("user_id"));
+            t.put("bucket_month", rs.getObject("bucket_month", LocalDate.class));
+            t.put("key_ids", Arrays.asList((Long[]) rs.getArray("key_ids").getArray()));
+            t.put("purposes", Arrays.asList((String[]) rs.getArray("purposes").getArray()));
+            List<OffsetDateTime> destroyed = new ArrayList<>();
+            try (ResultSet d = rs.getArray("destroyed_at").getResultSet()) {
+                while (d.next()) destroyed.add(d.getObject(2, OffsetDateTime.class));
+            }
+            t.put("destroyed_at", destroyed);
+            t.put("digest", rs.getString("digest"));
+            t.put("key_fingerprint", rs.getString("key_fingerprint"));
+            t.put("digest_valid", rs.getObject("digest_valid"));
+            t.put("compacted_at", rs.getObject("compacted_at", OffsetDateTime.class));
+            return t;
+        }, signingKey.fingerprint(), signingKey.raw(), userId);
+    }
+
+    public long compactedKeys() {
+        Long n = jdbc.queryForObject("SELECT coalesce(sum(cardinality(key_ids)), 0) FROM key_tombstones", Long.class);
+        return n == null ? 0 : n;
+    }
+}
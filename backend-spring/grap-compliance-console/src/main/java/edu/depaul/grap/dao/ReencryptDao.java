@@ -0,0 +1,548 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.crypto.AesGcmShadowCipher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Re-encryption jobs and the per-batch rewrite of users_shadow (sql/22_reencrypt.sql).
+@Repository
+public class ReencryptDao {
+
+    // keys from buckets older than today - maxKeyAgeDays are rotated
+    public record JobSpec(int targetVersion, int maxKeyAgeDays, int batchSize, int rowsPerSec, int maxPasses) {}
+
+    // scanned = 0: the cursor reached the end of users_shadow (call endPass)
+    public record BatchResult(int scanned, int reencrypted, int skippedLocked, int fieldsSkippedDestroyed,
+                              int keysCreated, int keysRetired, int rowsPerSec) {}
+
+    private record KeyRow(long keyId, LocalDate bucket, String material, boolean live) {}
+
+    private static final String[] PURPOSES = {"name", "email", "phone"};
+
+    // key_id_* IS NULL (read as 0): nothing to decrypt with, treated like a destroyed key
+    private static final KeyRow NO_KEY = new KeyRow(0L, null, null, false);
+
+    private static final String JOB_COLUMNS =
+            "job_id, state, target_version, key_cutoff, batch_size, rows_per_sec, max_user_id, cursor_user_id, " +
+                    "pass, max_passes, rows_scanned, rows_reencrypted, rows_skipped_locked, pass_skipped_locked, " +
+                    "fields_skipped_destroyed, keys_created, keys_retired, batches, claimed_by, heartbeat_at, " +
+                    "last_error, created_at, finished_at";
+
+    // Pre-filter: some field has a live key that is too old, or the row is on another cipher
+    // and every field is still live (a row with a destroyed field keeps its enc_version).
+    private static final String STALE = """
+            SELECT s.user_id
+            FROM users_shadow s
+            LEFT JOIN key_store kn ON kn.key_id = s.key_id_name AND kn.bucket_date = key_bucket(s.key_id_name)
+            LEFT JOIN key_store ke ON ke.key_id = s.key_id_email AND ke.bucket_date = key_bucket(s.key_id_email)
+            LEFT JOIN key_store kp ON kp.key_id = s.key_id_phone AND kp.bucket_date = key_bucket(s.key_id_phone)
+            WHERE s.user_id = ANY(?)
+              AND (
+                (kn.destroyed_at IS NULL AND kn.key_material <> 'DESTROYED' AND kn.bucket_date < ?)
+                OR (ke.destroyed_at IS NULL AND ke.key_material <> 'DESTROYED' AND ke.bucket_date < ?)
+                OR (kp.destroyed_at IS NULL AND kp.key_material <> 'DESTROYED' AND kp.bucket_date < ?)
+                OR (s.enc_version <> ?
+                    AND kn.destroyed_at IS NULL AND kn.key_material <> 'DESTROYED'
+                    AND ke.destroyed_at IS NULL AND ke.key_material <> 'DESTROYED'
+                    AND kp.destroyed_at IS NULL AND kp.key_material <> 'DESTROYED')
+              )
+            ORDER BY s.user_id
+            """;
+
+    // A key that an erasure (or a purge) is updating right now is skipped, not waited on;
+    // its user is left for the next pass. Held FOR SHARE, a live key stays live until commit.
+    // The bucket predicate lets each lookup prune to one partition (sql/23).
+    private static final String LOCK_KEYS = """
+            SELECT k.key_id, k.bucket_date, k.key_material,
+                   (k.destroyed_at IS NULL AND k.key_material <> 'DESTROYED') AS live
+            FROM key_store k
+            JOIN (
+              SELECT DISTINCT unnest(ARRAY[s.key_id_name, s.key_id_email, s.key_id_phone]) AS id
+              FROM users_shadow s WHERE s.user_id = ANY(?)
+            ) r ON k.key_id = r.id AND k.bucket_date = key_bucket(r.id)
+            ORDER BY k.key_id
+            FOR SHARE OF k SKIP LOCKED
+            """;
+
+    // Keys that exist at all: one LOCK_KEYS skipped is locked; one missing here was
+    // compacted into a tombstone (destroyed) and is treated like a destroyed key.
+    private static final String PRESENT_KEYS = """
+            SELECT k.key_id
+            FROM key_store k
+            JOIN (
+              SELECT DISTINCT unnest(ARRAY[s.key_id_name, s.key_id_email, s.key_id_phone]) AS id
+              FROM users_shadow s WHERE s.user_id = ANY(?)
+            ) r ON k.key_id = r.id AND k.bucket_date = key_bucket(r.id)
+            """;
+
+    // v1 fields are decrypted here (pgcrypto); v2 fields come back as ciphertext
+    private static final String LOAD = """
+            SELECT s.user_id, s.enc_version, s.full_name_enc, s.email_enc, s.phone_enc,
+                   s.key_id_name, s.key_id_email, s.key_id_phone,
+                   CASE WHEN s.enc_version = 1 AND kn.destroyed_at IS NULL AND kn.key_material <> 'DESTROYED'
+                        THEN sym_decrypt_nullable(s.full_name_enc, kn.key_material) END AS name_v1,
+                   CASE WHEN s.enc_version = 1 AND ke.destroyed_at IS NULL AND ke.key_material <> 'DESTROYED'
+                        THEN sym_decrypt_nullable(s.email_enc, ke.key_material) END AS email_v1,
+                   CASE WHEN s.enc_version = 1 AND kp.destroyed_at IS NULL AND kp.key_material <> 'DESTROYED'
+                        THEN sym_decrypt_nullable(s.phone_enc, kp.key_material) END AS phone_v1
+            FROM users_shadow s
+            LEFT JOIN key_store kn ON kn.key_id = s.key_id_name AND kn.bucket_date = key_bucket(s.key_id_name)
+            LEFT JOIN key_store ke ON ke.key_id = s.key_id_email AND ke.bucket_date = key_bucket(s.key_id_email)
+            LEFT JOIN key_store kp ON kp.key_id = s.key_id_phone AND kp.bucket_date = key_bucket(s.key_id_phone)
+            WHERE s.user_id = ANY(?)
+            ORDER BY s.user_id
+            """;
+
+    private static final String UPDATE_SHADOW = """
+            UPDATE users_shadow SET
+              full_name_enc = ?, email_enc = ?, phone_enc = ?,
+              key_id_name = ?, key_id_email = ?, key_id_phone = ?,
+              enc_version = ?, updated_at = now()
+            WHERE user_id = ?
+            """;
+
+    // replaced keys nothing points at any more (keys are per user, so only that user's row)
+    private static final String RETIRE = """
+            UPDATE key_store k SET retired_at = now()
+            WHERE (k.key_id, k.bucket_date) IN (SELECT t.id, key_bucket(t.id) FROM unnest(?::bigint[]) AS t(id))
+              AND k.retired_at IS NULL
+              AND k.destroyed_at IS NULL
+              AND NOT EXISTS (
+                SELECT 1 FROM users_shadow s
+                WHERE s.user_id = k.user_id
+                  AND k.key_id IN (s.key_id_name, s.key_id_email, s.key_id_phone)
+              )
+            """;
+
+    private static final String ADVANCE = """
+            UPDATE reencrypt_jobs SET
+              cursor_user_id = ?,
+              rows_scanned = rows_scanned + ?,
+              rows_reencrypted = rows_reencrypted + ?,
+              rows_skipped_locked = rows_skipped_locked + ?,
+              pass_skipped_locked = pass_skipped_locked + ?,
+              fields_skipped_destroyed = fields_skipped_destroyed + ?,
+              keys_created = keys_created + ?,
+              keys_retired = keys_retired + ?,
+              batches = batches + 1,
+              heartbeat_at = now()
+            WHERE job_id = ?
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final AesGcmShadowCipher cipher;
+
+    public ReencryptDao(JdbcTemplate jdbc, TransactionTemplate tx, AesGcmShadowCipher cipher) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.cipher = cipher;
+    }
+
+    // ----------------------------
+    // Jobs
+    // ----------------------------
+    public long createJob(JobSpec spec) {
+        Long id = jdbc.queryForObject(
+                "INSERT INTO reencrypt_jobs(target_version, key_cutoff, batch_size, rows_per_sec, max_user_id, max_passes) " +
+                        "VALUES (?, CURRENT_DATE - ?, ?, ?, (SELECT coalesce(max(user_id), 0) FROM users_shadow), ?) " +
+                        "RETURNING job_id",
+                Long.class, spec.targetVersion(), spec.maxKeyAgeDays(), spec.batchSize(), spec.rowsPerSec(),
+                spec.maxPasses());
+        return (id == null) ? 0L : id;
+    }
+
+    public List<Long> openJobs() {
+        return jdbc.queryForList(
+                "SELECT job_id FROM reencrypt_jobs WHERE state IN ('RUNNING', 'PAUSED') ORDER BY job_id", Long.class);
+    }
+
+    // RUNNING jobs nobody is working on: never claimed, or the claim's heartbeat went stale
+    public List<Long> orphanedJobs(int staleSeconds) {
+        return jdbc.queryForList(
+                "SELECT job_id FROM reencrypt_jobs WHERE state = 'RUNNING' " +
+                        "AND (claimed_by IS NULL OR heartbeat_at < now() - ? * interval '1 second') ORDER BY job_id",
+                Long.class, staleSeconds);
+    }
+
+    public boolean claim(long jobId, String nodeId, int staleSeconds) {
+        return jdbc.update(
+                "UPDATE reencrypt_jobs SET claimed_by = ?, heartbeat_at = now() " +
+                        "WHERE job_id = ? AND state = 'RUNNING' " +
+                        "AND (claimed_by IS NULL OR claimed_by = ? OR heartbeat_at < now() - ? * interval '1 second')",
+                nodeId, jobId, nodeId, staleSeconds) == 1;
+    }
+
+    public String jobState(long jobId) {
+        return jdbc.queryForObject("SELECT state FROM reencrypt_jobs WHERE job_id = ?", String.class, jobId);
+    }
+
+    // Takes effect after the batch in flight: the worker holds the job row until it commits.
+    public int pauseJob(long jobId) {
+        return jdbc.update(
+                "UPDATE reencrypt_jobs SET state = 'PAUSED', claimed_by = NULL WHERE job_id = ? AND state = 'RUNNING'",
+                jobId);
+    }
+
+    public int resumeJob(long jobId) {
+        return jdbc.update(
+                "UPDATE reencrypt_jobs SET state = 'RUNNING', claimed_by = NULL, last_error = NULL, finished_at = NULL " +
+                        "WHERE job_id = ? AND state IN ('PAUSED', 'FAILED')",
+                jobId);
+    }
+
+    public int failJob(long jobId, String nodeId, String error) {
+        return jdbc.update(
+                "UPDATE reencrypt_jobs SET state = 'FAILED', last_error = ?, finished_at = now(), claimed_by = NULL " +
+                        "WHERE job_id = ? AND state = 'RUNNING' AND claimed_by = ?",
+                error, jobId, nodeId);
+    }
+
+    // Picked up by the worker at its next batch, on whichever node runs the job.
+    public int setRowsPerSec(long jobId, int rowsPerSec) {
+        return jdbc.update("UPDATE reencrypt_jobs SET rows_per_sec = ? WHERE job_id = ?", rowsPerSec, jobId);
+    }
+
+    // End of a pass. Rows skipped because a live write held them get another pass
+    // (from the start) until max_passes; otherwise the job is DONE. Returns the new
+    // state, or null if the claim was lost.
+    public String endPass(long jobId, String nodeId) {
+        List<String> r = jdbc.queryForList("""
+            UPDATE reencrypt_jobs SET
+              state       = CASE WHEN pass_skipped_locked = 0 OR pass >= max_passes THEN 'DONE' ELSE state END,
+              finished_at = CASE WHEN pass_skipped_locked = 0 OR pass >= max_passes THEN now() END,
+              claimed_by  = CASE WHEN pass_skipped_locked = 0 OR pass >= max_passes THEN NULL ELSE claimed_by END,
+              last_error  = CASE WHEN pass_skipped_locked > 0 AND pass >= max_passes
+                                 THEN pass_skipped_locked || ' row(s) still locked by live writes on the last pass' END,
+              cursor_user_id      = CASE WHEN pass_skipped_locked = 0 OR pass >= max_passes THEN cursor_user_id ELSE 0 END,
+              pass                = CASE WHEN pass_skipped_locked = 0 OR pass >= max_passes THEN pass ELSE pass + 1 END,
+              pass_skipped_locked = CASE WHEN pass_skipped_locked = 0 OR pass >= max_passes THEN pass_skipped_locked ELSE 0 END,
+              heartbeat_at = now()
+            WHERE job_id = ? AND state = 'RUNNING' AND claimed_by = ?
+            RETURNING state
+        """, String.class, jobId, nodeId);
+        return r.isEmpty() ? null : r.get(0);
+    }
+
+    public Map<String, Object> jobStatus(long jobId) {
+        return jdbc.queryForMap("SELECT " + JOB_COLUMNS + " FROM reencrypt_jobs WHERE job_id = ?", jobId);
+    }
+
+    public List<Map<String, Object>> jobs(int limit) {
+        return jdbc.queryForList("SELECT " + JOB_COLUMNS + " FROM reencrypt_jobs ORDER BY job_id DESC LIMIT ?", limit);
+    }
+
+    // Retired keys past the grace period no longer decrypt anything live; destroy them
+    // (material dropped) so old backups restore those fields as tombstones.
+    // A key's bucket is never after the day it was retired, so the partitions of the
+    // last graceDays are skipped, and the update joins on (key_id, bucket_date) so each
+    // key is looked up in its own partition only.
+    public int purgeRetiredKeys(int graceDays, int limit) {
+        return jdbc.update("""
+            UPDATE key_store k SET destroyed_at = now(), key_material = 'DESTROYED'
+            WHERE (k.key_id, k.bucket_date) IN (
+              SELECT key_id, bucket_date FROM key_store
+              WHERE retired_at < now() - ? * interval '1 day' AND destroyed_at IS NULL
+                AND bucket_date <= CURRENT_DATE - ?
+              ORDER BY retired_at
+              LIMIT ?
+              FOR UPDATE SKIP LOCKED
+            )
+              AND k.bucket_date <= CURRENT_DATE - ?
+              AND NOT EXISTS (
+                SELECT 1 FROM users_shadow s
+                WHERE s.user_id = k.user_id
+                  AND k.key_id IN (s.key_id_name, s.key_id_email, s.key_id_phone)
+              )
+        """, graceDays, graceDays, limit, graceDays);
+    }
+
+    // ----------------------------
+    // Batch
+    // ----------------------------
+
+    // One batch in one transaction: the next batch_size user_ids after the cursor,
+    // the stale ones among them rewritten, the cursor and counters advanced.
+    // Returns null if the job is no longer RUNNING under this node's claim.
+    public BatchResult reencryptBatch(long jobId, String nodeId, int lockTimeoutMillis) {
+        return tx.execute(status -> {
+            // also holds the job row, so pause / takeover wait for this batch to commit
+            List<Map<String, Object>> j = jdbc.queryForList(
+                    "UPDATE reencrypt_jobs SET heartbeat_at = now() " +
+                            "WHERE job_id = ? AND state = 'RUNNING' AND claimed_by = ? " +
+                            "RETURNING target_version, key_cutoff, batch_size, rows_per_sec, cursor_user_id",
+                    jobId, nodeId);
+            if (j.isEmpty()) return null;
+            Map<String, Object> job = j.get(0);
+            int target = ((Number) job.get("target_version")).intValue();
+            LocalDate cutoff = ((Date) job.get("key_cutoff")).toLocalDate();
+            int rowsPerSec = ((Number) job.get("rows_per_sec")).intValue();
+            int batchSize = ((Number) job.get("batch_size")).intValue();
+            // keep a paced batch to about a second so the heartbeat stays fresh
+            int limit = (rowsPerSec > 0) ? Math.max(1, Math.min(batchSize, rowsPerSec)) : batchSize;
+            long cursor = ((Number) job.get("cursor_user_id")).longValue();
+
+            jdbc.queryForObject("SELECT set_config('lock_timeout', ?, true)", String.class, lockTimeoutMillis + "ms");
+
+            List<Long> window = jdbc.queryForList(
+                    "SELECT user_id FROM users_shadow WHERE user_id > ? ORDER BY user_id LIMIT ?",
+                    Long.class, cursor, limit);
+            if (window.isEmpty()) return new BatchResult(0, 0, 0, 0, 0, 0, rowsPerSec);
+
+            Counts c = rewrite(window, target, cutoff);
+
+            jdbc.update(ADVANCE, window.get(window.size() - 1), window.size(), c.reencrypted, c.skippedLocked,
+                    c.skippedLocked, c.fieldsSkipped, c.keysCreated, c.keysRetired, jobId);
+            return new BatchResult(window.size(), c.reencrypted, c.skippedLocked, c.fieldsSkipped,
+                    c.keysCreated, c.keysRetired, rowsPerSec);
+        });
+    }
+
+    private static final class Counts {
+        int reencrypted;
+        int skippedLocked;
+        int fieldsSkipped;
+        int keysCreated;
+        int keysRetired;
+    }
+
+    private Counts rewrite(List<Long> window, int target, LocalDate cutoff) {
+        Counts c = new Counts();
+
+        List<Long> stale = jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(STALE);
+            ps.setArray(1, con.createArrayOf("bigint", window.toArray()));
+            ps.setObject(2, cutoff);
+            ps.setObject(3, cutoff);
+            ps.setObject(4, cutoff);
+            ps.setInt(5, target);
+            return ps;
+        }, (rs, i) -> rs.getLong(1));
+        if (stale.isEmpty()) return c;
+
+        // shadow rows only; a row a live write holds is skipped (next pass)
+        List<Long> locked = jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT user_id FROM users_shadow WHERE user_id = ANY(?) ORDER BY user_id FOR UPDATE SKIP LOCKED");
+            ps.setArray(1, con.createArrayOf("bigint", stale.toArray()));
+            return ps;
+        }, (rs, i) -> rs.getLong(1));
+        c.skippedLocked = stale.size() - locked.size();
+        if (locked.isEmpty()) return c;
+
+        Map<Long, KeyRow> keys = new HashMap<>(locked.size() * 4);
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(LOCK_KEYS);
+            ps.setArray(1, con.createArrayOf("bigint", locked.toArray()));
+            return ps;
+        }, rs -> {
+            KeyRow k = new KeyRow(rs.getLong("key_id"), rs.getObject("bucket_date", LocalDate.class),
+                    rs.getString("key_material"), rs.getBoolean("live"));
+            keys.put(k.keyId(), k);
+        });
+        keys.put(NO_KEY.keyId(), NO_KEY);
+        Set<Long> present = new HashSet<>(jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(PRESENT_KEYS);
+            ps.setArray(1, con.createArrayOf("bigint", locked.toArray()));
+            return ps;
+        }, (rs, i) -> rs.getLong(1)));
+
+        // decide per field what to rewrite
+        List<Row> rows = new ArrayList<>(locked.size());
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(LOAD);
+            ps.setArray(1, con.createArrayOf("bigint", locked.toArray()));
+            return ps;
+        }, rs -> {
+            Row r = new Row(rs.getLong("user_id"), rs.getInt("enc_version"));
+            r.cipher[0] = rs.getBytes("full_name_enc");
+            r.cipher[1] = rs.getBytes("email_enc");
+            r.cipher[2] = rs.getBytes("phone_enc");
+            r.keyId[0] = rs.getLong("key_id_name");
+            r.keyId[1] = rs.getLong("key_id_email");
+            r.keyId[2] = rs.getLong("key_id_phone");
+            r.plain[0] = rs.getString("name_v1");
+            r.plain[1] = rs.getString("email_v1");
+            r.plain[2] = rs.getString("phone_v1");
+            rows.add(r);
+        });
+
+        List<Row> todo = new ArrayList<>(rows.size());
+        for (Row r : rows) {
+            boolean deferred = false;
+            boolean allLive = true;
+            for (int f = 0; f < 3; f++) {
+                KeyRow k = keys.get(r.keyId[f]);
+                if (k == null && !present.contains(r.keyId[f])) {
+                    keys.put(r.keyId[f], k = new KeyRow(r.keyId[f], null, null, false)); // compacted
+                }
+                if (k == null) deferred = true;          // locked by an erasure in progress
+                else if (!k.live()) allLive = false;
+            }
+            if (deferred) {
+                c.skippedLocked++;
+                continue;
+            }
+            r.newVersion = allLive ? target : r.version;
+            for (int f = 0; f < 3; f++) {
+                KeyRow k = keys.get(r.keyId[f]);
+                if (!k.live()) continue;
+                r.rotate[f] = k.bucket().isBefore(cutoff);
+                r.rewrite[f] = r.rotate[f] || r.newVersion != r.version;
+            }
+            if (!(r.rewrite[0] || r.rewrite[1] || r.rewrite[2])) continue; // fixed by a live write meanwhile
+            for (int f = 0; f < 3; f++) {
+                if (!keys.get(r.keyId[f]).live()) c.fieldsSkipped++;
+            }
+            todo.add(r);
+        }
+        if (todo.isEmpty()) return c;
+
+        // old plaintext (v2 decrypts here; v1 came back decrypted)
+        for (Row r : todo) {
+            for (int f = 0; f < 3; f++) {
+                if (!r.rewrite[f] || r.version == 1) continue;
+                KeyRow k = keys.get(r.keyId[f]);
+                r.plain[f] = cipher.decrypt(r.cipher[f], r.userId, PURPOSES[f], k.keyId(), k.material());
+            }
+        }
+
+        // new keys: today's bucket, created if missing
+        Map<String, KeyRow> fresh = todaysKeys(todo, c);
+
+        // encrypt with the target cipher
+        List<String> v1Plain = new ArrayList<>();
+        List<String> v1Keys = new ArrayList<>();
+        Set<Long> replaced = new HashSet<>();
+        for (Row r : todo) {
+            for (int f = 0; f < 3; f++) {
+                if (!r.rewrite[f]) continue;
+                KeyRow k = r.rotate[f] ? fresh.get(r.userId + ":" + PURPOSES[f]) : keys.get(r.keyId[f]);
+                if (r.rotate[f]) replaced.add(r.keyId[f]);
+                r.keyId[f] = k.keyId();
+                if (r.newVersion == AesGcmShadowCipher.ENC_VERSION) {
+                    r.cipher[f] = cipher.encrypt(r.plain[f], r.userId, PURPOSES[f], k.keyId(), k.material());
+                } else {
+                    v1Plain.add(r.plain[f]);
+                    v1Keys.add(k.material());
+                }
+            }
+        }
+        if (!v1Plain.isEmpty()) {
+            List<byte[]> enc = jdbc.query(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "SELECT sym_encrypt_nullable(t.p, t.k) FROM unnest(?::text[], ?::text[]) " +
+                                "WITH ORDINALITY AS t(p, k, i) ORDER BY t.i");
+                ps.setArray(1, con.createArrayOf("text", v1Plain.toArray()));
+                ps.setArray(2, con.createArrayOf("text", v1Keys.toArray()));
+                return ps;
+            }, (rs, i) -> rs.getBytes(1));
+            int i = 0;
+            for (Row r : todo) {
+                if (r.newVersion == AesGcmShadowCipher.ENC_VERSION) continue;
+                for (int f = 0; f < 3; f++) if (r.rewrite[f]) r.cipher[f] = enc.get(i++);
+            }
+        }
+
+        jdbc.batchUpdate(UPDATE_SHADOW, todo, todo.size(), (ps, r) -> {
+            ps.setBytes(1, r.cipher[0]);
+            ps.setBytes(2, r.cipher[1]);
+            ps.setBytes(3, r.cipher[2]);
+            ps.setObject(4, r.keyId[0] == 0 ? null : r.keyId[0], Types.BIGINT);
+            ps.setObject(5, r.keyId[1] == 0 ? null : r.keyId[1], Types.BIGINT);
+            ps.setObject(6, r.keyId[2] == 0 ? null : r.keyId[2], Types.BIGINT);
+            ps.setInt(7, r.newVersion);
+            ps.setLong(8, r.userId);
+        });
+        c.reencrypted = todo.size();
+
+        if (!replaced.isEmpty()) {
+            c.keysRetired = jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(RETIRE);
+                ps.setArray(1, con.createArrayOf("bigint", replaced.toArray()));
+                return ps;
+            });
+        }
+        return c;
+    }
+
+    // Live key for (user, purpose, CURRENT_DATE) for every field being rotated. Two statements:
+    // ON CONFLICT waits out a concurrent insert, so the SELECT's fresh snapshot sees its key.
+    private Map<String, KeyRow> todaysKeys(List<Row> todo, Counts c) {
+        List<Long> users = new ArrayList<>();
+        List<String> purposes = new ArrayList<>();
+        for (Row r : todo) {
+            for (int f = 0; f < 3; f++) {
+                if (r.rotate[f]) {
+                    users.add(r.userId);
+                    purposes.add(PURPOSES[f]);
+                }
+            }
+        }
+        Map<String, KeyRow> out = new HashMap<>(users.size() * 2);
+        if (users.isEmpty()) return out;
+
+        c.keysCreated = jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                INSERT INTO key_store(user_id, purpose, bucket_date, key_material)
+                SELECT t.u, t.p, CURRENT_DATE, encode(gen_random_bytes(32), 'base64')
+                FROM unnest(?::bigint[], ?::text[]) AS t(u, p)
+                ON CONFLICT (user_id, purpose, bucket_date) WHERE destroyed_at IS NULL
+                DO NOTHING
+            """);
+            ps.setArray(1, con.createArrayOf("bigint", users.toArray()));
+            ps.setArray(2, con.createArrayOf("text", purposes.toArray()));
+            return ps;
+        });
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement("""
+                SELECT k.user_id, k.purpose, k.key_id, k.bucket_date, k.key_material
+                FROM key_store k
+                JOIN unnest(?::bigint[], ?::text[]) AS t(u, p) ON k.user_id = t.u AND k.purpose = t.p
+                WHERE k.bucket_date = CURRENT_DATE AND k.destroyed_at IS NULL
+            """);
+            ps.setArray(1, con.createArrayOf("bigint", users.toArray()));
+            ps.setArray(2, con.createArrayOf("text", purposes.toArray()));
+            return ps;
+        }, rs -> {
+            out.put(rs.getLong("user_id") + ":" + rs.getString("purpose"),
+                    new KeyRow(rs.getLong("key_id"), rs.getObject("bucket_date", LocalDate.class),
+                            rs.getString("key_material"), true));
+        });
+        for (int i = 0; i < users.size(); i++) {
+            if (!out.containsKey(users.get(i) + ":" + purposes.get(i))) {
+                throw new IllegalStateException("no live key for user_id=" + users.get(i) + " purpose=" + purposes.get(i)
+                        + " in today's bucket");
+            }
+        }
+        return out;
+    }
+
+    private static final class Row {
+        final long userId;
+        final int version;
+        int newVersion;
+        final byte[][] cipher = new byte[3][];
+        final long[] keyId = new long[3];
+        final String[] plain = new String[3];
+        final boolean[] rotate = new boolean[3];
+        final boolean[] rewrite = new boolean[3];
+
+        Row(long userId, int version) {
+            this.userId = userId;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.metrics.ComplianceMetrics;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+// Restore jobs / range checkpoints and the per-chunk restore
+// (sql/17_chunked_restore.sql, sql/18_targeted_restore.sql).
+@Repository
+public class RestoreDao {
+
+    // mode FULL | RANGE (fromUserId..toUserId inclusive) | SINCE (updated_at >= since)
+    public record JobSpec(String mode, Long fromUserId, Long toUserId, OffsetDateTime since) {}
+
+    // user_id range [lo, hi] with cursor = last user_id done, or, for SINCE jobs, the
+    // updated_at slice [tsLo, tsHi) with cursor = last (cursorTs, cursor) done
+    public record Range(long jobId, int rangeNo, long lo, long hi, long cursor,
+                        OffsetDateTime tsLo, OffsetDateTime tsHi, OffsetDateTime cursorTs) {
+
+        boolean bySince() {
+            return tsHi != null;
+        }
+
+        Range advancedTo(long userId, OffsetDateTime updatedAt) {
+            return new Range(jobId, rangeNo, lo, hi, userId, tsLo, tsHi, updatedAt);
+        }
+    }
+
+    // next = the range with its cursor moved past this chunk
+    public record ChunkResult(Range next, AppShadowDao.RestoreCounts counts) {}
+
+    private static final String RANGE_COLUMNS = "r.job_id, r.range_no, r.lo, r.hi, r.cursor, r.ts_lo, r.ts_hi, r.cursor_ts";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final AppShadowDao appShadow;
+    private final ComplianceMetrics metrics;
+
+    public RestoreDao(JdbcTemplate jdbc, TransactionTemplate tx, AppShadowDao appShadow, ComplianceMetrics metrics) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.appShadow = appShadow;
+        this.metrics = metrics;
+    }
+
+    // ----------------------------
+    // Jobs
+    // ----------------------------
+    public long createJob(JobSpec spec, int chunkSize, int workers, int rangesPerWorker) {
+        int slices = Math.max(1, workers * rangesPerWorker);
+        Long id = tx.execute(status -> {
+            if ("SINCE".equals(spec.mode())) return createSinceJob(spec, chunkSize, workers, slices);
+
+            Map<String, Object> b;
+            Long est;
+            if ("RANGE".equals(spec.mode())) {
+                // both via the primary key, so cost follows the size of the range
+                b = jdbc.queryForMap(
+                        "SELECT coalesce(min(user_id), 0) AS lo, coalesce(max(user_id), -1) AS hi " +
+                                "FROM users_shadow WHERE user_id BETWEEN ? AND ?",
+                        spec.fromUserId(), spec.toUserId());
+                est = jdbc.queryForObject(
+                        "SELECT count(*) FROM users_shadow WHERE user_id BETWEEN ? AND ?",
+                        Long.class, spec.fromUserId(), spec.toUserId());
+            } else {
+                b = jdbc.queryForMap(
+                        "SELECT coalesce(min(user_id), 0) AS lo, coalesce(max(user_id), -1) AS hi FROM users_shadow");
+                // planner estimate; exact count(*) on a large shadow table is itself a full scan
+                est = jdbc.queryForObject(
+                        "SELECT CASE WHEN reltuples < 0 THEN NULL ELSE reltuples::bigint END " +
+                                "FROM pg_class WHERE oid = 'users_shadow'::regclass", Long.class);
+            }
+            long lo = ((Number) b.get("lo")).longValue();
+            long hi = ((Number) b.get("hi")).longValue();
+
+            Long jobId = jdbc.queryForObject(
+                    "INSERT INTO restore_jobs(mode, chunk_size, workers, total_estimate, from_user_id, to_user_id) " +
+                            "VALUES (?, ?, ?, ?, ?, ?) RETURNING job_id",
+                    Long.class, spec.mode(), chunkSize, workers, est, spec.fromUserId(), spec.toUserId());
+
+            if (hi >= lo) {
+                // equal-width user_id ranges (user_id is a sequence, so roughly equal row counts)
+                int n = (int) Math.min(slices, hi - lo + 1);
+                long width = (hi - lo + 1 + n - 1) / n;
+                for (int i = 0; i < n; i++) {
+                    long rlo = lo + i * width;
+                    if (rlo > hi) break;
+                    long rhi = Math.min(hi, rlo + width - 1);
+                    jdbc.update("INSERT INTO restore_job_ranges(job_id, range_no, lo, hi, cursor) VALUES (?, ?, ?, ?, ?)",
+                            jobId, i, rlo, rhi, rlo - 1);
+                }
+            }
+            return jobId;
+        });
+        return (id == null) ? 0L : id;
+    }
+
+    // SINCE: equal-width updated_at slices between the first changed row and job creation.
+    // Rows changed after the job was created are left for the next incremental run.
+    private Long createSinceJob(JobSpec spec, int chunkSize, int workers, int slices) {
+        Map<String, Object> b = jdbc.queryForMap(
+                "SELECT min(updated_at) AS lo, now() AS until, count(*) AS n " +
+                        "FROM users_shadow WHERE updated_at >= ?",
+                spec.since());
+        OffsetDateTime until = toOffset(b.get("until"));
+        long n = ((Number) b.get("n")).longValue();
+
+        Long jobId = jdbc.queryForObject(
+                "INSERT INTO restore_jobs(mode, chunk_size, workers, total_estimate, since_ts, until_ts) " +
+                        "VALUES ('SINCE', ?, ?, ?, ?, ?) RETURNING job_id",
+                Long.class, chunkSize, workers, n, spec.since(), until);
+
+        if (n > 0) {
+            OffsetDateTime lo = toOffset(b.get("lo"));
+            Duration width = Duration.between(lo, until).dividedBy(slices);
+            OffsetDateTime sliceLo = lo;
+            for (int i = 0; i < slices; i++) {
+                OffsetDateTime sliceHi = (i == slices - 1 || width.isZero()) ? until : sliceLo.plus(width);
+                jdbc.update("INSERT INTO restore_job_ranges(job_id, range_no, lo, hi, cursor, ts_lo, ts_hi, cursor_ts) " +
+                                "VALUES (?, ?, 0, 0, -1, ?, ?, ?)",
+                        jobId, i, sliceLo, sliceHi, sliceLo);
+                if (sliceHi.equals(until)) break;
+                sliceLo = sliceHi;
+            }
+        }
+        return jobId;
+    }
+
+    private static OffsetDateTime toOffset(Object v) {
+        if (v instanceof OffsetDateTime o) return o;
+        if (v instanceof Timestamp t) return t.toInstant().atOffset(ZoneOffset.UTC);
+        throw new IllegalStateException("unexpected timestamptz value " + v);
+    }
+
+    public List<Long> jobsInState(String state) {
+        return jdbc.queryForList("SELECT job_id FROM restore_jobs WHERE state = ? ORDER BY job_id", Long.class, state);
+    }
+
+    public String jobState(long jobId) {
+        return jdbc.queryForObject("SELECT state FROM restore_jobs WHERE job_id = ?", String.class, jobId);
+    }
+
+    // RUNNING again; failed ranges get another go from their cursor
+    public int resumeJob(long jobId) {
+        Integer v = tx.execute(status -> {
+            int n = jdbc.update(
+                    "UPDATE restore_jobs SET state = 'RUNNING', last_error = NULL, finished_at = NULL " +
+                            "WHERE job_id = ? AND state IN ('PAUSED', 'FAILED', 'RUNNING')", jobId);
+            jdbc.update("UPDATE restore_job_ranges SET state = 'PENDING', last_error = NULL " +
+                    "WHERE job_id = ? AND state = 'FAILED'", jobId);
+            return n;
+        });
+        return (v == null) ? 0 : v;
+    }
+
+    public int pauseJob(long jobId) {
+        return jdbc.update("UPDATE restore_jobs SET state = 'PAUSED' WHERE job_id = ? AND state = 'RUNNING'", jobId);
+    }
+
+    // Close the job once no range is left to do. Returns the final state, or null if still open.
+    public String finishJobIfComplete(long jobId) {
+        List<String> r = jdbc.queryForList("""
+            UPDATE restore_jobs j
+            SET state = CASE WHEN EXISTS (SELECT 1 FROM restore_job_ranges r
+                                          WHERE r.job_id = j.job_id AND r.state = 'FAILED')
+                             THEN 'FAILED' ELSE 'DONE' END,
+                finished_at = now()
+            WHERE j.job_id = ?
+              AND j.state = 'RUNNING'
+              AND NOT EXISTS (SELECT 1 FROM restore_job_ranges r
+                              WHERE r.job_id = j.job_id AND r.state IN ('PENDING', 'RUNNING'))
+            RETURNING j.state
+        """, String.class, jobId);
+        return r.isEmpty() ? null : r.get(0);
+    }
+
+    public Map<String, Object> jobStatus(long jobId) {
+        return jdbc.queryForMap("""
+            SELECT j.job_id, j.mode, j.state, j.chunk_size, j.workers, j.total_estimate,
+                   j.from_user_id, j.to_user_id, j.since_ts, j.until_ts,
+                   j.created_at, j.finished_at, j.last_error,
+                   coalesce(sum(r.rows_restored), 0) AS rows_restored,
+                   coalesce(sum(r.decrypted), 0)     AS decrypted,
+                   coalesce(sum(r.redacted), 0)      AS redacted,
+                   coalesce(sum(r.chunks), 0)        AS chunks,
+                   count(r.range_no)                                  AS ranges,
+                   count(r.range_no) FILTER (WHERE r.state = 'DONE')    AS ranges_done,
+                   count(r.range_no) FILTER (WHERE r.state = 'RUNNING') AS ranges_running,
+                   count(r.range_no) FILTER (WHERE r.state = 'FAILED')  AS ranges_failed
+            FROM restore_jobs j
+            LEFT JOIN restore_job_ranges r ON r.job_id = j.job_id
+            WHERE j.job_id = ?
+            GROUP BY j.job_id
+        """, jobId);
+    }
+
+    public long rowsRestored(long jobId) {
+        Long v = jdbc.queryForObject(
+                "SELECT coalesce(sum(rows_restored), 0) FROM restore_job_ranges WHERE job_id = ?", Long.class, jobId);
+        return (v == null) ? 0L : v;
+    }
+
+    // ----------------------------
+    // Ranges
+    // ----------------------------
+
+    // Claim one pending range, or one whose owner stopped heartbeating.
+    public Range claimRange(long jobId, String nodeId, int staleSeconds) {
+        List<Range> r = jdbc.query("""
+            UPDATE restore_job_ranges r
+            SET state = 'RUNNING', claimed_by = ?, heartbeat_at = now()
+            WHERE (r.job_id, r.range_no) = (
+              SELECT c.job_id, c.range_no
+              FROM restore_job_ranges c
+              WHERE c.job_id = ?
+                AND (c.state = 'PENDING'
+                     OR (c.state = 'RUNNING' AND c.heartbeat_at < now() - ? * interval '1 second'))
+              ORDER BY c.range_no
+              LIMIT 1
+              FOR UPDATE SKIP LOCKED
+            )
+            RETURNING %s
+        """.formatted(RANGE_COLUMNS), (rs, i) -> range(rs), nodeId, jobId, staleSeconds);
+        return r.isEmpty() ? null : r.get(0);
+    }
+
+    // true while ranges are pending or held by a worker on another node (which may die)
+    public boolean hasRangesHeldElsewhere(long jobId, String nodeId) {
+        Boolean v = jdbc.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM restore_job_ranges WHERE job_id = ? " +
+                        "AND (state = 'PENDING' OR (state = 'RUNNING' AND claimed_by IS DISTINCT FROM ?)))",
+                Boolean.class, jobId, nodeId);
+        return Boolean.TRUE.equals(v);
+    }
+
+    public void releaseRange(Range r, String nodeId) {
+        jdbc.update("UPDATE restore_job_ranges SET state = 'PENDING', claimed_by = NULL " +
+                "WHERE job_id = ? AND range_no = ? AND claimed_by = ? AND state = 'RUNNING'",
+                r.jobId(), r.rangeNo(), nodeId);
+    }
+
+    public void failRange(Range r, String nodeId, String error) {
+        jdbc.update("UPDATE restore_job_ranges SET state = 'FAILED', last_error = ? " +
+                "WHERE job_id = ? AND range_no = ? AND claimed_by = ?",
+                error, r.jobId(), r.rangeNo(), nodeId);
+    }
+
+    private static Range range(ResultSet rs) throws SQLException {
+        return new Range(rs.getLong(1), rs.getInt(2), rs.getLong(3), rs.getLong(4), rs.getLong(5),
+                rs.getObject(6, OffsetDateTime.class), rs.getObject(7, OffsetDateTime.class),
+                rs.getObject(8, OffsetDateTime.class));
+    }
+
+    private record Row(long userId, OffsetDateTime updatedAt) {}
+
+    // One chunk of a range: restore the next chunkSize shadow rows after the cursor and
+    // advance the checkpoint, all in one transaction. Returns null when the range is done
+    // (and marks it DONE). Throws if the range was reclaimed by another worker.
+    public ChunkResult restoreChunk(Range r, int chunkSize, String nodeId) {
+        ChunkResult result = tx.execute(status -> {
+            List<Row> rows = r.bySince()
+                    ? jdbc.query(
+                            "SELECT user_id, updated_at FROM users_shadow " +
+                                    "WHERE (updated_at, user_id) > (?, ?) AND updated_at < ? " +
+                                    "ORDER BY updated_at, user_id LIMIT ?",
+                            (rs, i) -> new Row(rs.getLong(1), rs.getObject(2, OffsetDateTime.class)),
+                            r.cursorTs(), r.cursor(), r.tsHi(), chunkSize)
+                    : jdbc.query(
+                            "SELECT user_id FROM users_shadow WHERE user_id > ? AND user_id <= ? " +
+                                    "ORDER BY user_id LIMIT ?",
+                            (rs, i) -> new Row(rs.getLong(1), null),
+                            r.cursor(), r.hi(), chunkSize);
+
+            if (rows.isEmpty()) {
+                jdbc.update("UPDATE restore_job_ranges SET state = 'DONE', claimed_by = NULL, heartbeat_at = now() " +
+                        "WHERE job_id = ? AND range_no = ? AND claimed_by = ?",
+                        r.jobId(), r.rangeNo(), nodeId);
+                return null;
+            }
+
+            AppShadowDao.RestoreCounts c = restoreIdsInTx(rows.stream().map(Row::userId).toList());
+            Row last = rows.get(rows.size() - 1);
+
+            int n = jdbc.update("""
+                UPDATE restore_job_ranges
+                SET cursor = ?, cursor_ts = ?, rows_restored = rows_restored + ?, decrypted = decrypted + ?,
+                    redacted = redacted + ?, chunks = chunks + 1, heartbeat_at = now()
+                WHERE job_id = ? AND range_no = ? AND claimed_by = ? AND state = 'RUNNING'
+            """, last.userId(), last.updatedAt(), c.rows(), c.decrypted(), c.redacted(),
+                    r.jobId(), r.rangeNo(), nodeId);
+            if (n == 0) {
+                throw new IllegalStateException("restore range " + r.jobId() + "/" + r.rangeNo() + " was reclaimed");
+            }
+            return new ChunkResult(r.advancedTo(last.userId(), last.updatedAt()), c);
+        });
+        if (result != null) count(result.counts());
+        return result;
+    }
+
+    // enc_version 1 in SQL, enc_version 2 in the JVM, one transaction (or the caller's).
+    // ids without a shadow row are skipped.
+    public AppShadowDao.RestoreCounts restoreIds(List<Long> ids) {
+        if (ids.isEmpty()) return AppShadowDao.RestoreCounts.ZERO;
+        AppShadowDao.RestoreCounts c = tx.execute(status -> restoreIdsInTx(ids));
+        if (c == null) return AppShadowDao.RestoreCounts.ZERO;
+        count(c);
+        return c;
+    }
+
+    private void count(AppShadowDao.RestoreCounts c) {
+        metrics.restored(c.rows(), c.decrypted(), c.redacted());
+    }
+
+    private AppShadowDao.RestoreCounts restoreIdsInTx(List<Long> ids) {
+        Map<String, Object> v1 = jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT rows_restored, decrypted, redacted FROM restore_users_from_shadow_ids(?)");
+            ps.setArray(1, con.createArrayOf("bigint", ids.toArray()));
+            return ps;
+        }, new ColumnMapRowMapper()).get(0);
+        AppShadowDao.RestoreCounts c = new AppShadowDao.RestoreCounts(
+                ((Number) v1.get("rows_restored")).longValue(),
+                ((Number) v1.get("decrypted")).longValue(),
+                ((Number) v1.get("redacted")).longValue());
+        return c.plus(appShadow.restoreIds(ids));
+    }
+}
@@ -0,0 +1,132 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.catalog.BackupCatalog;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Retention planning (sql/28_retention_plan.sql): reads the planner's snapshot and
+// records each plan in retention_plan_audit.
+@Repository
+public class RetentionPlanDao {
+
+    public record BackupRow(long backupId, boolean full, Instant endedAt, boolean manual) {}
+
+    public record HoldRow(long holdId, long userId) {}
+
+    // members.get(i) belongs to backups.get(i)
+    public record Loaded(Instant at, List<BackupRow> backups, List<HoldRow> holds,
+                         List<ImmutableRoaringBitmap> members) {}
+
+    private static final String SUMMARY =
+            "plan_id, planned_at, as_of, snapshot_at, max_age_days, keep_full, release_hold_ids, " +
+                    "cardinality(hold_user_ids) AS hold_users, backups_considered, " +
+                    "cardinality(expirable) AS expirable_count, cardinality(newly_expirable) AS newly_expirable_count, " +
+                    "cardinality(no_longer_expirable) AS no_longer_expirable_count, eval_micros";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final BackupCatalog backupCatalog;
+
+    public RetentionPlanDao(JdbcTemplate jdbc, TransactionTemplate tx, BackupCatalog backupCatalog) {
+        this.jdbc = jdbc;
+        this.tx = tx;
+        this.backupCatalog = backupCatalog;
+    }
+
+    // backup_runs (oldest first), active holds and every backup's members, from one
+    // repeatable-read snapshot so a backup and its members are seen together
+    public Loaded load() {
+        return tx.execute(status -> {
+            jdbc.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ READ ONLY");
+            Timestamp at = jdbc.queryForObject("SELECT now()", Timestamp.class);
+
+            List<BackupRow> backups = new ArrayList<>();
+            jdbc.query("SELECT backup_id, backup_type, ended_at, protected_manually FROM backup_runs " +
+                            "ORDER BY started_at, backup_id",
+                    rs -> {
+                        backups.add(new BackupRow(rs.getLong(1), "FULL".equals(rs.getString(2)),
+                                rs.getTimestamp(3).toInstant(), rs.getBoolean(4)));
+                    });
+
+            List<HoldRow> holds = new ArrayList<>();
+            jdbc.query("SELECT hold_id, user_id FROM legal_holds WHERE released_at IS NULL",
+                    rs -> {
+                        holds.add(new HoldRow(rs.getLong(1), rs.getLong(2)));
+                    });
+
+            List<ImmutableRoaringBitmap> members = new ArrayList<>(backups.size());
+            for (BackupRow b : backups) {
+                members.add(backupCatalog.users(b.backupId()));
+            }
+            return new Loaded(at == null ? Instant.now() : at.toInstant(), backups, holds, members);
+        });
+    }
+
+    public long record(Instant asOf, Instant snapshotAt, int maxAgeDays, int keepFull,
+                       List<Long> releaseHoldIds, List<Long> holdUserIds, int backupsConsidered,
+                       List<Long> expirable, List<Long> newlyExpirable, List<Long> noLongerExpirable,
+                       long evalMicros) {
+        Long id = jdbc.query(con -> {
+            var ps = con.prepareStatement("""
+                INSERT INTO retention_plan_audit(as_of, snapshot_at, max_age_days, keep_full, release_hold_ids,
+                  hold_user_ids, backups_considered, expirable, newly_expirable, no_longer_expirable, eval_micros)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                RETURNING plan_id
+                """);
+            ps.setTimestamp(1, Timestamp.from(asOf));
+            ps.setTimestamp(2, Timestamp.from(snapshotAt));
+            ps.setInt(3, maxAgeDays);
+            ps.setInt(4, keepFull);
+            ps.setArray(5, con.createArrayOf("bigint", releaseHoldIds.toArray()));
+            ps.setArray(6, con.createArrayOf("bigint", holdUserIds.toArray()));
+            ps.setInt(7, backupsConsidered);
+            ps.setArray(8, con.createArrayOf("bigint", expirable.toArray()));
+            ps.setArray(9, con.createArrayOf("bigint", newlyExpirable.toArray()));
+            ps.setArray(10, con.createArrayOf("bigint", noLongerExpirable.toArray()));
+            ps.setLong(11, evalMicros);
+            return ps;
+        }, rs -> rs.next() ? rs.getLong(1) : null);
+        return id == null ? 0 : id;
+    }
+
+    // newest first, array columns as counts
+    public List<Map<String, Object>> recent(int limit) {
+        List<Map<String, Object>> rows = jdbc.queryForList(
+                "SELECT " + SUMMARY + " FROM retention_plan_audit ORDER BY plan_id DESC LIMIT ?", limit);
+        rows.forEach(RetentionPlanDao::unwrapArrays);
+        return rows;
+    }
+
+    public Map<String, Object> get(long planId) {
+        Map<String, Object> row = jdbc.queryForMap("""
+            SELECT plan_id, planned_at, as_of, snapshot_at, max_age_days, keep_full, release_hold_ids,
+                   hold_user_ids, backups_considered, expirable, newly_expirable, no_longer_expirable, eval_micros
+            FROM retention_plan_audit WHERE plan_id = ?
+            """, planId);
+        unwrapArrays(row);
+        return row;
+    }
+
+    // BIGINT[] columns come back as java.sql.Array; the API returns plain lists
+    private static void unwrapArrays(Map<String, Object> row) {
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            if (e.getValue() instanceof Array a) {
+                try {
+                    e.setValue(List.of((Object[]) a.getArray()));
+                } catch (SQLException ex) {
+                    throw new IllegalStateException("reading " + e.getKey(), ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package edu.depaul.grap.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.util.Map;
+
+// Writes a query result as NDJSON while it is being read.
+//
+// pgjdbc only uses a server-side cursor (fetch size) with autocommit off, so the query
+// runs in a read-only transaction; heap use is one fetch batch regardless of result size.
+// Rows are serialized exactly like the JSON endpoints' maps.
+@Repository
+public class RowStreamer {
+
+    private static final Logger log = LoggerFactory.getLogger(RowStreamer.class);
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate readOnlyTx;
+    private final ObjectMapper json;
+    private final int fetchSize;
+
+    public RowStreamer(JdbcTemplate jdbc,
+                       PlatformTransactionManager txManager,
+                       ObjectMapper json,
+                       @Value("${grap.stream.fetch-size:1000}") int fetchSize) {
+        this.jdbc = jdbc;
+        this.readOnlyTx = new TransactionTemplate(txManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.json = json;
+        this.fetchSize = Math.max(1, fetchSize);
+    }
+
+    // Returns rows written. A failure after the first byte cannot change the HTTP status,
+    // so it ends the stream with one {"_error": ...} line.
+    public long ndjson(OutputStream out, String sql, Object... args) throws IOException {
+        long[] n = {0};
+        try {
+            readOnlyTx.executeWithoutResult(status -> {
+                ColumnMapRowMapper mapper = new ColumnMapRowMapper();
+                jdbc.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(sql);
+                    ps.setFetchSize(fetchSize);
+                    for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+                    return ps;
+                }, rs -> {
+                    Map<String, Object> row = mapper.mapRow(rs, (int) n[0]);
+                    try {
+                        out.write(json.writeValueAsBytes(row));
+                        out.write('\n');
+                        if (++n[0] % fetchSize == 0) out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            });
+        } catch (UncheckedIOException e) {
+            // client went away; the transaction is already rolled back
+            log.debug("NDJSON stream aborted after {} rows: {}", n[0], e.getCause().getMessage());
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            log.warn("NDJSON stream failed after {} rows: {}", n[0], e.toString());
+            out.write(json.writeValueAsBytes(Map.of("_error", String.valueOf(e.getMessage()))));
+            out.write('\n');
+        }
+        out.flush();
+        return n[0];
+    }
+
+    // For sources that are paged in Java rather than read off one cursor
+    public void writeRows(OutputStream out, Iterable<Map<String, Object>> rows) throws IOException {
+        for (Map<String, Object> row : rows) {
+            out.write(json.writeValueAsBytes(row));
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
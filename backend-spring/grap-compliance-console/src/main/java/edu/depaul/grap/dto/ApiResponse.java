@@ -20,4 +20,11 @@ public class ApiResponse<T> {
         r.details = details;
         return r;
     }
+
+    // failure after partial progress: data says what was done before it
+    public static <T> ApiResponse<T> err(String error, String details, T data) {
+        ApiResponse<T> r = err(error, details);
+        r.data = data;
+        return r;
+    }
 }
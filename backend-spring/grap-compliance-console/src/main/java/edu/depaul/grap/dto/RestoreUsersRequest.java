@@ -0,0 +1,7 @@
+package edu.depaul.grap.dto;
+
+import java.util.List;
+
+public class RestoreUsersRequest {
+    public List<Long> user_ids;
+}
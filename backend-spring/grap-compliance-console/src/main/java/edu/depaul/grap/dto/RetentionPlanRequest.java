@@ -0,0 +1,11 @@
+package edu.depaul.grap.dto;
+
+import java.util.List;
+
+public class RetentionPlanRequest {
+    public Integer max_age_days;          // expire backups that ended longer ago (default grap.retention.max-age-days)
+    public Integer keep_full;             // newest FULL backups always kept (default grap.retention.keep-full)
+    public List<Long> release_hold_ids;   // what-if: these active holds released
+    public List<Long> hold_user_ids;      // what-if: these users placed on hold
+    public Boolean refresh;               // reload the snapshot first
+}
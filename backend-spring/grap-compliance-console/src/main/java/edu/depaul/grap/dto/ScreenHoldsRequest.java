@@ -0,0 +1,7 @@
+package edu.depaul.grap.dto;
+
+import java.util.List;
+
+public class ScreenHoldsRequest {
+    public List<Long> user_ids;
+}
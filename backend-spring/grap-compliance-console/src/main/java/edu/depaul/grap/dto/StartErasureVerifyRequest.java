@@ -0,0 +1,6 @@
+package edu.depaul.grap.dto;
+
+public class StartErasureVerifyRequest {
+    public String mode;          // FULL (default) | INCREMENTAL (users changed since the last completed run)
+    public Integer chunk_size;   // user_ids per chunk transaction (default grap.erasure-verify.chunk-size)
+}
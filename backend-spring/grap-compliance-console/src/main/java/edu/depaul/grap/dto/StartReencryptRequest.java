@@ -0,0 +1,9 @@
+package edu.depaul.grap.dto;
+
+public class StartReencryptRequest {
+    public Integer target_version;     // 1 = pgcrypto, 2 = AES-GCM (default: the grap.crypto.mode cipher)
+    public Integer max_key_age_days;   // keys from older buckets are rotated (default grap.reencrypt.max-key-age-days)
+    public Integer batch_size;         // user_ids per batch transaction (default grap.reencrypt.batch-size)
+    public Integer rows_per_sec;       // rewritten rows per second, 0 = unthrottled (default grap.reencrypt.rows-per-sec)
+    public Integer max_passes;         // extra passes for rows a live write held (default grap.reencrypt.max-passes)
+}
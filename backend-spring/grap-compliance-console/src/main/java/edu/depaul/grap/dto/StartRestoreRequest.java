@@ -0,0 +1,10 @@
+package edu.depaul.grap.dto;
+
+public class StartRestoreRequest {
+    public String mode;          // FULL (default) | RANGE | SINCE
+    public Long from_user_id;    // RANGE: inclusive
+    public Long to_user_id;      // RANGE: inclusive
+    public String since;         // SINCE: ISO-8601 with offset, e.g. 2026-01-31T18:00:00Z
+    public Integer chunk_size;   // rows per chunk transaction (default grap.restore.chunk-size)
+    public Integer workers;      // parallel workers, capped at grap.restore.workers
+}
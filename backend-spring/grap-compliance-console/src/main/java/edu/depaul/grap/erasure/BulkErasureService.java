@@ -0,0 +1,170 @@
+package edu.depaul.grap.erasure;
+
+import edu.depaul.grap.dao.GrapDao;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bulk crypto-erasure: chunks a list (or stream) of user ids and runs each
+// chunk through GrapDao.destroyUserKeysBulk (one transaction per chunk).
+//
+// The whole list is parsed and validated before the first chunk runs, so a bad
+// id erases nothing. Chunks commit one by one: when one fails, PartialFailure
+// carries the summary of the chunks before it ("processed" = ids of the list
+// already done, in order), so the caller can resume there instead of erasing
+// (and auditing) those users again. Per-user results are kept for the first
+// max-results users only; the counts always cover everyone.
+@Service
+public class BulkErasureService {
+
+    private final GrapDao dao;
+    private final int chunkSize;
+    private final int maxResults;
+
+    public BulkErasureService(GrapDao dao,
+                              @Value("${grap.erasure.chunk-size:5000}") int chunkSize,
+                              @Value("${grap.erasure.max-results:10000}") int maxResults) {
+        this.dao = dao;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxResults = Math.max(0, maxResults);
+    }
+
+    // A chunk failed after the earlier ones committed; partial() is the summary up to it.
+    public static final class PartialFailure extends RuntimeException {
+        private final transient Map<String, Object> partial;
+
+        PartialFailure(DataAccessException cause, Map<String, Object> partial) {
+            super(cause.getMostSpecificCause().getMessage(), cause);
+            this.partial = partial;
+        }
+
+        public Map<String, Object> partial() {
+            return partial;
+        }
+    }
+
+    public Map<String, Object> erase(List<Long> userIds) {
+        long[] ids = new long[userIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Long id = userIds.get(i);
+            if (id == null || id <= 0) {
+                throw new IllegalArgumentException("user_ids[" + i + "]: not a user id: " + id + " (nothing was erased)");
+            }
+            ids[i] = id;
+        }
+        return run(ids, ids.length);
+    }
+
+    // text/plain body: one user id per line (blank lines and # comments ignored).
+    // Read completely before erasing: 8 bytes per id.
+    public Map<String, Object> erase(InputStream in) throws IOException {
+        long[] ids = new long[1024];
+        int n = 0;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        long lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            String t = line.trim();
+            if (t.isEmpty() || t.startsWith("#")) continue;
+            long id;
+            try {
+                id = Long.parseLong(t);
+            } catch (NumberFormatException e) {
+                id = 0;
+            }
+            if (id <= 0) {
+                throw new IllegalArgumentException("line " + lineNo + ": not a user id: " + t + " (nothing was erased)");
+            }
+            if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+            ids[n++] = id;
+        }
+        return run(ids, n);
+    }
+
+    private Map<String, Object> run(long[] ids, int n) {
+        Summary s = new Summary(n);
+        for (int from = 0; from < n; from += chunkSize) {
+            int to = Math.min(n, from + chunkSize);
+            List<Long> chunk = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) chunk.add(ids[i]);
+            try {
+                long t0 = System.nanoTime();
+                List<Map<String, Object>> rows = dao.destroyUserKeysBulk(chunk);
+                s.nanos += System.nanoTime() - t0;
+                s.add(chunk.size(), rows);
+            } catch (DataAccessException e) {
+                throw new PartialFailure(e, s.result());
+            }
+        }
+        return s.result();
+    }
+
+    private final class Summary {
+        final List<Map<String, Object>> results = new ArrayList<>();
+        final long submitted;
+        long processed;
+        long users;
+        long erased;
+        long blocked;
+        long noKeys;
+        long keysDestroyed;
+        long evictionPending;
+        long chunks;
+        long nanos;
+
+        Summary(long submitted) {
+            this.submitted = submitted;
+        }
+
+        void add(int ids, List<Map<String, Object>> rows) {
+            processed += ids;
+            chunks++;
+            for (Map<String, Object> r : rows) {
+                users++;
+                String outcome = (String) r.get("outcome");
+                switch (outcome) {
+                    case "ERASED" -> erased++;
+                    case "BLOCKED_BY_HOLD" -> blocked++;
+                    default -> noKeys++;
+                }
+                keysDestroyed += ((Number) r.get("keys_destroyed")).longValue();
+                if ("ERASED".equals(outcome) && Boolean.FALSE.equals(r.get("cache_eviction_confirmed"))) {
+                    evictionPending++;
+                }
+                if (results.size() < maxResults) results.add(r);
+            }
+        }
+
+        Map<String, Object> result() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("submitted", submitted);
+            // ids of the list (in order) whose chunk committed; less than submitted only on failure
+            m.put("processed", processed);
+            m.put("users", users);
+            m.put("erased", erased);
+            m.put("blocked_by_hold", blocked);
+            m.put("no_keys", noKeys);
+            m.put("keys_destroyed", keysDestroyed);
+            // erased, but some key cache node did not confirm eviction (audited per user)
+            m.put("cache_eviction_pending", evictionPending);
+            m.put("chunks", chunks);
+            m.put("elapsed_ms", nanos / 1_000_000);
+            m.put("results", results);
+            m.put("results_truncated", users > results.size());
+            return m;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package edu.depaul.grap.erasure;
+
+import edu.depaul.grap.dao.ErasureJobDao;
+import edu.depaul.grap.dao.GrapDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Asynchronous erasure (sql/21_erasure_jobs.sql).
+//
+// Requests enqueue jobs and return job ids. Every node runs
+// grap.erasure-queue.workers workers; each claims up to batch-size due jobs
+// (SKIP LOCKED, so nodes never contend for the same job) and erases them with
+// one destroy_user_keys_bulk call whose transaction also records the outcomes.
+//  - a failing batch is split and retried job by job, so one bad user does not
+//    hold back the rest
+//  - a failing job is requeued with exponential backoff, FAILED after max-attempts
+//  - a held user is BLOCKED (not retried), as with synchronous erasure
+//  - claims older than stale-seconds (dead node) are requeued by any node; a batch
+//    that loses one claim that way releases the others as it rolls back
+// Idle workers poll every poll-millis; enqueues on this node wake them at once.
+@Service
+public class ErasureQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(ErasureQueue.class);
+
+    private final GrapDao dao;
+    private final ErasureJobDao jobs;
+    private final boolean enabled;
+    private final int workers;
+    private final int batchSize;
+    private final long pollMillis;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final int staleSeconds;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ExecutorService pool;
+    private final Object wake = new Object();
+    private volatile boolean stopping;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong running = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final Counter retried;
+    private final Counter failed;
+
+    public ErasureQueue(GrapDao dao, ErasureJobDao jobs, MeterRegistry registry,
+                        @Value("${grap.erasure-queue.enabled:true}") boolean enabled,
+                        @Value("${grap.erasure-queue.workers:2}") int workers,
+                        @Value("${grap.erasure-queue.batch-size:200}") int batchSize,
+                        @Value("${grap.erasure-queue.poll-millis:500}") long pollMillis,
+                        @Value("${grap.erasure-queue.max-attempts:8}") int maxAttempts,
+                        @Value("${grap.erasure-queue.backoff-millis:1000}") long backoffMillis,
+                        @Value("${grap.erasure-queue.max-backoff-millis:300000}") long maxBackoffMillis,
+                        @Value("${grap.erasure-queue.stale-seconds:120}") int staleSeconds) {
+        this.dao = dao;
+        this.jobs = jobs;
+        this.enabled = enabled;
+        this.workers = Math.max(1, workers);
+        this.batchSize = Math.max(1, batchSize);
+        this.pollMillis = Math.max(10, pollMillis);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = Math.max(1, backoffMillis);
+        this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+        this.staleSeconds = Math.max(10, staleSeconds);
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.workers, r -> {
+            Thread t = new Thread(r, "erasure-worker-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        Gauge.builder("grap.erasure.queue.depth", queued, AtomicLong::get)
+                .description("erasure jobs waiting").register(registry);
+        Gauge.builder("grap.erasure.queue.running", running, AtomicLong::get)
+                .description("erasure jobs claimed by a worker").register(registry);
+        Gauge.builder("grap.erasure.queue.lag", lagMillis, v -> v.get() / 1000.0)
+                .description("seconds the oldest due erasure job has waited").baseUnit("seconds").register(registry);
+        this.retried = Counter.builder("grap.erasure.queue.retries").register(registry);
+        this.failed = Counter.builder("grap.erasure.queue.failed").register(registry);
+    }
+
+    // Returns one row per distinct user: {user_id, job_id, state, created}.
+    // created = false: the user already had an open job, which is returned instead.
+    public List<Map<String, Object>> enqueue(List<Long> userIds) {
+        List<Map<String, Object>> rows = jobs.enqueue(userIds);
+        synchronized (wake) {
+            wake.notifyAll();
+        }
+        return rows;
+    }
+
+    public Map<String, Object> job(long jobId) {
+        return jobs.job(jobId);
+    }
+
+    public List<Map<String, Object>> jobsForUser(long userId, int limit) {
+        return jobs.jobsForUser(userId, limit);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = jobs.stats();
+        m.put("node_id", nodeId);
+        m.put("workers", enabled ? workers : 0);
+        m.put("batch_size", batchSize);
+        return m;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startWorkers() {
+        if (!enabled) return;
+        for (int i = 0; i < workers; i++) pool.execute(this::work);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stopping = true;
+        synchronized (wake) {
+            wake.notifyAll();
+        }
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    @Scheduled(fixedDelayString = "${grap.erasure-queue.reap-millis:10000}")
+    public void maintain() {
+        try {
+            int n = jobs.requeueStale(staleSeconds);
+            if (n > 0) log.warn("requeued {} erasure job(s) with stale claims", n);
+            Map<String, Object> s = jobs.stats();
+            queued.set(((Number) s.get("queued")).longValue());
+            running.set(((Number) s.get("running")).longValue());
+            lagMillis.set(Math.round(((Number) s.get("lag_seconds")).doubleValue() * 1000));
+        } catch (DataAccessException e) {
+            log.warn("erasure queue maintenance failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // ----------------------------
+    // Workers
+    // ----------------------------
+    private void work() {
+        while (!stopping) {
+            try {
+                List<ErasureJobDao.Job> batch = jobs.claim(nodeId, batchSize);
+                if (batch.isEmpty()) {
+                    idle();
+                    continue;
+                }
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("erasure worker error: {}", e.toString());
+                try {
+                    idle();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // jittered so idle workers across nodes do not poll in lockstep
+    private void idle() throws InterruptedException {
+        long ms = pollMillis / 2 + ThreadLocalRandom.current().nextLong(pollMillis);
+        synchronized (wake) {
+            if (!stopping) wake.wait(ms);
+        }
+    }
+
+    // package-private for tests
+    void process(List<ErasureJobDao.Job> batch) {
+        List<Long> userIds = batch.stream().map(ErasureJobDao.Job::userId).toList();
+        try {
+            dao.destroyUserKeysBulk(userIds, rows -> jobs.complete(batch, rows, nodeId));
+        } catch (IllegalStateException e) {
+            // a claim went stale and that job was requeued; the erasure rolled back for the
+            // whole batch, so the rest goes back to the queue now rather than after stale-seconds
+            int released = jobs.release(batch, nodeId);
+            log.warn("{}; released {} other job(s) of the batch", e.getMessage(), released);
+        } catch (RuntimeException e) {
+            if (batch.size() > 1) {
+                for (ErasureJobDao.Job j : batch) process(List.of(j));
+                return;
+            }
+            String error = (e instanceof DataAccessException dae)
+                    ? dae.getMostSpecificCause().getMessage()
+                    : e.toString();
+            int gaveUp = jobs.retry(batch, nodeId, error, maxAttempts, backoffMillis, maxBackoffMillis);
+            retried.increment(batch.size() - gaveUp);
+            failed.increment(gaveUp);
+            log.warn("erasure job {} (user {}) attempt {} failed: {}",
+                    batch.get(0).jobId(), batch.get(0).userId(), batch.get(0).attempts(), error);
+        }
+    }
+}
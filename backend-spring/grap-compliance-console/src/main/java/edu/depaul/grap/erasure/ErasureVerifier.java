@@ -0,0 +1,274 @@
+package edu.depaul.grap.erasure;
+
+import edu.depaul.grap.crypto.SigningKey;
+import edu.depaul.grap.dao.ErasureVerifyDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Crypto-erasure verification (sql/29_erasure_verification.sql): checks that fields on
+// destroyed keys cannot be decrypted and fields on live keys still can.
+//
+//  - a run is cut into chunks of chunk-size user_ids when it starts (INCREMENTAL: only
+//    users whose row or keys changed since the last DONE run)
+//  - workers on this node claim chunks SKIP LOCKED; each chunk is checked and marked
+//    DONE in one transaction, so a restart (or another node) resumes with the chunks
+//    still PENDING
+//  - the worker that finds nothing left completes the run: totals, anomaly counts and
+//    the first report-ids offending user_ids go into a canonical text report, signed
+//    with HMAC-SHA256 under grap.erasure-verify.signing-key (base64; empty = unsigned)
+//  - a chunk that keeps failing fails the run after max-failures attempts in a row;
+//    resume continues it
+@Service
+public class ErasureVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(ErasureVerifier.class);
+    private static final String REPORT_HEADER = "grap crypto-erasure verification report v1";
+
+    private final ErasureVerifyDao dao;
+    private final boolean enabled;
+    private final int workers;
+    private final int defaultChunkSize;
+    private final int reportIds;
+    private final int maxFailures;
+    private final SigningKey signingKey;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ExecutorService coordinator;
+    private final ExecutorService pool;
+    private volatile boolean stopping;
+
+    // run being worked on this node (0 = none)
+    private final AtomicLong runningRun = new AtomicLong();
+
+    private final Counter rowsChecked;
+    private final Counter anomaliesFound;
+
+    public ErasureVerifier(ErasureVerifyDao dao, MeterRegistry registry, SigningKey signingKey,
+                           @Value("${grap.erasure-verify.enabled:true}") boolean enabled,
+                           @Value("${grap.erasure-verify.workers:4}") int workers,
+                           @Value("${grap.erasure-verify.chunk-size:5000}") int chunkSize,
+                           @Value("${grap.erasure-verify.report-ids:100}") int reportIds,
+                           @Value("${grap.erasure-verify.max-failures:5}") int maxFailures) {
+        this.dao = dao;
+        this.enabled = enabled;
+        this.workers = Math.max(1, workers);
+        this.defaultChunkSize = Math.max(1, chunkSize);
+        this.reportIds = Math.max(0, reportIds);
+        this.maxFailures = Math.max(1, maxFailures);
+        this.signingKey = signingKey;
+        if (!signingKey.isSet()) {
+            log.warn("grap.erasure-verify.signing-key is not set; verification reports will be unsigned");
+        }
+
+        this.coordinator = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "erasure-verify-run");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.workers, r -> {
+            Thread t = new Thread(r, "erasure-verify-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.rowsChecked = Counter.builder("grap.erasure_verify.rows")
+                .description("users_shadow rows checked by erasure verification").register(registry);
+        this.anomaliesFound = Counter.builder("grap.erasure_verify.anomalies")
+                .description("fields that failed erasure verification").register(registry);
+    }
+
+    // New run; INCREMENTAL needs a DONE run to continue from.
+    public Map<String, Object> start(boolean incremental, Integer chunkSize) {
+        List<Long> open = dao.openRuns();
+        if (!open.isEmpty()) {
+            throw new IllegalStateException("verification run " + open.get(0) + " is still running; cancel it first");
+        }
+        Map<String, Object> last = dao.lastDone();
+        if (incremental && last == null) {
+            throw new IllegalStateException("no completed verification run to continue from; run a FULL one first");
+        }
+        int size = (chunkSize == null || chunkSize <= 0) ? defaultChunkSize : Math.min(chunkSize, 100_000);
+        Long previous = (last == null) ? null : ((Number) last.get("run_id")).longValue();
+        long runId = dao.createRun(incremental, previous, size);
+        adopt(runId);
+        return status(runId);
+    }
+
+    public Map<String, Object> cancel(long runId) {
+        dao.cancel(runId);
+        return status(runId);
+    }
+
+    public Map<String, Object> resume(long runId) {
+        if (dao.resume(runId) == 0) {
+            throw new IllegalStateException("verification run " + runId + " cannot be resumed (state " + dao.runState(runId) + ")");
+        }
+        adopt(runId);
+        return status(runId);
+    }
+
+    public Map<String, Object> status(long runId) {
+        Map<String, Object> s = dao.status(runId);
+        if (runningRun.get() == runId) s.put("running_on_this_node", true);
+        return s;
+    }
+
+    public List<Map<String, Object>> runs(int limit) {
+        return dao.runs(limit);
+    }
+
+    public List<Map<String, Object>> anomalies(long runId, String kind, long afterUserId, int limit) {
+        return dao.anomalies(runId, kind, afterUserId, limit);
+    }
+
+    // The signed report, and whether its signature checks out under this node's key.
+    public Map<String, Object> report(long runId) {
+        Map<String, Object> r = new LinkedHashMap<>(dao.report(runId));
+        String text = (String) r.get("report_text");
+        String signature = (String) r.get("signature");
+        Boolean valid = null;
+        if (text != null && signature != null && signingKey.isSet()
+                && signingKey.fingerprint().equals(r.get("key_fingerprint"))) {
+            valid = MessageDigest.isEqual(signature.getBytes(StandardCharsets.US_ASCII),
+                    signingKey.hmacHex(text).getBytes(StandardCharsets.US_ASCII));
+        }
+        r.put("algorithm", signature == null ? null : "HmacSHA256");
+        r.put("signature_valid", valid);
+        return r;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        maintain();
+    }
+
+    // Join a RUNNING run this node is not working on (another node's, or one left by a restart).
+    @Scheduled(fixedDelayString = "${grap.erasure-verify.maintain-millis:30000}")
+    public void maintain() {
+        if (!enabled || runningRun.get() != 0) return;
+        try {
+            for (long runId : dao.openRuns()) {
+                adopt(runId);
+                break;
+            }
+        } catch (DataAccessException e) {
+            log.warn("erasure verification maintenance failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stopping = true;
+        coordinator.shutdown();
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+        coordinator.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    // ----------------------------
+    // Workers
+    // ----------------------------
+    private synchronized void adopt(long runId) {
+        if (!enabled || stopping) return;                 // another node's workers will take it
+        if (!runningRun.compareAndSet(0, runId)) return;  // this node already works a run
+        coordinator.execute(() -> run(runId));
+    }
+
+    private void run(long runId) {
+        long t0 = System.nanoTime();
+        try {
+            List<CompletableFuture<Void>> running = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                running.add(CompletableFuture.runAsync(() -> work(runId), pool));
+            }
+            CompletableFuture.allOf(running.toArray(CompletableFuture[]::new)).join();
+            if (!stopping && dao.complete(runId, reportIds, this::sign)) {
+                log.info("erasure verification run {} done in {} s", runId,
+                        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - t0));
+            }
+        } catch (RuntimeException e) {
+            log.warn("erasure verification run {} stopped: {}", runId, e.toString());
+        } finally {
+            runningRun.set(0);
+        }
+    }
+
+    private void work(long runId) {
+        String workerId = nodeId + "/" + Thread.currentThread().getName();
+        int failures = 0;
+        while (!stopping) {
+            ErasureVerifyDao.ChunkResult r;
+            try {
+                r = dao.checkChunk(runId, workerId);
+                failures = 0;
+            } catch (RuntimeException e) {
+                String error = (e instanceof DataAccessException dae)
+                        ? dae.getMostSpecificCause().getMessage()
+                        : e.toString();
+                if (++failures >= maxFailures) {
+                    log.warn("erasure verification run {} failed after {} attempts: {}", runId, failures, error);
+                    dao.fail(runId, error);
+                    return;
+                }
+                log.warn("erasure verification run {} chunk failed (attempt {}): {}", runId, failures, error);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(Math.min(30_000L, 500L << Math.min(failures, 6)));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            if (r == null) return;                        // nothing left to claim, or cancelled
+            rowsChecked.increment(r.rows());
+            anomaliesFound.increment(r.anomalies());
+        }
+    }
+
+    // ----------------------------
+    // Report
+    // ----------------------------
+
+    // "key: value" lines in the summary's order; lists comma-separated, the per-kind map
+    // expanded to "anomalies.KIND" lines, absent values "-". Timestamps are UTC ISO-8601.
+    private ErasureVerifyDao.Signed sign(Map<String, Object> summary) {
+        StringBuilder sb = new StringBuilder(REPORT_HEADER).append('\n');
+        summary.forEach((k, v) -> {
+            if (v instanceof Map<?, ?> m) {
+                m.forEach((kind, count) -> sb.append("anomalies.").append(kind).append(": ").append(count).append('\n'));
+            } else if (v instanceof List<?> l) {
+                sb.append(k).append(": ");
+                for (int i = 0; i < l.size(); i++) sb.append(i == 0 ? "" : ",").append(l.get(i));
+                sb.append('\n');
+            } else {
+                sb.append(k).append(": ").append(v == null ? "-" : v).append('\n');
+            }
+        });
+        String text = sb.toString();
+        return new ErasureVerifyDao.Signed(text, signingKey.isSet() ? signingKey.hmacHex(text) : null,
+                signingKey.fingerprint());
+    }
+}
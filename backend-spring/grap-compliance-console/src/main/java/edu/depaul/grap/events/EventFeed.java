@@ -0,0 +1,310 @@
+package edu.depaul.grap.events;
+
+import edu.depaul.grap.dao.EventOutboxDao;
+import edu.depaul.grap.dto.ApiResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// The change feed (sql/30_event_outbox.sql) as Server-Sent Events, plus a JSON page
+// for consumers that poll.
+//
+//  - one tail query per grap.events.tail-millis on this node, and only while someone is
+//    subscribed (feed_seq > last seen, on the feed_seq index; never the audit tables).
+//    New events go to every caught-up subscriber as one SSE message per tick: event
+//    "events", data a JSON array in feed_seq order, id the last seq in it
+//  - a subscriber that starts behind catches up from the database, up to
+//    catchup-batches batches per tick, before it shares the tail
+//  - resume point: Last-Event-ID, else ?after=, else the consumer's acked offset, else
+//    the head (new events only); an offset older than the oldest kept event is an error
+//  - a comment line every heartbeat-millis keeps proxies from closing an idle stream and
+//    finds clients that went away
+//
+// grap.events.delivery_lag times outbox insert -> sent from this node; grap.events.end_to_end
+// times outbox insert -> the consumer's ack, i.e. propagation including the consumer's
+// own processing. Both compare this node's clock with the database's.
+@Service
+public class EventFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(EventFeed.class);
+
+    private static final class Subscriber {
+        final SseEmitter emitter;
+        final String consumer;
+        volatile long cursor;
+        volatile long lastSentNanos = System.nanoTime();
+
+        Subscriber(SseEmitter emitter, String consumer, long cursor) {
+            this.emitter = emitter;
+            this.consumer = consumer;
+            this.cursor = cursor;
+        }
+    }
+
+    private final EventOutboxDao dao;
+    private final OutboxPublisher publisher;
+    private final ObjectMapper mapper;
+    private final boolean enabled;
+    private final int maxSubscribers;
+    private final int batchSize;
+    private final int catchupBatches;
+    private final long heartbeatNanos;
+    private final long timeoutMillis;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    // last feed_seq the tail has read (-1 = not tailing); tail thread only
+    private long tailHead = -1;
+
+    private final Timer deliveryLag;
+    private final Timer endToEnd;
+
+    public EventFeed(EventOutboxDao dao, OutboxPublisher publisher, ObjectMapper mapper, MeterRegistry registry,
+                     @Value("${grap.events.enabled:true}") boolean enabled,
+                     @Value("${grap.events.max-subscribers:100}") int maxSubscribers,
+                     @Value("${grap.events.batch-size:500}") int batchSize,
+                     @Value("${grap.events.catchup-batches:10}") int catchupBatches,
+                     @Value("${grap.events.heartbeat-millis:15000}") long heartbeatMillis,
+                     @Value("${grap.events.sse-timeout-millis:1800000}") long timeoutMillis) {
+        this.dao = dao;
+        this.publisher = publisher;
+        this.mapper = mapper;
+        this.enabled = enabled;
+        this.maxSubscribers = Math.max(1, maxSubscribers);
+        this.batchSize = Math.max(1, batchSize);
+        this.catchupBatches = Math.max(1, catchupBatches);
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, heartbeatMillis));
+        this.timeoutMillis = timeoutMillis;
+        this.deliveryLag = Timer.builder("grap.events.delivery_lag")
+                .description("outbox insert to SSE send on this node").register(registry);
+        this.endToEnd = Timer.builder("grap.events.end_to_end")
+                .description("outbox insert to consumer ack").register(registry);
+        Gauge.builder("grap.events.subscribers", subscribers, List::size)
+                .description("SSE feed subscribers on this node").register(registry);
+    }
+
+    // ----------------------------
+    // Consumers
+    // ----------------------------
+
+    // Errors are sent as one "error" event (an ApiResponse) before the stream closes:
+    // the response is already text/event-stream by the time the handler returns.
+    public SseEmitter subscribe(Long lastEventId, Long after, String consumer) {
+        if (!enabled) return failed("Event feed is disabled", "grap.events.enabled=false");
+        if (subscribers.size() >= maxSubscribers) {
+            return failed("Event feed is at capacity", maxSubscribers + " subscribers on this node; retry later");
+        }
+        long start;
+        try {
+            Long from = (lastEventId != null) ? lastEventId : (after != null) ? after : acked(consumer);
+            start = (from == null) ? dao.head() : checkedOffset(from);
+        } catch (IllegalArgumentException e) {
+            return failed("Invalid feed offset", e.getMessage());
+        } catch (DataAccessException e) {
+            return failed("Event feed failed", e.getMostSpecificCause().getMessage());
+        }
+
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber s = new Subscriber(emitter, consumer, start);
+        emitter.onCompletion(() -> subscribers.remove(s));
+        emitter.onTimeout(() -> subscribers.remove(s));
+        emitter.onError(e -> subscribers.remove(s));
+        subscribers.add(s);
+        send(s, SseEmitter.event().comment("after " + start));
+        return emitter;
+    }
+
+    // One page after the given offset (default: the consumer's acked offset, else the
+    // oldest kept event); next_after is the offset for the next call.
+    public Map<String, Object> page(Long after, String consumer, int limit) {
+        Long from = (after != null) ? after : acked(consumer);
+        long start = (from == null) ? Math.max(0, dao.earliest() - 1) : checkedOffset(from);
+        List<EventOutboxDao.Event> events = dao.read(start, limit);
+        List<JsonNode> out = new ArrayList<>(events.size());
+        for (EventOutboxDao.Event e : events) out.add(mapper.readTree(e.json()));
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("after", start);
+        m.put("limit", limit);
+        m.put("events", out);
+        m.put("next_after", events.isEmpty() ? start : events.get(events.size() - 1).seq());
+        return m;
+    }
+
+    // Stores the consumer's offset; records end-to-end latency of the acked event.
+    public Map<String, Object> ack(String consumer, long seq) {
+        checkConsumer(consumer);
+        Instant createdAt = dao.ack(consumer, seq);
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("consumer_id", consumer);
+        m.put("acked_seq", dao.ackedSeq(consumer));
+        if (createdAt != null) {
+            Duration d = Duration.between(createdAt, Instant.now());
+            endToEnd.record(d);
+            m.put("end_to_end_ms", d.toMillis());
+        }
+        return m;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("head", dao.head());
+        m.put("earliest", dao.earliest());
+        m.putAll(publisher.backlog());
+        List<Map<String, Object>> here = new ArrayList<>();
+        for (Subscriber s : subscribers) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("consumer_id", s.consumer);
+            r.put("cursor", s.cursor);
+            here.add(r);
+        }
+        m.put("subscribers_on_this_node", here);
+        m.put("consumers", dao.consumers());
+        return m;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Subscriber s : subscribers) s.emitter.complete();
+        subscribers.clear();
+    }
+
+    // ----------------------------
+    // Tail
+    // ----------------------------
+
+    @Scheduled(fixedDelayString = "${grap.events.tail-millis:200}")
+    public void tail() {
+        if (subscribers.isEmpty()) {
+            tailHead = -1;
+            return;
+        }
+        try {
+            if (tailHead < 0) tailHead = dao.head();
+            long before = tailHead;
+            List<EventOutboxDao.Event> fresh = new ArrayList<>();
+            for (int i = 0; i < catchupBatches; i++) {
+                List<EventOutboxDao.Event> b = dao.read(tailHead, batchSize);
+                fresh.addAll(b);
+                if (!b.isEmpty()) tailHead = b.get(b.size() - 1).seq();
+                if (b.size() < batchSize) break;
+            }
+
+            for (Subscriber s : subscribers) {
+                if (s.cursor < before) catchUp(s, before);
+                if (s.cursor >= before) deliver(s, after(fresh, s.cursor));
+                if (System.nanoTime() - s.lastSentNanos > heartbeatNanos) {
+                    send(s, SseEmitter.event().comment("head " + tailHead));
+                }
+            }
+        } catch (DataAccessException e) {
+            log.warn("event feed tail failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    private void catchUp(Subscriber s, long until) {
+        for (int i = 0; i < catchupBatches && s.cursor < until && subscribers.contains(s); i++) {
+            List<EventOutboxDao.Event> b = dao.read(s.cursor, batchSize);
+            deliver(s, b);
+            if (b.size() < batchSize) break;
+        }
+    }
+
+    private void deliver(Subscriber s, List<EventOutboxDao.Event> events) {
+        if (events.isEmpty()) return;
+        StringBuilder data = new StringBuilder(events.size() * 160).append('[');
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) data.append(',');
+            data.append(events.get(i).json());
+        }
+        data.append(']');
+        long last = events.get(events.size() - 1).seq();
+        if (!send(s, SseEmitter.event().id(Long.toString(last)).name("events")
+                .data(data.toString(), MediaType.APPLICATION_JSON))) {
+            return;
+        }
+        s.cursor = last;
+        Instant now = Instant.now();
+        for (EventOutboxDao.Event e : events) deliveryLag.record(Duration.between(e.createdAt(), now));
+    }
+
+    private boolean send(Subscriber s, SseEmitter.SseEventBuilder event) {
+        try {
+            s.emitter.send(event);
+            s.lastSentNanos = System.nanoTime();
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // client gone (or the emitter already completed)
+            subscribers.remove(s);
+            s.emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    // ----------------------------
+    // Helpers
+    // ----------------------------
+
+    private static List<EventOutboxDao.Event> after(List<EventOutboxDao.Event> events, long seq) {
+        int i = 0;
+        while (i < events.size() && events.get(i).seq() <= seq) i++;
+        return events.subList(i, events.size());
+    }
+
+    private Long acked(String consumer) {
+        if (consumer == null) return null;
+        checkConsumer(consumer);
+        return dao.ackedSeq(consumer);
+    }
+
+    private long checkedOffset(long from) {
+        long head = dao.head();
+        if (from < 0 || from > head) {
+            throw new IllegalArgumentException("offset " + from + " is outside the feed (head " + head + ")");
+        }
+        long earliest = dao.earliest();
+        if (earliest > 0 && from < earliest - 1) {
+            throw new IllegalArgumentException("offset " + from + " has been purged; the oldest kept event is "
+                    + earliest + " (resync from /api/admin/audit/deletion/export)");
+        }
+        return from;
+    }
+
+    private static void checkConsumer(String consumer) {
+        if (consumer == null || consumer.isBlank() || consumer.length() > 100) {
+            throw new IllegalArgumentException("consumer must be 1..100 characters");
+        }
+    }
+
+    private SseEmitter failed(String error, String details) {
+        SseEmitter emitter = new SseEmitter(0L);
+        try {
+            emitter.send(SseEmitter.event().name("error")
+                    .data(mapper.writeValueAsString(ApiResponse.err(error, details)), MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+}
@@ -0,0 +1,103 @@
+package edu.depaul.grap.events;
+
+import edu.depaul.grap.dao.EventOutboxDao;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Publishes event_outbox rows (sql/30_event_outbox.sql): every node calls
+// publish_outbox() every grap.events.publish-millis; the advisory lock in it lets one
+// through at a time, the others get nothing back. Each call numbers up to batch-size
+// events; a full batch is followed by another call straight away.
+//
+// grap.events.publish_lag times commit -> feed_seq per event (outbox created_at to
+// now, so it includes clock skew between this node and the database).
+@Service
+public class OutboxPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxPublisher.class);
+
+    private final EventOutboxDao dao;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int keepDays;
+    private final Timer publishLag;
+    private final AtomicLong unpublished = new AtomicLong();
+
+    public OutboxPublisher(EventOutboxDao dao, MeterRegistry registry,
+                           @Value("${grap.events.enabled:true}") boolean enabled,
+                           @Value("${grap.events.publish-batch:1000}") int batchSize,
+                           @Value("${grap.events.keep-days:30}") int keepDays) {
+        this.dao = dao;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.keepDays = Math.max(1, keepDays);
+        this.publishLag = Timer.builder("grap.events.publish_lag")
+                .description("outbox insert to feed_seq assignment").register(registry);
+        Gauge.builder("grap.events.unpublished", unpublished, AtomicLong::get)
+                .description("outbox events not yet published, as of the last backlog check").register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${grap.events.publish-millis:200}")
+    public void publish() {
+        if (!enabled) return;
+        try {
+            List<EventOutboxDao.Published> batch;
+            do {
+                batch = dao.publish(batchSize);
+                Instant now = Instant.now();
+                for (EventOutboxDao.Published p : batch) {
+                    publishLag.record(Duration.between(p.createdAt(), now));
+                }
+            } while (batch.size() == batchSize);
+        } catch (DataAccessException e) {
+            log.warn("event outbox publish failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    public Map<String, Object> backlog() {
+        Map<String, Object> m = dao.backlog();
+        unpublished.set(((Number) m.get("unpublished")).longValue());
+        return m;
+    }
+
+    @Scheduled(fixedDelayString = "${grap.metrics.gauge-refresh-millis:60000}")
+    public void refreshBacklog() {
+        if (!enabled) return;
+        try {
+            backlog();
+        } catch (DataAccessException e) {
+            log.warn("event outbox backlog check failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    // Published events older than keep-days go; a consumer further behind than that
+    // has to resync from the audit export.
+    @Scheduled(fixedDelayString = "${grap.events.purge-millis:3600000}")
+    public void purge() {
+        if (!enabled) return;
+        try {
+            int total = 0;
+            int n;
+            do {
+                n = dao.purge(keepDays, 10_000);
+                total += n;
+            } while (n == 10_000);
+            if (total > 0) log.info("event outbox: purged {} events older than {} days", total, keepDays);
+        } catch (DataAccessException e) {
+            log.warn("event outbox purge failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+}
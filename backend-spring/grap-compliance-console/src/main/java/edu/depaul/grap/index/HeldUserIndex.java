@@ -0,0 +1,154 @@
+package edu.depaul.grap.index;
+
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-process Roaring bitmap of user_ids with at least one active legal hold.
+//
+// Rebuilt from legal_holds at startup and every grap.hold-index.rebuild-millis
+// (which is also how holds placed through another node show up here), and kept
+// current between rebuilds by GrapDao's hold methods on this node.
+//
+// This is a screen, not the decision: erasure still runs the DB hold check.
+// A user placed on hold via another node can be missing until the next rebuild.
+@Component
+public class HeldUserIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(HeldUserIndex.class);
+
+    private final JdbcTemplate jdbc;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Roaring64NavigableMap held = new Roaring64NavigableMap();
+    private volatile boolean ready;
+    private volatile long lastRebuildMillis;
+
+    // incremental changes that arrive while a rebuild is reading legal_holds
+    private List<long[]> pending;
+
+    public HeldUserIndex(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @Scheduled(fixedDelayString = "${grap.hold-index.rebuild-millis:60000}")
+    public synchronized void rebuild() {
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        long t0 = System.currentTimeMillis();
+        Roaring64NavigableMap fresh = new Roaring64NavigableMap();
+        try {
+            jdbc.query("SELECT DISTINCT user_id FROM legal_holds WHERE released_at IS NULL",
+                    rs -> {
+                        fresh.addLong(rs.getLong(1));
+                    });
+        } catch (RuntimeException e) {
+            log.warn("held-user index rebuild failed: {}", e.getMessage());
+            lock.writeLock().lock();
+            try {
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (long[] op : pending) {
+                if (op[1] == 1) fresh.addLong(op[0]);
+                else fresh.removeLong(op[0]);
+            }
+            pending = null;
+            fresh.runOptimize();
+            held = fresh;
+            ready = true;
+            lastRebuildMillis = System.currentTimeMillis() - t0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // after a hold is placed (committed)
+    public void markHeld(long userId) {
+        apply(userId, true);
+    }
+
+    // after holds are released (committed); stillHeld = user has another active hold
+    public void markReleased(long userId, boolean stillHeld) {
+        if (!stillHeld) apply(userId, false);
+    }
+
+    private void apply(long userId, boolean add) {
+        lock.writeLock().lock();
+        try {
+            if (add) held.addLong(userId);
+            else held.removeLong(userId);
+            if (pending != null) pending.add(new long[]{userId, add ? 1 : 0});
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean isPossiblyHeld(long userId) {
+        lock.readLock().lock();
+        try {
+            return held.contains(userId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns the subset of userIds that the index currently marks as held.
+    public List<Long> screen(Collection<Long> userIds) {
+        List<Long> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Long id : userIds) {
+                if (id != null && held.contains(id)) hits.add(id);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return hits;
+    }
+
+    public Map<String, Object> stats() {
+        long card;
+        long bytes;
+        // cardinality caches are filled lazily, so not under the read lock
+        lock.writeLock().lock();
+        try {
+            card = held.getLongCardinality();
+            bytes = held.getLongSizeInBytes();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("ready", ready);
+        m.put("held_users", card);
+        m.put("bitmap_bytes", bytes);
+        m.put("bytes_per_million_held", card == 0 ? 0 : Math.round(bytes * 1_000_000.0 / card));
+        m.put("last_rebuild_ms", lastRebuildMillis);
+        return m;
+    }
+}
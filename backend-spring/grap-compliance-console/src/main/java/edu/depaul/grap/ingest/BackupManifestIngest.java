@@ -0,0 +1,131 @@
+package edu.depaul.grap.ingest;
+
+import edu.depaul.grap.catalog.BackupCatalog;
+import edu.depaul.grap.dao.BackupManifestDao;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+// Backup manifest -> backup catalog (sql/27_backup_manifest.sql).
+//
+// Two phases, both reported in backup_manifest_loads:
+//  1. read: ManifestReader decodes the stream (or the mmap'd file) into a Roaring
+//     bitmap, which dedupes and sorts as it goes; its size follows the id
+//     distribution (a few bytes per id at worst), not the manifest size
+//  2. load: the catalog adds the set chunk-size ids at a time (table format: COPY +
+//     upsert per chunk, committed as it goes; a failed load can simply be re-posted)
+// Manifests by path are read only from grap.manifest.dir (unset = disabled).
+@Service
+public class BackupManifestIngest {
+
+    private static final Logger log = LoggerFactory.getLogger(BackupManifestIngest.class);
+
+    private final BackupManifestDao dao;
+    private final BackupCatalog catalog;
+    private final int chunkSize;
+    private final long progressEvery;
+    private final Path manifestDir;
+
+    public BackupManifestIngest(BackupManifestDao dao,
+                                BackupCatalog catalog,
+                                @Value("${grap.manifest.chunk-size:500000}") int chunkSize,
+                                @Value("${grap.manifest.progress-every:1000000}") long progressEvery,
+                                @Value("${grap.manifest.dir:}") String manifestDir) {
+        this.dao = dao;
+        this.catalog = catalog;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.progressEvery = Math.max(1, progressEvery);
+        this.manifestDir = manifestDir.isBlank() ? null : Path.of(manifestDir).toAbsolutePath().normalize();
+    }
+
+    public Map<String, Object> ingest(long backupId, InputStream body, ManifestReader.Format format) throws IOException {
+        return run(backupId, "upload", format, sink -> ManifestReader.read(body, format, sink));
+    }
+
+    // name is relative to grap.manifest.dir
+    public Map<String, Object> ingestFile(long backupId, String name, ManifestReader.Format format) throws IOException {
+        if (manifestDir == null) throw new IllegalArgumentException("file manifests are disabled (grap.manifest.dir)");
+        Path file = manifestDir.resolve(name).normalize();
+        if (!file.startsWith(manifestDir) || !Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("no manifest " + name + " in " + manifestDir);
+        }
+        return run(backupId, "file:" + manifestDir.relativize(file), format,
+                sink -> ManifestReader.read(file, format, sink));
+    }
+
+    public Map<String, Object> status(long loadId) {
+        return dao.get(loadId);
+    }
+
+    public List<Map<String, Object>> loads(long backupId) {
+        return dao.forBackup(backupId, 50);
+    }
+
+    private interface Source {
+        void readInto(LongConsumer sink) throws IOException;
+    }
+
+    private Map<String, Object> run(long backupId, String source, ManifestReader.Format format, Source in)
+            throws IOException {
+        if (!dao.backupExists(backupId)) throw new IllegalArgumentException("no backup " + backupId);
+        long loadId = dao.start(backupId, source, format.name());
+        try {
+            long t0 = System.nanoTime();
+            Roaring64NavigableMap ids = new Roaring64NavigableMap();
+            long[] read = {0};
+            in.readInto(id -> {
+                ids.addLong(id);
+                if (++read[0] % progressEvery == 0) dao.reading(loadId, read[0]);
+            });
+            ids.runOptimize();
+            long unique = ids.getLongCardinality();
+            long t1 = System.nanoTime();
+            dao.loading(loadId, read[0], unique);
+            log.info("manifest load {} for backup {}: {} ids read, {} unique", loadId, backupId, read[0], unique);
+
+            long[] reported = {0};
+            BackupCatalog.BulkAdd r = catalog.addUsers(backupId, ids, chunkSize, done -> {
+                if (done - reported[0] >= progressEvery || done == unique) {
+                    dao.loaded(loadId, done);
+                    reported[0] = done;
+                }
+            });
+            long t2 = System.nanoTime();
+            dao.done(loadId, r.added(), r.refreshed());
+
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("load_id", loadId);
+            m.put("backup_id", backupId);
+            m.put("format", catalog.format());
+            m.put("ids_read", read[0]);
+            m.put("unique_ids", unique);
+            m.put("pairs_added", r.added());
+            m.put("pairs_refreshed", r.refreshed());
+            m.put("bitmap_bytes", ids.serializedSizeInBytes());
+            m.put("read_ms", (t1 - t0) / 1_000_000);
+            m.put("load_ms", (t2 - t1) / 1_000_000);
+            m.put("ids_per_sec", t2 > t0 ? Math.round(read[0] / ((t2 - t0) / 1e9)) : 0);
+            return m;
+        } catch (IOException | RuntimeException e) {
+            String msg = (e instanceof DataAccessException dae) ? dae.getMostSpecificCause().getMessage() : e.getMessage();
+            try {
+                dao.failed(loadId, msg);
+            } catch (DataAccessException ignored) {
+                // the original error is the one to report
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package edu.depaul.grap.ingest;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+
+// Backup manifest decoding: a list of user_ids, either
+//   TEXT   -> one decimal id per line (blank lines, CR and spaces around the id ignored;
+//             a second number on a line is an error)
+//   BINARY -> 8-byte big-endian signed ids, back to back
+// gzip is recognised by its magic bytes, whatever the Content-Type says.
+// Ids are handed to the sink one by one; nothing is buffered per id, so parsing
+// runs at memory speed and the caller decides how to keep them.
+public final class ManifestReader {
+
+    public enum Format { TEXT, BINARY }
+
+    private static final int BUFFER = 1 << 16;
+    // mmap window; a multiple of 8 so binary ids never straddle two windows
+    private static final long WINDOW = 1L << 30;
+
+    private ManifestReader() {
+    }
+
+    // Request body or any other stream.
+    public static void read(InputStream in, Format format, LongConsumer sink) throws IOException {
+        InputStream s = new BufferedInputStream(in, BUFFER);
+        if (isGzip(s)) s = new GZIPInputStream(s, BUFFER);
+
+        Decoder d = decoder(format, sink);
+        byte[] buf = new byte[BUFFER];
+        int n;
+        while ((n = s.read(buf)) > 0) {
+            d.feed(ByteBuffer.wrap(buf, 0, n));
+        }
+        d.finish();
+    }
+
+    // Local file: memory-mapped window by window unless it is gzip'd (then streamed).
+    public static void read(Path file, Format format, LongConsumer sink) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(2);
+            ch.read(head, 0);
+            if (head.position() == 2 && (head.get(0) & 0xff) == 0x1f && (head.get(1) & 0xff) == 0x8b) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    read(in, format, sink);
+                }
+                return;
+            }
+
+            Decoder d = decoder(format, sink);
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += WINDOW) {
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW, size - pos));
+                d.feed(map);
+            }
+            d.finish();
+        }
+    }
+
+    private static boolean isGzip(InputStream s) throws IOException {
+        s.mark(2);
+        int b0 = s.read();
+        int b1 = s.read();
+        s.reset();
+        return b0 == 0x1f && b1 == 0x8b;
+    }
+
+    private static Decoder decoder(Format format, LongConsumer sink) {
+        return format == Format.BINARY ? new BinaryDecoder(sink) : new TextDecoder(sink);
+    }
+
+    // Decoders keep their state across feed() calls, so buffers and mmap windows
+    // may split an id anywhere.
+    private interface Decoder {
+        void feed(ByteBuffer b);
+
+        void finish();
+    }
+
+    private static final class TextDecoder implements Decoder {
+        private final LongConsumer sink;
+        private long value;
+        private boolean inNumber;
+        // this line's id has ended (whitespace after it); only whitespace may follow
+        private boolean lineHasId;
+        private long line = 1;
+
+        TextDecoder(LongConsumer sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void feed(ByteBuffer b) {
+            while (b.hasRemaining()) {
+                byte c = b.get();
+                if (c >= '0' && c <= '9') {
+                    if (lineHasId) {
+                        throw new IllegalArgumentException("line " + line
+                                + ": more than one user_id (expected one decimal user_id per line)");
+                    }
+                    if (value > (Long.MAX_VALUE - (c - '0')) / 10) {
+                        throw new IllegalArgumentException("line " + line + ": user_id out of range");
+                    }
+                    value = value * 10 + (c - '0');
+                    inNumber = true;
+                } else if (c == '\n') {
+                    end();
+                    lineHasId = false;
+                    line++;
+                } else if (c == '\r' || c == ' ' || c == '\t') {
+                    if (inNumber) {
+                        end();
+                        lineHasId = true;
+                    }
+                } else {
+                    throw new IllegalArgumentException("line " + line + ": unexpected byte 0x"
+                            + Integer.toHexString(c & 0xff) + " (expected one decimal user_id per line)");
+                }
+            }
+        }
+
+        private void end() {
+            if (inNumber) sink.accept(value);
+            value = 0;
+            inNumber = false;
+        }
+
+        @Override
+        public void finish() {
+            end();
+        }
+    }
+
+    private static final class BinaryDecoder implements Decoder {
+        private final LongConsumer sink;
+        private long partial;
+        private int partialBytes;
+        private long count;
+
+        BinaryDecoder(LongConsumer sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void feed(ByteBuffer b) {
+            while (partialBytes > 0 && b.hasRemaining()) {
+                partial = (partial << 8) | (b.get() & 0xff);
+                if (++partialBytes == 8) emit(partial);
+            }
+            while (b.remaining() >= 8) {
+                emit(b.getLong());
+            }
+            while (b.hasRemaining()) {
+                partial = (partial << 8) | (b.get() & 0xff);
+                partialBytes++;
+            }
+        }
+
+        private void emit(long id) {
+            count++;
+            partial = 0;
+            partialBytes = 0;
+            if (id < 0) throw new IllegalArgumentException("id " + count + ": negative user_id " + id);
+            sink.accept(id);
+        }
+
+        @Override
+        public void finish() {
+            if (partialBytes != 0) {
+                throw new IllegalArgumentException("binary manifest length is not a multiple of 8 bytes");
+            }
+        }
+    }
+}
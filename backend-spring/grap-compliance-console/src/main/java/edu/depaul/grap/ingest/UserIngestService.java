@@ -0,0 +1,167 @@
+package edu.depaul.grap.ingest;
+
+import edu.depaul.grap.dao.GrapDao;
+import edu.depaul.grap.dto.CreateUserRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bulk user ingestion: splits input into chunks and hands each chunk to
+// GrapDao.createUsersBatch (one COPY + one transaction per chunk).
+@Service
+public class UserIngestService {
+
+    public enum Format { CSV, NDJSON }
+
+    private final GrapDao dao;
+    private final ObjectMapper mapper;
+    private final int chunkSize;
+
+    public UserIngestService(GrapDao dao,
+                             ObjectMapper mapper,
+                             @Value("${grap.ingest.chunk-size:5000}") int chunkSize) {
+        this.dao = dao;
+        this.mapper = mapper;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    // JSON array body: validate everything first, then load in chunks. Chunks commit
+    // one by one, so a failing chunk reports how many rows were already committed.
+    public Map<String, Object> ingest(List<CreateUserRequest> rows) {
+        for (int i = 0; i < rows.size(); i++) {
+            validate(rows.get(i), i + 1);
+        }
+
+        Progress p = new Progress();
+        for (int from = 0; from < rows.size(); from += chunkSize) {
+            p.flush(rows.subList(from, Math.min(rows.size(), from + chunkSize)));
+        }
+        return p.result();
+    }
+
+    // Streamed CSV (full_name,email,phone; header optional) or NDJSON body.
+    // Chunks are committed as they fill; a bad line or a failing chunk stops the
+    // load and the error reports how many rows were already committed.
+    public Map<String, Object> ingest(InputStream in, Format format) throws IOException {
+        Progress p = new Progress();
+        List<CreateUserRequest> chunk = new ArrayList<>(chunkSize);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        long lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            if (line.isBlank()) continue;
+            if (lineNo == 1 && format == Format.CSV && line.trim().toLowerCase().startsWith("full_name")) continue;
+
+            CreateUserRequest r;
+            try {
+                r = (format == Format.CSV) ? parseCsv(line) : mapper.readValue(line, CreateUserRequest.class);
+                validate(r, lineNo);
+            } catch (JacksonException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + lineNo + ": " + e.getMessage()
+                        + " (rows committed before this line: " + p.rows + ")", e);
+            }
+
+            chunk.add(r);
+            if (chunk.size() >= chunkSize) {
+                p.flush(chunk);
+                chunk.clear();
+            }
+        }
+        p.flush(chunk);
+        return p.result();
+    }
+
+    private static void validate(CreateUserRequest r, long n) {
+        if (r == null || r.full_name == null || r.full_name.isBlank()
+                || r.email == null || r.email.isBlank()) {
+            throw new IllegalArgumentException("row " + n + ": full_name and email are required");
+        }
+        r.full_name = r.full_name.trim();
+        r.email = r.email.trim();
+    }
+
+    // Minimal CSV: comma separated, optional double quotes, "" escapes a quote.
+    // Quoted fields may not span lines. Empty phone -> NULL.
+    static CreateUserRequest parseCsv(String line) {
+        List<String> f = new ArrayList<>(3);
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cur.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cur.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                f.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quoted field");
+        f.add(cur.toString());
+
+        if (f.size() < 2 || f.size() > 3) {
+            throw new IllegalArgumentException("expected full_name,email[,phone] but got " + f.size() + " fields");
+        }
+        CreateUserRequest r = new CreateUserRequest();
+        r.full_name = f.get(0);
+        r.email = f.get(1);
+        r.phone = (f.size() == 3 && !f.get(2).isBlank()) ? f.get(2) : null;
+        return r;
+    }
+
+    // rows/sec is measured over DB time only (parse time excluded) so it
+    // can be compared directly with POST /api/users in a loop.
+    private final class Progress {
+        long rows;
+        long batches;
+        long dbNanos;
+
+        void flush(List<CreateUserRequest> chunk) {
+            if (chunk.isEmpty()) return;
+            long t0 = System.nanoTime();
+            try {
+                rows += dao.createUsersBatch(chunk);
+            } catch (DataAccessException e) {
+                throw new IllegalStateException(e.getMostSpecificCause().getMessage()
+                        + " (rows committed before this batch: " + rows + ")", e);
+            }
+            dbNanos += System.nanoTime() - t0;
+            batches++;
+        }
+
+        Map<String, Object> result() {
+            double secs = dbNanos / 1_000_000_000.0;
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("rows_inserted", rows);
+            m.put("batches", batches);
+            m.put("batch_size", chunkSize);
+            m.put("elapsed_ms", dbNanos / 1_000_000);
+            m.put("rows_per_sec", secs > 0 ? Math.round(rows / secs) : 0);
+            return m;
+        }
+    }
+}
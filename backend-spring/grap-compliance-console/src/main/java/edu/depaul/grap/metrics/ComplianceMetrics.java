@@ -0,0 +1,118 @@
+package edu.depaul.grap.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compliance outcome counters, incremented by the DAOs after the work commits,
+// and database-state gauges.
+//
+// Gauges read cached values refreshed every grap.metrics.gauge-refresh-millis,
+// so a Prometheus scrape never runs a query. key_store counts are a full scan
+// of key_store (all partitions) and key_tombstones; raise the interval on large tables.
+@Component
+public class ComplianceMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(ComplianceMetrics.class);
+
+    private final JdbcTemplate jdbc;
+
+    private final Counter keysDestroyed;
+    private final Counter usersErased;
+    private final Counter erasuresBlocked;
+    private final Counter backupsProtected;
+    private final Counter rowsRestored;
+    private final Counter rowsDecrypted;
+    private final Counter rowsRedacted;
+
+    private final AtomicLong activeHolds = new AtomicLong();
+    private final AtomicLong holdsBehind = new AtomicLong();
+    private final AtomicLong liveKeys = new AtomicLong();
+    private final AtomicLong retiredKeys = new AtomicLong();
+    private final AtomicLong destroyedKeys = new AtomicLong();
+    private final AtomicLong compactedKeys = new AtomicLong();
+
+    public ComplianceMetrics(MeterRegistry registry, JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+        this.keysDestroyed = Counter.builder("grap.erasure.keys.destroyed")
+                .description("key_store rows destroyed").register(registry);
+        this.usersErased = Counter.builder("grap.erasure.users")
+                .description("users whose keys were destroyed").tag("outcome", "erased").register(registry);
+        this.erasuresBlocked = Counter.builder("grap.erasure.users")
+                .description("users whose keys were destroyed").tag("outcome", "blocked_by_hold").register(registry);
+        this.backupsProtected = Counter.builder("grap.backups.protected")
+                .description("backup runs marked protected for a legal hold").register(registry);
+        this.rowsRestored = Counter.builder("grap.restore.rows")
+                .description("users rows restored from users_shadow").tag("outcome", "restored").register(registry);
+        this.rowsDecrypted = Counter.builder("grap.restore.rows")
+                .description("users rows restored from users_shadow").tag("outcome", "decrypted").register(registry);
+        this.rowsRedacted = Counter.builder("grap.restore.rows")
+                .description("users rows restored from users_shadow").tag("outcome", "redacted").register(registry);
+
+        Gauge.builder("grap.holds.active", activeHolds, AtomicLong::get)
+                .description("legal holds not yet released").register(registry);
+        Gauge.builder("grap.holds.protection_behind", holdsBehind, AtomicLong::get)
+                .description("active legal holds whose protection watermark is below the newest backup")
+                .register(registry);
+        Gauge.builder("grap.keys", liveKeys, AtomicLong::get)
+                .description("key_store rows").tag("state", "live").register(registry);
+        Gauge.builder("grap.keys", retiredKeys, AtomicLong::get)
+                .description("key_store rows").tag("state", "retired").register(registry);
+        Gauge.builder("grap.keys", destroyedKeys, AtomicLong::get)
+                .description("key_store rows").tag("state", "destroyed").register(registry);
+        Gauge.builder("grap.keys", compactedKeys, AtomicLong::get)
+                .description("key_store rows").tag("state", "compacted").register(registry);
+    }
+
+    public void erased(long users, long keys) {
+        usersErased.increment(users);
+        keysDestroyed.increment(keys);
+    }
+
+    public void blockedByHold(long users) {
+        erasuresBlocked.increment(users);
+    }
+
+    public void backupsProtected(long n) {
+        backupsProtected.increment(n);
+    }
+
+    public void restored(long rows, long decrypted, long redacted) {
+        rowsRestored.increment(rows);
+        rowsDecrypted.increment(decrypted);
+        rowsRedacted.increment(redacted);
+    }
+
+    @Scheduled(fixedDelayString = "${grap.metrics.gauge-refresh-millis:60000}")
+    public void refreshGauges() {
+        try {
+            Map<String, Object> holds = jdbc.queryForMap(
+                    "SELECT count(*) AS active, count(*) FILTER (WHERE protected_through_backup_id < " +
+                            "(SELECT coalesce(max(backup_id), 0) FROM backup_runs)) AS behind " +
+                            "FROM legal_holds WHERE released_at IS NULL");
+            Map<String, Object> keys = jdbc.queryForMap(
+                    "SELECT count(*) FILTER (WHERE destroyed_at IS NULL AND retired_at IS NULL) AS live, " +
+                            "count(*) FILTER (WHERE destroyed_at IS NULL AND retired_at IS NOT NULL) AS retired, " +
+                            "count(*) FILTER (WHERE destroyed_at IS NOT NULL) AS destroyed FROM key_store");
+            // destroyed keys moved out of key_store into key_tombstones
+            Long compacted = jdbc.queryForObject(
+                    "SELECT coalesce(sum(cardinality(key_ids)), 0) FROM key_tombstones", Long.class);
+            activeHolds.set(((Number) holds.get("active")).longValue());
+            holdsBehind.set(((Number) holds.get("behind")).longValue());
+            liveKeys.set(((Number) keys.get("live")).longValue());
+            retiredKeys.set(((Number) keys.get("retired")).longValue());
+            destroyedKeys.set(((Number) keys.get("destroyed")).longValue());
+            compactedKeys.set(compacted == null ? 0 : compacted);
+        } catch (RuntimeException e) {
+            log.warn("compliance gauge refresh failed: {}", e.getMessage());
+        }
+    }
+}
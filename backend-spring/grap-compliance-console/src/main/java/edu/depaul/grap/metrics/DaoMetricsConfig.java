@@ -0,0 +1,56 @@
+package edu.depaul.grap.metrics;
+
+import edu.depaul.grap.dao.AppShadowDao;
+import edu.depaul.grap.dao.AuditExportDao;
+import edu.depaul.grap.dao.AuditPartitionDao;
+import edu.depaul.grap.dao.AuditSealDao;
+import edu.depaul.grap.dao.BackupManifestDao;
+import edu.depaul.grap.dao.BackupProtectionDao;
+import edu.depaul.grap.dao.ErasureJobDao;
+import edu.depaul.grap.dao.ErasureVerifyDao;
+import edu.depaul.grap.dao.EventOutboxDao;
+import edu.depaul.grap.dao.GrapDao;
+import edu.depaul.grap.dao.KeyStoreDao;
+import edu.depaul.grap.dao.ReencryptDao;
+import edu.depaul.grap.dao.RestoreDao;
+import edu.depaul.grap.dao.RetentionPlanDao;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.framework.AbstractAdvisingBeanPostProcessor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Set;
+
+// Times each public DAO method (see DaoTimer). The advice joins any proxy the
+// DAO already has (@Repository exception translation) instead of stacking a second one.
+// Calls a DAO makes to its own methods are not proxied, so only the outer call is timed.
+// grap.metrics.dao-timing=false turns it off.
+@Configuration(proxyBeanMethods = false)
+public class DaoMetricsConfig {
+
+    private static final Set<Class<?>> TIMED = Set.of(
+            GrapDao.class, AppShadowDao.class, RestoreDao.class, AuditExportDao.class, ErasureJobDao.class,
+            ReencryptDao.class, KeyStoreDao.class, AuditPartitionDao.class, BackupProtectionDao.class,
+            BackupManifestDao.class, RetentionPlanDao.class, ErasureVerifyDao.class, EventOutboxDao.class,
+            AuditSealDao.class);
+
+    // static + lazy registry lookup: a post-processor must not pull the meter
+    // registry (and everything it binds) into early initialization
+    @Bean
+    @ConditionalOnProperty(name = "grap.metrics.dao-timing", havingValue = "true", matchIfMissing = true)
+    static DaoTimingPostProcessor daoTimingPostProcessor(ObjectProvider<MeterRegistry> registry) {
+        return new DaoTimingPostProcessor(new DaoTimer(registry::getObject));
+    }
+
+    static final class DaoTimingPostProcessor extends AbstractAdvisingBeanPostProcessor {
+        DaoTimingPostProcessor(DaoTimer timer) {
+            this.advisor = new DefaultPointcutAdvisor(new ComposablePointcut(TIMED::contains), timer);
+            setBeforeExistingAdvisors(true);
+            setProxyTargetClass(true);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package edu.depaul.grap.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Times every public method of a DAO as grap.dao{dao, method, outcome}.
+//
+// Hot path cost is two nanoTime reads, one map lookup and one histogram
+// update; timers are created once per (method, outcome). Percentile buckets
+// are published so Prometheus can aggregate p99 across nodes.
+// Overhead is measured by DaoTimerOverheadBench in grap-benchmarks.
+public class DaoTimer implements MethodInterceptor {
+
+    private record Timers(Timer success, Timer error) {}
+
+    private final Supplier<MeterRegistry> registry;
+    private final ConcurrentHashMap<Method, Timers> timers = new ConcurrentHashMap<>();
+
+    public DaoTimer(Supplier<MeterRegistry> registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method m = invocation.getMethod();
+        if (m.getDeclaringClass() == Object.class) return invocation.proceed();
+
+        Timers t = timers.get(m);
+        if (t == null) t = timers.computeIfAbsent(m, this::create);
+
+        long t0 = System.nanoTime();
+        try {
+            Object r = invocation.proceed();
+            t.success().record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+            return r;
+        } catch (Throwable e) {
+            t.error().record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    private Timers create(Method m) {
+        MeterRegistry r = registry.get();
+        return new Timers(timer(r, m, "success"), timer(r, m, "error"));
+    }
+
+    private Timer timer(MeterRegistry r, Method m, String outcome) {
+        return Timer.builder("grap.dao")
+                .description("DAO method latency")
+                .tag("dao", m.getDeclaringClass().getSimpleName())
+                .tag("method", m.getName())
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(r);
+    }
+}
@@ -0,0 +1,282 @@
+package edu.depaul.grap.reencrypt;
+
+import edu.depaul.grap.crypto.AesGcmShadowCipher;
+import edu.depaul.grap.dao.ReencryptDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Rolling key rotation: rewrites stale users_shadow rows with today's keys and the
+// target cipher, in keyset-ordered batches (sql/22_reencrypt.sql).
+//
+//  - one job at a time, run by one worker on whichever node holds its claim; a claim
+//    whose heartbeat is stale-seconds old is taken over by another node (maintain)
+//  - the cursor is advanced in each batch's transaction, so a restart resumes after
+//    the last committed batch
+//  - rows/sec is a pace on rewritten rows, read from the job before every batch, so
+//    it can be changed while the job runs; 0 = unthrottled
+//  - pause / resume go through reencrypt_jobs.state, so they work from any node
+//  - a failing batch is retried with backoff; FAILED after max-failures in a row
+//  - retired keys are purged (destroyed) once retire-grace-days have passed
+@Service
+public class ReencryptEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(ReencryptEngine.class);
+
+    private final ReencryptDao dao;
+    private final boolean enabled;
+    private final int defaultTargetVersion;
+    private final int defaultMaxKeyAgeDays;
+    private final int defaultBatchSize;
+    private final int defaultRowsPerSec;
+    private final int defaultMaxPasses;
+    private final int staleSeconds;
+    private final int lockTimeoutMillis;
+    private final int maxFailures;
+    private final int retireGraceDays;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ExecutorService worker;
+    private volatile boolean stopping;
+
+    // job being worked on this node (0 = none) and its rate since this node took it
+    private final AtomicLong runningJob = new AtomicLong();
+    private volatile long runStartedNanos;
+    private volatile long runBaselineRows;
+
+    private final Counter reencrypted;
+    private final Counter skippedLocked;
+    private final Counter fieldsSkipped;
+    private final Counter keysCreated;
+    private final Counter keysRetired;
+    private final Counter keysPurged;
+
+    public ReencryptEngine(ReencryptDao dao, MeterRegistry registry,
+                           @Value("${grap.reencrypt.enabled:true}") boolean enabled,
+                           @Value("${grap.crypto.mode:db}") String cryptoMode,
+                           @Value("${grap.reencrypt.max-key-age-days:90}") int maxKeyAgeDays,
+                           @Value("${grap.reencrypt.batch-size:500}") int batchSize,
+                           @Value("${grap.reencrypt.rows-per-sec:1000}") int rowsPerSec,
+                           @Value("${grap.reencrypt.max-passes:3}") int maxPasses,
+                           @Value("${grap.reencrypt.stale-seconds:60}") int staleSeconds,
+                           @Value("${grap.reencrypt.lock-timeout-millis:2000}") int lockTimeoutMillis,
+                           @Value("${grap.reencrypt.max-failures:10}") int maxFailures,
+                           @Value("${grap.reencrypt.retire-grace-days:35}") int retireGraceDays) {
+        this.dao = dao;
+        this.enabled = enabled;
+        // rotate onto the cipher this node writes with
+        this.defaultTargetVersion = "app".equalsIgnoreCase(cryptoMode) ? AesGcmShadowCipher.ENC_VERSION : 1;
+        this.defaultMaxKeyAgeDays = Math.max(0, maxKeyAgeDays);
+        this.defaultBatchSize = Math.max(1, batchSize);
+        this.defaultRowsPerSec = Math.max(0, rowsPerSec);
+        this.defaultMaxPasses = Math.max(1, maxPasses);
+        this.staleSeconds = Math.max(10, staleSeconds);
+        this.lockTimeoutMillis = Math.max(1, lockTimeoutMillis);
+        this.maxFailures = Math.max(1, maxFailures);
+        this.retireGraceDays = Math.max(0, retireGraceDays);
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "reencrypt-worker");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.reencrypted = Counter.builder("grap.reencrypt.rows")
+                .description("users_shadow rows re-encrypted").tag("outcome", "reencrypted").register(registry);
+        this.skippedLocked = Counter.builder("grap.reencrypt.rows")
+                .description("users_shadow rows re-encrypted").tag("outcome", "skipped_locked").register(registry);
+        this.fieldsSkipped = Counter.builder("grap.reencrypt.fields.skipped")
+                .description("fields left as they were because their key is destroyed").register(registry);
+        this.keysCreated = Counter.builder("grap.reencrypt.keys")
+                .description("key_store rows touched by rotation").tag("action", "created").register(registry);
+        this.keysRetired = Counter.builder("grap.reencrypt.keys")
+                .description("key_store rows touched by rotation").tag("action", "retired").register(registry);
+        this.keysPurged = Counter.builder("grap.reencrypt.keys")
+                .description("key_store rows touched by rotation").tag("action", "purged").register(registry);
+    }
+
+    // New job; null arguments take the grap.reencrypt.* defaults.
+    public Map<String, Object> start(Integer targetVersion, Integer maxKeyAgeDays, Integer batchSize,
+                                     Integer rowsPerSec, Integer maxPasses) {
+        List<Long> open = dao.openJobs();
+        if (!open.isEmpty()) {
+            throw new IllegalStateException("re-encryption job " + open.get(0) + " is not finished; resume or pause it first");
+        }
+        int target = (targetVersion == null) ? defaultTargetVersion : targetVersion;
+        if (target != 1 && target != AesGcmShadowCipher.ENC_VERSION) {
+            throw new IllegalArgumentException("target_version must be 1 (pgcrypto) or 2 (AES-GCM)");
+        }
+        if (maxKeyAgeDays != null && maxKeyAgeDays < 0) throw new IllegalArgumentException("max_key_age_days must be >= 0");
+        if (rowsPerSec != null && rowsPerSec < 0) throw new IllegalArgumentException("rows_per_sec must be >= 0");
+
+        long jobId = dao.createJob(new ReencryptDao.JobSpec(
+                target,
+                (maxKeyAgeDays == null) ? defaultMaxKeyAgeDays : maxKeyAgeDays,
+                (batchSize == null || batchSize <= 0) ? defaultBatchSize : Math.min(batchSize, 10_000),
+                (rowsPerSec == null) ? defaultRowsPerSec : rowsPerSec,
+                (maxPasses == null || maxPasses <= 0) ? defaultMaxPasses : Math.min(maxPasses, 20)));
+        adopt(jobId);
+        return status(jobId);
+    }
+
+    public Map<String, Object> pause(long jobId) {
+        dao.pauseJob(jobId);
+        return status(jobId);
+    }
+
+    public Map<String, Object> resume(long jobId) {
+        if (dao.resumeJob(jobId) == 0) {
+            throw new IllegalStateException("re-encryption job " + jobId + " cannot be resumed (state " + dao.jobState(jobId) + ")");
+        }
+        adopt(jobId);
+        return status(jobId);
+    }
+
+    public Map<String, Object> throttle(long jobId, int rowsPerSec) {
+        if (rowsPerSec < 0) throw new IllegalArgumentException("rows_per_sec must be >= 0");
+        if (dao.setRowsPerSec(jobId, rowsPerSec) == 0) throw new IllegalArgumentException("no re-encryption job " + jobId);
+        return status(jobId);
+    }
+
+    public List<Map<String, Object>> jobs(int limit) {
+        return dao.jobs(limit);
+    }
+
+    // Job row plus progress: percent of the current pass by user_id, and on the node
+    // running it, the measured rows/sec and an ETA for the pass.
+    public Map<String, Object> status(long jobId) {
+        Map<String, Object> s = new LinkedHashMap<>(dao.jobStatus(jobId));
+        long cursor = ((Number) s.get("cursor_user_id")).longValue();
+        long max = ((Number) s.get("max_user_id")).longValue();
+        boolean running = "RUNNING".equals(s.get("state"));
+        double pct = "DONE".equals(s.get("state")) ? 100.0
+                : (max <= 0) ? 0.0 : Math.min(100.0, 100.0 * cursor / max);
+        s.put("pass_percent", Math.round(pct * 10) / 10.0);
+
+        Double rate = null;
+        if (running && runningJob.get() == jobId) {
+            double secs = (System.nanoTime() - runStartedNanos) / 1e9;
+            long rows = ((Number) s.get("rows_scanned")).longValue();
+            if (secs > 0) rate = (rows - runBaselineRows) / secs;
+            s.put("running_on_this_node", true);
+        }
+        s.put("scanned_per_sec", (rate == null) ? null : Math.round(rate));
+        s.put("eta_seconds", (rate != null && rate > 0 && max > cursor)
+                ? Math.round((max - cursor) / rate) : null);
+        return s;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        maintain();
+    }
+
+    // Take over orphaned jobs and purge retired keys past the grace period.
+    @Scheduled(fixedDelayString = "${grap.reencrypt.maintain-millis:30000}")
+    public void maintain() {
+        if (!enabled) return;
+        try {
+            if (runningJob.get() == 0) {
+                for (long jobId : dao.orphanedJobs(staleSeconds)) {
+                    log.info("taking over re-encryption job {}", jobId);
+                    adopt(jobId);
+                    break;
+                }
+            }
+            int purged;
+            while ((purged = dao.purgeRetiredKeys(retireGraceDays, 1000)) > 0) {
+                keysPurged.increment(purged);
+                if (purged < 1000 || stopping) break;
+            }
+        } catch (DataAccessException e) {
+            log.warn("re-encryption maintenance failed: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stopping = true;
+        worker.shutdown();
+        worker.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    // ----------------------------
+    // Worker
+    // ----------------------------
+    private synchronized void adopt(long jobId) {
+        if (!enabled || stopping) return;                 // another node's worker will take it
+        if (runningJob.get() != 0) return;                // this node already works a job
+        if (!dao.claim(jobId, nodeId, staleSeconds)) return;
+        runningJob.set(jobId);
+        runStartedNanos = System.nanoTime();
+        runBaselineRows = ((Number) dao.jobStatus(jobId).get("rows_scanned")).longValue();
+        worker.execute(() -> run(jobId));
+    }
+
+    private void run(long jobId) {
+        int failures = 0;
+        try {
+            while (!stopping) {
+                long t0 = System.nanoTime();
+                ReencryptDao.BatchResult r;
+                try {
+                    r = dao.reencryptBatch(jobId, nodeId, lockTimeoutMillis);
+                    failures = 0;
+                } catch (RuntimeException e) {
+                    String error = (e instanceof DataAccessException dae)
+                            ? dae.getMostSpecificCause().getMessage()
+                            : e.toString();
+                    if (++failures >= maxFailures) {
+                        log.warn("re-encryption job {} failed after {} attempts: {}", jobId, failures, error);
+                        dao.failJob(jobId, nodeId, error);
+                        return;
+                    }
+                    log.warn("re-encryption job {} batch failed (attempt {}): {}", jobId, failures, error);
+                    TimeUnit.MILLISECONDS.sleep(Math.min(30_000L, 500L << Math.min(failures, 6)));
+                    continue;
+                }
+                if (r == null) return;                    // paused, or claim taken over
+                if (r.scanned() == 0) {
+                    String state = dao.endPass(jobId, nodeId);
+                    if (!"RUNNING".equals(state)) {
+                        log.info("re-encryption job {} {}", jobId, state == null ? "claim lost" : state);
+                        return;
+                    }
+                    continue;
+                }
+
+                reencrypted.increment(r.reencrypted());
+                skippedLocked.increment(r.skippedLocked());
+                fieldsSkipped.increment(r.fieldsSkippedDestroyed());
+                keysCreated.increment(r.keysCreated());
+                keysRetired.increment(r.keysRetired());
+
+                if (r.rowsPerSec() > 0 && r.reencrypted() > 0) {
+                    long left = r.reencrypted() * 1_000_000_000L / r.rowsPerSec() - (System.nanoTime() - t0);
+                    if (left > 0) TimeUnit.NANOSECONDS.sleep(left);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("re-encryption job {} worker stopped: {}", jobId, e.toString());
+        } finally {
+            runningJob.set(0);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package edu.depaul.grap.restore;
+
+import edu.depaul.grap.dao.AppShadowDao;
+import edu.depaul.grap.dao.RestoreDao;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Restores users from users_shadow in user_id ranges (sql/17_chunked_restore.sql), or only
+// part of it: a user_id range, rows changed since a timestamp (sql/18_targeted_restore.sql),
+// or a list of user_ids.
+//
+//  - a job is split into ranges; workers claim ranges (FOR UPDATE SKIP LOCKED) and walk
+//    each one with keyset pagination, one transaction per chunk
+//  - the range cursor is advanced in the chunk's transaction, so a restart resumes after
+//    the last committed chunk; ranges of a dead worker are reclaimed once their
+//    heartbeat is grap.restore.stale-seconds old
+//  - pause / resume go through restore_jobs.state, so they work from any node
+@Service
+public class RestoreEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(RestoreEngine.class);
+
+    private static final int RANGES_PER_WORKER = 4;
+
+    // this node's current run of a job (for rows/sec)
+    private record Run(long startedNanos, long baselineRows, AtomicInteger workers, CompletableFuture<String> done) {}
+
+    private final RestoreDao dao;
+    private final ExecutorService pool;
+    private final int poolSize;
+    private final int defaultChunkSize;
+    private final int staleSeconds;
+    private final boolean resumeOnStartup;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<Long, Run> runs = new ConcurrentHashMap<>();
+    private volatile boolean stopping;
+
+    public RestoreEngine(RestoreDao dao,
+                         @Value("${grap.restore.workers:4}") int workers,
+                         @Value("${grap.restore.chunk-size:5000}") int chunkSize,
+                         @Value("${grap.restore.stale-seconds:60}") int staleSeconds,
+                         @Value("${grap.restore.resume-on-startup:true}") boolean resumeOnStartup) {
+        this.dao = dao;
+        this.poolSize = Math.max(1, workers);
+        this.defaultChunkSize = Math.max(1, chunkSize);
+        this.staleSeconds = Math.max(5, staleSeconds);
+        this.resumeOnStartup = resumeOnStartup;
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread t = new Thread(r, "restore-worker-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // New restore job. Only one RUNNING/PAUSED job at a time: resume or finish that one first.
+    public Map<String, Object> start(RestoreDao.JobSpec spec, Integer chunkSize, Integer workers) {
+        List<Long> open = dao.jobsInState("RUNNING");
+        if (open.isEmpty()) open = dao.jobsInState("PAUSED");
+        if (!open.isEmpty()) {
+            throw new IllegalStateException("restore job " + open.get(0) + " is not finished; resume or wait for it");
+        }
+        int chunk = (chunkSize == null || chunkSize <= 0) ? defaultChunkSize : Math.min(chunkSize, 100_000);
+        int w = (workers == null || workers <= 0) ? poolSize : Math.min(workers, poolSize);
+
+        long jobId = dao.createJob(spec, chunk, w, RANGES_PER_WORKER);
+        launch(jobId, chunk, w);
+        return status(jobId);
+    }
+
+    public Map<String, Object> startFull(Integer chunkSize, Integer workers) {
+        return start(new RestoreDao.JobSpec("FULL", null, null, null), chunkSize, workers);
+    }
+
+    // user_id BETWEEN fromUserId AND toUserId
+    public Map<String, Object> startRange(long fromUserId, long toUserId, Integer chunkSize, Integer workers) {
+        if (toUserId < fromUserId) throw new IllegalArgumentException("to_user_id must be >= from_user_id");
+        return start(new RestoreDao.JobSpec("RANGE", fromUserId, toUserId, null), chunkSize, workers);
+    }
+
+    // users_shadow rows with updated_at >= since
+    public Map<String, Object> startSince(OffsetDateTime since, Integer chunkSize, Integer workers) {
+        return start(new RestoreDao.JobSpec("SINCE", null, null, since), chunkSize, workers);
+    }
+
+    // Specific users, restored right away (no job): one transaction per chunk of ids.
+    public Map<String, Object> restoreUsers(List<Long> userIds) {
+        List<Long> ids = userIds.stream().filter(Objects::nonNull).distinct().sorted().toList();
+        long t0 = System.nanoTime();
+        AppShadowDao.RestoreCounts total = AppShadowDao.RestoreCounts.ZERO;
+        for (int i = 0; i < ids.size(); i += defaultChunkSize) {
+            total = total.plus(dao.restoreIds(ids.subList(i, Math.min(ids.size(), i + defaultChunkSize))));
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("mode", "IDS");
+        m.put("requested", ids.size());
+        m.put("rows_restored", total.rows());
+        m.put("decrypted", total.decrypted());
+        m.put("redacted", total.redacted());
+        m.put("not_in_shadow", ids.size() - total.rows());
+        m.put("elapsed_ms", (System.nanoTime() - t0) / 1_000_000);
+        return m;
+    }
+
+    // Blocking variant for POST /api/admin/restore-users
+    public Map<String, Object> runAndWait() {
+        Map<String, Object> s = startFull(null, null);
+        long jobId = ((Number) s.get("job_id")).longValue();
+        await(jobId);
+        return status(jobId);
+    }
+
+    public Map<String, Object> resume(long jobId) {
+        if (dao.resumeJob(jobId) == 0) {
+            throw new IllegalStateException("restore job " + jobId + " cannot be resumed (state " + dao.jobState(jobId) + ")");
+        }
+        Map<String, Object> s = dao.jobStatus(jobId);
+        launch(jobId, ((Number) s.get("chunk_size")).intValue(),
+                Math.min(poolSize, ((Number) s.get("workers")).intValue()));
+        return status(jobId);
+    }
+
+    // Workers stop after their current chunk and hand their ranges back.
+    public Map<String, Object> pause(long jobId) {
+        dao.pauseJob(jobId);
+        return status(jobId);
+    }
+
+    public Map<String, Object> status(long jobId) {
+        Map<String, Object> s = new LinkedHashMap<>(dao.jobStatus(jobId));
+        long rows = ((Number) s.get("rows_restored")).longValue();
+        Number est = (Number) s.get("total_estimate");
+
+        double rate = 0;
+        Run run = runs.get(jobId);
+        if (run != null) {
+            double secs = (System.nanoTime() - run.startedNanos()) / 1e9;
+            if (secs > 0) rate = (rows - run.baselineRows()) / secs;
+            s.put("workers_on_this_node", run.workers().get());
+        }
+        s.put("rows_per_sec", Math.round(rate));
+        if ("RUNNING".equals(s.get("state")) && est != null && rate > 0) {
+            s.put("eta_seconds", Math.max(0, Math.round((est.longValue() - rows) / rate)));
+        } else {
+            s.put("eta_seconds", null);
+        }
+        return s;
+    }
+
+    private void await(long jobId) {
+        Run run = runs.get(jobId);
+        if (run == null) return;
+        try {
+            run.done().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("restore job {} ended with {}", jobId, e.getCause().toString());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() {
+        if (!resumeOnStartup) return;
+        try {
+            for (long jobId : dao.jobsInState("RUNNING")) {
+                log.info("resuming interrupted restore job {}", jobId);
+                resume(jobId);
+            }
+        } catch (DataAccessException e) {
+            log.warn("could not resume restore jobs: {}", e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        stopping = true;
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    // ----------------------------
+    // Workers
+    // ----------------------------
+    private synchronized void launch(long jobId, int chunkSize, int workers) {
+        Run cur = runs.get(jobId);
+        if (cur != null && cur.workers().get() > 0) return; // already running here
+
+        Run run = new Run(System.nanoTime(), dao.rowsRestored(jobId), new AtomicInteger(workers), new CompletableFuture<>());
+        runs.put(jobId, run);
+        for (int i = 0; i < workers; i++) {
+            pool.execute(() -> work(jobId, chunkSize, run));
+        }
+    }
+
+    private void work(long jobId, int chunkSize, Run run) {
+        try {
+            while (!stopping && "RUNNING".equals(dao.jobState(jobId))) {
+                RestoreDao.Range r = dao.claimRange(jobId, nodeId, staleSeconds);
+                if (r != null) {
+                    runRange(r, chunkSize);
+                    continue;
+                }
+                // nothing claimable: done, unless another node holds ranges that may still go stale
+                if (!dao.hasRangesHeldElsewhere(jobId, nodeId)) return;
+                Thread.sleep(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("restore job {} worker stopped: {}", jobId, e.toString());
+        } finally {
+            if (run.workers().decrementAndGet() == 0) {
+                String state;
+                try {
+                    String fin = dao.finishJobIfComplete(jobId);
+                    state = (fin != null) ? fin : dao.jobState(jobId);
+                } catch (RuntimeException e) {
+                    state = "UNKNOWN";
+                }
+                run.done().complete(state);
+            }
+        }
+    }
+
+    private void runRange(RestoreDao.Range r, int chunkSize) {
+        RestoreDao.Range cur = r;
+        try {
+            while (true) {
+                if (stopping || !"RUNNING".equals(dao.jobState(r.jobId()))) {
+                    dao.releaseRange(r, nodeId);
+                    return;
+                }
+                RestoreDao.ChunkResult c = dao.restoreChunk(cur, chunkSize, nodeId);
+                if (c == null) return;
+                cur = c.next();
+            }
+        } catch (DataAccessException e) {
+            log.warn("restore job {} range {} failed after user_id {}: {}",
+                    r.jobId(), r.rangeNo(), cur.cursor(), e.getMostSpecificCause().getMessage());
+            dao.failRange(r, nodeId, e.getMostSpecificCause().getMessage());
+        } catch (IllegalStateException e) {
+            // range reclaimed by another worker after our heartbeat went stale
+            log.warn(e.getMessage());
+        } catch (RuntimeException e) {
+            log.warn("restore job {} range {} failed after user_id {}: {}", r.jobId(), r.rangeNo(), cur.cursor(), e.toString());
+            dao.failRange(r, nodeId, e.toString());
+        }
+    }
+}
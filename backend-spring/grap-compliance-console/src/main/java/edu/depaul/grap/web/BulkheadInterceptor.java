@@ -0,0 +1,83 @@
+package edu.depaul.grap.web;
+
+import edu.depaul.grap.dto.ApiResponse;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import tools.jackson.databind.ObjectMapper;
+
+// Admits each /api request through its workload's bulkhead.
+//
+// The permit is held until the response is complete: for StreamingResponseBody
+// handlers that is after the async body finishes (or fails / times out), not
+// when the controller method returns. The async re-dispatch reuses the permit.
+@Component
+public class BulkheadInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String PERMIT = BulkheadInterceptor.class.getName() + ".permit";
+
+    private final Bulkheads bulkheads;
+    private final ObjectMapper mapper;
+
+    public BulkheadInterceptor(Bulkheads bulkheads, ObjectMapper mapper) {
+        this.bulkheads = bulkheads;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws Exception {
+        if (!bulkheads.isEnabled() || request.getDispatcherType() == DispatcherType.ASYNC) return true;
+
+        Workload w = Workload.classify(request);
+        Bulkheads.Permit permit = bulkheads.enter(w);
+        if (permit == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            mapper.writeValue(response.getOutputStream(),
+                    ApiResponse.err("Server busy", w.name().toLowerCase() + " workload is at capacity; retry later"));
+            return false;
+        }
+        request.setAttribute(PERMIT, permit);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        if (!(request.getAttribute(PERMIT) instanceof Bulkheads.Permit permit)) return;
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                permit.release();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                permit.release();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                permit.release();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(PERMIT) instanceof Bulkheads.Permit permit) permit.release();
+    }
+}
@@ -0,0 +1,173 @@
+package edu.depaul.grap.web;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Per-workload concurrency limits for /api requests (see Workload, BulkheadInterceptor).
+//
+// Each workload gets a fair semaphore: a request takes a permit for its whole
+// lifetime (including a streamed body), waits up to wait-millis in a queue of
+// at most max-queue, and is otherwise turned away with 503. A queued restore
+// therefore waits behind other heavy work and never takes an interactive slot.
+//
+// Connection budget: every request holds at most one pooled connection at a
+// time; the restore engine, erasure queue, re-encryption worker, erasure
+// verification workers, protection check and audit verify threads add theirs, and every
+// @Scheduled thread one. Sized so that interactive + erasure + heavy + background
+// workers + scheduler threads fits the Hikari pool, no workload can make another
+// wait for a connection. Checked at startup.
+@Component
+public class Bulkheads {
+
+    private static final Logger log = LoggerFactory.getLogger(Bulkheads.class);
+
+    public final class Permit {
+        private final Bulkhead owner;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Bulkhead owner) {
+            this.owner = owner;
+        }
+
+        // idempotent: async completion and the final dispatch may both call it
+        public void release() {
+            if (released.compareAndSet(false, true)) owner.semaphore.release();
+        }
+    }
+
+    private final class Bulkhead {
+        final Workload workload;
+        final int permits;
+        final int maxQueue;
+        final long waitMillis;
+        final Semaphore semaphore;
+        final AtomicInteger queued = new AtomicInteger();
+        final Counter rejected;
+        final Timer wait;
+
+        Bulkhead(Workload workload, int permits, int maxQueue, long waitMillis, MeterRegistry registry) {
+            this.workload = workload;
+            this.permits = Math.max(1, permits);
+            this.maxQueue = Math.max(0, maxQueue);
+            this.waitMillis = Math.max(0, waitMillis);
+            this.semaphore = new Semaphore(this.permits, true);
+            String tag = workload.name().toLowerCase();
+            Gauge.builder("grap.bulkhead.active", this, b -> b.permits - b.semaphore.availablePermits())
+                    .tag("workload", tag).register(registry);
+            Gauge.builder("grap.bulkhead.queued", queued, AtomicInteger::get)
+                    .tag("workload", tag).register(registry);
+            this.rejected = Counter.builder("grap.bulkhead.rejected").tag("workload", tag).register(registry);
+            this.wait = Timer.builder("grap.bulkhead.wait").tag("workload", tag)
+                    .publishPercentileHistogram().register(registry);
+        }
+    }
+
+    private final boolean enabled;
+    private final Map<Workload, Bulkhead> bulkheads = new EnumMap<>(Workload.class);
+
+    public Bulkheads(MeterRegistry registry, DataSource dataSource,
+                     @Value("${grap.bulkhead.enabled:true}") boolean enabled,
+                     @Value("${grap.bulkhead.interactive.permits:24}") int interactivePermits,
+                     @Value("${grap.bulkhead.interactive.max-queue:200}") int interactiveQueue,
+                     @Value("${grap.bulkhead.interactive.wait-millis:2000}") long interactiveWait,
+                     @Value("${grap.bulkhead.erasure.permits:8}") int erasurePermits,
+                     @Value("${grap.bulkhead.erasure.max-queue:100}") int erasureQueue,
+                     @Value("${grap.bulkhead.erasure.wait-millis:30000}") long erasureWait,
+                     @Value("${grap.bulkhead.heavy.permits:2}") int heavyPermits,
+                     @Value("${grap.bulkhead.heavy.max-queue:20}") int heavyQueue,
+                     @Value("${grap.bulkhead.heavy.wait-millis:600000}") long heavyWait,
+                     @Value("${grap.restore.workers:4}") int restoreWorkers,
+                     @Value("${grap.erasure-queue.workers:2}") int erasureWorkers,
+                     @Value("${grap.reencrypt.enabled:true}") boolean reencryptWorker,
+                     @Value("${grap.erasure-verify.enabled:true}") boolean verifyEnabled,
+                     @Value("${grap.erasure-verify.workers:4}") int verifyWorkers,
+                     @Value("${grap.backup-protection.check-parallelism:4}") int checkThreads,
+                     @Value("${grap.audit-seal.verify-threads:4}") int auditVerifyThreads,
+                     @Value("${spring.task.scheduling.pool.size:1}") int schedulerThreads) {
+        this.enabled = enabled;
+        bulkheads.put(Workload.INTERACTIVE,
+                new Bulkhead(Workload.INTERACTIVE, interactivePermits, interactiveQueue, interactiveWait, registry));
+        bulkheads.put(Workload.ERASURE,
+                new Bulkhead(Workload.ERASURE, erasurePermits, erasureQueue, erasureWait, registry));
+        bulkheads.put(Workload.HEAVY,
+                new Bulkhead(Workload.HEAVY, heavyPermits, heavyQueue, heavyWait, registry));
+
+        if (enabled && dataSource instanceof HikariDataSource hikari) {
+            Map<String, Integer> parts = new LinkedHashMap<>();
+            for (Bulkhead b : bulkheads.values()) parts.put(b.workload.name().toLowerCase(), b.permits);
+            parts.put("restore", restoreWorkers);
+            parts.put("erasure-queue", erasureWorkers);
+            parts.put("reencrypt", reencryptWorker ? 1 : 0);
+            parts.put("erasure-verify", verifyEnabled ? Math.max(1, verifyWorkers) : 0);
+            parts.put("protection-check", Math.max(1, checkThreads));
+            parts.put("audit-verify", Math.max(1, auditVerifyThreads));
+            parts.put("scheduled", Math.max(1, schedulerThreads));
+            int budget = parts.values().stream().mapToInt(Integer::intValue).sum();
+            if (budget > hikari.getMaximumPoolSize()) {
+                log.warn("bulkhead connection budget {} {} exceeds Hikari maximum-pool-size {}: "
+                                + "workloads can still queue behind each other for connections",
+                        budget, parts, hikari.getMaximumPoolSize());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Blocks up to the workload's wait-millis (cheap on a virtual thread).
+    // Returns null when the queue is full or the wait ran out.
+    public Permit enter(Workload workload) throws InterruptedException {
+        Bulkhead b = bulkheads.get(workload);
+        if (b.semaphore.tryAcquire()) return new Permit(b);
+
+        if (b.queued.incrementAndGet() > b.maxQueue) {
+            b.queued.decrementAndGet();
+            b.rejected.increment();
+            return null;
+        }
+        long t0 = System.nanoTime();
+        try {
+            if (!b.semaphore.tryAcquire(b.waitMillis, TimeUnit.MILLISECONDS)) {
+                b.rejected.increment();
+                return null;
+            }
+        } finally {
+            b.queued.decrementAndGet();
+            b.wait.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        }
+        return new Permit(b);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        for (Bulkhead b : bulkheads.values()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("permits", b.permits);
+            m.put("active", b.permits - b.semaphore.availablePermits());
+            m.put("queued", b.queued.get());
+            m.put("max_queue", b.maxQueue);
+            m.put("wait_millis", b.waitMillis);
+            m.put("rejected", (long) b.rejected.count());
+            out.put(b.workload.name().toLowerCase(), m);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,21 @@
+package edu.depaul.grap.web;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    private final BulkheadInterceptor bulkheads;
+
+    public WebConfig(BulkheadInterceptor bulkheads) {
+        this.bulkheads = bulkheads;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // SSE feed connections stay open for their whole life; EventFeed caps them itself
+        registry.addInterceptor(bulkheads).addPathPatterns("/api/**").excludePathPatterns("/api/events/feed");
+    }
+}
@@ -0,0 +1,51 @@
+package edu.depaul.grap.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.List;
+
+// Which bulkhead a /api request runs in. Anything not listed is INTERACTIVE.
+public enum Workload {
+    INTERACTIVE,    // lookups, short listings, hold placement/release
+    ERASURE,        // key destruction
+    HEAVY;          // restore, truncate, protection, catalog work, manifests, verification, exports, streaming, bulk ingest, compaction, retention, audit sealing
+
+    private record Rule(String method, String pattern, Workload workload) {}
+
+    private static final AntPathMatcher PATHS = new AntPathMatcher();
+
+    private static final List<Rule> RULES = List.of(
+            new Rule("POST", "/api/users/*/destroy-keys", ERASURE),
+            new Rule("POST", "/api/admin/erasure/bulk", ERASURE),
+            new Rule("POST", "/api/admin/erasure/verify/**", HEAVY),
+            new Rule("POST", "/api/admin/restore-users/**", HEAVY),
+            new Rule("POST", "/api/admin/restore-jobs", HEAVY),
+            new Rule("POST", "/api/admin/truncate-users", HEAVY),
+            new Rule("POST", "/api/admin/users/*/protect-backups", HEAVY),
+            new Rule("POST", "/api/admin/backups/catalog/**", HEAVY),
+            new Rule("POST", "/api/admin/backups/protection/**", HEAVY),
+            new Rule("POST", "/api/admin/backups/*/manifest/**", HEAVY),
+            new Rule("POST", "/api/admin/retention/**", HEAVY),
+            new Rule("GET", "/api/admin/backups/catalog/**", HEAVY),
+            new Rule("GET", "/api/admin/backups/membership", HEAVY),
+            new Rule("GET", "/api/admin/audit/*/export", HEAVY),
+            new Rule("POST", "/api/admin/key-store/compact", HEAVY),
+            new Rule("POST", "/api/admin/audit/retention", HEAVY),
+            new Rule("POST", "/api/admin/audit/*/seal", HEAVY),
+            new Rule("POST", "/api/admin/audit/*/verify", HEAVY),
+            new Rule("POST", "/api/users/batch", HEAVY),
+            new Rule("POST", "/api/users/import", HEAVY)
+    );
+
+    public static Workload classify(HttpServletRequest req) {
+        // NDJSON listings hold a connection for the whole stream
+        if ("ndjson".equals(req.getParameter("format"))) return HEAVY;
+
+        String path = req.getRequestURI().substring(req.getContextPath().length());
+        for (Rule r : RULES) {
+            if (r.method().equals(req.getMethod()) && PATHS.match(r.pattern(), path)) return r.workload();
+        }
+        return INTERACTIVE;
+    }
+}
@@ -0,0 +1,116 @@
+package edu.depaul.grap;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Scratch PostgreSQL database with every sql/*.sql migration applied, for tests of
+// the logic that lives in SQL (triggers, claim queries, set-based functions).
+//
+// Enabled by -Dgrap.test.db-url (or GRAP_TEST_DB_URL), a JDBC URL of any database on a
+// server where that user may CREATE DATABASE, e.g.
+//   jdbc:postgresql://localhost:5432/postgres?user=postgres&password=...
+// A database grap_test_<pid> is created next to it once per JVM, migrated in file order,
+// and dropped on exit. Without the URL the tests that need it are skipped.
+public final class TestDatabase {
+
+    private static final Pattern URL = Pattern.compile("(jdbc:postgresql://[^/]+/)([^?]*)(\\?.*)?");
+
+    private static JdbcTemplate jdbc;
+    private static TransactionTemplate tx;
+
+    private TestDatabase() {
+    }
+
+    public static synchronized JdbcTemplate jdbc() {
+        String url = System.getProperty("grap.test.db-url", System.getenv("GRAP_TEST_DB_URL"));
+        assumeTrue(url != null && !url.isBlank(), "grap.test.db-url is not set");
+        if (jdbc == null) create(url);
+        return jdbc;
+    }
+
+    public static synchronized TransactionTemplate tx() {
+        jdbc();
+        return tx;
+    }
+
+    // Empties the given tables (CASCADE, identities restarted) with triggers off, so the
+    // append-only audit tables can be reset between tests as well.
+    public static void truncate(String... tables) {
+        tx().executeWithoutResult(status -> {
+            jdbc.execute("SET LOCAL session_replication_role = replica");
+            jdbc.execute("TRUNCATE " + String.join(", ", tables) + " RESTART IDENTITY CASCADE");
+        });
+    }
+
+    private static void create(String adminUrl) {
+        Matcher m = URL.matcher(adminUrl);
+        if (!m.matches()) throw new IllegalArgumentException("not a jdbc:postgresql URL: " + adminUrl);
+        String name = "grap_test_" + ProcessHandle.current().pid();
+        String query = m.group(3) == null ? "" : m.group(3);
+        String url = m.group(1) + name + query;
+
+        try (Connection c = DriverManager.getConnection(adminUrl); Statement s = c.createStatement()) {
+            s.execute("DROP DATABASE IF EXISTS " + name + " WITH (FORCE)");
+            s.execute("CREATE DATABASE " + name);
+        } catch (SQLException e) {
+            throw new IllegalStateException("cannot create " + name + ": " + e.getMessage(), e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try (Connection c = DriverManager.getConnection(adminUrl); Statement s = c.createStatement()) {
+                s.execute("DROP DATABASE IF EXISTS " + name + " WITH (FORCE)");
+            } catch (SQLException ignored) {
+                // best effort
+            }
+        }));
+
+        // simple query mode: each file goes to the server as one multi-statement script
+        String script = url + (query.isEmpty() ? "?" : "&") + "preferQueryMode=simple";
+        try (Connection c = DriverManager.getConnection(script); Statement s = c.createStatement()) {
+            for (Path f : migrations()) {
+                try {
+                    s.execute(Files.readString(f));
+                } catch (SQLException e) {
+                    throw new IllegalStateException(f.getFileName() + ": " + e.getMessage(), e);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("cannot migrate " + name + ": " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        DriverManagerDataSource ds = new DriverManagerDataSource(url);
+        jdbc = new JdbcTemplate(ds);
+        tx = new TransactionTemplate(new DataSourceTransactionManager(ds));
+    }
+
+    // <repo>/sql/*.sql, found by walking up from the working directory
+    private static List<Path> migrations() throws IOException {
+        for (Path d = Path.of("").toAbsolutePath(); d != null; d = d.getParent()) {
+            Path sql = d.resolve("sql");
+            if (Files.isRegularFile(sql.resolve("01_schema_active.sql"))) {
+                try (Stream<Path> files = Files.list(sql)) {
+                    return files.filter(f -> f.getFileName().toString().endsWith(".sql")).sorted().toList();
+                }
+            }
+        }
+        throw new IllegalStateException("sql/ migrations not found above " + Path.of("").toAbsolutePath());
+    }
+}
@@ -0,0 +1,120 @@
+package edu.depaul.grap.audit;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AuditHashingTest {
+
+    // sub-microsecond digits are dropped, as the database stores them
+    @Test
+    void canonicalTagsAndWidths() {
+        OffsetDateTime t = OffsetDateTime.of(1970, 1, 1, 0, 0, 1, 2_999, ZoneOffset.UTC);
+        byte[] got = AuditHashing.canonical(new Object[]{null, 1L, 2, true, "\u00e9", t});
+
+        ByteBuffer want = ByteBuffer.allocate(1 + 9 + 5 + 2 + 7 + 9)
+                .put((byte) 0)
+                .put((byte) 1).putLong(1L)
+                .put((byte) 2).putInt(2)
+                .put((byte) 3).put((byte) 1)
+                .put((byte) 4).putInt(2).put((byte) 0xC3).put((byte) 0xA9)
+                .put((byte) 5).putLong(1_000_002L);
+        assertArrayEquals(want.array(), got);
+    }
+
+    // same instant, different offsets: the encoding is UTC micros
+    @Test
+    void timestampsEncodeTheInstant() {
+        OffsetDateTime utc = OffsetDateTime.of(2026, 10, 18, 12, 0, 0, 123_456_789, ZoneOffset.UTC);
+        OffsetDateTime cet = utc.withOffsetSameInstant(ZoneOffset.ofHours(2));
+        assertArrayEquals(AuditHashing.canonical(new Object[]{utc}), AuditHashing.canonical(new Object[]{cet}));
+
+        OffsetDateTime before = OffsetDateTime.of(1969, 12, 31, 23, 59, 59, 500_000_000, ZoneOffset.UTC);
+        assertArrayEquals(ByteBuffer.allocate(9).put((byte) 5).putLong(-500_000L).array(),
+                AuditHashing.canonical(new Object[]{before}));
+    }
+
+    // a type tag keeps equal-looking values of different types apart
+    @Test
+    void typesDoNotCollide() {
+        assertFalse(Arrays.equals(AuditHashing.canonical(new Object[]{1L}), AuditHashing.canonical(new Object[]{1})));
+        assertFalse(Arrays.equals(AuditHashing.canonical(new Object[]{"a", "b"}),
+                AuditHashing.canonical(new Object[]{"ab", ""})));
+        assertFalse(Arrays.equals(AuditHashing.canonical(new Object[]{null}),
+                AuditHashing.canonical(new Object[]{false})));
+    }
+
+    @Test
+    void rejectsUnknownTypes() {
+        assertThrows(IllegalArgumentException.class, () -> AuditHashing.canonical(new Object[]{1.5d}));
+    }
+
+    @Test
+    void emptyRootIsZero() {
+        assertArrayEquals(new byte[AuditHashing.HASH_BYTES], AuditHashing.merkleRoot(List.of()));
+    }
+
+    @Test
+    void singleLeafIsItsOwnRoot() {
+        byte[] a = leaf("a");
+        assertArrayEquals(a, AuditHashing.merkleRoot(List.of(a)));
+    }
+
+    // an odd node is carried up unhashed, not paired with itself
+    @Test
+    void oddNodeIsCarriedUp() {
+        byte[] a = leaf("a"), b = leaf("b"), c = leaf("c"), d = leaf("d"), e = leaf("e");
+
+        assertArrayEquals(node(node(a, b), c), AuditHashing.merkleRoot(List.of(a, b, c)));
+        assertArrayEquals(node(node(node(a, b), node(c, d)), e), AuditHashing.merkleRoot(List.of(a, b, c, d, e)));
+        assertFalse(Arrays.equals(AuditHashing.merkleRoot(List.of(a, b, c)),
+                AuditHashing.merkleRoot(List.of(a, b, c, c))));
+    }
+
+    @Test
+    void hashesAreDomainSeparated() {
+        byte[] row = AuditHashing.canonical(new Object[]{1L});
+        assertFalse(Arrays.equals(AuditHashing.leaf("deletion_audit", row), AuditHashing.leaf("hold_audit", row)));
+
+        byte[] a = leaf("a"), b = leaf("b");
+        assertFalse(Arrays.equals(AuditHashing.chain(a, b), node(a, b)));
+        assertFalse(Arrays.equals(AuditHashing.chain(a, b), AuditHashing.chain(b, a)));
+    }
+
+    @Test
+    void blockHashCoversEveryField() {
+        byte[] z = new byte[AuditHashing.HASH_BYTES], r = leaf("r");
+        byte[] h = AuditHashing.blockHash("deletion_audit", 1, 1, 10, z, z, r, r);
+        assertEquals(AuditHashing.HASH_BYTES, h.length);
+        assertFalse(Arrays.equals(h, AuditHashing.blockHash("deletion_audit", 2, 1, 10, z, z, r, r)));
+        assertFalse(Arrays.equals(h, AuditHashing.blockHash("deletion_audit", 1, 1, 11, z, z, r, r)));
+        assertFalse(Arrays.equals(h, AuditHashing.blockHash("deletion_audit", 1, 1, 10, z, r, r, r)));
+        assertFalse(Arrays.equals(h, AuditHashing.blockHash("hold_audit", 1, 1, 10, z, z, r, r)));
+    }
+
+    private static byte[] leaf(String s) {
+        return AuditHashing.leaf("t", AuditHashing.canonical(new Object[]{s}));
+    }
+
+    private static byte[] node(byte[] left, byte[] right) {
+        try {
+            MessageDigest d = MessageDigest.getInstance("SHA-256");
+            d.update((byte) 0x01);
+            d.update(left);
+            return d.digest(right);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package edu.depaul.grap.audit;
+
+import edu.depaul.grap.TestDatabase;
+import edu.depaul.grap.dao.AuditExportDao.AuditTable;
+import edu.depaul.grap.dao.AuditSealDao;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Sealing, verification across archived months, and the append-only guards of
+// sql/31_audit_hash_chain.sql, against the schema.
+class AuditSealerTest {
+
+    private static final AuditTable T = AuditTable.DELETION;
+
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void reset() {
+        jdbc = TestDatabase.jdbc();
+        TestDatabase.truncate("deletion_audit", "audit_seal_blocks", "audit_seal_verifications",
+                "audit_archive_log", "audit_archive_blocks", "event_outbox");
+        TestDatabase.tx().executeWithoutResult(status -> {
+            jdbc.execute("SET LOCAL session_replication_role = replica");
+            jdbc.execute("DROP SCHEMA audit_archive CASCADE");
+            jdbc.execute("CREATE SCHEMA audit_archive");
+            jdbc.update("""
+                UPDATE audit_seal_state
+                SET last_seq = 0, last_chain_hash = DEFAULT, block_no = 0, block_last_seq = 0,
+                    block_chain_hash = DEFAULT, block_hash = DEFAULT, sealed_at = NULL
+                """);
+        });
+        jdbc.queryForList("SELECT ensure_audit_partitions('deletion_audit', " +
+                "(date_trunc('month', now()) - interval '3 months')::date, CURRENT_DATE)");
+    }
+
+    private AuditSealer sealer(int blockSize) {
+        return new AuditSealer(new AuditSealDao(jdbc, TestDatabase.tx()), new SimpleMeterRegistry(),
+                true, blockSize, 100, 20000, 2);
+    }
+
+    // a row on day 2 of the month monthsAgo months back
+    private void row(long userId, int monthsAgo) {
+        jdbc.update("INSERT INTO deletion_audit(user_id, action, reason, legal_hold_active, occurred_at) " +
+                "VALUES (?, 'CRYPTO_ERASE_SUCCESS', 'test', false, " +
+                "date_trunc('month', now()) - ? * interval '1 month' + interval '1 day')", userId, monthsAgo);
+    }
+
+    // detaches the oldest month before last month
+    private void archiveOldestMonth() {
+        assertEquals(1, jdbc.queryForList("SELECT * FROM archive_audit_partitions('deletion_audit', 2, 1)").size());
+    }
+
+    // changes made behind the triggers' back, as a table owner could
+    private void tamper(String sql, Object... args) {
+        TestDatabase.tx().executeWithoutResult(status -> {
+            jdbc.execute("SET LOCAL session_replication_role = replica");
+            jdbc.update(sql, args);
+        });
+    }
+
+    private static int n(Map<String, Object> m, String key) {
+        return ((Number) m.get(key)).intValue();
+    }
+
+    private static String failures(Map<String, Object> m) {
+        return String.valueOf(m.get("failures"));
+    }
+
+    @Test
+    void untouchedChainVerifies() {
+        for (long u = 1; u <= 5; u++) row(u, 0);
+        AuditSealer s = sealer(2);
+        s.sealNow(T);
+
+        Map<String, Object> v = s.verify(T, null, null);
+
+        assertEquals(true, v.get("ok"), failures(v));
+        assertEquals(2, n(v, "blocks_checked"));
+        assertEquals(5L, ((Number) v.get("rows_checked")).longValue());
+    }
+
+    @Test
+    void modifiedRowFailsItsBlock() {
+        for (long u = 1; u <= 4; u++) row(u, 0);
+        AuditSealer s = sealer(2);
+        s.sealNow(T);
+        tamper("UPDATE deletion_audit SET reason = 'edited' WHERE user_id = 3");
+
+        Map<String, Object> v = s.verify(T, null, null);
+
+        assertEquals(false, v.get("ok"));
+        assertTrue(failures(v).contains("block_no=2") && failures(v).contains("was modified"), failures(v));
+    }
+
+    // a block wholly in an archived month, with none of its rows left, is not a failure
+    @Test
+    void whollyArchivedBlockIsSkipped() {
+        row(1, 3);
+        row(2, 3);
+        row(3, 2);
+        row(4, 2);
+        AuditSealer s = sealer(2);
+        s.sealNow(T);
+        archiveOldestMonth();
+
+        Map<String, Object> v = s.verify(T, null, null);
+
+        assertEquals(true, v.get("ok"), failures(v));
+        assertEquals(1, n(v, "blocks_archived"));
+        assertEquals(0, n(v, "blocks_partly_archived"));
+        assertEquals(1, n(v, "blocks_checked"));
+        assertEquals(List.of(2L), jdbc.queryForList("SELECT row_count FROM audit_archive_blocks", Long.class));
+    }
+
+    // a block that only reaches into an archived month has its remaining rows checked
+    @Test
+    void partlyArchivedBlockChecksTheRowsLeft() {
+        row(1, 3);
+        row(2, 3);
+        row(3, 2);
+        row(4, 2);
+        AuditSealer s = sealer(4);
+        s.sealNow(T);
+        archiveOldestMonth();
+
+        Map<String, Object> v = s.verify(T, null, null);
+        assertEquals(true, v.get("ok"), failures(v));
+        assertEquals(0, n(v, "blocks_archived"));
+        assertEquals(1, n(v, "blocks_partly_archived"));
+        assertEquals(2L, ((Number) v.get("rows_checked")).longValue());
+
+        tamper("UPDATE deletion_audit SET keys_affected = 9 WHERE user_id = 4");
+        v = s.verify(T, null, null);
+        assertEquals(false, v.get("ok"));
+        assertTrue(failures(v).contains("was modified"), failures(v));
+    }
+
+    // rows missing beyond what archiving took are a failure, not an archived block
+    @Test
+    void rowsDeletedNextToAnArchivedMonthAreFound() {
+        row(1, 3);
+        row(2, 3);
+        row(3, 2);
+        row(4, 2);
+        AuditSealer s = sealer(4);
+        s.sealNow(T);
+        archiveOldestMonth();
+        tamper("DELETE FROM deletion_audit WHERE user_id IN (3, 4)");
+
+        Map<String, Object> v = s.verify(T, null, null);
+
+        assertEquals(false, v.get("ok"));
+        assertEquals(0, n(v, "blocks_archived"));
+        assertTrue(failures(v).contains("0 of 4 rows present, 2 archived"), failures(v));
+    }
+
+    @Test
+    void auditTablesRefuseTruncate() {
+        row(1, 0);
+        row(2, 0);
+        sealer(2).sealNow(T);
+        String partition = "deletion_audit_p" + jdbc.queryForObject("SELECT to_char(now(), 'YYYYMM')", String.class);
+
+        for (String table : List.of("deletion_audit", partition, "backup_protection_audit",
+                "audit_seal_blocks", "audit_archive_log", "audit_archive_blocks")) {
+            DataAccessException e = assertThrows(DataAccessException.class,
+                    () -> jdbc.execute("TRUNCATE " + table + " CASCADE"), table);
+            assertTrue(e.getMostSpecificCause().getMessage().contains("cannot be truncated"), table);
+        }
+        assertEquals(2, jdbc.queryForObject("SELECT count(*) FROM deletion_audit", Integer.class));
+        assertEquals(1, jdbc.queryForObject("SELECT count(*) FROM audit_seal_blocks", Integer.class));
+
+        // the console's reset (TRUNCATE users CASCADE) does not reach them
+        jdbc.execute("TRUNCATE users RESTART IDENTITY CASCADE");
+    }
+
+    // new monthly partitions get the guard as well
+    @Test
+    void newPartitionRefusesTruncate() {
+        jdbc.queryForList("SELECT ensure_audit_partitions('deletion_audit', " +
+                "(date_trunc('month', now()) + interval '6 months')::date, " +
+                "(date_trunc('month', now()) + interval '6 months')::date)");
+        String partition = "deletion_audit_p" + jdbc.queryForObject(
+                "SELECT to_char(now() + interval '6 months', 'YYYYMM')", String.class);
+
+        assertThrows(DataAccessException.class, () -> jdbc.execute("TRUNCATE " + partition));
+    }
+
+    @Test
+    void archiveLogOnlyRecordsTheDrop() {
+        row(1, 3);
+        row(2, 3);
+        sealer(2).sealNow(T);
+        archiveOldestMonth();
+
+        assertThrows(DataAccessException.class, () -> jdbc.update("UPDATE audit_archive_log SET row_count = 0"));
+        assertThrows(DataAccessException.class, () -> jdbc.update("DELETE FROM audit_archive_log"));
+        assertThrows(DataAccessException.class, () -> jdbc.update("UPDATE audit_archive_blocks SET row_count = 0"));
+        assertThrows(DataAccessException.class, () -> jdbc.update("DELETE FROM audit_archive_blocks"));
+
+        assertEquals(1, jdbc.queryForObject("SELECT drop_archived_audit_partitions('0 seconds')", Integer.class));
+        assertThrows(DataAccessException.class, () -> jdbc.update("UPDATE audit_archive_log SET dropped_at = now()"));
+        assertEquals(2L, jdbc.queryForObject("SELECT row_count FROM audit_archive_log", Long.class));
+    }
+}
@@ -0,0 +1,133 @@
+package edu.depaul.grap.catalog;
+
+import edu.depaul.grap.dao.RetentionPlanDao;
+import edu.depaul.grap.dao.RetentionPlanDao.BackupRow;
+import edu.depaul.grap.dao.RetentionPlanDao.HoldRow;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RetentionPlannerTest {
+
+    private static final RetentionPlanner.Policy POLICY = new RetentionPlanner.Policy(10, 1);
+    private static final RetentionPlanner.Scenario NONE = new RetentionPlanner.Scenario(List.of(), List.of());
+
+    // Oldest first; with max_age_days=10, keep_full=1 and user 42 held (hold 100):
+    //   1 INCR  40d  user 9     EXPIRABLE    (its FULL is gone)
+    //   2 FULL  31d             CHAIN        (restores 4)
+    //   3 INCR  30d             CHAIN
+    //   4 INCR  29d  user 42    HELD
+    //   5 FULL  20d             CHAIN        (restores 6)
+    //   6 INCR  15d  manual     MANUAL
+    //   7 FULL   2d             LATEST_FULL
+    //   8 INCR   1d             RECENT
+    private final List<BackupRow> backups = new ArrayList<>();
+    private final List<ImmutableRoaringBitmap> members = new ArrayList<>();
+
+    RetentionPlannerTest() {
+        backup(1, false, 40, false, 9);
+        backup(2, true, 31, false);
+        backup(3, false, 30, false);
+        backup(4, false, 29, false, 42);
+        backup(5, true, 20, false);
+        backup(6, false, 15, true);
+        backup(7, true, 2, false);
+        backup(8, false, 1, false);
+    }
+
+    private void backup(long id, boolean full, int daysAgo, boolean manual, int... users) {
+        backups.add(new BackupRow(id, full, Instant.now().minus(daysAgo, ChronoUnit.DAYS), manual));
+        members.add(MutableRoaringBitmap.bitmapOf(users));
+    }
+
+    private RetentionPlanner planner(HoldRow... holds) {
+        RetentionPlanDao dao = mock(RetentionPlanDao.class);
+        when(dao.load()).thenReturn(new RetentionPlanDao.Loaded(Instant.now(), backups, List.of(holds), members));
+        return new RetentionPlanner(dao, 35, 2);
+    }
+
+    @Test
+    void firstApplicableReasonPerBackup() {
+        Map<String, Object> m = planner(new HoldRow(100, 42)).plan(POLICY, NONE, false);
+
+        assertEquals(8, m.get("backups_considered"));
+        assertEquals(List.of(1L), m.get("expirable"));
+        assertEquals(Map.of("MANUAL", 1, "HELD", 1, "LATEST_FULL", 1, "RECENT", 1, "CHAIN", 3), m.get("kept"));
+        assertFalse(m.containsKey("newly_expirable"));
+    }
+
+    @Test
+    void withoutHoldsAgeDecides() {
+        RetentionPlanner p = planner();
+
+        Map<String, Object> m = p.plan(new RetentionPlanner.Policy(35, 1), NONE, false);
+        assertEquals(List.of(1L), m.get("expirable"));
+        assertEquals(Map.of("MANUAL", 1, "LATEST_FULL", 1, "RECENT", 5), m.get("kept"));
+
+        // 2-4 are past max age and nothing after them in their chain is kept
+        m = p.plan(new RetentionPlanner.Policy(25, 1), NONE, false);
+        assertEquals(List.of(1L, 2L, 3L, 4L), m.get("expirable"));
+        assertEquals(Map.of("MANUAL", 1, "LATEST_FULL", 1, "RECENT", 2), m.get("kept"));
+    }
+
+    @Test
+    void keepFullCountsNewestFulls() {
+        Map<String, Object> m = planner(new HoldRow(100, 42)).plan(new RetentionPlanner.Policy(10, 3), NONE, false);
+        assertEquals(Map.of("MANUAL", 1, "HELD", 1, "LATEST_FULL", 3, "RECENT", 1, "CHAIN", 1), m.get("kept"));
+    }
+
+    @Test
+    void releasingTheOnlyHoldFreesItsChain() {
+        RetentionPlanner.Scenario release = new RetentionPlanner.Scenario(List.of(100L), List.of());
+        Map<String, Object> m = planner(new HoldRow(100, 42)).plan(POLICY, release, false);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), m.get("expirable"));
+        assertEquals(List.of(2L, 3L, 4L), m.get("newly_expirable"));
+        assertEquals(List.of(), m.get("no_longer_expirable"));
+    }
+
+    @Test
+    void userStaysHeldWhileAnotherHoldCoversThem() {
+        RetentionPlanner.Scenario release = new RetentionPlanner.Scenario(List.of(100L), List.of());
+        Map<String, Object> m = planner(new HoldRow(100, 42), new HoldRow(101, 42)).plan(POLICY, release, false);
+
+        assertEquals(List.of(1L), m.get("expirable"));
+        assertEquals(List.of(), m.get("newly_expirable"));
+    }
+
+    @Test
+    void newHoldKeepsItsBackups() {
+        RetentionPlanner.Scenario hold = new RetentionPlanner.Scenario(List.of(), List.of(9L));
+        Map<String, Object> m = planner(new HoldRow(100, 42)).plan(POLICY, hold, false);
+
+        assertEquals(List.of(), m.get("expirable"));
+        assertEquals(List.of(1L), m.get("no_longer_expirable"));
+        assertEquals(1, m.get("hold_user_count"));
+    }
+
+    @Test
+    void releasingAnUnknownHoldFails() {
+        RetentionPlanner.Scenario release = new RetentionPlanner.Scenario(List.of(999L), List.of());
+        assertThrows(IllegalArgumentException.class, () -> planner().plan(POLICY, release, false));
+    }
+
+    @Test
+    void policyDefaultsAndValidation() {
+        RetentionPlanner p = planner();
+        assertEquals(new RetentionPlanner.Policy(35, 2), p.policy(null, null));
+        assertEquals(new RetentionPlanner.Policy(7, 0), p.policy(7, 0));
+        assertThrows(IllegalArgumentException.class, () -> p.policy(-1, null));
+    }
+}
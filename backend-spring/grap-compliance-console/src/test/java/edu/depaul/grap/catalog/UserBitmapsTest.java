@@ -0,0 +1,69 @@
+package edu.depaul.grap.catalog;
+
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserBitmapsTest {
+
+    private static final long HIGH = 0x8000_0000L;   // first id with the sign bit set as an int
+
+    private static ImmutableRoaringBitmap of(long... ids) {
+        MutableRoaringBitmap bm = new MutableRoaringBitmap();
+        for (long id : ids) bm.add(UserBitmaps.toInt(id));
+        return UserBitmaps.view(UserBitmaps.serialize(bm));
+    }
+
+    @Test
+    void idsMapToUnsignedInts() {
+        assertEquals(0, UserBitmaps.toInt(0));
+        assertEquals(-1, UserBitmaps.toInt(UserBitmaps.MAX_USER_ID));
+        assertEquals(UserBitmaps.MAX_USER_ID, UserBitmaps.toLong(-1));
+        assertEquals(HIGH, UserBitmaps.toLong(UserBitmaps.toInt(HIGH)));
+    }
+
+    @Test
+    void rejectsIdsOutside32Bits() {
+        assertThrows(IllegalArgumentException.class, () -> UserBitmaps.toInt(-1));
+        assertThrows(IllegalArgumentException.class, () -> UserBitmaps.toInt(UserBitmaps.MAX_USER_ID + 1));
+    }
+
+    @Test
+    void serializedViewHasTheSameMembers() {
+        MutableRoaringBitmap bm = new MutableRoaringBitmap();
+        bm.add(0L, 100_000L);                       // a run container after runOptimize
+        bm.add(UserBitmaps.toInt(HIGH + 5));
+        ImmutableRoaringBitmap view = UserBitmaps.view(UserBitmaps.serialize(bm));
+
+        assertEquals(100_001L, view.getLongCardinality());
+        assertTrue(view.contains(99_999));
+        assertTrue(view.contains(UserBitmaps.toInt(HIGH + 5)));
+        assertEquals(bm, view.toMutableRoaringBitmap());
+    }
+
+    // keyset paging runs in unsigned order: ids above 2^31 come last
+    @Test
+    void pagesInUnsignedOrder() {
+        ImmutableRoaringBitmap bm = of(1, 5, HIGH, UserBitmaps.MAX_USER_ID - 1);
+
+        assertEquals(List.of(1L, 5L, HIGH, UserBitmaps.MAX_USER_ID - 1), UserBitmaps.page(bm, -1, 10));
+        assertEquals(List.of(1L, 5L), UserBitmaps.page(bm, -1, 2));
+        assertEquals(List.of(HIGH), UserBitmaps.page(bm, 5, 1));
+        assertEquals(List.of(UserBitmaps.MAX_USER_ID - 1), UserBitmaps.page(bm, HIGH, 10));
+        assertEquals(List.of(), UserBitmaps.page(bm, UserBitmaps.MAX_USER_ID - 1, 10));
+        assertEquals(List.of(), UserBitmaps.page(bm, UserBitmaps.MAX_USER_ID, 10));
+    }
+
+    @Test
+    void pageAfterIsExclusive() {
+        ImmutableRoaringBitmap bm = of(3, 4, 7);
+        assertEquals(List.of(4L, 7L), UserBitmaps.page(bm, 3, 10));
+        assertEquals(List.of(7L), UserBitmaps.page(bm, 5, 10));
+    }
+}
@@ -0,0 +1,88 @@
+package edu.depaul.grap.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AesGcmShadowCipherTest {
+
+    private final AesGcmShadowCipher cipher = new AesGcmShadowCipher();
+    private final String key = randomKey();
+
+    @Test
+    void roundTrip() {
+        byte[] ct = cipher.encrypt("Ada Lovelace \u2713", 42, "email", 7L << 32, key);
+        assertEquals("Ada Lovelace \u2713", cipher.decrypt(ct, 42, "email", 7L << 32, key));
+    }
+
+    @Test
+    void freshNoncePerEncryption() {
+        byte[] a = cipher.encrypt("same", 42, "email", 1, key);
+        byte[] b = cipher.encrypt("same", 42, "email", 1, key);
+        assertFalse(Arrays.equals(a, b));
+    }
+
+    @Test
+    void nullPassesThrough() {
+        assertNull(cipher.encrypt(null, 42, "email", 1, key));
+        assertNull(cipher.decrypt(null, 42, "email", 1, key));
+    }
+
+    // every AAD component binds the ciphertext: user, field and key reference
+    @Test
+    void rejectsWrongUser() {
+        byte[] ct = cipher.encrypt("x", 42, "email", 1, key);
+        assertThrows(IllegalStateException.class, () -> cipher.decrypt(ct, 43, "email", 1, key));
+    }
+
+    @Test
+    void rejectsWrongPurpose() {
+        byte[] ct = cipher.encrypt("x", 42, "email", 1, key);
+        assertThrows(IllegalStateException.class, () -> cipher.decrypt(ct, 42, "phone", 1, key));
+    }
+
+    @Test
+    void rejectsWrongKeyId() {
+        byte[] ct = cipher.encrypt("x", 42, "email", 1, key);
+        assertThrows(IllegalStateException.class, () -> cipher.decrypt(ct, 42, "email", 2, key));
+    }
+
+    @Test
+    void rejectsWrongKey() {
+        byte[] ct = cipher.encrypt("x", 42, "email", 1, key);
+        assertThrows(IllegalStateException.class, () -> cipher.decrypt(ct, 42, "email", 1, randomKey()));
+    }
+
+    @Test
+    void rejectsTamperedCiphertext() {
+        byte[] ct = cipher.encrypt("x", 42, "email", 1, key);
+        ct[ct.length - 1] ^= 1;
+        assertThrows(IllegalStateException.class, () -> cipher.decrypt(ct, 42, "email", 1, key));
+    }
+
+    @Test
+    void rejectsShortCiphertextAndKey() {
+        assertThrows(IllegalStateException.class, () -> cipher.decrypt(new byte[27], 42, "email", 1, key));
+        String shortKey = Base64.getEncoder().encodeToString(new byte[16]);
+        assertThrows(IllegalStateException.class, () -> cipher.encrypt("x", 42, "email", 1, shortKey));
+    }
+
+    @Test
+    void layoutIsNonceCiphertextTag() {
+        byte[] ct = cipher.encrypt("abc", 42, "email", 1, key);
+        assertEquals(12 + 3 + 16, ct.length);
+    }
+
+    private static String randomKey() {
+        byte[] raw = new byte[32];
+        new SecureRandom().nextBytes(raw);
+        return Base64.getEncoder().encodeToString(raw);
+    }
+}
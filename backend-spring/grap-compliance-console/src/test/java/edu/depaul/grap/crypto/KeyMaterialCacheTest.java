@@ -0,0 +1,131 @@
+package edu.depaul.grap.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class KeyMaterialCacheTest {
+
+    private static final LocalDate BUCKET = LocalDate.of(2026, 10, 1);
+
+    // a poll against a stubbed database grants the lease; the first poll reads no log
+    private static KeyMaterialCache leased(int maxEntries, long ttlSeconds) {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        when(jdbc.queryForMap(anyString())).thenReturn(Map.of("snap", "100:100:", "xmin", "100"));
+        KeyMaterialCache cache = new KeyMaterialCache(jdbc, "app", true, maxEntries, ttlSeconds, 60_000, 200);
+        cache.poll();
+        return cache;
+    }
+
+    private static KeyMaterialCache.Key key(long id) {
+        return new KeyMaterialCache.Key(id, "material-" + id);
+    }
+
+    private static void put(KeyMaterialCache cache, long userId, long keyId) {
+        cache.put(userId, "email", BUCKET, key(keyId), cache.generation());
+    }
+
+    // db crypto mode never holds key material: the cache stays off and never touches the database
+    @Test
+    void offUnlessEnabledInAppMode() {
+        for (String[] modeEnabled : new String[][] {{"db", "true"}, {"app", "false"}}) {
+            JdbcTemplate jdbc = mock(JdbcTemplate.class);
+            KeyMaterialCache cache = new KeyMaterialCache(jdbc, modeEnabled[0], Boolean.parseBoolean(modeEnabled[1]),
+                    10, 300, 60_000, 200);
+            cache.poll();
+            put(cache, 1, 1);
+            assertNull(cache.get(1, "email", BUCKET));
+            assertEquals(false, cache.stats().get("enabled"));
+            verifyNoInteractions(jdbc);
+        }
+    }
+
+    @Test
+    void servesNothingWithoutLease() {
+        KeyMaterialCache cache = new KeyMaterialCache(mock(JdbcTemplate.class), "app", true, 10, 300, 60_000, 200);
+        put(cache, 1, 1);
+        assertNull(cache.get(1, "email", BUCKET));
+        assertEquals(0, cache.stats().get("entries"));
+    }
+
+    @Test
+    void hitOnSameUserPurposeAndBucket() {
+        KeyMaterialCache cache = leased(10, 300);
+        put(cache, 1, 11);
+        assertEquals(key(11), cache.get(1, "email", BUCKET));
+        assertNull(cache.get(1, "phone", BUCKET));
+        assertNull(cache.get(1, "email", BUCKET.plusDays(1)));
+        assertNull(cache.get(2, "email", BUCKET));
+        assertEquals(1L, cache.stats().get("hits"));
+        assertEquals(3L, cache.stats().get("misses"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAtCapacity() {
+        KeyMaterialCache cache = leased(2, 300);
+        put(cache, 1, 11);
+        put(cache, 2, 22);
+        assertNotNull(cache.get(1, "email", BUCKET));   // 2 is now the eldest
+        put(cache, 3, 33);
+
+        assertEquals(key(11), cache.get(1, "email", BUCKET));
+        assertNull(cache.get(2, "email", BUCKET));
+        assertEquals(key(33), cache.get(3, "email", BUCKET));
+        assertEquals(2, cache.stats().get("entries"));
+        assertEquals(1L, cache.stats().get("size_evictions"));
+    }
+
+    @Test
+    void expiredEntryIsNotServed() {
+        KeyMaterialCache cache = leased(10, 0);
+        put(cache, 1, 11);
+        assertNull(cache.get(1, "email", BUCKET));
+        assertEquals(0, cache.stats().get("entries"));
+    }
+
+    @Test
+    void evictUsersDropsOnlyThoseUsers() {
+        KeyMaterialCache cache = leased(10, 300);
+        put(cache, 1, 11);
+        cache.put(1, "phone", BUCKET, key(12), cache.generation());
+        put(cache, 2, 22);
+
+        cache.evictUsers(List.of(1L));
+
+        assertNull(cache.get(1, "email", BUCKET));
+        assertNull(cache.get(1, "phone", BUCKET));
+        assertEquals(key(22), cache.get(2, "email", BUCKET));
+        assertEquals(2L, cache.stats().get("destroy_invalidations"));
+    }
+
+    // a load that started before an eviction may hold destroyed material
+    @Test
+    void putAfterEvictionIsDropped() {
+        KeyMaterialCache cache = leased(10, 300);
+        long loadGeneration = cache.generation();
+        cache.evictUsers(List.of(99L));
+        cache.put(1, "email", BUCKET, key(11), loadGeneration);
+
+        assertNull(cache.get(1, "email", BUCKET));
+        assertEquals(0, cache.stats().get("entries"));
+    }
+
+    @Test
+    void emptyEvictionKeepsGeneration() {
+        KeyMaterialCache cache = leased(10, 300);
+        long g = cache.generation();
+        cache.evictUsers(List.of());
+        assertEquals(g, cache.generation());
+    }
+}
@@ -0,0 +1,213 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.TestDatabase;
+import edu.depaul.grap.metrics.ComplianceMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+// Reference-counted backup protection (sql/26_protection_refcount.sql): the coverage and
+// release triggers, and the drift check / repair, against the schema.
+class BackupProtectionDaoTest {
+
+    private JdbcTemplate jdbc;
+    private BackupProtectionDao dao;
+
+    @BeforeEach
+    void reset() {
+        jdbc = TestDatabase.jdbc();
+        TestDatabase.truncate("legal_holds", "backup_runs", "backup_hold_coverage", "backup_protection_audit");
+        dao = new BackupProtectionDao(jdbc, TestDatabase.tx(), null, mock(ComplianceMetrics.class));
+    }
+
+    private long backup(boolean protectedManually) {
+        return jdbc.queryForObject("INSERT INTO backup_runs(backup_type, started_at, ended_at, protected_by_hold, " +
+                "protected_manually, protected_at) VALUES ('INCR', now(), now(), ?, ?, " +
+                "CASE WHEN ? THEN now() END) RETURNING backup_id",
+                Long.class, protectedManually, protectedManually, protectedManually);
+    }
+
+    private long hold(long userId) {
+        return jdbc.queryForObject("INSERT INTO legal_holds(user_id, hold_reason) VALUES (?, 'case') RETURNING hold_id",
+                Long.class, userId);
+    }
+
+    private void cover(long holdId, long... backupIds) {
+        Long[] holds = new Long[backupIds.length];
+        Long[] backups = new Long[backupIds.length];
+        for (int i = 0; i < backupIds.length; i++) {
+            holds[i] = holdId;
+            backups[i] = backupIds[i];
+        }
+        jdbc.query(con -> {
+            var ps = con.prepareStatement("SELECT * FROM cover_backups_for_holds(?, ?)");
+            ps.setArray(1, con.createArrayOf("bigint", holds));
+            ps.setArray(2, con.createArrayOf("bigint", backups));
+            return ps;
+        }, rs -> {});
+    }
+
+    private void release(long holdId) {
+        jdbc.update("UPDATE legal_holds SET released_at = now() WHERE hold_id = ?", holdId);
+    }
+
+    private Map<String, Object> run(long backupId) {
+        return jdbc.queryForMap("SELECT protecting_holds, protected_by_hold, protected_reason, protected_at " +
+                "FROM backup_runs WHERE backup_id = ?", backupId);
+    }
+
+    private int count(long backupId) {
+        return ((Number) run(backupId).get("protecting_holds")).intValue();
+    }
+
+    private List<String> audit(long backupId) {
+        return jdbc.queryForList("SELECT action FROM backup_protection_audit WHERE backup_id = ? ORDER BY audit_id",
+                String.class, backupId);
+    }
+
+    @Test
+    void everyActiveHoldIsCountedOnce() {
+        long b = backup(false);
+        long h1 = hold(1), h2 = hold(2);
+
+        cover(h1, b, b);
+        cover(h1, b);    // already covered: no change
+        cover(h2, b);
+
+        assertEquals(2, count(b));
+        assertEquals(true, run(b).get("protected_by_hold"));
+        assertTrue(((String) run(b).get("protected_reason")).startsWith("Legal hold " + h1));
+        assertEquals(List.of("PROTECT", "PROTECT"), audit(b));
+    }
+
+    // a released hold's coverage row does not protect
+    @Test
+    void releasedHoldIsNotCounted() {
+        long b = backup(false);
+        long h = hold(1);
+        release(h);
+
+        cover(h, b);
+
+        assertEquals(0, count(b));
+        assertEquals(false, run(b).get("protected_by_hold"));
+    }
+
+    @Test
+    void backupStaysProtectedUntilItsLastHoldIsReleased() {
+        long b = backup(false), other = backup(false);
+        long h1 = hold(1), h2 = hold(2);
+        cover(h1, b, other);
+        cover(h2, b);
+
+        release(h1);
+        assertEquals(1, count(b));
+        assertEquals(true, run(b).get("protected_by_hold"));
+        assertEquals(List.of("PROTECT", "PROTECT"), audit(b));
+        assertEquals(false, run(other).get("protected_by_hold"));
+        assertEquals(List.of("PROTECT", "UNPROTECT"), audit(other));
+
+        release(h2);
+        Map<String, Object> r = run(b);
+        assertEquals(0, ((Number) r.get("protecting_holds")).intValue());
+        assertEquals(false, r.get("protected_by_hold"));
+        assertNull(r.get("protected_reason"));
+        assertNull(r.get("protected_at"));
+        assertEquals(List.of("PROTECT", "PROTECT", "UNPROTECT"), audit(b));
+        assertEquals(h2, jdbc.queryForObject("SELECT hold_id FROM backup_protection_audit " +
+                "WHERE backup_id = ? AND action = 'UNPROTECT'", Long.class, b));
+    }
+
+    // releasing both holds in one statement nets the deltas per backup
+    @Test
+    void releasingSeveralHoldsAtOnce() {
+        long b = backup(false);
+        long h1 = hold(7), h2 = hold(7);
+        cover(h1, b);
+        cover(h2, b);
+
+        jdbc.update("UPDATE legal_holds SET released_at = now() WHERE user_id = 7");
+
+        assertEquals(0, count(b));
+        assertEquals(false, run(b).get("protected_by_hold"));
+        assertEquals(2, audit(b).stream().filter("UNPROTECT"::equals).count());
+    }
+
+    @Test
+    void manuallyProtectedBackupOutlivesItsHolds() {
+        long b = backup(true);
+        long h = hold(1);
+        cover(h, b);
+        assertEquals(1, count(b));
+
+        release(h);
+
+        Map<String, Object> r = run(b);
+        assertEquals(0, ((Number) r.get("protecting_holds")).intValue());
+        assertEquals(true, r.get("protected_by_hold"));
+        assertNotNull(r.get("protected_at"));
+        assertEquals(List.of("PROTECT"), audit(b));
+    }
+
+    @Test
+    void reinstatedHoldProtectsAgain() {
+        long b = backup(false);
+        long h = hold(1);
+        cover(h, b);
+        release(h);
+
+        jdbc.update("UPDATE legal_holds SET released_at = NULL WHERE hold_id = ?", h);
+
+        assertEquals(1, count(b));
+        assertEquals(true, run(b).get("protected_by_hold"));
+        assertEquals("Legal hold reinstated", run(b).get("protected_reason"));
+    }
+
+    // updates that do not change released_at (the sweep's watermark) leave the counts alone
+    @Test
+    void watermarkUpdateDoesNotCount() {
+        long b = backup(false);
+        long h = hold(1);
+        cover(h, b);
+
+        jdbc.update("UPDATE legal_holds SET protected_through_backup_id = ? WHERE hold_id = ?", b, h);
+
+        assertEquals(1, count(b));
+    }
+
+    // a deleted hold is not tracked by the triggers; the check finds it and the repair fixes it
+    @Test
+    void driftIsFoundAndRepaired() {
+        long b1 = backup(false), b2 = backup(false), b3 = backup(true);
+        long h1 = hold(1), h2 = hold(2);
+        cover(h1, b1, b3);
+        cover(h2, b2);
+        jdbc.update("DELETE FROM legal_holds WHERE hold_id = ?", h1);
+        jdbc.update("UPDATE backup_runs SET protecting_holds = 5 WHERE backup_id = ?", b2);
+
+        List<Map<String, Object>> drift = dao.countDrift(b1, b3);
+        assertEquals(List.of(b1, b2, b3), drift.stream().map(d -> ((Number) d.get("backup_id")).longValue()).toList());
+        assertEquals(0, ((Number) drift.get(0).get("expected_count")).intValue());
+        assertEquals(1, ((Number) drift.get(1).get("expected_count")).intValue());
+        assertEquals(1, dao.countDrift(b2, b2).size());
+
+        assertEquals(3, dao.repairCounts(b1, b3));
+
+        assertTrue(dao.countDrift(b1, b3).isEmpty());
+        assertEquals(false, run(b1).get("protected_by_hold"));
+        assertEquals(1, count(b2));
+        assertEquals(true, run(b2).get("protected_by_hold"));
+        assertEquals(0, count(b3));
+        assertEquals(true, run(b3).get("protected_by_hold"));
+        assertEquals(0, dao.repairCounts(b1, b3));
+    }
+}
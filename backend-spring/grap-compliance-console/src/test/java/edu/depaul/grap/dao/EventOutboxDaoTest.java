@@ -0,0 +1,150 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// publish_outbox (sql/30_event_outbox.sql) against the schema: feed_seq is gapless and
+// only ever given to committed events, so a reader at seq N has seen everything up to N.
+class EventOutboxDaoTest {
+
+    private JdbcTemplate jdbc;
+    private EventOutboxDao dao;
+
+    @BeforeEach
+    void reset() {
+        jdbc = TestDatabase.jdbc();
+        TestDatabase.truncate("event_outbox", "event_consumers", "legal_holds");
+        dao = new EventOutboxDao(jdbc, TestDatabase.tx());
+    }
+
+    // a second session, for transactions left open while this one publishes
+    private Connection session() throws SQLException {
+        Connection c = jdbc.getDataSource().getConnection();
+        c.setAutoCommit(false);
+        return c;
+    }
+
+    private static void hold(Statement s, long userId) throws SQLException {
+        s.execute("INSERT INTO legal_holds(user_id, hold_reason) VALUES (" + userId + ", 'case')");
+    }
+
+    private long hold(long userId) {
+        return jdbc.queryForObject("INSERT INTO legal_holds(user_id, hold_reason) VALUES (?, 'case') RETURNING hold_id",
+                Long.class, userId);
+    }
+
+    private List<Long> seqs(List<EventOutboxDao.Published> p) {
+        return p.stream().map(EventOutboxDao.Published::seq).toList();
+    }
+
+    private List<Long> feedUsers(long afterSeq) {
+        return jdbc.queryForList("SELECT user_id FROM event_outbox WHERE feed_seq > ? ORDER BY feed_seq",
+                Long.class, afterSeq);
+    }
+
+    private static List<Long> range(long from, long to) {
+        return LongStream.rangeClosed(from, to).boxed().toList();
+    }
+
+    @Test
+    void numbersInEventOrderUpToTheLimit() {
+        for (long u = 1; u <= 5; u++) hold(u);
+
+        assertEquals(List.of(1L, 2L, 3L), seqs(dao.publish(3)));
+        assertEquals(List.of(4L, 5L), seqs(dao.publish(3)));
+        assertTrue(dao.publish(3).isEmpty());
+
+        assertEquals(5, dao.head());
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), feedUsers(0));
+        List<EventOutboxDao.Event> e = dao.read(2, 10);
+        assertEquals(List.of(3L, 4L, 5L), e.stream().map(EventOutboxDao.Event::seq).toList());
+        assertTrue(e.get(0).json().contains("\"type\": \"HOLD_PLACED\""), e.get(0).json());
+    }
+
+    // the event of a transaction still open is skipped, not numbered, and is published after
+    // the later events when it commits: no gap, and no reader past it misses it
+    @Test
+    void laterCommitIsPublishedAfterWhatIsAlreadyInTheFeed() throws SQLException {
+        try (Connection c = session(); Statement s = c.createStatement()) {
+            hold(s, 1);                      // lower event_id, commits last
+            hold(2);
+            hold(3);
+
+            assertEquals(List.of(1L, 2L), seqs(dao.publish(100)));
+            long readerAt = dao.head();
+
+            c.commit();
+            assertEquals(List.of(3L), seqs(dao.publish(100)));
+            assertEquals(List.of(1L), feedUsers(readerAt));
+        }
+        assertEquals(List.of(2L, 3L, 1L), feedUsers(0));
+    }
+
+    @Test
+    void rolledBackEventsLeaveNoGap() throws SQLException {
+        hold(1);
+        try (Connection c = session(); Statement s = c.createStatement()) {
+            hold(s, 2);
+            c.rollback();
+        }
+        hold(3);
+
+        assertEquals(List.of(1L, 2L), seqs(dao.publish(100)));
+        assertEquals(List.of(1L, 3L), feedUsers(0));
+    }
+
+    // one publisher at a time: the other call returns nothing and numbers nothing
+    @Test
+    void concurrentPublisherBacksOff() throws SQLException {
+        hold(1);
+        hold(2);
+        try (Connection c = session(); Statement s = c.createStatement()) {
+            s.execute("SELECT * FROM publish_outbox(1)");
+
+            assertTrue(dao.publish(100).isEmpty());
+
+            c.commit();
+        }
+        assertEquals(List.of(2L), seqs(dao.publish(100)));
+        assertEquals(range(1, 2), jdbc.queryForList(
+                "SELECT feed_seq FROM event_outbox ORDER BY feed_seq", Long.class));
+    }
+
+    // purge keeps the newest published event, so numbering carries on from it
+    @Test
+    void numberingContinuesAfterPurge() {
+        for (long u = 1; u <= 3; u++) hold(u);
+        dao.publish(100);
+        jdbc.update("UPDATE event_outbox SET published_at = now() - interval '40 days'");
+
+        assertEquals(2, dao.purge(30, 100));
+        assertEquals(3, dao.earliest());
+
+        hold(4);
+        assertEquals(List.of(4L), seqs(dao.publish(100)));
+        assertEquals(range(3, 4), jdbc.queryForList(
+                "SELECT feed_seq FROM event_outbox ORDER BY feed_seq", Long.class));
+    }
+
+    @Test
+    void ackNeverMovesBack() {
+        for (long u = 1; u <= 3; u++) hold(u);
+        dao.publish(100);
+
+        dao.ack("crm", 3);
+        dao.ack("crm", 1);
+
+        assertEquals(3L, dao.ackedSeq("crm"));
+    }
+}
@@ -0,0 +1,110 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.TestDatabase;
+import edu.depaul.grap.crypto.SigningKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Destroyed-key compaction into key_tombstones and the keyed tombstone digest, against the schema.
+class KeyStoreDaoTest {
+
+    private static final SigningKey KEY = key('k');
+    private static final SigningKey OTHER_KEY = key('o');
+    private static final LocalDate BUCKET = LocalDate.now().minusMonths(7).withDayOfMonth(10);
+
+    private JdbcTemplate jdbc;
+
+    private static SigningKey key(char fill) {
+        return new SigningKey(Base64.getEncoder().encodeToString(String.valueOf(fill).repeat(32).getBytes()));
+    }
+
+    @BeforeEach
+    void reset() {
+        jdbc = TestDatabase.jdbc();
+        TestDatabase.truncate("users", "users_shadow", "key_store", "key_tombstones", "deletion_audit", "event_outbox");
+    }
+
+    private KeyStoreDao dao(SigningKey key) {
+        return new KeyStoreDao(jdbc, TestDatabase.tx(), key);
+    }
+
+    // a user with an email key in BUCKET's month, destroyed 40 days ago
+    private long userWithOldDestroyedKey() {
+        dao(KEY).ensurePartitions(BUCKET.withDayOfMonth(1), BUCKET.withDayOfMonth(1), 5000);
+        long id = jdbc.queryForObject("INSERT INTO users(full_name, email) " +
+                "VALUES ('t', 't' || nextval('users_user_id_seq') || '@example.com') RETURNING user_id", Long.class);
+        jdbc.queryForList("SELECT key_id FROM get_or_create_key(?, 'email', ?)", id, BUCKET);
+        jdbc.update("UPDATE key_store SET destroyed_at = now() - interval '40 days', key_material = 'DESTROYED' " +
+                "WHERE user_id = ? AND bucket_date = ?", id, BUCKET);
+        return id;
+    }
+
+    private Map<String, Object> tombstone(SigningKey key, long userId) {
+        List<Map<String, Object>> t = dao(key).tombstones(userId);
+        assertEquals(1, t.size());
+        return t.get(0);
+    }
+
+    @Test
+    void compactsIntoATombstoneKeyedWithTheSigningKey() {
+        long u = userWithOldDestroyedKey();
+
+        KeyStoreDao.Compaction c = dao(KEY).compact(BUCKET, 30, 0.8, 5000);
+
+        assertEquals(1, c.keysCompacted());
+        assertEquals(0, jdbc.queryForObject("SELECT count(*) FROM key_store WHERE user_id = ? AND bucket_date = ?",
+                Integer.class, u, BUCKET));
+        Map<String, Object> t = tombstone(KEY, u);
+        assertEquals(KEY.fingerprint(), t.get("key_fingerprint"));
+        assertEquals(true, t.get("digest_valid"));
+    }
+
+    // whoever can edit the row can also recompute an unkeyed hash, but not the HMAC
+    @Test
+    void editedTombstoneDoesNotVerify() {
+        long u = userWithOldDestroyedKey();
+        dao(KEY).compact(BUCKET, 30, 0.8, 5000);
+
+        jdbc.update("""
+            UPDATE key_tombstones SET destroyed_at = ARRAY[now()],
+                   digest = key_tombstone_digest(key_ids, purposes, ARRAY[now()], 'guess'::bytea)
+            WHERE user_id = ?
+            """, u);
+        assertEquals(false, tombstone(KEY, u).get("digest_valid"));
+        jdbc.update("UPDATE key_tombstones SET digest = digest(digest, 'sha256') WHERE user_id = ?", u);
+        assertEquals(false, tombstone(KEY, u).get("digest_valid"));
+    }
+
+    @Test
+    void anotherKeyCannotCheckOrExtendTheTombstones() {
+        long u = userWithOldDestroyedKey();
+        dao(KEY).compact(BUCKET, 30, 0.8, 5000);
+
+        assertNull(tombstone(OTHER_KEY, u).get("digest_valid"));
+        assertNull(tombstone(new SigningKey(""), u).get("digest_valid"));
+
+        userWithOldDestroyedKey();
+        DataAccessException e = assertThrows(DataAccessException.class,
+                () -> dao(OTHER_KEY).compact(BUCKET, 30, 0.8, 5000));
+        assertTrue(e.getMostSpecificCause().getMessage().contains("another signing key"));
+    }
+
+    @Test
+    void noCompactionWithoutASigningKey() {
+        userWithOldDestroyedKey();
+        assertThrows(IllegalStateException.class, () -> dao(new SigningKey("")).compact(BUCKET, 30, 0.8, 5000));
+        assertEquals(0, jdbc.queryForObject("SELECT count(*) FROM key_tombstones", Integer.class));
+    }
+}
@@ -0,0 +1,128 @@
+package edu.depaul.grap.dao;
+
+import edu.depaul.grap.TestDatabase;
+import edu.depaul.grap.crypto.AesGcmShadowCipher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// Shadow re-encryption batches against the schema: fields whose key is destroyed are
+// never decrypted or rewritten, and their row keeps its enc_version.
+class ReencryptDaoTest {
+
+    private static final String NODE = "test-node";
+
+    private JdbcTemplate jdbc;
+    private ReencryptDao dao;
+
+    @BeforeEach
+    void reset() {
+        jdbc = TestDatabase.jdbc();
+        TestDatabase.truncate("users", "users_shadow", "key_store", "reencrypt_jobs", "deletion_audit", "event_outbox");
+        dao = new ReencryptDao(jdbc, TestDatabase.tx(), new AesGcmShadowCipher());
+    }
+
+    // a user whose shadow row is encrypted (v1) with keys from a bucket 200 days old
+    private long userWithOldKeys(String name) {
+        long id = jdbc.queryForObject(
+                "INSERT INTO users(full_name, email, phone) VALUES (?, ?, '555-0100') RETURNING user_id",
+                Long.class, name, name + "@example.com");
+        jdbc.update("""
+            WITH n AS (SELECT * FROM get_or_create_key(?, 'name',  CURRENT_DATE - 200)),
+                 e AS (SELECT * FROM get_or_create_key(?, 'email', CURRENT_DATE - 200)),
+                 p AS (SELECT * FROM get_or_create_key(?, 'phone', CURRENT_DATE - 200))
+            UPDATE users_shadow s SET
+              full_name_enc = sym_encrypt_nullable(u.full_name, n.key_material),
+              email_enc     = sym_encrypt_nullable(u.email, e.key_material),
+              phone_enc     = sym_encrypt_nullable(u.phone, p.key_material),
+              key_id_name = n.key_id, key_id_email = e.key_id, key_id_phone = p.key_id
+            FROM users u, n, e, p
+            WHERE s.user_id = u.user_id AND u.user_id = ?
+            """, id, id, id, id);
+        return id;
+    }
+
+    private void destroy(long userId, String purpose) {
+        jdbc.update("UPDATE key_store SET destroyed_at = now(), key_material = 'DESTROYED' " +
+                "WHERE user_id = ? AND purpose = ? AND destroyed_at IS NULL", userId, purpose);
+    }
+
+    private Map<String, Object> shadow(long userId) {
+        return jdbc.queryForMap("SELECT * FROM users_shadow WHERE user_id = ?", userId);
+    }
+
+    private String decryptV1(long userId, String column, String keyColumn) {
+        return jdbc.queryForObject("SELECT sym_decrypt_nullable(s." + column + ", k.key_material) " +
+                "FROM users_shadow s JOIN key_store k ON k.key_id = s." + keyColumn + " WHERE s.user_id = ?",
+                String.class, userId);
+    }
+
+    private ReencryptDao.BatchResult runBatch(int targetVersion) {
+        long job = dao.createJob(new ReencryptDao.JobSpec(targetVersion, 90, 100, 0, 1));
+        dao.claim(job, NODE, 60);
+        return dao.reencryptBatch(job, NODE, 2000);
+    }
+
+    @Test
+    void rotatesLiveFieldsAndSkipsTheDestroyedOne() {
+        long u = userWithOldKeys("ann");
+        destroy(u, "email");
+        Map<String, Object> before = shadow(u);
+
+        ReencryptDao.BatchResult r = runBatch(1);
+
+        assertEquals(1, r.reencrypted());
+        assertEquals(1, r.fieldsSkippedDestroyed());
+        assertEquals(2, r.keysRetired());
+        Map<String, Object> after = shadow(u);
+        assertEquals(before.get("key_id_email"), after.get("key_id_email"));
+        assertArrayEquals((byte[]) before.get("email_enc"), (byte[]) after.get("email_enc"));
+        assertNotEquals(before.get("key_id_name"), after.get("key_id_name"));
+        assertNotEquals(before.get("key_id_phone"), after.get("key_id_phone"));
+        assertEquals("ann", decryptV1(u, "full_name_enc", "key_id_name"));
+        assertEquals("555-0100", decryptV1(u, "phone_enc", "key_id_phone"));
+    }
+
+    // the version is per row, so a row with a destroyed field is not moved to the new cipher
+    @Test
+    void rowWithDestroyedFieldKeepsItsVersion() {
+        long u = userWithOldKeys("bob");
+        long fresh = jdbc.queryForObject(
+                "INSERT INTO users(full_name, email) VALUES ('cy', 'cy@example.com') RETURNING user_id", Long.class);
+        destroy(u, "phone");
+
+        ReencryptDao.BatchResult r = runBatch(AesGcmShadowCipher.ENC_VERSION);
+
+        assertEquals(2, r.reencrypted());
+        assertEquals(1, r.fieldsSkippedDestroyed());
+        assertEquals(1, ((Number) shadow(u).get("enc_version")).intValue());
+        assertEquals("bob", decryptV1(u, "full_name_enc", "key_id_name"));
+        assertEquals(AesGcmShadowCipher.ENC_VERSION, ((Number) shadow(fresh).get("enc_version")).intValue());
+    }
+
+    // every field destroyed (an erased user): nothing to rotate, the row is not even selected
+    @Test
+    void erasedUserIsLeftAlone() {
+        long u = userWithOldKeys("dee");
+        for (String p : new String[] {"name", "email", "phone"}) destroy(u, p);
+        Map<String, Object> before = shadow(u);
+
+        ReencryptDao.BatchResult r = runBatch(AesGcmShadowCipher.ENC_VERSION);
+
+        assertEquals(1, r.scanned());
+        assertEquals(0, r.reencrypted());
+        assertEquals(0, r.fieldsSkippedDestroyed());
+        Map<String, Object> after = shadow(u);
+        assertNotNull(after.get("full_name_enc"));
+        for (String c : new String[] {"full_name_enc", "email_enc", "phone_enc"}) {
+            assertArrayEquals((byte[]) before.get(c), (byte[]) after.get(c), c);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package edu.depaul.grap.erasure;
+
+import edu.depaul.grap.TestDatabase;
+import edu.depaul.grap.crypto.KeyMaterialCache;
+import edu.depaul.grap.dao.GrapDao;
+import edu.depaul.grap.metrics.ComplianceMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkErasureServiceTest {
+
+    private final GrapDao dao = mock(GrapDao.class);
+
+    private static Map<String, Object> row(long userId, String outcome, int keys) {
+        Map<String, Object> r = new HashMap<>();
+        r.put("user_id", userId);
+        r.put("outcome", outcome);
+        r.put("keys_destroyed", keys);
+        r.put("cache_eviction_confirmed", true);
+        return r;
+    }
+
+    private static List<Map<String, Object>> erased(List<Long> ids) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (long id : ids) rows.add(row(id, "ERASED", 3));
+        return rows;
+    }
+
+    private static ByteArrayInputStream text(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void badLineErasesNothing() {
+        BulkErasureService svc = new BulkErasureService(dao, 2, 100);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> svc.erase(text("1\n2\n# comment\n\n3\nfour\n5\n")));
+        assertTrue(e.getMessage().startsWith("line 6:"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> svc.erase(text("1\n-2\n")));
+        assertThrows(IllegalArgumentException.class, () -> svc.erase(Arrays.asList(1L, null, 3L)));
+        verify(dao, never()).destroyUserKeysBulk(anyList());
+    }
+
+    @Test
+    void countsEveryChunk() throws Exception {
+        when(dao.destroyUserKeysBulk(anyList())).thenAnswer(inv -> erased(inv.getArgument(0)));
+        Map<String, Object> m = new BulkErasureService(dao, 2, 100).erase(text("1\n2\n3\n4\n5\n"));
+
+        assertEquals(5L, m.get("submitted"));
+        assertEquals(5L, m.get("processed"));
+        assertEquals(5L, m.get("erased"));
+        assertEquals(15L, m.get("keys_destroyed"));
+        assertEquals(3L, m.get("chunks"));
+        assertEquals(5, ((List<?>) m.get("results")).size());
+        assertEquals(false, m.get("results_truncated"));
+    }
+
+    // committed chunks are reported with the failure, so the caller knows who was erased
+    @Test
+    void failingChunkReturnsWhatCommittedBeforeIt() {
+        when(dao.destroyUserKeysBulk(anyList()))
+                .thenAnswer(inv -> erased(inv.getArgument(0)))
+                .thenAnswer(inv -> erased(inv.getArgument(0)))
+                .thenThrow(new QueryTimeoutException("canceling statement due to statement timeout"));
+        BulkErasureService svc = new BulkErasureService(dao, 2, 100);
+
+        BulkErasureService.PartialFailure f = assertThrows(BulkErasureService.PartialFailure.class,
+                () -> svc.erase(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L)));
+        assertEquals("canceling statement due to statement timeout", f.getMessage());
+        assertEquals(7L, f.partial().get("submitted"));
+        assertEquals(4L, f.partial().get("processed"));
+        assertEquals(4L, f.partial().get("erased"));
+        List<?> results = (List<?>) f.partial().get("results");
+        assertEquals(List.of(1L, 2L, 3L, 4L), results.stream().map(r -> ((Map<?, ?>) r).get("user_id")).toList());
+    }
+
+    @Test
+    void resultsAreCappedCountsAreNot() {
+        when(dao.destroyUserKeysBulk(anyList())).thenAnswer(inv -> erased(inv.getArgument(0)));
+        Map<String, Object> m = new BulkErasureService(dao, 2, 3).erase(List.of(1L, 2L, 3L, 4L, 5L));
+
+        assertEquals(5L, m.get("erased"));
+        assertEquals(3, ((List<?>) m.get("results")).size());
+        assertEquals(true, m.get("results_truncated"));
+    }
+
+    // ----------------------------
+    // Against the schema (destroy_user_keys_bulk)
+    // ----------------------------
+
+    private static GrapDao realDao(JdbcTemplate jdbc) {
+        KeyMaterialCache cache = new KeyMaterialCache(jdbc, "db", false, 10, 300, 5000, 200);
+        return new GrapDao(jdbc, TestDatabase.tx(), null, cache, null, null, null, null,
+                mock(ComplianceMetrics.class), "db", 5000);
+    }
+
+    private static long user(JdbcTemplate jdbc, String name) {
+        return jdbc.queryForObject("INSERT INTO users(full_name, email) VALUES (?, ?) RETURNING user_id",
+                Long.class, name, name + "@example.com");
+    }
+
+    private static int liveKeys(JdbcTemplate jdbc, long userId) {
+        return jdbc.queryForObject("SELECT count(*) FROM key_store WHERE user_id = ? AND destroyed_at IS NULL",
+                Integer.class, userId);
+    }
+
+    private static List<String> audit(JdbcTemplate jdbc, long userId) {
+        return jdbc.queryForList("SELECT action FROM deletion_audit WHERE user_id = ? ORDER BY audit_id",
+                String.class, userId);
+    }
+
+    // one chunk with held and unheld users: the held one is reported and keeps its keys,
+    // the rest of the chunk commits
+    @Test
+    void mixedHeldAndUnheldChunk() {
+        JdbcTemplate jdbc = TestDatabase.jdbc();
+        TestDatabase.truncate("users", "key_store", "legal_holds", "deletion_audit", "event_outbox");
+        long a = user(jdbc, "a"), held = user(jdbc, "held"), b = user(jdbc, "b"), noKeys = 999_999L;
+        jdbc.update("INSERT INTO legal_holds(user_id, hold_reason) VALUES (?, 'litigation')", held);
+        int keysA = liveKeys(jdbc, a);
+        assertTrue(keysA > 0);
+
+        Map<String, Object> m = new BulkErasureService(realDao(jdbc), 100, 100)
+                .erase(List.of(a, held, b, a, noKeys));
+
+        assertEquals(1L, m.get("chunks"));
+        assertEquals(4L, m.get("users"));    // distinct
+        assertEquals(2L, m.get("erased"));
+        assertEquals(1L, m.get("blocked_by_hold"));
+        assertEquals(1L, m.get("no_keys"));
+        Map<Object, Object> outcome = new HashMap<>();
+        for (Object r : (List<?>) m.get("results")) outcome.put(((Map<?, ?>) r).get("user_id"), ((Map<?, ?>) r).get("outcome"));
+        assertEquals(Map.of(a, "ERASED", held, "BLOCKED_BY_HOLD", b, "ERASED", noKeys, "NO_KEYS"), outcome);
+
+        assertEquals(0, liveKeys(jdbc, a));
+        assertEquals(0, liveKeys(jdbc, b));
+        assertEquals(keysA, liveKeys(jdbc, held));
+        assertEquals(List.of("CRYPTO_ERASE_ATTEMPT", "CRYPTO_ERASE_SUCCESS"), audit(jdbc, a));
+        assertEquals(List.of("CRYPTO_ERASE_ATTEMPT", "CRYPTO_ERASE_BLOCKED"), audit(jdbc, held));
+    }
+}
@@ -0,0 +1,186 @@
+package edu.depaul.grap.erasure;
+
+import edu.depaul.grap.TestDatabase;
+import edu.depaul.grap.crypto.KeyMaterialCache;
+import edu.depaul.grap.dao.ErasureJobDao;
+import edu.depaul.grap.dao.GrapDao;
+import edu.depaul.grap.metrics.ComplianceMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+// erasure_jobs claim / complete / retry / requeue against the schema
+class ErasureQueueTest {
+
+    private JdbcTemplate jdbc;
+    private ErasureJobDao jobs;
+
+    @BeforeEach
+    void reset() {
+        jdbc = TestDatabase.jdbc();
+        TestDatabase.truncate("users", "key_store", "legal_holds", "deletion_audit", "event_outbox", "erasure_jobs");
+        jobs = new ErasureJobDao(jdbc);
+    }
+
+    private long user(String name) {
+        return jdbc.queryForObject("INSERT INTO users(full_name, email) VALUES (?, ?) RETURNING user_id",
+                Long.class, name, name + "@example.com");
+    }
+
+    private Map<String, Object> job(long jobId) {
+        return jobs.job(jobId);
+    }
+
+    private int liveKeys(long userId) {
+        return jdbc.queryForObject("SELECT count(*) FROM key_store WHERE user_id = ? AND destroyed_at IS NULL",
+                Integer.class, userId);
+    }
+
+    private ErasureQueue queue() {
+        KeyMaterialCache cache = new KeyMaterialCache(jdbc, "db", false, 10, 300, 5000, 200);
+        GrapDao dao = new GrapDao(jdbc, TestDatabase.tx(), null, cache, null, null, null, null,
+                mock(ComplianceMetrics.class), "db", 5000);
+        return new ErasureQueue(dao, jobs, new SimpleMeterRegistry(), false, 1, 10, 500, 3, 1000, 300000, 120);
+    }
+
+    @Test
+    void enqueueKeepsOneOpenJobPerUser() {
+        List<Map<String, Object>> first = jobs.enqueue(List.of(1L, 2L, 2L));
+        assertEquals(2, first.size());
+        assertTrue(first.stream().allMatch(r -> Boolean.TRUE.equals(r.get("created"))));
+
+        List<Map<String, Object>> again = jobs.enqueue(List.of(2L, 3L));
+        assertEquals(false, again.get(0).get("created"));
+        assertEquals(first.get(1).get("job_id"), again.get(0).get("job_id"));
+        assertEquals(true, again.get(1).get("created"));
+    }
+
+    // claims are FIFO, disjoint between workers, and count the attempt
+    @Test
+    void claimIsFifoAndDisjoint() {
+        jobs.enqueue(List.of(1L, 2L, 3L));
+
+        List<ErasureJobDao.Job> a = jobs.claim("a", 2);
+        List<ErasureJobDao.Job> b = jobs.claim("b", 2);
+        assertEquals(List.of(1L, 2L), a.stream().map(ErasureJobDao.Job::userId).sorted().toList());
+        assertEquals(List.of(3L), b.stream().map(ErasureJobDao.Job::userId).toList());
+        assertEquals(1, a.get(0).attempts());
+        assertTrue(jobs.claim("c", 10).isEmpty());
+        assertEquals("RUNNING", job(b.get(0).jobId()).get("state"));
+        assertEquals("b", job(b.get(0).jobId()).get("claimed_by"));
+    }
+
+    // a failed attempt backs off (not claimable until due) and gives up at max-attempts
+    @Test
+    void retryBacksOffThenFails() {
+        jobs.enqueue(List.of(1L));
+        List<ErasureJobDao.Job> c = jobs.claim("a", 1);
+        long jobId = c.get(0).jobId();
+
+        assertEquals(0, jobs.retry(c, "a", "boom", 2, 60_000, 300_000));
+        Map<String, Object> j = job(jobId);
+        assertEquals("QUEUED", j.get("state"));
+        assertEquals("boom", j.get("last_error"));
+        assertTrue(jobs.claim("a", 1).isEmpty());    // next attempt is 30..60 s away
+
+        jdbc.update("UPDATE erasure_jobs SET next_attempt_at = now() WHERE job_id = ?", jobId);
+        c = jobs.claim("a", 1);
+        assertEquals(2, c.get(0).attempts());
+        assertEquals(1, jobs.retry(c, "a", "boom again", 2, 60_000, 300_000));
+        assertEquals("FAILED", job(jobId).get("state"));
+        assertTrue(job(jobId).get("finished_at") != null);
+    }
+
+    // a retry from a worker whose claim was taken over changes nothing
+    @Test
+    void retryIgnoresForeignClaim() {
+        jobs.enqueue(List.of(1L));
+        List<ErasureJobDao.Job> c = jobs.claim("a", 1);
+        jdbc.update("UPDATE erasure_jobs SET claimed_by = 'b'");
+
+        jobs.retry(c, "a", "late", 5, 1000, 300_000);
+        assertEquals("RUNNING", job(c.get(0).jobId()).get("state"));
+        assertEquals("b", job(c.get(0).jobId()).get("claimed_by"));
+    }
+
+    @Test
+    void staleClaimsAreRequeued() {
+        jobs.enqueue(List.of(1L, 2L));
+        List<ErasureJobDao.Job> c = jobs.claim("dead", 2);
+        jdbc.update("UPDATE erasure_jobs SET claimed_at = now() - interval '10 minutes' WHERE job_id = ?",
+                c.get(0).jobId());
+
+        assertEquals(1, jobs.requeueStale(120));
+        Map<String, Object> j = job(c.get(0).jobId());
+        assertEquals("QUEUED", j.get("state"));
+        assertEquals("claim by dead expired", j.get("last_error"));
+        assertEquals(1, ((Number) j.get("attempts")).intValue());
+        assertEquals("RUNNING", job(c.get(1).jobId()).get("state"));
+    }
+
+    @Test
+    void processCompletesTheBatch() {
+        long a = user("a"), held = user("held");
+        jdbc.update("INSERT INTO legal_holds(user_id, hold_reason) VALUES (?, 'litigation')", held);
+        ErasureQueue q = queue();
+        String node = (String) q.stats().get("node_id");
+        jobs.enqueue(List.of(a, held, 999_999L));
+
+        q.process(jobs.claim(node, 10));
+
+        Map<Object, Object> state = new HashMap<>();
+        for (Map<String, Object> r : jdbc.queryForList("SELECT user_id, state, outcome FROM erasure_jobs")) {
+            state.put(r.get("user_id"), r.get("state") + "/" + r.get("outcome"));
+        }
+        assertEquals(Map.of(a, "DONE/ERASED", held, "BLOCKED/BLOCKED_BY_HOLD", 999_999L, "DONE/NO_KEYS"), state);
+        assertEquals(0, liveKeys(a));
+        assertTrue(liveKeys(held) > 0);
+    }
+
+    // one job of the batch was requeued and reclaimed elsewhere: the erasure rolls back and the
+    // other jobs go back to the queue at once, without the attempt counted
+    @Test
+    void staleClaimReleasesTheRestOfTheBatch() {
+        long a = user("a"), b = user("b"), c = user("c");
+        ErasureQueue q = queue();
+        String node = (String) q.stats().get("node_id");
+        jobs.enqueue(List.of(a, b, c));
+        List<ErasureJobDao.Job> batch = jobs.claim(node, 10);
+        long lost = batch.stream().filter(j -> j.userId() == b).findFirst().orElseThrow().jobId();
+        jdbc.update("UPDATE erasure_jobs SET claimed_by = 'other' WHERE job_id = ?", lost);
+
+        q.process(batch);
+
+        for (long u : List.of(a, b, c)) assertTrue(liveKeys(u) > 0);
+        for (ErasureJobDao.Job j : batch) {
+            Map<String, Object> row = job(j.jobId());
+            if (j.jobId() == lost) {
+                assertEquals("RUNNING", row.get("state"));
+                assertEquals("other", row.get("claimed_by"));
+            } else {
+                assertEquals("QUEUED", row.get("state"));
+                assertEquals(0, ((Number) row.get("attempts")).intValue());
+            }
+        }
+        assertEquals(2, jobs.claim(node, 10).size());
+    }
+
+    @Test
+    void completeRejectsForeignClaim() {
+        jobs.enqueue(List.of(1L));
+        List<ErasureJobDao.Job> c = jobs.claim("a", 1);
+        jdbc.update("UPDATE erasure_jobs SET claimed_by = 'b'");
+        assertThrows(IllegalStateException.class, () -> jobs.complete(c,
+                List.of(Map.of("user_id", 1L, "outcome", "NO_KEYS", "keys_destroyed", 0)), "a"));
+    }
+}
@@ -0,0 +1,158 @@
+package edu.depaul.grap.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ManifestReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void textOneIdPerLine() throws IOException {
+        assertEquals(List.of(12L, 34L, 7L, 0L), readText("12\n 34 \r\n\n\t7\r\n0"));
+        assertEquals(List.of(Long.MAX_VALUE), readText(Long.MAX_VALUE + "\n"));
+        assertEquals(List.of(), readText("\n\r\n  \n"));
+    }
+
+    @Test
+    void textRejectsTwoIdsOnALine() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> readText("1\n12 34\n"));
+        assertTrue(e.getMessage().startsWith("line 2:"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> readText("12\t34"));
+        assertThrows(IllegalArgumentException.class, () -> readText("12\r34\n"));
+    }
+
+    @Test
+    void textRejectsGarbageAndOverflow() {
+        assertThrows(IllegalArgumentException.class, () -> readText("12,\n"));
+        assertThrows(IllegalArgumentException.class, () -> readText("-5\n"));
+        assertThrows(IllegalArgumentException.class, () -> readText("9223372036854775808\n"));
+    }
+
+    @Test
+    void binaryBigEndianIds() throws IOException {
+        assertEquals(List.of(1L, 1L << 40, Long.MAX_VALUE), read(binary(1L, 1L << 40, Long.MAX_VALUE),
+                ManifestReader.Format.BINARY, 1 << 16));
+        assertEquals(List.of(), read(new byte[0], ManifestReader.Format.BINARY, 1 << 16));
+    }
+
+    @Test
+    void binaryRejectsTrailingBytesAndNegativeIds() {
+        byte[] ragged = ByteBuffer.allocate(11).putLong(5).array();
+        assertThrows(IllegalArgumentException.class, () -> read(ragged, ManifestReader.Format.BINARY, 1 << 16));
+        assertThrows(IllegalArgumentException.class, () -> read(binary(-1), ManifestReader.Format.BINARY, 1 << 16));
+    }
+
+    // every chunk size splits ids at a different offset, including mid-id for binary
+    @Test
+    void idsSplitAcrossReads() throws IOException {
+        List<Long> ids = List.of(123456789L, 5L, 987654321012L, 0L, 42L);
+        byte[] text = "123456789\n5\r\n987654321012\n0\n42".getBytes(StandardCharsets.US_ASCII);
+        byte[] bin = binary(123456789L, 5L, 987654321012L, 0L, 42L);
+        for (int chunk = 1; chunk <= 9; chunk++) {
+            assertEquals(ids, read(text, ManifestReader.Format.TEXT, chunk), "text chunk " + chunk);
+            assertEquals(ids, read(bin, ManifestReader.Format.BINARY, chunk), "binary chunk " + chunk);
+        }
+        assertThrows(IllegalArgumentException.class, () -> read("1\n2 3".getBytes(StandardCharsets.US_ASCII),
+                ManifestReader.Format.TEXT, 1));
+    }
+
+    @Test
+    void gzipIsDetectedFromTheBytes() throws IOException {
+        assertEquals(List.of(1L, 2L, 3L), read(gzip("1\n2\n3\n".getBytes(StandardCharsets.US_ASCII)),
+                ManifestReader.Format.TEXT, 1 << 16));
+        assertEquals(List.of(9L, 10L), read(gzip(binary(9, 10)), ManifestReader.Format.BINARY, 5));
+    }
+
+    @Test
+    void largerThanOneBuffer() throws IOException {
+        int n = 50_000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) sb.append(i).append('\n');
+        List<Long> got = readText(sb.toString());
+        assertEquals(n, got.size());
+        assertEquals(n - 1L, (long) got.get(n - 1));
+    }
+
+    @Test
+    void fileMappedOrStreamed() throws IOException {
+        Path text = Files.write(dir.resolve("m.txt"), "4\n5\n6".getBytes(StandardCharsets.US_ASCII));
+        Path bin = Files.write(dir.resolve("m.bin"), binary(7, 8));
+        Path gz = Files.write(dir.resolve("m.txt.gz"), gzip("4\n5\n6\n".getBytes(StandardCharsets.US_ASCII)));
+        Path empty = Files.write(dir.resolve("empty"), new byte[0]);
+
+        assertEquals(List.of(4L, 5L, 6L), readFile(text, ManifestReader.Format.TEXT));
+        assertEquals(List.of(7L, 8L), readFile(bin, ManifestReader.Format.BINARY));
+        assertEquals(List.of(4L, 5L, 6L), readFile(gz, ManifestReader.Format.TEXT));
+        assertEquals(List.of(), readFile(empty, ManifestReader.Format.TEXT));
+    }
+
+    private static List<Long> readText(String s) throws IOException {
+        return read(s.getBytes(StandardCharsets.US_ASCII), ManifestReader.Format.TEXT, 1 << 16);
+    }
+
+    private static List<Long> read(byte[] bytes, ManifestReader.Format format, int chunk) throws IOException {
+        List<Long> out = new ArrayList<>();
+        ManifestReader.read(new Chunked(new ByteArrayInputStream(bytes), chunk), format, out::add);
+        return out;
+    }
+
+    private static List<Long> readFile(Path file, ManifestReader.Format format) throws IOException {
+        List<Long> out = new ArrayList<>();
+        ManifestReader.read(file, format, out::add);
+        return out;
+    }
+
+    private static byte[] binary(long... ids) {
+        ByteBuffer b = ByteBuffer.allocate(ids.length * 8);
+        for (long id : ids) b.putLong(id);
+        return b.array();
+    }
+
+    private static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bos)) {
+            out.write(raw);
+        }
+        return bos.toByteArray();
+    }
+
+    // hands out at most chunk bytes per read and never reports more available,
+    // so the reader's buffer fills the way a slow request body would
+    private static final class Chunked extends FilterInputStream {
+        private final int chunk;
+
+        Chunked(InputStream in, int chunk) {
+            super(in);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package edu.depaul.grap.ingest;
+
+import edu.depaul.grap.dao.GrapDao;
+import edu.depaul.grap.dto.CreateUserRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserIngestServiceTest {
+
+    private final GrapDao dao = mock(GrapDao.class);
+    private final UserIngestService ingest = new UserIngestService(dao, new JsonMapper(), 2);
+
+    private static CreateUserRequest user(String name, String email) {
+        CreateUserRequest r = new CreateUserRequest();
+        r.full_name = name;
+        r.email = email;
+        return r;
+    }
+
+    private static List<CreateUserRequest> users(int n) {
+        List<CreateUserRequest> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) rows.add(user("User " + i, "u" + i + "@example.com"));
+        return rows;
+    }
+
+    @Test
+    void loadsInChunks() {
+        when(dao.createUsersBatch(anyList())).thenAnswer(inv -> (long) inv.<List<?>>getArgument(0).size());
+        Map<String, Object> m = ingest.ingest(users(5));
+        assertEquals(5L, m.get("rows_inserted"));
+        assertEquals(3L, m.get("batches"));
+    }
+
+    @Test
+    void invalidRowLoadsNothing() {
+        List<CreateUserRequest> rows = users(4);
+        rows.get(3).email = " ";
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> ingest.ingest(rows));
+        assertTrue(e.getMessage().startsWith("row 4:"), e.getMessage());
+        verify(dao, never()).createUsersBatch(anyList());
+    }
+
+    // earlier chunks stay committed; the error has to say how many rows that was
+    @Test
+    void failingChunkReportsCommittedRows() {
+        when(dao.createUsersBatch(anyList()))
+                .thenReturn(2L)
+                .thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> ingest.ingest(users(5)));
+        assertTrue(e.getMessage().contains("rows committed before this batch: 2"), e.getMessage());
+    }
+
+    @Test
+    void failingStreamedChunkReportsCommittedRows() {
+        when(dao.createUsersBatch(anyList()))
+                .thenReturn(2L)
+                .thenThrow(new DataIntegrityViolationException("duplicate key"));
+        byte[] csv = "full_name,email\na,a@x\nb,b@x\nc,c@x\n".getBytes(StandardCharsets.UTF_8);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> ingest.ingest(new ByteArrayInputStream(csv), UserIngestService.Format.CSV));
+        assertTrue(e.getMessage().contains("rows committed before this batch: 2"), e.getMessage());
+    }
+
+    @Test
+    void badStreamedLineReportsCommittedRows() {
+        when(dao.createUsersBatch(anyList())).thenReturn(2L);
+        byte[] ndjson = ("{\"full_name\":\"a\",\"email\":\"a@x\"}\n{\"full_name\":\"b\",\"email\":\"b@x\"}\n"
+                + "{\"full_name\":\"c\"}\n").getBytes(StandardCharsets.UTF_8);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> ingest.ingest(new ByteArrayInputStream(ndjson), UserIngestService.Format.NDJSON));
+        assertTrue(e.getMessage().startsWith("line 3:"), e.getMessage());
+        assertTrue(e.getMessage().contains("rows committed before this line: 2"), e.getMessage());
+    }
+
+    @Test
+    void csvQuotesAndOptionalPhone() {
+        CreateUserRequest r = UserIngestService.parseCsv("\"Doe, \"\"JD\"\" John\",jd@example.com,");
+        assertEquals("Doe, \"JD\" John", r.full_name);
+        assertEquals("jd@example.com", r.email);
+        assertNull(r.phone);
+        assertEquals("555-0100", UserIngestService.parseCsv("a,b,555-0100").phone);
+        assertThrows(IllegalArgumentException.class, () -> UserIngestService.parseCsv("\"a,b"));
+        assertThrows(IllegalArgumentException.class, () -> UserIngestService.parseCsv("a"));
+    }
+}
@@ -0,0 +1,136 @@
+-- ============================================================
+-- Batch user ingestion with set-based shadow encryption
+--
+-- Purpose:
+--   Load many users per round trip. The application COPYs a
+--   batch into a session-local staging table and calls
+--   ingest_users_from_stage(), which inserts the batch into
+--   users in one statement and encrypts it into users_shadow
+--   set-based (one key lookup/creation pass per batch instead
+--   of three get_or_create_key calls per row).
+--
+-- Notes:
+--   The single-row path (INSERT INTO users ...) still goes
+--   through trg_users_encrypt_to_shadow unchanged. The batch
+--   INSERT skips that trigger with session_replication_role =
+--   replica (as the restore functions do), which only a
+--   superuser can set, and writes the shadow rows itself in the
+--   same call. There is no switch an ordinary session can turn
+--   on to skip shadow encryption.
+-- ============================================================
+
+-- 1) Set-based get_or_create_key: make sure every user in the array has an
+--    active key per purpose for the bucket, and return all of them.
+--    Relies on ux_key_store_active (10_key_store_unique_active.sql).
+CREATE OR REPLACE FUNCTION ensure_user_keys(
+  p_user_ids BIGINT[],
+  p_bucket DATE
+) RETURNS TABLE(user_id BIGINT, purpose TEXT, key_id BIGINT, key_material TEXT)
+LANGUAGE plpgsql
+AS $$
+#variable_conflict use_column
+BEGIN
+  INSERT INTO key_store(user_id, purpose, bucket_date, key_material)
+  SELECT u.id, p.purpose, p_bucket, encode(gen_random_bytes(32), 'base64')
+  FROM (SELECT DISTINCT id FROM unnest(p_user_ids) AS t(id)) u
+  CROSS JOIN (VALUES ('name'), ('email'), ('phone')) AS p(purpose)
+  ON CONFLICT (user_id, purpose, bucket_date) WHERE destroyed_at IS NULL
+  DO NOTHING;
+
+  RETURN QUERY
+  SELECT ks.user_id, ks.purpose, ks.key_id, ks.key_material
+  FROM key_store ks
+  WHERE ks.user_id = ANY(p_user_ids)
+    AND ks.bucket_date = p_bucket
+    AND ks.destroyed_at IS NULL;
+END;
+$$;
+
+
+-- 2) Set-based shadow encryption for a batch of users
+CREATE OR REPLACE FUNCTION shadow_encrypt_users(p_user_ids BIGINT[])
+RETURNS BIGINT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_rows BIGINT;
+BEGIN
+  WITH k AS MATERIALIZED (
+    SELECT * FROM ensure_user_keys(p_user_ids, CURRENT_DATE)
+  )
+  INSERT INTO users_shadow(
+    user_id,
+    full_name_enc, email_enc, phone_enc,
+    key_id_name, key_id_email, key_id_phone,
+    enc_version, updated_at
+  )
+  SELECT
+    u.user_id,
+    sym_encrypt_nullable(u.full_name, kn.key_material),
+    sym_encrypt_nullable(u.email, ke.key_material),
+    sym_encrypt_nullable(u.phone, kp.key_material),
+    kn.key_id, ke.key_id, kp.key_id,
+    1, now()
+  FROM users u
+  JOIN k kn ON kn.user_id = u.user_id AND kn.purpose = 'name'
+  JOIN k ke ON ke.user_id = u.user_id AND ke.purpose = 'email'
+  JOIN k kp ON kp.user_id = u.user_id AND kp.purpose = 'phone'
+  WHERE u.user_id = ANY(p_user_ids)
+  ON CONFLICT (user_id) DO UPDATE SET
+    full_name_enc = EXCLUDED.full_name_enc,
+    email_enc     = EXCLUDED.email_enc,
+    phone_enc     = EXCLUDED.phone_enc,
+    key_id_name   = EXCLUDED.key_id_name,
+    key_id_email  = EXCLUDED.key_id_email,
+    key_id_phone  = EXCLUDED.key_id_phone,
+    enc_version   = EXCLUDED.enc_version,
+    updated_at    = now();
+
+  GET DIAGNOSTICS v_rows = ROW_COUNT;
+  RETURN v_rows;
+END;
+$$;
+
+
+-- 3) Insert the staged batch into users, then encrypt it set-based.
+--    Caller creates and fills the session-local staging table:
+--      CREATE TEMP TABLE IF NOT EXISTS users_ingest_stage(
+--        ord BIGINT, full_name TEXT, email TEXT, phone TEXT
+--      ) ON COMMIT DELETE ROWS;
+--      COPY users_ingest_stage(ord, full_name, email, phone) FROM STDIN ...
+CREATE OR REPLACE FUNCTION ingest_users_from_stage()
+RETURNS BIGINT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_ids BIGINT[];
+BEGIN
+  -- per-row shadow trigger off for the batch INSERT only (encrypted set-based below)
+  PERFORM set_config('session_replication_role', 'replica', true);
+
+  WITH ins AS (
+    INSERT INTO users(full_name, email, phone)
+    SELECT full_name, email, phone
+    FROM users_ingest_stage
+    ORDER BY ord
+    RETURNING user_id
+  )
+  SELECT array_agg(user_id) INTO v_ids FROM ins;
+
+  PERFORM set_config('session_replication_role', 'origin', true);
+
+  IF v_ids IS NULL THEN
+    RETURN 0;
+  END IF;
+
+  PERFORM shadow_encrypt_users(v_ids);
+
+  DELETE FROM users_ingest_stage;
+
+  RETURN array_length(v_ids, 1);
+
+EXCEPTION WHEN OTHERS THEN
+  PERFORM set_config('session_replication_role', 'origin', true);
+  RAISE;
+END;
+$$;
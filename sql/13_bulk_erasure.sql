@@ -0,0 +1,92 @@
+-- ============================================================
+-- Bulk cryptographic erasure
+--
+-- Purpose:
+--   Erase a whole batch of users in one call with the same
+--   semantics as destroy_user_keys (09_erasure_phase6.sql):
+--     - one CRYPTO_ERASE_ATTEMPT audit row per user
+--     - held users get CRYPTO_ERASE_BLOCKED and keep their keys
+--     - everyone else gets keys destroyed + CRYPTO_ERASE_SUCCESS
+--
+--   Differences from the single-user function:
+--     - hold check, key update and audit inserts are one
+--       statement each for the whole batch
+--     - a held user does NOT raise; it is reported per user so
+--       the rest of the batch still commits
+--
+-- Returns one row per distinct requested user:
+--   outcome = 'ERASED' | 'BLOCKED_BY_HOLD' | 'NO_KEYS'
+-- ============================================================
+
+CREATE OR REPLACE FUNCTION destroy_user_keys_bulk(
+  p_user_ids BIGINT[],
+  p_purpose TEXT DEFAULT NULL
+) RETURNS TABLE(user_id BIGINT, outcome TEXT, keys_destroyed INT)
+LANGUAGE plpgsql
+AS $$
+#variable_conflict use_column
+DECLARE
+  v_req   BIGINT[];
+  v_held  BIGINT[];
+  v_erase BIGINT[];
+BEGIN
+  SELECT array_agg(DISTINCT id) INTO v_req
+  FROM unnest(p_user_ids) AS t(id)
+  WHERE id IS NOT NULL;
+
+  IF v_req IS NULL THEN
+    RETURN;
+  END IF;
+
+  -- 1) One hold check for the whole set
+  SELECT COALESCE(array_agg(DISTINCT lh.user_id), '{}') INTO v_held
+  FROM legal_holds lh
+  WHERE lh.user_id = ANY(v_req)
+    AND lh.released_at IS NULL;
+
+  SELECT COALESCE(array_agg(id), '{}') INTO v_erase
+  FROM (SELECT unnest(v_req) EXCEPT SELECT unnest(v_held)) AS t(id);
+
+  -- 2) Log the attempts
+  INSERT INTO deletion_audit(user_id, action, reason, legal_hold_active)
+  SELECT r.id, 'CRYPTO_ERASE_ATTEMPT', COALESCE(p_purpose, 'ALL'), h.id IS NOT NULL
+  FROM unnest(v_req) AS r(id)
+  LEFT JOIN unnest(v_held) AS h(id) ON h.id = r.id;
+
+  -- 3) Log the blocks (no exception: the rest of the batch proceeds)
+  INSERT INTO deletion_audit(user_id, action, reason, legal_hold_active)
+  SELECT h.id, 'CRYPTO_ERASE_BLOCKED', 'Active legal hold', true
+  FROM unnest(v_held) AS h(id);
+
+  -- 4) Destroy keys for everyone not held, log success, report per user
+  RETURN QUERY
+  WITH destroyed AS (
+    UPDATE key_store ks
+    SET
+      destroyed_at = now(),
+      key_material = 'DESTROYED'
+    WHERE ks.user_id = ANY(v_erase)
+      AND ks.destroyed_at IS NULL
+      AND (p_purpose IS NULL OR ks.purpose = p_purpose)
+    RETURNING ks.user_id
+  ),
+  counts AS (
+    SELECT e.id AS user_id, count(d.user_id)::INT AS n
+    FROM unnest(v_erase) AS e(id)
+    LEFT JOIN destroyed d ON d.user_id = e.id
+    GROUP BY e.id
+  ),
+  success AS (
+    INSERT INTO deletion_audit(user_id, action, reason, legal_hold_active, keys_affected)
+    SELECT c.user_id, 'CRYPTO_ERASE_SUCCESS', COALESCE(p_purpose, 'ALL'), false, c.n
+    FROM counts c
+  )
+  SELECT c.user_id,
+         CASE WHEN c.n > 0 THEN 'ERASED' ELSE 'NO_KEYS' END,
+         c.n
+  FROM counts c
+  UNION ALL
+  SELECT h.id, 'BLOCKED_BY_HOLD', 0
+  FROM unnest(v_held) AS h(id);
+END;
+$$;
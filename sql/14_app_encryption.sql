@@ -0,0 +1,133 @@
+-- ============================================================
+-- Application-side (JVM) shadow encryption support
+--
+-- enc_version in users_shadow:
+--   1 = pgp_sym_encrypt inside Postgres (trigger / batch path)
+--   2 = AES-256-GCM done by the Spring app (grap.crypto.mode=app)
+--       using the same key_store data keys
+--
+-- Postgres cannot decrypt version 2 (pgcrypto has no GCM), so the
+-- SQL restore below only handles version 1 rows. The app restores
+-- version 2 rows itself with the same decrypt-or-tombstone rules.
+-- ============================================================
+
+-- 1) Inserts for app mode: the row goes in with the shadow trigger skipped
+--    (session_replication_role = replica, superuser only, for that INSERT
+--    alone) and the plaintext goes back to the caller, which encrypts and
+--    writes users_shadow in the same transaction.
+CREATE OR REPLACE FUNCTION ingest_users_from_stage_deferred()
+RETURNS TABLE(user_id BIGINT, full_name TEXT, email TEXT, phone TEXT)
+LANGUAGE plpgsql
+AS $$
+#variable_conflict use_column
+BEGIN
+  PERFORM set_config('session_replication_role', 'replica', true);
+
+  RETURN QUERY
+  WITH ins AS (
+    INSERT INTO users(full_name, email, phone)
+    SELECT st.full_name, st.email, st.phone
+    FROM users_ingest_stage st
+    ORDER BY st.ord
+    RETURNING users.user_id, users.full_name, users.email, users.phone
+  )
+  SELECT * FROM ins;
+
+  PERFORM set_config('session_replication_role', 'origin', true);
+
+  DELETE FROM users_ingest_stage;
+
+  RETURN;
+
+EXCEPTION WHEN OTHERS THEN
+  PERFORM set_config('session_replication_role', 'origin', true);
+  RAISE;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION create_user_deferred(p_full_name TEXT, p_email TEXT, p_phone TEXT)
+RETURNS TABLE(user_id BIGINT, created_at TIMESTAMPTZ)
+LANGUAGE plpgsql
+AS $$
+#variable_conflict use_column
+BEGIN
+  PERFORM set_config('session_replication_role', 'replica', true);
+
+  RETURN QUERY
+  WITH ins AS (
+    INSERT INTO users(full_name, email, phone)
+    VALUES (p_full_name, p_email, p_phone)
+    RETURNING users.user_id, users.created_at
+  )
+  SELECT * FROM ins;
+
+  PERFORM set_config('session_replication_role', 'origin', true);
+
+EXCEPTION WHEN OTHERS THEN
+  PERFORM set_config('session_replication_role', 'origin', true);
+  RAISE;
+END;
+$$;
+
+
+-- 2) Restore (same as 06_restore.sql) limited to pgcrypto rows
+CREATE OR REPLACE FUNCTION restore_users_from_shadow()
+RETURNS BIGINT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_rows BIGINT;
+BEGIN
+  -- Suppress user triggers during restore (prevents key recreation and shadow rewrites)
+  PERFORM set_config('session_replication_role', 'replica', true);
+
+  INSERT INTO users(user_id, full_name, email, phone, created_at)
+  SELECT
+    s.user_id,
+
+    -- full_name is NOT NULL: tombstone must be non-null
+    CASE
+      WHEN ks_name.destroyed_at IS NULL AND ks_name.key_material <> 'DESTROYED'
+        THEN sym_decrypt_nullable(s.full_name_enc, ks_name.key_material)
+      ELSE '[REDACTED user_id=' || s.user_id::text || ']'
+    END AS full_name,
+
+    -- email is UNIQUE NOT NULL: tombstone must be non-null AND UNIQUE
+    CASE
+      WHEN ks_email.destroyed_at IS NULL AND ks_email.key_material <> 'DESTROYED'
+        THEN sym_decrypt_nullable(s.email_enc, ks_email.key_material)
+      ELSE 'deleted+' || s.user_id::text || '@example.invalid'
+    END AS email,
+
+    -- phone is nullable: can be NULL on redaction
+    CASE
+      WHEN ks_phone.destroyed_at IS NULL AND ks_phone.key_material <> 'DESTROYED'
+        THEN sym_decrypt_nullable(s.phone_enc, ks_phone.key_material)
+      ELSE NULL
+    END AS phone,
+
+    now() AS created_at
+  FROM users_shadow s
+  LEFT JOIN key_store ks_name  ON ks_name.key_id  = s.key_id_name
+  LEFT JOIN key_store ks_email ON ks_email.key_id = s.key_id_email
+  LEFT JOIN key_store ks_phone ON ks_phone.key_id = s.key_id_phone
+  WHERE s.enc_version = 1
+  ON CONFLICT (user_id) DO UPDATE SET
+    full_name  = EXCLUDED.full_name,
+    email      = EXCLUDED.email,
+    phone      = EXCLUDED.phone,
+    created_at = EXCLUDED.created_at;
+
+  GET DIAGNOSTICS v_rows = ROW_COUNT;
+
+  -- Restore trigger behavior
+  PERFORM set_config('session_replication_role', 'origin', true);
+
+  RETURN v_rows;
+
+EXCEPTION WHEN OTHERS THEN
+  -- Always restore trigger behavior even if something fails
+  PERFORM set_config('session_replication_role', 'origin', true);
+  RAISE;
+END;
+$$;
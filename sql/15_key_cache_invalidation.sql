@@ -0,0 +1,82 @@
+-- ============================================================
+-- Key material cache invalidation (app nodes)
+--
+-- Purpose:
+--   App nodes may cache live key_store rows in memory. A key that
+--   has been destroyed must never be served from any node's cache.
+--
+-- How:
+--   1) Every UPDATE on key_store that destroys keys (any path:
+--      destroy_user_keys, destroy_user_keys_bulk, manual SQL)
+--      logs the affected user_ids with the writing transaction id.
+--   2) Each node polls the log, evicts those users, and acks with
+--      the snapshot it polled at: "every transaction visible in
+--      acked_snapshot has been evicted here". A node also holds a
+--      lease; when its lease lapses it stops using its cache.
+--   3) The destroying call waits until its own xid is visible in the
+--      acked snapshot of every node with a live lease before
+--      reporting success (pg_visible_in_snapshot). Acking a snapshot
+--      rather than its xmin means a long-running transaction elsewhere
+--      does not hold erasures up.
+--   4) A node that has not acked within lease + two polls may still
+--      serve the keys. The call then reports the erasure pending
+--      eviction (cache_eviction_confirmed = false) and every user the
+--      transaction destroyed keys of gets a KEY_CACHE_EVICTION_PENDING
+--      deletion_audit row.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS key_invalidation_log (
+  seq         BIGSERIAL PRIMARY KEY,
+  user_id     BIGINT NOT NULL,
+  txid        XID8 NOT NULL DEFAULT pg_current_xact_id(),
+  created_at  TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS idx_key_invalidation_log_txid
+ON key_invalidation_log(txid);
+
+CREATE INDEX IF NOT EXISTS idx_key_invalidation_log_created
+ON key_invalidation_log(created_at);
+
+
+CREATE TABLE IF NOT EXISTS key_cache_nodes (
+  node_id         TEXT PRIMARY KEY,
+  acked_snapshot  PG_SNAPSHOT NOT NULL,
+  lease_until     TIMESTAMPTZ NOT NULL,
+  started_at      TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+
+-- Statement-level so a bulk destroy of N users logs once per user, not per key
+CREATE OR REPLACE FUNCTION trg_key_store_log_destroyed()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  INSERT INTO key_invalidation_log(user_id)
+  SELECT DISTINCT n.user_id
+  FROM new_rows n
+  JOIN old_rows o ON o.key_id = n.key_id
+  WHERE o.destroyed_at IS NULL
+    AND n.destroyed_at IS NOT NULL;
+
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS key_store_log_destroyed ON key_store;
+
+CREATE TRIGGER key_store_log_destroyed
+AFTER UPDATE ON key_store
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_key_store_log_destroyed();
+
+
+-- Audit action for erasures whose cache eviction was not confirmed (GrapDao)
+ALTER TABLE deletion_audit DROP CONSTRAINT IF EXISTS deletion_audit_action_check;
+ALTER TABLE deletion_audit
+  ADD CONSTRAINT deletion_audit_action_check CHECK (action IN ('CRYPTO_ERASE_ATTEMPT',
+                                                              'CRYPTO_ERASE_BLOCKED',
+                                                              'CRYPTO_ERASE_SUCCESS',
+                                                              'KEY_CACHE_EVICTION_PENDING'));
@@ -0,0 +1,101 @@
+-- ============================================================
+-- Bitmap-encoded backup membership catalog
+--
+-- Purpose:
+--   Alternative to backup_user_index (one row per backup/user pair).
+--   Stores ONE compressed bitmap of user_ids per backup, in the
+--   portable Roaring format (same layout CRoaring/pg_roaringbitmap
+--   read), written and read by the Spring app.
+--
+--   The app picks the format with grap.backup-catalog.format
+--   (table | bitmap). Migration from backup_user_index is done by
+--   the app (POST /api/admin/backups/catalog/migrate) and leaves the
+--   table rows in place until an operator drops them.
+--
+-- Notes:
+--   Roaring is 32-bit: user_id must be <= 4294967295 in bitmap mode.
+--   Per-pair first_seen/last_seen are not kept in bitmap mode.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS backup_user_bitmap (
+  backup_id    BIGINT PRIMARY KEY REFERENCES backup_runs(backup_id) ON DELETE CASCADE,
+  users        BYTEA NOT NULL,           -- serialized RoaringBitmap
+  cardinality  BIGINT NOT NULL,
+  version      BIGINT NOT NULL DEFAULT 1, -- bumped on every rewrite (app cache key)
+  updated_at   TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+
+-- Protection core that takes the affected backups explicitly, so it works
+-- for either membership format. Same behaviour as 11_backup_protection.sql.
+CREATE OR REPLACE FUNCTION protect_backups_for_legal_hold_ids(
+  p_user_id BIGINT,
+  p_backup_ids BIGINT[]
+)
+RETURNS TABLE(backup_id BIGINT, backup_type TEXT, started_at TIMESTAMPTZ, ended_at TIMESTAMPTZ, protected_reason TEXT)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_hold_id BIGINT;
+  v_reason  TEXT;
+BEGIN
+  -- Ensure there is an active legal hold
+  SELECT lh.hold_id, lh.hold_reason
+  INTO v_hold_id, v_reason
+  FROM legal_holds lh
+  WHERE lh.user_id = p_user_id
+    AND lh.released_at IS NULL
+  ORDER BY lh.created_at DESC
+  LIMIT 1;
+
+  IF v_hold_id IS NULL THEN
+    RAISE EXCEPTION 'No active legal hold for user %', p_user_id
+      USING ERRCODE = '45000';
+  END IF;
+
+  -- Protect ONLY the given backups
+  UPDATE backup_runs b
+  SET
+    protected_by_hold = true,
+    protected_reason  = 'Legal hold ' || v_hold_id::text || ' for user_id=' || p_user_id::text || ' (' || v_reason || ')',
+    protected_at      = now()
+  WHERE b.backup_id = ANY(p_backup_ids);
+
+  -- Write protection audit entries for each impacted backup
+  INSERT INTO backup_protection_audit(user_id, hold_id, backup_id, action, reason)
+  SELECT
+    p_user_id,
+    v_hold_id,
+    b.backup_id,
+    'PROTECT',
+    'Marked backup as protected due to active legal hold'
+  FROM backup_runs b
+  WHERE b.backup_id = ANY(p_backup_ids)
+  ON CONFLICT DO NOTHING;
+
+  -- Return the protected backups
+  RETURN QUERY
+  SELECT
+    b.backup_id,
+    b.backup_type,
+    b.started_at,
+    b.ended_at,
+    b.protected_reason
+  FROM backup_runs b
+  WHERE b.backup_id = ANY(p_backup_ids)
+  ORDER BY b.backup_id;
+END;
+$$;
+
+
+-- Table-format entry point keeps its signature and delegates
+CREATE OR REPLACE FUNCTION protect_backups_for_legal_hold(p_user_id BIGINT)
+RETURNS TABLE(backup_id BIGINT, backup_type TEXT, started_at TIMESTAMPTZ, ended_at TIMESTAMPTZ, protected_reason TEXT)
+LANGUAGE sql
+AS $$
+  SELECT *
+  FROM protect_backups_for_legal_hold_ids(
+    p_user_id,
+    ARRAY(SELECT bi.backup_id FROM backup_user_index bi WHERE bi.user_id = p_user_id)
+  );
+$$;
@@ -0,0 +1,119 @@
+-- ============================================================
+-- Chunked, resumable, parallel restore from users_shadow
+--
+-- Purpose:
+--   restore_users_from_shadow() restores the whole table in one
+--   statement and one transaction. The app restore engine instead
+--   splits users_shadow into user_id ranges, walks each range with
+--   keyset pagination and commits one chunk at a time, checkpointing
+--   the range cursor in the same transaction as the chunk.
+--
+--   Same decrypt-or-tombstone rules as 06_restore.sql. enc_version 2
+--   rows (14_app_encryption.sql) are restored by the app in the same
+--   chunk transaction.
+-- ============================================================
+
+-- 1) Restore core for an explicit set of user_ids (enc_version 1 rows).
+--    "redacted" = at least one field came back as a tombstone.
+CREATE OR REPLACE FUNCTION restore_users_from_shadow_ids(p_user_ids BIGINT[])
+RETURNS TABLE(rows_restored BIGINT, decrypted BIGINT, redacted BIGINT)
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  -- Suppress user triggers during restore (prevents key recreation and shadow rewrites)
+  PERFORM set_config('session_replication_role', 'replica', true);
+
+  RETURN QUERY
+  WITH src AS (
+    SELECT
+      s.user_id,
+
+      CASE
+        WHEN ks_name.destroyed_at IS NULL AND ks_name.key_material <> 'DESTROYED'
+          THEN sym_decrypt_nullable(s.full_name_enc, ks_name.key_material)
+        ELSE '[REDACTED user_id=' || s.user_id::text || ']'
+      END AS full_name,
+
+      CASE
+        WHEN ks_email.destroyed_at IS NULL AND ks_email.key_material <> 'DESTROYED'
+          THEN sym_decrypt_nullable(s.email_enc, ks_email.key_material)
+        ELSE 'deleted+' || s.user_id::text || '@example.invalid'
+      END AS email,
+
+      CASE
+        WHEN ks_phone.destroyed_at IS NULL AND ks_phone.key_material <> 'DESTROYED'
+          THEN sym_decrypt_nullable(s.phone_enc, ks_phone.key_material)
+        ELSE NULL
+      END AS phone,
+
+      NOT (
+        coalesce(ks_name.destroyed_at IS NULL AND ks_name.key_material <> 'DESTROYED', false)
+        AND coalesce(ks_email.destroyed_at IS NULL AND ks_email.key_material <> 'DESTROYED', false)
+        AND coalesce(ks_phone.destroyed_at IS NULL AND ks_phone.key_material <> 'DESTROYED', false)
+      ) AS is_redacted
+    FROM users_shadow s
+    LEFT JOIN key_store ks_name  ON ks_name.key_id  = s.key_id_name
+    LEFT JOIN key_store ks_email ON ks_email.key_id = s.key_id_email
+    LEFT JOIN key_store ks_phone ON ks_phone.key_id = s.key_id_phone
+    WHERE s.user_id = ANY(p_user_ids)
+      AND s.enc_version = 1
+  ),
+  ins AS (
+    INSERT INTO users(user_id, full_name, email, phone, created_at)
+    SELECT src.user_id, src.full_name, src.email, src.phone, now()
+    FROM src
+    ON CONFLICT (user_id) DO UPDATE SET
+      full_name  = EXCLUDED.full_name,
+      email      = EXCLUDED.email,
+      phone      = EXCLUDED.phone,
+      created_at = EXCLUDED.created_at
+    RETURNING users.user_id
+  )
+  SELECT
+    count(*)::bigint,
+    count(*) FILTER (WHERE NOT src.is_redacted)::bigint,
+    count(*) FILTER (WHERE src.is_redacted)::bigint
+  FROM ins
+  JOIN src ON src.user_id = ins.user_id;
+
+  PERFORM set_config('session_replication_role', 'origin', true);
+
+EXCEPTION WHEN OTHERS THEN
+  PERFORM set_config('session_replication_role', 'origin', true);
+  RAISE;
+END;
+$$;
+
+
+-- 2) Restore jobs and their per-range checkpoints
+CREATE TABLE IF NOT EXISTS restore_jobs (
+  job_id          BIGSERIAL PRIMARY KEY,
+  mode            TEXT NOT NULL DEFAULT 'FULL',
+  chunk_size      INT NOT NULL,
+  workers         INT NOT NULL,
+  state           TEXT NOT NULL DEFAULT 'RUNNING'
+                  CHECK (state IN ('RUNNING', 'PAUSED', 'DONE', 'FAILED')),
+  total_estimate  BIGINT,
+  last_error      TEXT,
+  created_at      TIMESTAMPTZ NOT NULL DEFAULT now(),
+  finished_at     TIMESTAMPTZ
+);
+
+-- cursor = last user_id committed in [lo, hi]; a range is resumed from cursor
+CREATE TABLE IF NOT EXISTS restore_job_ranges (
+  job_id         BIGINT NOT NULL REFERENCES restore_jobs(job_id) ON DELETE CASCADE,
+  range_no       INT NOT NULL,
+  lo             BIGINT NOT NULL,
+  hi             BIGINT NOT NULL,
+  cursor         BIGINT NOT NULL,
+  state          TEXT NOT NULL DEFAULT 'PENDING'
+                 CHECK (state IN ('PENDING', 'RUNNING', 'DONE', 'FAILED')),
+  rows_restored  BIGINT NOT NULL DEFAULT 0,
+  decrypted      BIGINT NOT NULL DEFAULT 0,
+  redacted       BIGINT NOT NULL DEFAULT 0,
+  chunks         BIGINT NOT NULL DEFAULT 0,
+  claimed_by     TEXT,
+  heartbeat_at   TIMESTAMPTZ,
+  last_error     TEXT,
+  PRIMARY KEY (job_id, range_no)
+);
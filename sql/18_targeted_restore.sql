@@ -0,0 +1,39 @@
+-- ============================================================
+-- Incremental and targeted restore
+--
+-- Purpose:
+--   Restore only part of users_shadow with the chunked restore
+--   engine (17_chunked_restore.sql):
+--     RANGE - user_id BETWEEN from AND to
+--     SINCE - rows with updated_at >= T (walked in (updated_at, user_id)
+--             order, so work scales with the delta, not the table)
+--   A plain list of user_ids is restored directly with
+--   restore_users_from_shadow_ids().
+-- ============================================================
+
+-- keyset walk for SINCE jobs; many rows share one updated_at (batch ingest)
+CREATE INDEX IF NOT EXISTS idx_users_shadow_updated_user
+ON users_shadow(updated_at, user_id);
+
+ALTER TABLE restore_jobs
+ADD COLUMN IF NOT EXISTS from_user_id BIGINT;
+
+ALTER TABLE restore_jobs
+ADD COLUMN IF NOT EXISTS to_user_id BIGINT;
+
+ALTER TABLE restore_jobs
+ADD COLUMN IF NOT EXISTS since_ts TIMESTAMPTZ;
+
+-- SINCE jobs cover [since_ts, until_ts); until_ts = job creation time
+ALTER TABLE restore_jobs
+ADD COLUMN IF NOT EXISTS until_ts TIMESTAMPTZ;
+
+-- SINCE ranges are updated_at slices [ts_lo, ts_hi); the cursor is (cursor_ts, cursor)
+ALTER TABLE restore_job_ranges
+ADD COLUMN IF NOT EXISTS ts_lo TIMESTAMPTZ;
+
+ALTER TABLE restore_job_ranges
+ADD COLUMN IF NOT EXISTS ts_hi TIMESTAMPTZ;
+
+ALTER TABLE restore_job_ranges
+ADD COLUMN IF NOT EXISTS cursor_ts TIMESTAMPTZ;
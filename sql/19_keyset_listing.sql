@@ -0,0 +1,21 @@
+-- ============================================================
+-- Keyset pagination support for list endpoints
+--
+-- Purpose:
+--   GET /api/users, /api/admin/backups, /api/admin/users/{id}/backups
+--   and /api/admin/holds page with "WHERE key < :after ORDER BY key
+--   DESC LIMIT n" (or stream the same query as NDJSON). These
+--   indexes let every page start at the cursor instead of scanning
+--   from the top.
+-- ============================================================
+
+-- active holds, newest first
+CREATE INDEX IF NOT EXISTS idx_legal_holds_active_hold
+ON legal_holds(hold_id)
+WHERE released_at IS NULL;
+
+-- backups containing a user, newest first (supersedes idx_backup_user_index_user)
+CREATE INDEX IF NOT EXISTS idx_backup_user_index_user_backup
+ON backup_user_index(user_id, backup_id);
+
+DROP INDEX IF EXISTS idx_backup_user_index_user;
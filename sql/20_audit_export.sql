@@ -0,0 +1,15 @@
+-- ============================================================
+-- Audit export (deletion_audit, backup_protection_audit)
+--
+-- Purpose:
+--   GET /api/admin/audit/{deletion|backup-protection}/export reads
+--   the audit tables in (occurred_at, audit_id) order, one bounded
+--   keyset batch per query, optionally filtered by time range and
+--   user. These indexes make every batch start at the cursor.
+-- ============================================================
+
+CREATE INDEX IF NOT EXISTS idx_deletion_audit_time_id
+ON deletion_audit(occurred_at, audit_id);
+
+CREATE INDEX IF NOT EXISTS idx_backup_protection_audit_time_id
+ON backup_protection_audit(occurred_at, audit_id);
@@ -0,0 +1,60 @@
+-- ============================================================
+-- Durable erasure job queue
+--
+-- Purpose:
+--   POST /api/users/{id}/destroy-keys?async=true (and the bulk
+--   enqueue endpoint) insert a job here and return its job_id
+--   instead of erasing in the request thread. App workers on any
+--   number of nodes claim due jobs in batches with
+--   FOR UPDATE SKIP LOCKED and run destroy_user_keys_bulk
+--   (13_bulk_erasure.sql, same semantics as destroy_user_keys).
+--
+--   The job's outcome is written in the same transaction as the
+--   key destruction and its audit rows, so a job is DONE exactly
+--   when its erasure committed.
+--
+-- States:
+--   QUEUED   waiting (next_attempt_at = earliest retry time)
+--   RUNNING  claimed by claimed_by; requeued if claimed_at goes stale
+--   DONE     erased, or had no live keys (outcome ERASED | NO_KEYS)
+--   BLOCKED  user under legal hold (outcome BLOCKED_BY_HOLD); not retried
+--   FAILED   gave up after max attempts (last_error)
+--
+-- Dedup:
+--   At most one QUEUED/RUNNING job per user. A retried request
+--   gets the open job back instead of a second job, so portal
+--   retries no longer produce extra CRYPTO_ERASE_ATTEMPT rows.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS erasure_jobs (
+  job_id           BIGSERIAL PRIMARY KEY,
+  user_id          BIGINT NOT NULL,
+  state            TEXT NOT NULL DEFAULT 'QUEUED'
+                     CHECK (state IN ('QUEUED', 'RUNNING', 'DONE', 'BLOCKED', 'FAILED')),
+  attempts         INT NOT NULL DEFAULT 0,
+  next_attempt_at  TIMESTAMPTZ NOT NULL DEFAULT now(),
+  claimed_by       TEXT,
+  claimed_at       TIMESTAMPTZ,
+  outcome          TEXT,
+  keys_destroyed   INT,
+  last_error       TEXT,
+  created_at       TIMESTAMPTZ NOT NULL DEFAULT now(),
+  finished_at      TIMESTAMPTZ
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_erasure_jobs_open_user
+  ON erasure_jobs(user_id) WHERE state IN ('QUEUED', 'RUNNING');
+
+-- claim order: due first, then FIFO
+CREATE INDEX IF NOT EXISTS idx_erasure_jobs_due
+  ON erasure_jobs(next_attempt_at, job_id) WHERE state = 'QUEUED';
+
+CREATE INDEX IF NOT EXISTS idx_erasure_jobs_running
+  ON erasure_jobs(claimed_at) WHERE state = 'RUNNING';
+
+CREATE INDEX IF NOT EXISTS idx_erasure_jobs_user
+  ON erasure_jobs(user_id, job_id);
+
+-- recent completions for the queue stats
+CREATE INDEX IF NOT EXISTS idx_erasure_jobs_finished
+  ON erasure_jobs(finished_at) WHERE finished_at IS NOT NULL;
@@ -0,0 +1,125 @@
+-- ============================================================
+-- Rolling key rotation / shadow re-encryption
+--
+-- Purpose:
+--   users_shadow rows keep the cipher (enc_version) and the daily
+--   key bucket they were written with. A re-encryption job walks
+--   users_shadow in user_id order and rewrites rows that are stale:
+--     - enc_version <> the job's target_version, or
+--     - any field's key is from a bucket older than key_cutoff
+--   with a key from today's bucket (and the target cipher), then
+--   points key_id_* at the new keys and retires the old ones.
+--
+--   The app does the batches (ReencryptDao): one transaction per
+--   batch, cursor advanced in the same transaction, so a restart
+--   resumes after the last committed batch.
+--
+-- Locking:
+--   - only users_shadow rows are locked (FOR UPDATE SKIP LOCKED;
+--     a row a live write holds is skipped and picked up by the
+--     next pass); users is never read or locked
+--   - the old keys are locked FOR SHARE before decrypting, so a
+--     concurrent erasure either finishes first (field skipped) or
+--     waits for the batch to commit (see 2) below)
+--
+-- Destroyed keys:
+--   A field whose key is destroyed is never re-encrypted: its
+--   ciphertext and key_id stay as they are. A row with any
+--   destroyed field keeps its enc_version (live fields are only
+--   re-keyed), since enc_version is per row.
+--
+-- Retired keys:
+--   A replaced key is marked retired_at once no users_shadow row
+--   references it. It stays readable for the retire grace period
+--   (backups taken before the rotation still reference it), after
+--   which the app purges it like a destroyed key.
+-- ============================================================
+
+ALTER TABLE key_store ADD COLUMN IF NOT EXISTS retired_at TIMESTAMPTZ;
+
+CREATE INDEX IF NOT EXISTS idx_key_store_retired
+  ON key_store(retired_at) WHERE retired_at IS NOT NULL AND destroyed_at IS NULL;
+
+
+-- 1) Jobs
+--   RUNNING  a node holds claimed_by and keeps heartbeat_at fresh;
+--            a claim silent for the stale timeout is taken over
+--   PAUSED   stopped after the last committed batch
+--   DONE     the last pass found no stale row it could not lock
+--   FAILED   gave up (last_error); resume continues from the cursor
+CREATE TABLE IF NOT EXISTS reencrypt_jobs (
+  job_id                    BIGSERIAL PRIMARY KEY,
+  state                     TEXT NOT NULL DEFAULT 'RUNNING'
+                              CHECK (state IN ('RUNNING', 'PAUSED', 'DONE', 'FAILED')),
+  target_version            INT NOT NULL CHECK (target_version IN (1, 2)),
+  key_cutoff                DATE NOT NULL,      -- keys from buckets before this are rotated
+  batch_size                INT NOT NULL,
+  rows_per_sec              INT NOT NULL,
+  max_user_id               BIGINT NOT NULL,    -- users_shadow max(user_id) at start (progress)
+  cursor_user_id            BIGINT NOT NULL DEFAULT 0,
+  pass                      INT NOT NULL DEFAULT 1,
+  max_passes                INT NOT NULL,
+  rows_scanned              BIGINT NOT NULL DEFAULT 0,
+  rows_reencrypted          BIGINT NOT NULL DEFAULT 0,
+  rows_skipped_locked       BIGINT NOT NULL DEFAULT 0,
+  pass_skipped_locked       BIGINT NOT NULL DEFAULT 0,
+  fields_skipped_destroyed  BIGINT NOT NULL DEFAULT 0,
+  keys_created              BIGINT NOT NULL DEFAULT 0,
+  keys_retired              BIGINT NOT NULL DEFAULT 0,
+  batches                   BIGINT NOT NULL DEFAULT 0,
+  claimed_by                TEXT,
+  heartbeat_at              TIMESTAMPTZ,
+  last_error                TEXT,
+  created_at                TIMESTAMPTZ NOT NULL DEFAULT now(),
+  finished_at               TIMESTAMPTZ
+);
+
+-- one open job at a time
+CREATE UNIQUE INDEX IF NOT EXISTS uq_reencrypt_jobs_open
+  ON reencrypt_jobs((true)) WHERE state IN ('RUNNING', 'PAUSED');
+
+
+-- 2) Erasure vs. rotation
+--   A batch inserts today's key for a user and commits it with the
+--   shadow row pointing at it. An erasure UPDATE that started before
+--   that commit (and waited on the old key's FOR SHARE lock) cannot
+--   see the new key row in its snapshot. After any statement that
+--   destroys keys, destroy the remaining live keys of the same
+--   (user, purpose) with a fresh snapshot, so such a key is caught.
+--   Purging retired keys (retired_at set) does not cascade.
+CREATE OR REPLACE FUNCTION trg_key_store_sweep_destroyed()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  IF pg_trigger_depth() > 1 THEN
+    RETURN NULL;
+  END IF;
+
+  UPDATE key_store ks
+  SET
+    destroyed_at = now(),
+    key_material = 'DESTROYED'
+  FROM (
+    SELECT DISTINCT n.user_id, n.purpose
+    FROM new_rows n
+    JOIN old_rows o ON o.key_id = n.key_id
+    WHERE o.destroyed_at IS NULL
+      AND n.destroyed_at IS NOT NULL
+      AND n.retired_at IS NULL
+  ) d
+  WHERE ks.user_id = d.user_id
+    AND ks.purpose = d.purpose
+    AND ks.destroyed_at IS NULL;
+
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS key_store_sweep_destroyed ON key_store;
+
+CREATE TRIGGER key_store_sweep_destroyed
+AFTER UPDATE ON key_store
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_key_store_sweep_destroyed();
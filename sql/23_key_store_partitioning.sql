@@ -0,0 +1,499 @@
+-- ============================================================
+-- key_store partitioning and destroyed-key compaction
+--
+-- Purpose:
+--   key_store gets up to three rows per user per day, and destroyed
+--   rows used to stay forever (key_material = 'DESTROYED'), so the
+--   table and its indexes grew without bound. Here:
+--     1) key_store is range-partitioned by bucket_date, one
+--        partition per month (key_store_pYYYYMM) plus a default
+--     2) old destroyed keys are compacted out of their partition
+--        into key_tombstones: one row per (user, month) listing the
+--        destroyed key_ids, purposes and destruction times, with an
+--        HMAC-SHA256 digest over that list. The material was already
+--        gone; the tombstone keeps the proof that the key was destroyed.
+--        The HMAC key is the application's signing key
+--        (grap.erasure-verify.signing-key), passed in by the caller and
+--        never stored, so whoever can edit a tombstone cannot compute
+--        a matching digest.
+--
+-- key_id layout:
+--   A partitioned table cannot have a unique index on key_id alone,
+--   and a lookup by key_id alone probes every partition. New key_ids
+--   therefore carry their bucket:
+--     key_id = (bucket_date - 1999-12-31) << 32 | sequence (low 32 bits)
+--   so every new key_id is >= 2^32, and key_bucket(key_id) gives the
+--   bucket back. Joins from users_shadow add
+--     bucket_date = key_bucket(key_id_x)
+--   so each lookup is pruned to one partition (run-time pruning for
+--   nested loops). The primary key is (key_id, bucket_date).
+--
+-- Migration (one-time, offline):
+--   Existing keys keep their key_id. They are referenced by
+--   users_shadow, by shadow copies in backups and, for enc_version 2
+--   rows, by the AES-GCM associated data (AesGcmShadowCipher), so a
+--   renumbered key could no longer open its fields. Pre-migration
+--   key_ids are all < 2^32; key_store_legacy_buckets records their
+--   bucket and key_bucket() looks them up there. A key_id below 2^32
+--   that is not in it raises instead of matching no key: a shadow
+--   field would otherwise be restored as a tombstone without anyone
+--   noticing.
+--
+-- Compacted keys:
+--   A shadow field whose key was compacted finds no key_store row.
+--   Every restore path already treats a missing key like a destroyed
+--   one (tombstone value), so nothing changes for readers.
+-- ============================================================
+
+CREATE OR REPLACE FUNCTION key_id_for_bucket(p_bucket DATE, p_seq BIGINT)
+RETURNS BIGINT
+LANGUAGE sql
+IMMUTABLE PARALLEL SAFE
+AS $$
+  SELECT ((p_bucket - DATE '1999-12-31')::BIGINT << 32) | (p_seq & 4294967295);
+$$;
+
+-- Buckets of the key_ids that predate the layout (filled by the migration below)
+CREATE TABLE IF NOT EXISTS key_store_legacy_buckets (
+  key_id       BIGINT PRIMARY KEY CHECK (key_id < 4294967296),
+  bucket_date  DATE NOT NULL
+);
+
+CREATE OR REPLACE FUNCTION key_bucket_legacy(p_key_id BIGINT)
+RETURNS DATE
+LANGUAGE plpgsql
+STABLE PARALLEL SAFE
+AS $$
+DECLARE
+  v_bucket DATE;
+BEGIN
+  IF p_key_id IS NULL THEN
+    RETURN NULL;
+  END IF;
+  SELECT b.bucket_date INTO v_bucket FROM key_store_legacy_buckets b WHERE b.key_id = p_key_id;
+  IF NOT FOUND THEN
+    RAISE EXCEPTION 'key_id % is neither in the bucket layout nor a known pre-partitioning key', p_key_id
+      USING HINT = 'the users_shadow copy references a key this key_store never had';
+  END IF;
+  RETURN v_bucket;
+END;
+$$;
+
+-- STABLE, not IMMUTABLE: pre-layout ids are looked up
+CREATE OR REPLACE FUNCTION key_bucket(p_key_id BIGINT)
+RETURNS DATE
+LANGUAGE sql
+STABLE PARALLEL SAFE
+AS $$
+  SELECT CASE WHEN p_key_id >= 4294967296
+              THEN DATE '1999-12-31' + (p_key_id >> 32)::INT
+              ELSE key_bucket_legacy(p_key_id) END;
+$$;
+
+
+-- 1) Monthly partitions for every month in [p_from, p_to] that has none yet.
+--    Rows that landed in the default partition for such a month (a bucket
+--    outside the prepared range) are moved into the new partition first.
+CREATE OR REPLACE FUNCTION ensure_key_store_partitions(p_from DATE, p_to DATE)
+RETURNS INT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_month   DATE := date_trunc('month', p_from)::DATE;
+  v_next    DATE;
+  v_created INT := 0;
+  v_name    TEXT;
+BEGIN
+  WHILE v_month <= p_to LOOP
+    v_next := (v_month + interval '1 month')::DATE;
+    v_name := 'key_store_p' || to_char(v_month, 'YYYYMM');
+    IF to_regclass(v_name) IS NULL THEN
+      EXECUTE format('CREATE TABLE %I (LIKE key_store INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', v_name);
+      EXECUTE format(
+        'WITH moved AS (DELETE FROM key_store_pdefault WHERE bucket_date >= %L AND bucket_date < %L RETURNING *) '
+        'INSERT INTO %I SELECT * FROM moved',
+        v_month, v_next, v_name);
+      EXECUTE format('ALTER TABLE key_store ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                     v_name, v_month, v_next);
+      v_created := v_created + 1;
+    END IF;
+    v_month := v_next;
+  END LOOP;
+  RETURN v_created;
+END;
+$$;
+
+
+-- 2) Move key_store onto the partitioned layout
+DO $$
+DECLARE
+  v_max_id BIGINT;
+  v_min    DATE;
+BEGIN
+  IF (SELECT c.relkind FROM pg_class c WHERE c.oid = 'key_store'::regclass) = 'p' THEN
+    RETURN;
+  END IF;
+
+  SELECT max(key_id), min(bucket_date) INTO v_max_id, v_min FROM key_store;
+  IF v_max_id >= 4294967296 THEN
+    RAISE EXCEPTION 'key_store.key_id % would collide with the bucket layout (>= 2^32)', v_max_id;
+  END IF;
+  IF v_min < DATE '2000-01-01' THEN
+    RAISE EXCEPTION 'key_store has bucket_date % before 2000-01-01', v_min;
+  END IF;
+
+  ALTER TABLE key_store RENAME TO key_store_legacy;
+
+  CREATE TABLE key_store (
+    key_id        BIGINT NOT NULL,
+    user_id       BIGINT NOT NULL,
+    purpose       TEXT NOT NULL,
+    bucket_date   DATE NOT NULL CHECK (bucket_date >= DATE '2000-01-01'),
+    key_material  TEXT NOT NULL,
+    created_at    TIMESTAMPTZ NOT NULL DEFAULT now(),
+    destroyed_at  TIMESTAMPTZ,
+    retired_at    TIMESTAMPTZ
+  ) PARTITION BY RANGE (bucket_date);
+
+  CREATE TABLE key_store_pdefault PARTITION OF key_store DEFAULT;
+  -- a year back (seeded or back-dated buckets) to three months ahead
+  PERFORM ensure_key_store_partitions(least(coalesce(v_min, CURRENT_DATE), (CURRENT_DATE - interval '1 year')::DATE),
+                                      (CURRENT_DATE + interval '3 months')::DATE);
+
+  -- key_ids unchanged (users_shadow and the v2 ciphertexts' AAD refer to them)
+  INSERT INTO key_store_legacy_buckets(key_id, bucket_date)
+  SELECT key_id, bucket_date FROM key_store_legacy;
+
+  INSERT INTO key_store(key_id, user_id, purpose, bucket_date, key_material, created_at, destroyed_at, retired_at)
+  SELECT key_id, user_id, purpose, bucket_date, key_material, created_at, destroyed_at, retired_at
+  FROM key_store_legacy;
+
+  DROP TABLE key_store_legacy CASCADE;
+
+  -- the sequence continues the old numbering in the low 32 bits
+  CREATE SEQUENCE key_store_key_seq OWNED BY key_store.key_id;
+  PERFORM setval('key_store_key_seq', greatest(coalesce(v_max_id, 0), 1));
+
+  -- Indexes (created on every partition). idx_key_store_user_purpose is gone:
+  -- live lookups use ux_key_store_active, which leads with (user_id, purpose).
+  ALTER TABLE key_store ADD PRIMARY KEY (key_id, bucket_date);
+  CREATE UNIQUE INDEX ux_key_store_active
+    ON key_store(user_id, purpose, bucket_date) WHERE destroyed_at IS NULL;
+  CREATE INDEX idx_key_store_user ON key_store(user_id);
+  CREATE INDEX idx_key_store_retired
+    ON key_store(retired_at) WHERE retired_at IS NOT NULL AND destroyed_at IS NULL;
+  -- destroyed keys not compacted yet (the compaction job's work list)
+  CREATE INDEX idx_key_store_destroyed
+    ON key_store(destroyed_at) WHERE destroyed_at IS NOT NULL;
+
+  ANALYZE key_store;
+END;
+$$;
+
+
+-- 3) key_id assignment for inserts that leave it out (all of them).
+--    ENABLE ALWAYS: also under session_replication_role = replica.
+CREATE OR REPLACE FUNCTION trg_key_store_assign_id()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  IF NEW.key_id IS NULL THEN
+    NEW.key_id := key_id_for_bucket(NEW.bucket_date, nextval('key_store_key_seq'));
+  END IF;
+  RETURN NEW;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS key_store_assign_id ON key_store;
+
+CREATE TRIGGER key_store_assign_id
+BEFORE INSERT ON key_store
+FOR EACH ROW
+EXECUTE FUNCTION trg_key_store_assign_id();
+
+ALTER TABLE key_store ENABLE ALWAYS TRIGGER key_store_assign_id;
+
+-- the statement triggers from 15_key_cache_invalidation.sql and 22_reencrypt.sql
+-- went with the old table
+DROP TRIGGER IF EXISTS key_store_log_destroyed ON key_store;
+
+CREATE TRIGGER key_store_log_destroyed
+AFTER UPDATE ON key_store
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_key_store_log_destroyed();
+
+DROP TRIGGER IF EXISTS key_store_sweep_destroyed ON key_store;
+
+CREATE TRIGGER key_store_sweep_destroyed
+AFTER UPDATE ON key_store
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_key_store_sweep_destroyed();
+
+
+-- 4) Tombstones for compacted keys. The three arrays are parallel and
+--    ordered by key_id; bucket_date is key_bucket(key_id).
+CREATE TABLE IF NOT EXISTS key_tombstones (
+  user_id            BIGINT NOT NULL,
+  bucket_month       DATE NOT NULL,
+  key_ids            BIGINT[] NOT NULL,
+  purposes           TEXT[] NOT NULL,
+  destroyed_at       TIMESTAMPTZ[] NOT NULL,
+  digest             BYTEA NOT NULL,
+  key_fingerprint    TEXT NOT NULL,     -- which signing key made digest (SigningKey.fingerprint)
+  compacted_at       TIMESTAMPTZ NOT NULL DEFAULT now(),
+  PRIMARY KEY (user_id, bucket_month)
+);
+
+-- HMAC-SHA256 under p_mac_key over "key_id:purpose:bucket_date:destroyed_at(UTC)" lines
+-- in key_id order. Only a holder of the signing key can recompute it, so an edited
+-- tombstone no longer matches its digest. NULL when p_mac_key is NULL.
+DROP FUNCTION IF EXISTS key_tombstone_digest(BIGINT[], TEXT[], TIMESTAMPTZ[]);
+
+CREATE OR REPLACE FUNCTION key_tombstone_digest(p_key_ids BIGINT[], p_purposes TEXT[], p_destroyed TIMESTAMPTZ[],
+                                                p_mac_key BYTEA)
+RETURNS BYTEA
+LANGUAGE sql
+STABLE
+AS $$
+  SELECT hmac(
+    convert_to(coalesce(string_agg(
+      t.k::TEXT || ':' || t.p || ':' || key_bucket(t.k)::TEXT || ':'
+        || to_char(t.d AT TIME ZONE 'UTC', 'YYYY-MM-DD"T"HH24:MI:SS.US"Z"'),
+      E'\n' ORDER BY t.k), ''), 'UTF8'),
+    p_mac_key,
+    'sha256')
+  FROM unnest(p_key_ids, p_purposes, p_destroyed) AS t(k, p, d);
+$$;
+
+
+-- 5) Compact one month: keys destroyed before now() - p_min_age become tombstones.
+--    REWRITE (destroyed share >= p_rewrite_ratio): survivors are copied out, the
+--      partition truncated and refilled; its files and indexes shrink at once, but
+--      the partition is ACCESS EXCLUSIVE locked until commit.
+--    DELETE otherwise: online, row by row; the space is reused after VACUUM.
+--    Destroyed is final (nothing updates such a row again), so the set moved to
+--    the tombstones cannot change while this runs.
+--    p_mac_key / p_key_fingerprint: the signing key the digests are made with.
+DROP FUNCTION IF EXISTS compact_key_store_partition(DATE, INTERVAL, NUMERIC);
+
+CREATE OR REPLACE FUNCTION compact_key_store_partition(
+  p_month DATE,
+  p_min_age INTERVAL,
+  p_rewrite_ratio NUMERIC,
+  p_mac_key BYTEA,
+  p_key_fingerprint TEXT
+) RETURNS TABLE(mode TEXT, keys_compacted BIGINT, tombstones_written BIGINT, keys_kept BIGINT)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_part    TEXT := 'key_store_p' || to_char(p_month, 'YYYYMM');
+  v_month   DATE := date_trunc('month', p_month)::DATE;
+  v_cutoff  TIMESTAMPTZ := now() - p_min_age;
+  v_total   BIGINT;
+  v_dead    BIGINT;
+  v_tomb    BIGINT;
+BEGIN
+  IF to_regclass(v_part) IS NULL THEN
+    RAISE EXCEPTION 'no key_store partition %', v_part;
+  END IF;
+  IF v_month >= date_trunc('month', CURRENT_DATE)::DATE THEN
+    RAISE EXCEPTION 'partition % is still receiving keys', v_part;
+  END IF;
+  IF p_mac_key IS NULL OR p_key_fingerprint IS NULL THEN
+    RAISE EXCEPTION 'tombstone digests need the signing key';
+  END IF;
+  -- a tombstone is extended only under the key it was made with
+  IF EXISTS (SELECT 1 FROM key_tombstones
+             WHERE bucket_month = v_month AND key_fingerprint <> p_key_fingerprint) THEN
+    RAISE EXCEPTION 'tombstones of % were made with another signing key', to_char(v_month, 'YYYY-MM');
+  END IF;
+
+  EXECUTE format('SELECT count(*), count(*) FILTER (WHERE destroyed_at < $1) FROM %I', v_part)
+    INTO v_total, v_dead USING v_cutoff;
+
+  IF v_dead = 0 THEN
+    RETURN QUERY SELECT 'NOOP'::TEXT, 0::BIGINT, 0::BIGINT, v_total;
+    RETURN;
+  END IF;
+
+  EXECUTE format($q$
+    INSERT INTO key_tombstones(user_id, bucket_month, key_ids, purposes, destroyed_at, digest, key_fingerprint)
+    SELECT g.user_id, $1, g.ids, g.ps, g.ds, key_tombstone_digest(g.ids, g.ps, g.ds, $3), $4
+    FROM (
+      SELECT user_id,
+             array_agg(key_id ORDER BY key_id) AS ids,
+             array_agg(purpose ORDER BY key_id) AS ps,
+             array_agg(destroyed_at ORDER BY key_id) AS ds
+      FROM %I
+      WHERE destroyed_at < $2
+      GROUP BY user_id
+    ) g
+    ON CONFLICT (user_id, bucket_month) DO UPDATE SET
+      key_ids      = key_tombstones.key_ids || EXCLUDED.key_ids,
+      purposes     = key_tombstones.purposes || EXCLUDED.purposes,
+      destroyed_at = key_tombstones.destroyed_at || EXCLUDED.destroyed_at,
+      digest       = key_tombstone_digest(key_tombstones.key_ids || EXCLUDED.key_ids,
+                                          key_tombstones.purposes || EXCLUDED.purposes,
+                                          key_tombstones.destroyed_at || EXCLUDED.destroyed_at,
+                                          $3),
+      compacted_at = now()
+  $q$, v_part) USING v_month, v_cutoff, p_mac_key, p_key_fingerprint;
+  GET DIAGNOSTICS v_tomb = ROW_COUNT;
+
+  IF v_dead::NUMERIC >= p_rewrite_ratio * v_total THEN
+    EXECUTE format('LOCK TABLE %I IN ACCESS EXCLUSIVE MODE', v_part);
+    EXECUTE format('CREATE TEMP TABLE key_store_keep ON COMMIT DROP AS '
+                   'SELECT * FROM %I WHERE destroyed_at IS NULL OR destroyed_at >= $1', v_part)
+      USING v_cutoff;
+    EXECUTE format('TRUNCATE %I', v_part);
+    EXECUTE format('INSERT INTO %I SELECT * FROM key_store_keep', v_part);
+    DROP TABLE key_store_keep;
+    RETURN QUERY SELECT 'REWRITE'::TEXT, v_dead, v_tomb, v_total - v_dead;
+  ELSE
+    EXECUTE format('DELETE FROM %I WHERE destroyed_at < $1', v_part) USING v_cutoff;
+    RETURN QUERY SELECT 'DELETE'::TEXT, v_dead, v_tomb, v_total - v_dead;
+  END IF;
+END;
+$$;
+
+
+-- 6) Restores, with the key lookups pruned to the key's partition
+--    (same bodies as 14_app_encryption.sql and 17_chunked_restore.sql)
+CREATE OR REPLACE FUNCTION restore_users_from_shadow()
+RETURNS BIGINT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_rows BIGINT;
+BEGIN
+  -- Suppress user triggers during restore (prevents key recreation and shadow rewrites)
+  PERFORM set_config('session_replication_role', 'replica', true);
+
+  INSERT INTO users(user_id, full_name, email, phone, created_at)
+  SELECT
+    s.user_id,
+
+    -- full_name is NOT NULL: tombstone must be non-null
+    CASE
+      WHEN ks_name.destroyed_at IS NULL AND ks_name.key_material <> 'DESTROYED'
+        THEN sym_decrypt_nullable(s.full_name_enc, ks_name.key_material)
+      ELSE '[REDACTED user_id=' || s.user_id::text || ']'
+    END AS full_name,
+
+    -- email is UNIQUE NOT NULL: tombstone must be non-null AND UNIQUE
+    CASE
+      WHEN ks_email.destroyed_at IS NULL AND ks_email.key_material <> 'DESTROYED'
+        THEN sym_decrypt_nullable(s.email_enc, ks_email.key_material)
+      ELSE 'deleted+' || s.user_id::text || '@example.invalid'
+    END AS email,
+
+    -- phone is nullable: can be NULL on redaction
+    CASE
+      WHEN ks_phone.destroyed_at IS NULL AND ks_phone.key_material <> 'DESTROYED'
+        THEN sym_decrypt_nullable(s.phone_enc, ks_phone.key_material)
+      ELSE NULL
+    END AS phone,
+
+    now() AS created_at
+  FROM users_shadow s
+  LEFT JOIN key_store ks_name  ON ks_name.key_id  = s.key_id_name
+                              AND ks_name.bucket_date  = key_bucket(s.key_id_name)
+  LEFT JOIN key_store ks_email ON ks_email.key_id = s.key_id_email
+                              AND ks_email.bucket_date = key_bucket(s.key_id_email)
+  LEFT JOIN key_store ks_phone ON ks_phone.key_id = s.key_id_phone
+                              AND ks_phone.bucket_date = key_bucket(s.key_id_phone)
+  WHERE s.enc_version = 1
+  ON CONFLICT (user_id) DO UPDATE SET
+    full_name  = EXCLUDED.full_name,
+    email      = EXCLUDED.email,
+    phone      = EXCLUDED.phone,
+    created_at = EXCLUDED.created_at;
+
+  GET DIAGNOSTICS v_rows = ROW_COUNT;
+
+  -- Restore trigger behavior
+  PERFORM set_config('session_replication_role', 'origin', true);
+
+  RETURN v_rows;
+
+EXCEPTION WHEN OTHERS THEN
+  -- Always restore trigger behavior even if something fails
+  PERFORM set_config('session_replication_role', 'origin', true);
+  RAISE;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION restore_users_from_shadow_ids(p_user_ids BIGINT[])
+RETURNS TABLE(rows_restored BIGINT, decrypted BIGINT, redacted BIGINT)
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  -- Suppress user triggers during restore (prevents key recreation and shadow rewrites)
+  PERFORM set_config('session_replication_role', 'replica', true);
+
+  RETURN QUERY
+  WITH src AS (
+    SELECT
+      s.user_id,
+
+      CASE
+        WHEN ks_name.destroyed_at IS NULL AND ks_name.key_material <> 'DESTROYED'
+          THEN sym_decrypt_nullable(s.full_name_enc, ks_name.key_material)
+        ELSE '[REDACTED user_id=' || s.user_id::text || ']'
+      END AS full_name,
+
+      CASE
+        WHEN ks_email.destroyed_at IS NULL AND ks_email.key_material <> 'DESTROYED'
+          THEN sym_decrypt_nullable(s.email_enc, ks_email.key_material)
+        ELSE 'deleted+' || s.user_id::text || '@example.invalid'
+      END AS email,
+
+      CASE
+        WHEN ks_phone.destroyed_at IS NULL AND ks_phone.key_material <> 'DESTROYED'
+          THEN sym_decrypt_nullable(s.phone_enc, ks_phone.key_material)
+        ELSE NULL
+      END AS phone,
+
+      NOT (
+        coalesce(ks_name.destroyed_at IS NULL AND ks_name.key_material <> 'DESTROYED', false)
+        AND coalesce(ks_email.destroyed_at IS NULL AND ks_email.key_material <> 'DESTROYED', false)
+        AND coalesce(ks_phone.destroyed_at IS NULL AND ks_phone.key_material <> 'DESTROYED', false)
+      ) AS is_redacted
+    FROM users_shadow s
+    LEFT JOIN key_store ks_name  ON ks_name.key_id  = s.key_id_name
+                              AND ks_name.bucket_date  = key_bucket(s.key_id_name)
+    LEFT JOIN key_store ks_email ON ks_email.key_id = s.key_id_email
+                              AND ks_email.bucket_date = key_bucket(s.key_id_email)
+    LEFT JOIN key_store ks_phone ON ks_phone.key_id = s.key_id_phone
+                              AND ks_phone.bucket_date = key_bucket(s.key_id_phone)
+    WHERE s.user_id = ANY(p_user_ids)
+      AND s.enc_version = 1
+  ),
+  ins AS (
+    INSERT INTO users(user_id, full_name, email, phone, created_at)
+    SELECT src.user_id, src.full_name, src.email, src.phone, now()
+    FROM src
+    ON CONFLICT (user_id) DO UPDATE SET
+      full_name  = EXCLUDED.full_name,
+      email      = EXCLUDED.email,
+      phone      = EXCLUDED.phone,
+      created_at = EXCLUDED.created_at
+    RETURNING users.user_id
+  )
+  SELECT
+    count(*)::bigint,
+    count(*) FILTER (WHERE NOT src.is_redacted)::bigint,
+    count(*) FILTER (WHERE src.is_redacted)::bigint
+  FROM ins
+  JOIN src ON src.user_id = ins.user_id;
+
+  PERFORM set_config('session_replication_role', 'origin', true);
+
+EXCEPTION WHEN OTHERS THEN
+  PERFORM set_config('session_replication_role', 'origin', true);
+  RAISE;
+END;
+$$;
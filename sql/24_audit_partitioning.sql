@@ -0,0 +1,206 @@
+-- ============================================================
+-- Time-partitioned audit tables, BRIN, retention by detach
+--
+-- Purpose:
+--   deletion_audit and backup_protection_audit only ever grow
+--   (a bulk erasure writes several rows per user), and nothing
+--   bounded their size. Here both become range-partitioned on
+--   occurred_at, one partition per UTC month (<table>_pYYYYMM)
+--   plus a default partition:
+--     - reads with a time range touch only the months they cover;
+--       GrapDao's listings now always pass one
+--     - a BRIN index on occurred_at per partition (a few pages)
+--       serves unordered time-range scans; the (occurred_at,
+--       audit_id) B-tree stays for ordered reads (latest-N and
+--       the export keyset)
+--     - retention detaches whole expired months and moves them to
+--       the audit_archive schema (metadata-only, no DELETE), where
+--       they can be dumped and later dropped
+--
+-- Archive:
+--   audit_archive_log records every archived month with its row
+--   count and audit_id range, so the gap in the live tables is
+--   accounted for. Archived months are no longer returned by the
+--   API (listings, export).
+-- ============================================================
+
+CREATE SCHEMA IF NOT EXISTS audit_archive;
+
+-- VOLATILE (the default) on purpose: its only job is the RAISE, which the
+-- planner must not fold away or cache
+CREATE OR REPLACE FUNCTION audit_table_check(p_table TEXT)
+RETURNS VOID
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  IF p_table NOT IN ('deletion_audit', 'backup_protection_audit') THEN
+    RAISE EXCEPTION 'not a partitioned audit table: %', p_table;
+  END IF;
+END;
+$$;
+
+
+-- 1) Monthly partitions (UTC month bounds) for every month in [p_from, p_to]
+--    that has none yet; rows already in the default partition for such a
+--    month are moved into it before it is attached.
+CREATE OR REPLACE FUNCTION ensure_audit_partitions(p_table TEXT, p_from DATE, p_to DATE)
+RETURNS INT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_month   DATE := date_trunc('month', p_from)::DATE;
+  v_lo      TIMESTAMPTZ;
+  v_hi      TIMESTAMPTZ;
+  v_name    TEXT;
+  v_created INT := 0;
+BEGIN
+  PERFORM audit_table_check(p_table);
+  WHILE v_month <= p_to LOOP
+    v_lo := v_month::TIMESTAMP AT TIME ZONE 'UTC';
+    v_hi := (v_month + interval '1 month')::TIMESTAMP AT TIME ZONE 'UTC';
+    v_name := p_table || '_p' || to_char(v_month, 'YYYYMM');
+    IF to_regclass(v_name) IS NULL THEN
+      EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', v_name, p_table);
+      EXECUTE format(
+        'WITH moved AS (DELETE FROM %I WHERE occurred_at >= %L AND occurred_at < %L RETURNING *) '
+        'INSERT INTO %I SELECT * FROM moved',
+        p_table || '_pdefault', v_lo, v_hi, v_name);
+      EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                     p_table, v_name, v_lo, v_hi);
+      v_created := v_created + 1;
+    END IF;
+    v_month := (v_month + interval '1 month')::DATE;
+  END LOOP;
+  RETURN v_created;
+END;
+$$;
+
+
+-- 2) One-time conversion of a plain audit table (offline; the whole table is
+--    copied once). audit_id keeps its sequence; the primary key becomes
+--    (audit_id, occurred_at), as a partitioned key must include occurred_at.
+CREATE OR REPLACE FUNCTION partition_audit_table(p_table TEXT)
+RETURNS VOID
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_seq TEXT;
+  v_min DATE;
+BEGIN
+  PERFORM audit_table_check(p_table);
+  IF (SELECT c.relkind FROM pg_class c WHERE c.oid = p_table::regclass) = 'p' THEN
+    RETURN;
+  END IF;
+
+  v_seq := pg_get_serial_sequence(p_table, 'audit_id');
+  EXECUTE format('SELECT (date_trunc(''month'', min(occurred_at) AT TIME ZONE ''UTC''))::DATE FROM %I', p_table)
+    INTO v_min;
+
+  EXECUTE format('ALTER SEQUENCE %s OWNED BY NONE', v_seq);
+  EXECUTE format('ALTER TABLE %I RENAME TO %I', p_table, p_table || '_legacy');
+  EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS) PARTITION BY RANGE (occurred_at)',
+                 p_table, p_table || '_legacy');
+  EXECUTE format('CREATE TABLE %I PARTITION OF %I DEFAULT', p_table || '_pdefault', p_table);
+  PERFORM ensure_audit_partitions(p_table,
+                                  least(coalesce(v_min, CURRENT_DATE), CURRENT_DATE),
+                                  (CURRENT_DATE + interval '3 months')::DATE);
+
+  EXECUTE format('INSERT INTO %I SELECT * FROM %I', p_table, p_table || '_legacy');
+  EXECUTE format('DROP TABLE %I', p_table || '_legacy');
+  EXECUTE format('ALTER SEQUENCE %s OWNED BY %I.audit_id', v_seq, p_table);
+
+  EXECUTE format('ALTER TABLE %I ADD PRIMARY KEY (audit_id, occurred_at)', p_table);
+  EXECUTE format('CREATE INDEX %I ON %I (user_id, occurred_at)', 'idx_' || p_table || '_user_time', p_table);
+  EXECUTE format('CREATE INDEX %I ON %I (occurred_at, audit_id)', 'idx_' || p_table || '_time_id', p_table);
+  EXECUTE format('CREATE INDEX %I ON %I USING brin (occurred_at) WITH (pages_per_range = 32)',
+                 'idx_' || p_table || '_time_brin', p_table);
+  EXECUTE format('ANALYZE %I', p_table);
+END;
+$$;
+
+SELECT partition_audit_table('deletion_audit');
+SELECT partition_audit_table('backup_protection_audit');
+
+
+-- 3) Retention
+CREATE TABLE IF NOT EXISTS audit_archive_log (
+  archive_id      BIGSERIAL PRIMARY KEY,
+  source_table    TEXT NOT NULL,
+  partition_name  TEXT NOT NULL,          -- now audit_archive.<partition_name>
+  range_from      TIMESTAMPTZ NOT NULL,
+  range_to        TIMESTAMPTZ NOT NULL,
+  row_count       BIGINT NOT NULL,
+  min_audit_id    BIGINT,
+  max_audit_id    BIGINT,
+  archived_at     TIMESTAMPTZ NOT NULL DEFAULT now(),
+  dropped_at      TIMESTAMPTZ
+);
+
+-- Detach up to p_limit months that ended more than p_keep_months whole months
+-- ago (oldest first) and move them to audit_archive. DETACH takes a short
+-- ACCESS EXCLUSIVE lock on the parent; callers set lock_timeout.
+CREATE OR REPLACE FUNCTION archive_audit_partitions(p_table TEXT, p_keep_months INT, p_limit INT)
+RETURNS TABLE(partition_name TEXT, range_from TIMESTAMPTZ, range_to TIMESTAMPTZ, row_count BIGINT)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_cutoff DATE;
+  r        RECORD;
+  v_rows   BIGINT;
+  v_min_id BIGINT;
+  v_max_id BIGINT;
+BEGIN
+  PERFORM audit_table_check(p_table);
+  IF p_keep_months < 1 THEN
+    RAISE EXCEPTION 'keep at least one month of %', p_table;
+  END IF;
+  v_cutoff := (date_trunc('month', now() AT TIME ZONE 'UTC') - make_interval(months => p_keep_months))::DATE;
+
+  FOR r IN
+    SELECT c.relname, to_date(right(c.relname, 6), 'YYYYMM') AS m
+    FROM pg_inherits i
+    JOIN pg_class c ON c.oid = i.inhrelid
+    WHERE i.inhparent = p_table::regclass
+      AND c.relname ~ ('^' || p_table || '_p[0-9]{6}$')
+      AND to_date(right(c.relname, 6), 'YYYYMM') < v_cutoff
+    ORDER BY 2
+    LIMIT p_limit
+  LOOP
+    EXECUTE format('SELECT count(*), min(audit_id), max(audit_id) FROM %I', r.relname)
+      INTO v_rows, v_min_id, v_max_id;
+    EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', p_table, r.relname);
+    EXECUTE format('ALTER TABLE %I SET SCHEMA audit_archive', r.relname);
+
+    partition_name := r.relname;
+    range_from := r.m::TIMESTAMP AT TIME ZONE 'UTC';
+    range_to := (r.m + interval '1 month')::TIMESTAMP AT TIME ZONE 'UTC';
+    row_count := v_rows;
+    INSERT INTO audit_archive_log(source_table, partition_name, range_from, range_to, row_count,
+                                  min_audit_id, max_audit_id)
+    VALUES (p_table, r.relname, range_from, range_to, v_rows, v_min_id, v_max_id);
+    RETURN NEXT;
+  END LOOP;
+END;
+$$;
+
+-- Drop archived months archived more than p_after ago (after they were dumped).
+CREATE OR REPLACE FUNCTION drop_archived_audit_partitions(p_after INTERVAL)
+RETURNS INT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  r   RECORD;
+  v_n INT := 0;
+BEGIN
+  FOR r IN
+    SELECT archive_id, partition_name FROM audit_archive_log
+    WHERE dropped_at IS NULL AND archived_at < now() - p_after
+    ORDER BY archive_id
+  LOOP
+    EXECUTE format('DROP TABLE IF EXISTS audit_archive.%I', r.partition_name);
+    UPDATE audit_archive_log SET dropped_at = now() WHERE archive_id = r.archive_id;
+    v_n := v_n + 1;
+  END LOOP;
+  RETURN v_n;
+END;
+$$;
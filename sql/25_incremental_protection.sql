@@ -0,0 +1,188 @@
+-- ============================================================
+-- Incremental backup protection
+--
+-- Purpose:
+--   protect_backups_for_legal_hold re-updated every backup of the
+--   held user and re-inserted the audit rows on every call, and a
+--   backup written after the hold was only protected when someone
+--   called it again. Now:
+--     - backup_hold_coverage records each (hold, backup) pair once;
+--       only a new pair updates backup_runs and writes an audit row
+--     - each active hold keeps protected_through_backup_id: every
+--       backup up to it that contains the user is covered
+--     - new membership (backup_user_index rows, or the app's bitmap
+--       writes) is checked against the active holds as it is written
+--     - a sweep covers, per hold, only backups above its watermark
+--       and advances it, so its cost follows the new backups, not
+--       the backup history
+--
+-- Race between writers and the sweep:
+--   Membership writers take a shared advisory lock (held to commit)
+--   before checking holds; the sweep takes it exclusively before it
+--   reads the watermark range. A membership row the sweep cannot see
+--   yet therefore belongs to a writer that will itself see every hold
+--   committed before the sweep, and a hold placed after the writer's
+--   check is still at watermark 0 when the sweep reaches it.
+-- ============================================================
+
+ALTER TABLE legal_holds
+  ADD COLUMN IF NOT EXISTS protected_through_backup_id BIGINT NOT NULL DEFAULT 0;
+
+-- sweep work list: active holds behind the newest backup
+CREATE INDEX IF NOT EXISTS idx_legal_holds_watermark
+  ON legal_holds(protected_through_backup_id, hold_id) WHERE released_at IS NULL;
+
+-- per-user backups above a watermark (replaces the user_id-only index)
+CREATE INDEX IF NOT EXISTS idx_backup_user_index_user_backup
+  ON backup_user_index(user_id, backup_id);
+DROP INDEX IF EXISTS idx_backup_user_index_user;
+
+CREATE TABLE IF NOT EXISTS backup_hold_coverage (
+  hold_id     BIGINT NOT NULL REFERENCES legal_holds(hold_id) ON DELETE CASCADE,
+  backup_id   BIGINT NOT NULL REFERENCES backup_runs(backup_id) ON DELETE CASCADE,
+  user_id     BIGINT NOT NULL,
+  covered_at  TIMESTAMPTZ NOT NULL DEFAULT now(),
+  PRIMARY KEY (hold_id, backup_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_backup_hold_coverage_backup ON backup_hold_coverage(backup_id);
+
+-- Existing protection counts as covered; the audit rows already exist.
+INSERT INTO backup_hold_coverage(hold_id, backup_id, user_id, covered_at)
+SELECT DISTINCT ON (a.hold_id, a.backup_id) a.hold_id, a.backup_id, a.user_id, a.occurred_at
+FROM backup_protection_audit a
+JOIN legal_holds h ON h.hold_id = a.hold_id
+JOIN backup_runs b ON b.backup_id = a.backup_id
+WHERE a.action = 'PROTECT'
+ORDER BY a.hold_id, a.backup_id, a.occurred_at
+ON CONFLICT DO NOTHING;
+
+
+-- 1) Cover (hold, backup) pairs: parallel arrays, any order, duplicates allowed.
+--    Pairs already covered are skipped. A backup not yet protected takes the
+--    reason of the first hold that covers it.
+CREATE OR REPLACE FUNCTION cover_backups_for_holds(p_hold_ids BIGINT[], p_backup_ids BIGINT[])
+RETURNS TABLE(hold_id BIGINT, user_id BIGINT, backup_id BIGINT)
+LANGUAGE sql
+AS $$
+  WITH ins AS (
+    INSERT INTO backup_hold_coverage(hold_id, backup_id, user_id)
+    SELECT DISTINCT p.h, p.b, lh.user_id
+    FROM unnest(p_hold_ids, p_backup_ids) AS p(h, b)
+    JOIN legal_holds lh ON lh.hold_id = p.h
+    ON CONFLICT DO NOTHING
+    RETURNING backup_hold_coverage.hold_id, backup_hold_coverage.user_id, backup_hold_coverage.backup_id
+  ),
+  first_hold AS (
+    SELECT DISTINCT ON (i.backup_id) i.backup_id, i.hold_id, i.user_id
+    FROM ins i
+    ORDER BY i.backup_id, i.hold_id
+  ),
+  upd AS (
+    UPDATE backup_runs b
+    SET
+      protected_by_hold = true,
+      protected_reason  = 'Legal hold ' || f.hold_id::text || ' for user_id=' || f.user_id::text
+                          || ' (' || lh.hold_reason || ')',
+      protected_at      = now()
+    FROM first_hold f
+    JOIN legal_holds lh ON lh.hold_id = f.hold_id
+    WHERE b.backup_id = f.backup_id
+      AND b.protected_by_hold IS DISTINCT FROM true
+    RETURNING b.backup_id
+  ),
+  aud AS (
+    INSERT INTO backup_protection_audit(user_id, hold_id, backup_id, action, reason)
+    SELECT i.user_id, i.hold_id, i.backup_id, 'PROTECT', 'Marked backup as protected due to active legal hold'
+    FROM ins i
+    RETURNING 1
+  )
+  SELECT i.hold_id, i.user_id, i.backup_id FROM ins i ORDER BY i.backup_id, i.hold_id;
+$$;
+
+
+-- 2) Write-time check for new membership of one backup (bitmap format; the
+--    table format gets the same from the trigger below).
+CREATE OR REPLACE FUNCTION protect_new_backup_members(p_backup_id BIGINT, p_user_ids BIGINT[])
+RETURNS BIGINT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_holds BIGINT[];
+  v_n     BIGINT := 0;
+BEGIN
+  PERFORM pg_advisory_xact_lock_shared(hashtext('backup_hold_sweep'));
+  SELECT array_agg(lh.hold_id) INTO v_holds
+  FROM legal_holds lh
+  WHERE lh.user_id = ANY(p_user_ids) AND lh.released_at IS NULL;
+
+  IF v_holds IS NOT NULL THEN
+    SELECT count(*) INTO v_n
+    FROM cover_backups_for_holds(v_holds, array_fill(p_backup_id, ARRAY[cardinality(v_holds)]));
+  END IF;
+  RETURN v_n;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION trg_backup_user_index_protect()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_holds   BIGINT[];
+  v_backups BIGINT[];
+BEGIN
+  PERFORM pg_advisory_xact_lock_shared(hashtext('backup_hold_sweep'));
+  SELECT array_agg(lh.hold_id), array_agg(n.backup_id)
+  INTO v_holds, v_backups
+  FROM new_rows n
+  JOIN legal_holds lh ON lh.user_id = n.user_id AND lh.released_at IS NULL;
+
+  IF v_holds IS NOT NULL THEN
+    PERFORM cover_backups_for_holds(v_holds, v_backups);
+  END IF;
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS backup_user_index_protect ON backup_user_index;
+
+CREATE TRIGGER backup_user_index_protect
+AFTER INSERT ON backup_user_index
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_backup_user_index_protect();
+
+
+-- 3) The explicit per-user call keeps its signature; repeated calls no longer
+--    rewrite backups or audit rows (only pairs not covered yet).
+CREATE OR REPLACE FUNCTION protect_backups_for_legal_hold_ids(
+  p_user_id BIGINT,
+  p_backup_ids BIGINT[]
+)
+RETURNS TABLE(backup_id BIGINT, backup_type TEXT, started_at TIMESTAMPTZ, ended_at TIMESTAMPTZ, protected_reason TEXT)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_hold_id BIGINT;
+BEGIN
+  SELECT lh.hold_id
+  INTO v_hold_id
+  FROM legal_holds lh
+  WHERE lh.user_id = p_user_id
+    AND lh.released_at IS NULL
+  ORDER BY lh.created_at DESC
+  LIMIT 1;
+
+  IF v_hold_id IS NULL THEN
+    RAISE EXCEPTION 'No active legal hold for user %', p_user_id
+      USING ERRCODE = '45000';
+  END IF;
+
+  RETURN QUERY
+  SELECT b.backup_id, b.backup_type, b.started_at, b.ended_at, b.protected_reason
+  FROM cover_backups_for_holds(array_fill(v_hold_id, ARRAY[cardinality(p_backup_ids)]), p_backup_ids) c
+  JOIN backup_runs b ON b.backup_id = c.backup_id
+  ORDER BY b.backup_id;
+END;
+$$;
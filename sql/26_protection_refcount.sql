@@ -0,0 +1,263 @@
+-- ============================================================
+-- Reference-counted backup protection
+--
+-- Purpose:
+--   backup_runs.protected_by_hold was only ever set to true, so a
+--   backup stayed protected after every hold covering it was
+--   released. Now each backup counts the active holds that cover
+--   it (protecting_holds, from backup_hold_coverage), kept up to
+--   date by triggers:
+--     - a new coverage pair of an active hold: +1
+--     - a hold released (released_at set): -1 on every backup it
+--       covers; a backup whose count reaches zero is unprotected
+--       and gets an UNPROTECT audit row (reinstating a hold: +1)
+--   protected_by_hold = protecting_holds > 0 OR protected_manually,
+--   where protected_manually marks backups created protected
+--   (POST /api/admin/backups with protected_by_hold=true).
+--   A release costs one index range scan of the hold's coverage
+--   rows, not a recheck of every backup against every hold.
+--
+-- Concurrency:
+--   The coverage trigger takes FOR SHARE on the holds it counts,
+--   which waits for a concurrent release of the same hold and then
+--   skips it, so a pair is never counted after its hold's release
+--   has been subtracted. Both triggers update the backup_runs row,
+--   so changes to one backup's count are serialized.
+--   Deleting a legal_holds row is not tracked (coverage rows go by
+--   cascade); check_backup_protection_counts finds that drift.
+-- ============================================================
+
+ALTER TABLE backup_runs
+  ADD COLUMN IF NOT EXISTS protecting_holds INT NOT NULL DEFAULT 0,
+  ADD COLUMN IF NOT EXISTS protected_manually BOOLEAN NOT NULL DEFAULT false;
+
+-- UNPROTECT joins PROTECT. The partitions inherit the CHECK from the parent
+-- (ATTACH PARTITION / PARTITION OF), so replacing it there replaces it on all of them.
+ALTER TABLE backup_protection_audit DROP CONSTRAINT IF EXISTS backup_protection_audit_action_check;
+ALTER TABLE backup_protection_audit
+  ADD CONSTRAINT backup_protection_audit_action_check CHECK (action IN ('PROTECT', 'UNPROTECT'));
+
+
+-- 1) Backfill. Protection no coverage pair explains is treated as manual, so
+--    nothing protected today is released by this script unless every hold
+--    covering it is already released; those backups are unprotected and audited.
+UPDATE backup_runs b
+SET protecting_holds = c.n
+FROM (
+  SELECT c.backup_id, count(*)::INT AS n
+  FROM backup_hold_coverage c
+  JOIN legal_holds h ON h.hold_id = c.hold_id AND h.released_at IS NULL
+  GROUP BY c.backup_id
+) c
+WHERE b.backup_id = c.backup_id;
+
+UPDATE backup_runs b
+SET protected_manually = true
+WHERE b.protected_by_hold
+  AND NOT EXISTS (SELECT 1 FROM backup_hold_coverage c WHERE c.backup_id = b.backup_id);
+
+WITH released AS (
+  UPDATE backup_runs b
+  SET protected_by_hold = false, protected_reason = NULL, protected_at = NULL
+  WHERE b.protected_by_hold AND b.protecting_holds = 0 AND NOT b.protected_manually
+  RETURNING b.backup_id
+)
+INSERT INTO backup_protection_audit(user_id, hold_id, backup_id, action, reason)
+SELECT DISTINCT ON (r.backup_id) c.user_id, c.hold_id, r.backup_id, 'UNPROTECT',
+       'All covering legal holds were released'
+FROM released r
+JOIN backup_hold_coverage c ON c.backup_id = r.backup_id
+ORDER BY r.backup_id, c.hold_id DESC;
+
+
+-- 2) Coverage pairs only record coverage now; the counts and backup_runs
+--    columns are maintained by the trigger below.
+CREATE OR REPLACE FUNCTION cover_backups_for_holds(p_hold_ids BIGINT[], p_backup_ids BIGINT[])
+RETURNS TABLE(hold_id BIGINT, user_id BIGINT, backup_id BIGINT)
+LANGUAGE sql
+AS $$
+  WITH ins AS (
+    INSERT INTO backup_hold_coverage(hold_id, backup_id, user_id)
+    SELECT DISTINCT p.h, p.b, lh.user_id
+    FROM unnest(p_hold_ids, p_backup_ids) AS p(h, b)
+    JOIN legal_holds lh ON lh.hold_id = p.h
+    ON CONFLICT DO NOTHING
+    RETURNING backup_hold_coverage.hold_id, backup_hold_coverage.user_id, backup_hold_coverage.backup_id
+  ),
+  aud AS (
+    INSERT INTO backup_protection_audit(user_id, hold_id, backup_id, action, reason)
+    SELECT i.user_id, i.hold_id, i.backup_id, 'PROTECT', 'Marked backup as protected due to active legal hold'
+    FROM ins i
+    RETURNING 1
+  )
+  SELECT i.hold_id, i.user_id, i.backup_id FROM ins i ORDER BY i.backup_id, i.hold_id;
+$$;
+
+CREATE OR REPLACE FUNCTION trg_backup_hold_coverage_count()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  WITH active AS (
+    SELECT lh.hold_id, lh.user_id, lh.hold_reason
+    FROM legal_holds lh
+    WHERE lh.hold_id IN (SELECT DISTINCT n.hold_id FROM new_cov n)
+      AND lh.released_at IS NULL
+    ORDER BY lh.hold_id
+    FOR SHARE
+  ),
+  delta AS (
+    SELECT n.backup_id, count(*)::INT AS n, min(n.hold_id) AS first_hold
+    FROM new_cov n
+    JOIN active a ON a.hold_id = n.hold_id
+    GROUP BY n.backup_id
+  )
+  UPDATE backup_runs b
+  SET
+    protecting_holds  = b.protecting_holds + d.n,
+    protected_by_hold = true,
+    protected_reason  = CASE WHEN b.protected_by_hold THEN b.protected_reason
+                             ELSE 'Legal hold ' || a.hold_id::text || ' for user_id=' || a.user_id::text
+                                  || ' (' || a.hold_reason || ')' END,
+    protected_at      = CASE WHEN b.protected_by_hold THEN b.protected_at ELSE now() END
+  FROM delta d
+  JOIN active a ON a.hold_id = d.first_hold
+  WHERE b.backup_id = d.backup_id;
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS backup_hold_coverage_count ON backup_hold_coverage;
+
+CREATE TRIGGER backup_hold_coverage_count
+AFTER INSERT ON backup_hold_coverage
+REFERENCING NEW TABLE AS new_cov
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_backup_hold_coverage_count();
+
+
+-- 3) Release (and reinstatement) of holds
+CREATE OR REPLACE FUNCTION trg_legal_holds_release_count()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  -- most updates (e.g. watermarks) change no released_at: nothing to do
+  PERFORM 1
+  FROM new_holds n
+  JOIN old_holds o ON o.hold_id = n.hold_id
+  WHERE (o.released_at IS NULL) <> (n.released_at IS NULL)
+  LIMIT 1;
+  IF NOT FOUND THEN
+    RETURN NULL;
+  END IF;
+
+  WITH changed AS (
+    SELECT n.hold_id, n.user_id,
+           CASE WHEN o.released_at IS NULL THEN -1 ELSE 1 END AS d
+    FROM new_holds n
+    JOIN old_holds o ON o.hold_id = n.hold_id
+    WHERE (o.released_at IS NULL) <> (n.released_at IS NULL)
+  ),
+  delta AS (
+    SELECT c.backup_id, sum(ch.d)::INT AS d
+    FROM changed ch
+    JOIN backup_hold_coverage c ON c.hold_id = ch.hold_id
+    GROUP BY c.backup_id
+    HAVING sum(ch.d) <> 0
+  ),
+  upd AS (
+    UPDATE backup_runs b
+    SET
+      protecting_holds  = greatest(b.protecting_holds + d.d, 0),
+      protected_by_hold = (b.protecting_holds + d.d > 0) OR b.protected_manually,
+      protected_reason  = CASE
+                            WHEN (b.protecting_holds + d.d > 0) OR b.protected_manually
+                              THEN coalesce(b.protected_reason, 'Legal hold reinstated')
+                            END,
+      protected_at      = CASE
+                            WHEN (b.protecting_holds + d.d > 0) OR b.protected_manually
+                              THEN coalesce(b.protected_at, now())
+                            END
+    FROM delta d
+    WHERE b.backup_id = d.backup_id
+    RETURNING b.backup_id, b.protected_by_hold
+  )
+  INSERT INTO backup_protection_audit(user_id, hold_id, backup_id, action, reason)
+  SELECT ch.user_id, ch.hold_id, u.backup_id, 'UNPROTECT', 'Last covering legal hold released'
+  FROM upd u
+  JOIN backup_hold_coverage c ON c.backup_id = u.backup_id
+  JOIN changed ch ON ch.hold_id = c.hold_id AND ch.d = -1
+  WHERE NOT u.protected_by_hold;
+
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS legal_holds_release_count ON legal_holds;
+
+CREATE TRIGGER legal_holds_release_count
+AFTER UPDATE ON legal_holds
+REFERENCING OLD TABLE AS old_holds NEW TABLE AS new_holds
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_legal_holds_release_count();
+
+
+-- 4) Consistency check for backup_id in [p_from, p_to]: rows whose stored
+--    count or flag differs from a recount over backup_hold_coverage.
+--    Read-only; run several ranges in parallel.
+CREATE OR REPLACE FUNCTION check_backup_protection_counts(p_from BIGINT, p_to BIGINT)
+RETURNS TABLE(backup_id BIGINT, stored_count INT, expected_count INT,
+              protected_by_hold BOOLEAN, protected_manually BOOLEAN)
+LANGUAGE sql
+STABLE
+AS $$
+  SELECT b.backup_id, b.protecting_holds, coalesce(c.n, 0), b.protected_by_hold, b.protected_manually
+  FROM backup_runs b
+  LEFT JOIN (
+    SELECT c.backup_id, count(*)::INT AS n
+    FROM backup_hold_coverage c
+    JOIN legal_holds h ON h.hold_id = c.hold_id AND h.released_at IS NULL
+    WHERE c.backup_id BETWEEN p_from AND p_to
+    GROUP BY c.backup_id
+  ) c ON c.backup_id = b.backup_id
+  WHERE b.backup_id BETWEEN p_from AND p_to
+    AND (b.protecting_holds <> coalesce(c.n, 0)
+         OR b.protected_by_hold <> (coalesce(c.n, 0) > 0 OR b.protected_manually))
+  ORDER BY b.backup_id;
+$$;
+
+-- Repair the drifted rows of a range. The rows are locked first, so triggers
+-- already running on them finish before the recount; later ones wait for it
+-- and apply their change on top.
+CREATE OR REPLACE FUNCTION repair_backup_protection_counts(p_from BIGINT, p_to BIGINT)
+RETURNS INT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_ids BIGINT[];
+  v_n   INT;
+BEGIN
+  SELECT array_agg(k.backup_id) INTO v_ids
+  FROM check_backup_protection_counts(p_from, p_to) k;
+  IF v_ids IS NULL THEN
+    RETURN 0;
+  END IF;
+
+  PERFORM 1 FROM backup_runs b WHERE b.backup_id = ANY(v_ids) ORDER BY b.backup_id FOR UPDATE;
+
+  UPDATE backup_runs b
+  SET
+    protecting_holds  = k.expected_count,
+    protected_by_hold = (k.expected_count > 0 OR b.protected_manually),
+    protected_reason  = CASE WHEN k.expected_count > 0 OR b.protected_manually
+                             THEN coalesce(b.protected_reason, 'Restored by protection consistency check') END,
+    protected_at      = CASE WHEN k.expected_count > 0 OR b.protected_manually
+                             THEN coalesce(b.protected_at, now()) END
+  FROM check_backup_protection_counts(p_from, p_to) k
+  WHERE b.backup_id = k.backup_id
+    AND b.backup_id = ANY(v_ids);
+  GET DIAGNOSTICS v_n = ROW_COUNT;
+  RETURN v_n;
+END;
+$$;
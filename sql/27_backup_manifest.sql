@@ -0,0 +1,59 @@
+-- ============================================================
+-- Backup manifest ingestion
+--
+-- Purpose:
+--   backup_user_index was filled one (backup, user) pair per
+--   request. Backup tooling now posts a whole manifest (the
+--   user_ids a backup contains); the console dedupes and sorts it
+--   in memory (Roaring bitmap), then loads it in chunks:
+--     COPY sorted ids -> temp stage -> load_backup_manifest_stage
+--   which upserts with record_backup_user's semantics (new pair:
+--   first_seen = last_seen = now(); existing pair: last_seen = now()).
+--   Sorted input turns the upsert into an in-order walk of the
+--   (backup_id, user_id) primary key.
+--
+-- backup_manifest_loads records each load and its progress; it is
+-- updated after every chunk, so any node can report it.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS backup_manifest_loads (
+  load_id        BIGSERIAL PRIMARY KEY,
+  backup_id      BIGINT NOT NULL REFERENCES backup_runs(backup_id) ON DELETE CASCADE,
+  source         TEXT NOT NULL,
+  format         TEXT NOT NULL CHECK (format IN ('TEXT', 'BINARY')),
+  state          TEXT NOT NULL DEFAULT 'READING' CHECK (state IN ('READING', 'LOADING', 'DONE', 'FAILED')),
+  ids_read       BIGINT NOT NULL DEFAULT 0,
+  unique_ids     BIGINT,
+  ids_loaded     BIGINT NOT NULL DEFAULT 0,
+  pairs_added    BIGINT NOT NULL DEFAULT 0,
+  pairs_refreshed BIGINT NOT NULL DEFAULT 0,
+  error          TEXT,
+  started_at     TIMESTAMPTZ NOT NULL DEFAULT now(),
+  updated_at     TIMESTAMPTZ NOT NULL DEFAULT now(),
+  finished_at    TIMESTAMPTZ
+);
+
+CREATE INDEX IF NOT EXISTS idx_backup_manifest_loads_backup ON backup_manifest_loads(backup_id, load_id);
+
+
+-- Upsert the session's backup_manifest_stage (user_ids, ascending) into
+-- backup_user_index for one backup. Returns pairs added and refreshed.
+-- plpgsql: the temp stage only exists in the loading session.
+CREATE OR REPLACE FUNCTION load_backup_manifest_stage(p_backup_id BIGINT)
+RETURNS TABLE(added BIGINT, refreshed BIGINT)
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  RETURN QUERY
+  WITH up AS (
+    INSERT INTO backup_user_index(backup_id, user_id, first_seen, last_seen)
+    SELECT p_backup_id, s.user_id, now(), now()
+    FROM backup_manifest_stage s
+    ORDER BY s.user_id
+    ON CONFLICT (backup_id, user_id)
+    DO UPDATE SET last_seen = EXCLUDED.last_seen
+    RETURNING (xmax = 0) AS inserted
+  )
+  SELECT count(*) FILTER (WHERE up.inserted), count(*) FILTER (WHERE NOT up.inserted) FROM up;
+END;
+$$;
@@ -0,0 +1,42 @@
+-- ============================================================
+-- Backup retention planning
+--
+-- Purpose:
+--   "Which backups can be expired today, and what changes if hold
+--   H is released or users U are put on hold?" took a hand-written
+--   join of legal_holds, backup_user_index and backup_runs. The
+--   console now keeps a snapshot of backup_runs, the active holds
+--   and each backup's members (Roaring bitmaps) in memory and
+--   evaluates a policy against it (POST /api/admin/retention/plan).
+--
+-- A backup is expirable under a policy when it is
+--   - older than max_age_days (by ended_at),
+--   - not one of the keep_full newest FULL backups,
+--   - not protected manually, and contains no held user,
+--   - not needed to restore a kept backup later in its chain
+--     (a FULL and the INCRs after it, up to the next FULL).
+--
+-- Every plan is recorded here with its policy, scenario and
+-- result, so a later expiry can be traced to the plan it used.
+-- Planning never changes backup_runs.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS retention_plan_audit (
+  plan_id              BIGSERIAL PRIMARY KEY,
+  planned_at           TIMESTAMPTZ NOT NULL DEFAULT now(),
+  as_of                TIMESTAMPTZ NOT NULL,
+  snapshot_at          TIMESTAMPTZ NOT NULL,
+  max_age_days         INT NOT NULL,
+  keep_full            INT NOT NULL,
+  release_hold_ids     BIGINT[] NOT NULL DEFAULT '{}',
+  hold_user_ids        BIGINT[] NOT NULL DEFAULT '{}',
+  backups_considered   INT NOT NULL,
+  -- with the scenario (release_hold_ids, hold_user_ids) applied, if any
+  expirable            BIGINT[] NOT NULL,
+  -- what-if only: against the same policy with the holds as they are
+  newly_expirable      BIGINT[] NOT NULL DEFAULT '{}',
+  no_longer_expirable  BIGINT[] NOT NULL DEFAULT '{}',
+  eval_micros          BIGINT NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_retention_plan_audit_time ON retention_plan_audit(planned_at);
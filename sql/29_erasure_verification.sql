@@ -0,0 +1,124 @@
+-- ============================================================
+-- Crypto-erasure verification
+--
+-- Purpose:
+--   Show, for an audit, that every users_shadow field whose key
+--   was destroyed cannot be decrypted any more, and that every
+--   field on a live key still decrypts. One query over the whole
+--   shadow table with a decrypt per field runs for hours, so a
+--   verification run is cut into chunks of user_ids that workers
+--   check in parallel:
+--     - a chunk is claimed FOR UPDATE SKIP LOCKED, checked, its
+--       anomalies written and the chunk marked DONE in one
+--       transaction: a DONE chunk is the checkpoint, and a chunk
+--       whose worker died is simply PENDING again
+--     - any node may work on a RUNNING run; chunks never overlap
+--     - when no chunk is left, the run's summary is written as a
+--       canonical text report and signed (HMAC-SHA256, app key);
+--       each report names the previous report's signature
+--
+-- Per field (name, email, phone):
+--   live key (not destroyed)       ciphertext must decrypt
+--   destroyed key                  key_material must be erased
+--   key compacted (no key_store    a key_tombstones row must list it
+--     row)                         and match its digest (HMAC under
+--                                  the signing key)
+--   and the key must belong to the row's user and the field's purpose.
+--
+-- Incremental runs check only users whose shadow row was updated,
+-- or one of whose keys was destroyed or compacted, since the
+-- snapshot of the last completed run.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS erasure_verify_runs (
+  run_id              BIGSERIAL PRIMARY KEY,
+  mode                TEXT NOT NULL CHECK (mode IN ('FULL', 'INCREMENTAL')),
+  state               TEXT NOT NULL DEFAULT 'RUNNING'
+                        CHECK (state IN ('RUNNING', 'CANCELLED', 'DONE', 'FAILED')),
+  previous_run_id     BIGINT REFERENCES erasure_verify_runs(run_id),
+  since               TIMESTAMPTZ,                  -- INCREMENTAL: previous run's snapshot_at
+  snapshot_at         TIMESTAMPTZ NOT NULL DEFAULT now(),
+  chunk_size          INT NOT NULL,
+  chunks_total        INT NOT NULL DEFAULT 0,
+  rows_checked        BIGINT NOT NULL DEFAULT 0,
+  fields_empty        BIGINT NOT NULL DEFAULT 0,
+  fields_live_ok      BIGINT NOT NULL DEFAULT 0,
+  fields_destroyed_ok BIGINT NOT NULL DEFAULT 0,
+  fields_compacted_ok BIGINT NOT NULL DEFAULT 0,
+  anomalies           BIGINT NOT NULL DEFAULT 0,
+  report_text         TEXT,
+  signature           TEXT,                         -- hex HMAC-SHA256 of report_text; NULL = unsigned
+  key_fingerprint     TEXT,
+  last_error          TEXT,
+  created_at          TIMESTAMPTZ NOT NULL DEFAULT now(),
+  finished_at         TIMESTAMPTZ
+);
+
+-- one open run at a time
+CREATE UNIQUE INDEX IF NOT EXISTS uq_erasure_verify_runs_open
+  ON erasure_verify_runs((true)) WHERE state = 'RUNNING';
+
+
+-- FULL chunks are user_id ranges; INCREMENTAL chunks also list their user_ids
+CREATE TABLE IF NOT EXISTS erasure_verify_chunks (
+  run_id              BIGINT NOT NULL REFERENCES erasure_verify_runs(run_id) ON DELETE CASCADE,
+  chunk_no            INT NOT NULL,
+  from_user_id        BIGINT NOT NULL,
+  to_user_id          BIGINT NOT NULL,
+  user_ids            BIGINT[],
+  state               TEXT NOT NULL DEFAULT 'PENDING' CHECK (state IN ('PENDING', 'DONE')),
+  rows_checked        INT NOT NULL DEFAULT 0,
+  fields_empty        INT NOT NULL DEFAULT 0,
+  fields_live_ok      INT NOT NULL DEFAULT 0,
+  fields_destroyed_ok INT NOT NULL DEFAULT 0,
+  fields_compacted_ok INT NOT NULL DEFAULT 0,
+  anomalies           INT NOT NULL DEFAULT 0,
+  checked_by          TEXT,
+  done_at             TIMESTAMPTZ,
+  PRIMARY KEY (run_id, chunk_no)
+);
+
+CREATE INDEX IF NOT EXISTS idx_erasure_verify_chunks_pending
+  ON erasure_verify_chunks(run_id, chunk_no) WHERE state = 'PENDING';
+
+
+CREATE TABLE IF NOT EXISTS erasure_verify_anomalies (
+  run_id     BIGINT NOT NULL REFERENCES erasure_verify_runs(run_id) ON DELETE CASCADE,
+  user_id    BIGINT NOT NULL,
+  field      TEXT NOT NULL,
+  key_id     BIGINT,
+  kind       TEXT NOT NULL CHECK (kind IN (
+               'LIVE_UNDECRYPTABLE',      -- live key, ciphertext does not decrypt
+               'MATERIAL_NOT_ERASED',     -- key destroyed but its material is still there
+               'KEY_MISSING',             -- no key_store row and no tombstone
+               'TOMBSTONE_INVALID',       -- tombstone lists the key but fails its keyed digest
+               'KEY_MISMATCH',            -- key of another user or purpose
+               'MISSING_KEY_REF',         -- ciphertext without key_id
+               'UNKNOWN_ENC_VERSION')),
+  detail     TEXT,
+  PRIMARY KEY (run_id, user_id, field)
+);
+
+CREATE INDEX IF NOT EXISTS idx_erasure_verify_anomalies_kind ON erasure_verify_anomalies(run_id, kind, user_id);
+
+-- incremental scope: tombstones written since the last run
+CREATE INDEX IF NOT EXISTS idx_key_tombstones_compacted ON key_tombstones(compacted_at);
+
+
+-- pgp_sym_decrypt raises on a wrong key or damaged data; true if it decrypts.
+-- (The exception block costs a subtransaction per call; it runs only for
+-- fields whose key still has material.)
+CREATE OR REPLACE FUNCTION sym_decrypts(p_cipher BYTEA, p_key TEXT)
+RETURNS BOOLEAN
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  IF p_cipher IS NULL OR p_key IS NULL THEN
+    RETURN NULL;
+  END IF;
+  PERFORM pgp_sym_decrypt(p_cipher, p_key);
+  RETURN true;
+EXCEPTION WHEN OTHERS THEN
+  RETURN false;
+END;
+$$;
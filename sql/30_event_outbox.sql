@@ -0,0 +1,224 @@
+-- ============================================================
+-- Event outbox and change feed
+--
+-- Purpose:
+--   Search, warehouse and CRM must drop a subject's data once
+--   the subject's keys are destroyed. They learned of erasures
+--   by polling GET /api/admin/audit/deletion, a capped
+--   ORDER BY occurred_at DESC over deletion_audit. They now
+--   read a change feed instead (GET /api/events/feed, SSE).
+--
+-- How:
+--   1) Statement-level triggers on deletion_audit, legal_holds
+--      and backup_protection_audit write event_outbox rows in
+--      the transaction that made the change: destroy_user_keys
+--      (single and bulk), hold placement/release, and backup
+--      protection. An event exists if and only if its change
+--      committed.
+--   2) publish_outbox() gives committed events a gapless
+--      feed_seq. event_id order is not commit order (a lower
+--      event_id may commit later), so readers never page by
+--      event_id: feed_seq is assigned after commit, by one
+--      publisher at a time (advisory lock), and a reader that
+--      has seen feed_seq N has seen everything up to N.
+--   3) Each console node tails feed_seq and pushes batches to
+--      its SSE subscribers; a consumer resumes after the last
+--      feed_seq it saw (Last-Event-ID) or acked (event_consumers).
+--
+-- Events (payload is JSON):
+--   ERASURE_SUCCEEDED    user_id, keys_affected      CRYPTO_ERASE_SUCCESS
+--   ERASURE_BLOCKED      user_id, reason             CRYPTO_ERASE_BLOCKED
+--   HOLD_PLACED          hold_id, user_id            legal_holds INSERT
+--   HOLD_RELEASED        hold_id, user_id            released_at set
+--   HOLD_REINSTATED      hold_id, user_id            released_at cleared
+--   BACKUP_PROTECTED     backup_id, user_ids         PROTECT rows, per backup
+--   BACKUP_UNPROTECTED   backup_id, user_ids         UNPROTECT rows, per backup
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS event_outbox (
+  event_id      BIGSERIAL PRIMARY KEY,
+  event_type    TEXT NOT NULL CHECK (event_type IN (
+                  'ERASURE_SUCCEEDED', 'ERASURE_BLOCKED',
+                  'HOLD_PLACED', 'HOLD_RELEASED', 'HOLD_REINSTATED',
+                  'BACKUP_PROTECTED', 'BACKUP_UNPROTECTED')),
+  user_id       BIGINT,                       -- NULL for backup events
+  payload       JSONB NOT NULL,
+  created_at    TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp(),
+  feed_seq      BIGINT,                       -- NULL until published
+  published_at  TIMESTAMPTZ
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_event_outbox_feed_seq
+ON event_outbox(feed_seq) WHERE feed_seq IS NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_event_outbox_unpublished
+ON event_outbox(event_id) WHERE feed_seq IS NULL;
+
+
+-- a consumer's acknowledged position in the feed
+CREATE TABLE IF NOT EXISTS event_consumers (
+  consumer_id   TEXT PRIMARY KEY,
+  acked_seq     BIGINT NOT NULL DEFAULT 0,
+  acked_at      TIMESTAMPTZ,
+  created_at    TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+
+-- ----------------------------
+-- Triggers (statement-level: one insert per statement, not per row)
+-- ----------------------------
+
+-- ATTEMPT rows are followed by SUCCESS or BLOCKED in the same call
+CREATE OR REPLACE FUNCTION trg_deletion_audit_outbox()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  INSERT INTO event_outbox(event_type, user_id, payload)
+  SELECT CASE n.action WHEN 'CRYPTO_ERASE_SUCCESS' THEN 'ERASURE_SUCCEEDED' ELSE 'ERASURE_BLOCKED' END,
+         n.user_id,
+         jsonb_build_object('user_id', n.user_id,
+                            'audit_id', n.audit_id,
+                            'keys_affected', n.keys_affected,
+                            'legal_hold_active', n.legal_hold_active,
+                            'reason', n.reason,
+                            'occurred_at', n.occurred_at)
+  FROM new_rows n
+  WHERE n.action IN ('CRYPTO_ERASE_SUCCESS', 'CRYPTO_ERASE_BLOCKED')
+  ORDER BY n.audit_id;
+
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS deletion_audit_outbox ON deletion_audit;
+
+CREATE TRIGGER deletion_audit_outbox
+AFTER INSERT ON deletion_audit
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_deletion_audit_outbox();
+
+
+CREATE OR REPLACE FUNCTION trg_legal_holds_outbox_insert()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  INSERT INTO event_outbox(event_type, user_id, payload)
+  SELECT 'HOLD_PLACED', n.user_id,
+         jsonb_build_object('hold_id', n.hold_id,
+                            'user_id', n.user_id,
+                            'hold_reason', n.hold_reason,
+                            'created_at', n.created_at)
+  FROM new_holds n
+  WHERE n.released_at IS NULL
+  ORDER BY n.hold_id;
+
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS legal_holds_outbox_insert ON legal_holds;
+
+CREATE TRIGGER legal_holds_outbox_insert
+AFTER INSERT ON legal_holds
+REFERENCING NEW TABLE AS new_holds
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_legal_holds_outbox_insert();
+
+
+CREATE OR REPLACE FUNCTION trg_legal_holds_outbox_update()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  INSERT INTO event_outbox(event_type, user_id, payload)
+  SELECT CASE WHEN n.released_at IS NOT NULL THEN 'HOLD_RELEASED' ELSE 'HOLD_REINSTATED' END,
+         n.user_id,
+         jsonb_build_object('hold_id', n.hold_id,
+                            'user_id', n.user_id,
+                            'hold_reason', n.hold_reason,
+                            'released_at', n.released_at)
+  FROM new_holds n
+  JOIN old_holds o ON o.hold_id = n.hold_id
+  WHERE (o.released_at IS NULL) <> (n.released_at IS NULL)
+  ORDER BY n.hold_id;
+
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS legal_holds_outbox_update ON legal_holds;
+
+CREATE TRIGGER legal_holds_outbox_update
+AFTER UPDATE ON legal_holds
+REFERENCING OLD TABLE AS old_holds NEW TABLE AS new_holds
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_legal_holds_outbox_update();
+
+
+-- one event per backup and action: a protection sweep writes thousands of rows
+CREATE OR REPLACE FUNCTION trg_backup_protection_audit_outbox()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  INSERT INTO event_outbox(event_type, payload)
+  SELECT CASE n.action WHEN 'PROTECT' THEN 'BACKUP_PROTECTED' ELSE 'BACKUP_UNPROTECTED' END,
+         jsonb_build_object('backup_id', n.backup_id,
+                            'user_ids', array_agg(DISTINCT n.user_id),
+                            'hold_ids', coalesce(array_agg(DISTINCT n.hold_id)
+                                                   FILTER (WHERE n.hold_id IS NOT NULL), '{}'),
+                            'reason', min(n.reason))
+  FROM new_rows n
+  GROUP BY n.backup_id, n.action
+  ORDER BY n.backup_id, n.action;
+
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS backup_protection_audit_outbox ON backup_protection_audit;
+
+CREATE TRIGGER backup_protection_audit_outbox
+AFTER INSERT ON backup_protection_audit
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION trg_backup_protection_audit_outbox();
+
+
+-- ----------------------------
+-- Publishing
+-- ----------------------------
+
+-- Numbers up to p_limit committed events; returns them (empty if another
+-- publisher holds the lock). Run in its own short transaction.
+CREATE OR REPLACE FUNCTION publish_outbox(p_limit INT)
+RETURNS TABLE(feed_seq BIGINT, created_at TIMESTAMPTZ)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_head  BIGINT;
+BEGIN
+  IF NOT pg_try_advisory_xact_lock(hashtext('event_outbox_publish')) THEN
+    RETURN;
+  END IF;
+
+  SELECT coalesce(max(o.feed_seq), 0) INTO v_head FROM event_outbox o WHERE o.feed_seq IS NOT NULL;
+
+  RETURN QUERY
+  WITH ready AS (
+    SELECT o.event_id, v_head + row_number() OVER (ORDER BY o.event_id) AS seq
+    FROM event_outbox o
+    WHERE o.feed_seq IS NULL
+    ORDER BY o.event_id
+    LIMIT p_limit
+  )
+  UPDATE event_outbox o
+  SET feed_seq = r.seq, published_at = clock_timestamp()
+  FROM ready r
+  WHERE o.event_id = r.event_id
+  RETURNING o.feed_seq, o.created_at;
+END;
+$$;
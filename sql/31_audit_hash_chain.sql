@@ -0,0 +1,390 @@
+-- ============================================================
+-- Tamper-evident audit tables: hash chain + Merkle blocks
+--
+-- Purpose:
+--   deletion_audit is meant to be an append-only evidentiary
+--   record (08_deletion_audit.sql), but nothing stopped an
+--   UPDATE or DELETE, and nothing would show one afterwards.
+--   Here both audit tables are
+--     - append-only: UPDATE, DELETE and TRUNCATE (of the table or
+--       any partition) raise, except the one update that seals a
+--       row. Partition maintenance moving rows out of the default
+--       partition disables the trigger on that partition for its
+--       own transaction (owner only; the lock it takes holds every
+--       other writer off until commit). Retention detaches and
+--       drops whole months (owner DDL, logged below)
+--     - hash-chained: every row gets seal_seq, row_hash and
+--       chain_hash = H(previous chain_hash, row_hash)
+--     - checkpointed: every block-size sealed rows form a block
+--       whose Merkle root, first/last chain hash and the previous
+--       block's hash are stored in audit_seal_blocks; block_hash
+--       chains the blocks
+--
+-- Sealing is batched and off the write path: inserts are not
+-- touched (an erasure's transaction writes its audit rows as
+-- before). The console seals committed, unsealed rows in
+-- audit_id order a batch at a time, one sealer per table
+-- (advisory lock), hashing in the application. Seal order, not
+-- audit_id, is chain order: a row that commits late is sealed
+-- later.
+--
+-- Verification (POST /api/admin/audit/{table}/verify) checks each
+-- block in a time range independently: rows present and
+-- contiguous, row hashes recomputed from the columns, chain from
+-- the block's prev_chain_hash to its last_chain_hash, Merkle
+-- root. Blocks are checked in parallel; only the block headers
+-- are walked in order. Rows sealed after the last full block
+-- (the open block) are checked by their chain.
+--
+-- Hashes (SHA-256; see AuditHashing):
+--   row_hash    H(0x00 || table || canonical columns)
+--   chain_hash  H(0x02 || previous chain_hash || row_hash)
+--   Merkle      node H(0x01 || left || right); an odd node is
+--               carried up unchanged
+--   block_hash  H(0x03 || table || block_no || first/last seq ||
+--                 prev block_hash || prev/last chain_hash || root)
+-- Rewriting a row together with every hash after it is only
+-- caught against a copy of the head block_hash kept elsewhere;
+-- GET /api/admin/audit/{table}/seal returns it.
+--
+-- Detached (archived) months leave the live tables. Archiving
+-- records how many of each block's rows it took
+-- (audit_archive_blocks). A block is reported ARCHIVED only when
+-- none of its rows are left and its whole occurred_at span lies in
+-- detached months; a block partly in them has its remaining rows
+-- checked (row hashes, chain links between adjacent rows) and must
+-- account for every other row as archived. audit_seal_blocks,
+-- audit_archive_log (except marking a month dropped) and
+-- audit_archive_blocks are append-only as well.
+-- ============================================================
+
+ALTER TABLE deletion_audit
+  ADD COLUMN IF NOT EXISTS seal_seq    BIGINT,
+  ADD COLUMN IF NOT EXISTS row_hash    BYTEA,
+  ADD COLUMN IF NOT EXISTS chain_hash  BYTEA;
+
+ALTER TABLE backup_protection_audit
+  ADD COLUMN IF NOT EXISTS seal_seq    BIGINT,
+  ADD COLUMN IF NOT EXISTS row_hash    BYTEA,
+  ADD COLUMN IF NOT EXISTS chain_hash  BYTEA;
+
+-- block reads (sealed) and the sealer's queue (unsealed, small)
+CREATE INDEX IF NOT EXISTS idx_deletion_audit_seal_seq
+ON deletion_audit(seal_seq) WHERE seal_seq IS NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_deletion_audit_unsealed
+ON deletion_audit(audit_id) WHERE seal_seq IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_backup_protection_audit_seal_seq
+ON backup_protection_audit(seal_seq) WHERE seal_seq IS NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_backup_protection_audit_unsealed
+ON backup_protection_audit(audit_id) WHERE seal_seq IS NULL;
+
+
+-- Where each table's chain stands. block_* describe the last closed block.
+CREATE TABLE IF NOT EXISTS audit_seal_state (
+  source_table      TEXT PRIMARY KEY CHECK (source_table IN ('deletion_audit', 'backup_protection_audit')),
+  last_seq          BIGINT NOT NULL DEFAULT 0,
+  last_chain_hash   BYTEA NOT NULL DEFAULT decode(repeat('00', 32), 'hex'),
+  block_no          BIGINT NOT NULL DEFAULT 0,
+  block_last_seq    BIGINT NOT NULL DEFAULT 0,
+  block_chain_hash  BYTEA NOT NULL DEFAULT decode(repeat('00', 32), 'hex'),
+  block_hash        BYTEA NOT NULL DEFAULT decode(repeat('00', 32), 'hex'),
+  sealed_at         TIMESTAMPTZ
+);
+
+INSERT INTO audit_seal_state(source_table)
+VALUES ('deletion_audit'), ('backup_protection_audit')
+ON CONFLICT (source_table) DO NOTHING;
+
+
+CREATE TABLE IF NOT EXISTS audit_seal_blocks (
+  source_table     TEXT NOT NULL,
+  block_no         BIGINT NOT NULL,              -- from 1
+  first_seq        BIGINT NOT NULL,
+  last_seq         BIGINT NOT NULL,
+  min_occurred_at  TIMESTAMPTZ NOT NULL,
+  max_occurred_at  TIMESTAMPTZ NOT NULL,
+  prev_chain_hash  BYTEA NOT NULL,               -- chain_hash of first_seq - 1
+  last_chain_hash  BYTEA NOT NULL,
+  merkle_root      BYTEA NOT NULL,
+  prev_block_hash  BYTEA NOT NULL,
+  block_hash       BYTEA NOT NULL,
+  sealed_at        TIMESTAMPTZ NOT NULL DEFAULT now(),
+  PRIMARY KEY (source_table, block_no)
+);
+
+CREATE INDEX IF NOT EXISTS idx_audit_seal_blocks_time
+ON audit_seal_blocks(source_table, max_occurred_at);
+
+
+CREATE TABLE IF NOT EXISTS audit_seal_verifications (
+  verify_id        BIGSERIAL PRIMARY KEY,
+  source_table     TEXT NOT NULL,
+  range_from       TIMESTAMPTZ NOT NULL,
+  range_to         TIMESTAMPTZ NOT NULL,
+  blocks_checked   INT NOT NULL,
+  blocks_archived  INT NOT NULL,
+  blocks_partly_archived INT NOT NULL DEFAULT 0,
+  rows_checked     BIGINT NOT NULL,
+  failures         INT NOT NULL,
+  failed_blocks    BIGINT[] NOT NULL DEFAULT '{}',  -- 0 = the open block
+  head_block_no    BIGINT NOT NULL,
+  head_block_hash  BYTEA NOT NULL,
+  threads          INT NOT NULL,
+  elapsed_ms       BIGINT NOT NULL,
+  verified_at      TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+
+-- ----------------------------
+-- Append-only
+-- ----------------------------
+
+-- Row-level on the partitioned roots (cloned to every partition). The only update
+-- allowed sets the seal columns of an unsealed row and changes nothing else.
+CREATE OR REPLACE FUNCTION trg_audit_append_only()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  IF TG_OP = 'DELETE' THEN
+    RAISE EXCEPTION '% is append-only: audit_id % cannot be deleted', TG_TABLE_NAME, OLD.audit_id;
+  END IF;
+
+  IF OLD.seal_seq IS NULL AND NEW.seal_seq IS NOT NULL
+     AND to_jsonb(NEW) - ARRAY['seal_seq', 'row_hash', 'chain_hash']
+       = to_jsonb(OLD) - ARRAY['seal_seq', 'row_hash', 'chain_hash'] THEN
+    RETURN NEW;
+  END IF;
+  RAISE EXCEPTION '% is append-only: audit_id % cannot be updated', TG_TABLE_NAME, OLD.audit_id;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS deletion_audit_append_only ON deletion_audit;
+
+CREATE TRIGGER deletion_audit_append_only
+BEFORE UPDATE OR DELETE ON deletion_audit
+FOR EACH ROW
+EXECUTE FUNCTION trg_audit_append_only();
+
+DROP TRIGGER IF EXISTS backup_protection_audit_append_only ON backup_protection_audit;
+
+CREATE TRIGGER backup_protection_audit_append_only
+BEFORE UPDATE OR DELETE ON backup_protection_audit
+FOR EACH ROW
+EXECUTE FUNCTION trg_audit_append_only();
+
+
+CREATE OR REPLACE FUNCTION trg_audit_seal_blocks_immutable()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  RAISE EXCEPTION 'audit_seal_blocks is append-only: block % of % cannot be changed', OLD.block_no, OLD.source_table;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS audit_seal_blocks_immutable ON audit_seal_blocks;
+
+CREATE TRIGGER audit_seal_blocks_immutable
+BEFORE UPDATE OR DELETE ON audit_seal_blocks
+FOR EACH ROW
+EXECUTE FUNCTION trg_audit_seal_blocks_immutable();
+
+
+-- The only change to an archive record is marking its month dropped
+-- (drop_archived_audit_partitions).
+CREATE OR REPLACE FUNCTION trg_audit_archive_log_append_only()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  IF TG_OP = 'UPDATE' AND OLD.dropped_at IS NULL AND NEW.dropped_at IS NOT NULL
+     AND to_jsonb(NEW) - 'dropped_at' = to_jsonb(OLD) - 'dropped_at' THEN
+    RETURN NEW;
+  END IF;
+  RAISE EXCEPTION 'audit_archive_log is append-only: archive % cannot be changed', OLD.archive_id;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS audit_archive_log_append_only ON audit_archive_log;
+
+CREATE TRIGGER audit_archive_log_append_only
+BEFORE UPDATE OR DELETE ON audit_archive_log
+FOR EACH ROW
+EXECUTE FUNCTION trg_audit_archive_log_append_only();
+
+
+-- Per archived month, how many rows of each closed block it took. Verification
+-- counts these as accounted for; any other missing row of the block is a failure.
+CREATE TABLE IF NOT EXISTS audit_archive_blocks (
+  archive_id  BIGINT NOT NULL REFERENCES audit_archive_log(archive_id),
+  block_no    BIGINT NOT NULL,
+  row_count   BIGINT NOT NULL,
+  PRIMARY KEY (archive_id, block_no)
+);
+
+CREATE OR REPLACE FUNCTION trg_audit_archive_blocks_immutable()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  RAISE EXCEPTION 'audit_archive_blocks is append-only: block % of archive % cannot be changed',
+    OLD.block_no, OLD.archive_id;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS audit_archive_blocks_immutable ON audit_archive_blocks;
+
+CREATE TRIGGER audit_archive_blocks_immutable
+BEFORE UPDATE OR DELETE ON audit_archive_blocks
+FOR EACH ROW
+EXECUTE FUNCTION trg_audit_archive_blocks_immutable();
+
+
+-- TRUNCATE skips row triggers, so every protected table gets a statement trigger
+-- as well. A partition is a table of its own (TRUNCATE on it does not reach the
+-- parent's trigger): each one gets it too, the existing ones here and new ones in
+-- ensure_audit_partitions. Tests and benchmarks reset the tables with
+-- session_replication_role = replica, which skips these triggers.
+CREATE OR REPLACE FUNCTION trg_audit_no_truncate()
+RETURNS TRIGGER
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  RAISE EXCEPTION '% is append-only: it cannot be truncated', TG_TABLE_NAME;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION audit_guard_truncate(p_table TEXT)
+RETURNS VOID
+LANGUAGE plpgsql
+AS $$
+BEGIN
+  EXECUTE format('DROP TRIGGER IF EXISTS audit_no_truncate ON %I', p_table);
+  EXECUTE format('CREATE TRIGGER audit_no_truncate BEFORE TRUNCATE ON %I '
+                 'FOR EACH STATEMENT EXECUTE FUNCTION trg_audit_no_truncate()', p_table);
+END;
+$$;
+
+SELECT audit_guard_truncate(t)
+FROM unnest(ARRAY['deletion_audit', 'backup_protection_audit', 'audit_seal_blocks',
+                  'audit_archive_log', 'audit_archive_blocks']) AS t;
+
+SELECT audit_guard_truncate(c.relname)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent IN ('deletion_audit'::regclass, 'backup_protection_audit'::regclass);
+
+
+-- ensure_audit_partitions (24_audit_partitioning.sql) moves rows out of the
+-- default partition with DELETE ... RETURNING; the rows, seal columns included,
+-- arrive unchanged in the new partition. Same function, with the append-only
+-- trigger disabled on the default partition around the move and the TRUNCATE
+-- guard on the new partition. ALTER TABLE needs
+-- ownership and its SHARE ROW EXCLUSIVE lock is held until commit, so no other
+-- session can delete while the trigger is off.
+CREATE OR REPLACE FUNCTION ensure_audit_partitions(p_table TEXT, p_from DATE, p_to DATE)
+RETURNS INT
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_month   DATE := date_trunc('month', p_from)::DATE;
+  v_lo      TIMESTAMPTZ;
+  v_hi      TIMESTAMPTZ;
+  v_name    TEXT;
+  v_created INT := 0;
+BEGIN
+  PERFORM audit_table_check(p_table);
+  WHILE v_month <= p_to LOOP
+    v_lo := v_month::TIMESTAMP AT TIME ZONE 'UTC';
+    v_hi := (v_month + interval '1 month')::TIMESTAMP AT TIME ZONE 'UTC';
+    v_name := p_table || '_p' || to_char(v_month, 'YYYYMM');
+    IF to_regclass(v_name) IS NULL THEN
+      EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', v_name, p_table);
+      PERFORM audit_guard_truncate(v_name);
+      EXECUTE format('ALTER TABLE %I DISABLE TRIGGER %I', p_table || '_pdefault', p_table || '_append_only');
+      EXECUTE format(
+        'WITH moved AS (DELETE FROM %I WHERE occurred_at >= %L AND occurred_at < %L RETURNING *) '
+        'INSERT INTO %I SELECT * FROM moved',
+        p_table || '_pdefault', v_lo, v_hi, v_name);
+      EXECUTE format('ALTER TABLE %I ENABLE TRIGGER %I', p_table || '_pdefault', p_table || '_append_only');
+      EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                     p_table, v_name, v_lo, v_hi);
+      v_created := v_created + 1;
+    END IF;
+    v_month := (v_month + interval '1 month')::DATE;
+  END LOOP;
+  RETURN v_created;
+END;
+$$;
+
+
+-- archive_audit_partitions (24_audit_partitioning.sql), also recording how many
+-- rows of each closed block the archived month took (audit_archive_blocks).
+-- Sealed rows of the still open block are not recorded: a month is archived
+-- years after its rows were sealed.
+CREATE INDEX IF NOT EXISTS idx_audit_seal_blocks_seq
+ON audit_seal_blocks(source_table, last_seq);
+
+CREATE OR REPLACE FUNCTION archive_audit_partitions(p_table TEXT, p_keep_months INT, p_limit INT)
+RETURNS TABLE(partition_name TEXT, range_from TIMESTAMPTZ, range_to TIMESTAMPTZ, row_count BIGINT)
+LANGUAGE plpgsql
+AS $$
+DECLARE
+  v_cutoff  DATE;
+  r         RECORD;
+  v_rows    BIGINT;
+  v_min_id  BIGINT;
+  v_max_id  BIGINT;
+  v_min_seq BIGINT;
+  v_max_seq BIGINT;
+  v_archive BIGINT;
+BEGIN
+  PERFORM audit_table_check(p_table);
+  IF p_keep_months < 1 THEN
+    RAISE EXCEPTION 'keep at least one month of %', p_table;
+  END IF;
+  v_cutoff := (date_trunc('month', now() AT TIME ZONE 'UTC') - make_interval(months => p_keep_months))::DATE;
+
+  FOR r IN
+    SELECT c.relname, to_date(right(c.relname, 6), 'YYYYMM') AS m
+    FROM pg_inherits i
+    JOIN pg_class c ON c.oid = i.inhrelid
+    WHERE i.inhparent = p_table::regclass
+      AND c.relname ~ ('^' || p_table || '_p[0-9]{6}$')
+      AND to_date(right(c.relname, 6), 'YYYYMM') < v_cutoff
+    ORDER BY 2
+    LIMIT p_limit
+  LOOP
+    EXECUTE format('SELECT count(*), min(audit_id), max(audit_id), min(seal_seq), max(seal_seq) FROM %I',
+                   r.relname)
+      INTO v_rows, v_min_id, v_max_id, v_min_seq, v_max_seq;
+    EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', p_table, r.relname);
+    EXECUTE format('ALTER TABLE %I SET SCHEMA audit_archive', r.relname);
+
+    partition_name := r.relname;
+    range_from := r.m::TIMESTAMP AT TIME ZONE 'UTC';
+    range_to := (r.m + interval '1 month')::TIMESTAMP AT TIME ZONE 'UTC';
+    row_count := v_rows;
+    INSERT INTO audit_archive_log(source_table, partition_name, range_from, range_to, row_count,
+                                  min_audit_id, max_audit_id)
+    VALUES (p_table, r.relname, range_from, range_to, v_rows, v_min_id, v_max_id)
+    RETURNING archive_id INTO v_archive;
+
+    IF v_min_seq IS NOT NULL THEN
+      EXECUTE format(
+        'INSERT INTO audit_archive_blocks(archive_id, block_no, row_count) '
+        'SELECT %s, b.block_no, n.c '
+        'FROM audit_seal_blocks b '
+        'CROSS JOIN LATERAL (SELECT count(*) AS c FROM audit_archive.%I p '
+        '                    WHERE p.seal_seq BETWEEN b.first_seq AND b.last_seq) n '
+        'WHERE b.source_table = %L AND b.last_seq >= %s AND b.first_seq <= %s AND n.c > 0',
+        v_archive, r.relname, p_table, v_min_seq, v_max_seq);
+    END IF;
+    RETURN NEXT;
+  END LOOP;
+END;
+$$;
@@ -0,0 +1,39 @@
+-- ============================================================
+-- Synthetic audit data for export benchmarks (NOT for production)
+--
+-- Usage (psql):
+--   \set rows 10000000
+--   \i sql/bench/audit_synthetic.sql
+--
+-- Appends :rows deletion_audit rows spread over the last 365 days
+-- across 2M user_ids, in the same ATTEMPT / BLOCKED / SUCCESS mix
+-- the erasure functions write, then ANALYZEs the table. The
+-- monthly partitions for that year are created first
+-- (24_audit_partitioning.sql), so no row lands in the default.
+--
+-- The insert runs with session_replication_role = replica (needs
+-- a superuser), so the change-feed triggers (30_event_outbox.sql)
+-- do not turn the load into :rows outbox events. The rows are
+-- unsealed; the console's sealer (31_audit_hash_chain.sql) or
+-- POST /api/admin/audit/deletion/seal chains them.
+-- ============================================================
+
+SELECT ensure_audit_partitions('deletion_audit', (CURRENT_DATE - 366), CURRENT_DATE);
+
+SET session_replication_role = replica;
+
+INSERT INTO deletion_audit(user_id, action, reason, legal_hold_active, keys_affected, occurred_at)
+SELECT
+  1 + (g % 2000000),
+  CASE WHEN g % 10 = 0 THEN 'CRYPTO_ERASE_BLOCKED'
+       WHEN g % 2 = 0  THEN 'CRYPTO_ERASE_ATTEMPT'
+       ELSE 'CRYPTO_ERASE_SUCCESS' END,
+  CASE WHEN g % 10 = 0 THEN 'Active legal hold' ELSE 'ALL' END,
+  g % 10 = 0,
+  CASE WHEN g % 2 = 1 THEN 3 ELSE 0 END,
+  now() - interval '365 days' + (g::double precision / :rows) * interval '365 days'
+FROM generate_series(1, :rows) AS g;
+
+RESET session_replication_role;
+
+ANALYZE deletion_audit;
@@ -0,0 +1,57 @@
+-- ============================================================
+-- Synthetic key_store data for partitioning / compaction sizing
+-- (NOT for production; needs 23_key_store_partitioning.sql)
+--
+-- Usage (psql):
+--   \set rows 500000000
+--   \set months 24
+--   \set destroyed_pct 30
+--   \i sql/bench/key_store_synthetic.sql
+--
+-- Appends :rows keys in daily buckets over the :months months
+-- before the current one (three purposes per user per day, user_ids
+-- from 1000000001 up so they cannot meet seeded users). Every key of
+-- a user with (user_id % 100) < :destroyed_pct is destroyed a day
+-- after its bucket, the way an erasure leaves them. key_ids are
+-- taken from key_store_key_seq in one block, in the bucket layout.
+--
+-- 500M rows is one long transaction and needs the partitions' full
+-- size in WAL; on a small box load it in slices of the same
+-- :rows / :months (the user_ids repeat per slice, so use a fresh
+-- database per size).
+-- ============================================================
+
+SELECT nextval('key_store_key_seq') AS key_base,
+       (date_trunc('month', CURRENT_DATE) - make_interval(months => :months))::date AS first_bucket,
+       (date_trunc('month', CURRENT_DATE)::date
+         - (date_trunc('month', CURRENT_DATE) - make_interval(months => :months))::date) AS days
+\gset
+
+SELECT ensure_key_store_partitions(:'first_bucket'::date, CURRENT_DATE);
+
+INSERT INTO key_store(key_id, user_id, purpose, bucket_date, key_material, created_at, destroyed_at)
+SELECT
+  key_id_for_bucket(k.bucket, :key_base + k.g),
+  k.user_id,
+  (ARRAY['name', 'email', 'phone'])[1 + k.r % 3],
+  k.bucket,
+  CASE WHEN k.destroyed THEN 'DESTROYED'
+       ELSE encode(sha256(k.g::text::bytea), 'base64') END,
+  k.bucket::timestamptz,
+  CASE WHEN k.destroyed THEN k.bucket::timestamptz + interval '1 day' END
+FROM (
+  SELECT g,
+         r,
+         1000000001 + r / 3 AS user_id,
+         (:'first_bucket'::date + (g / per_day)::int) AS bucket,
+         ((1000000001 + r / 3) % 100) < :destroyed_pct AS destroyed
+  FROM (
+    SELECT g, g % per_day AS r, per_day
+    FROM (SELECT ceil(:rows::numeric / :days)::bigint AS per_day) p,
+         generate_series(0, :rows - 1) AS g
+  ) s
+) k;
+
+SELECT setval('key_store_key_seq', :key_base + :rows);
+
+ANALYZE key_store;